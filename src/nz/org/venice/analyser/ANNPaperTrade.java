@@ -18,18 +18,15 @@
 
 package nz.org.venice.analyser;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import nz.org.venice.analyser.ann.ArtificialNeuralNetwork;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
-import nz.org.venice.parser.ExpressionFactory;
 import nz.org.venice.parser.ImplicitVariables;
 import nz.org.venice.parser.Variables;
 import nz.org.venice.portfolio.Portfolio;
-import nz.org.venice.portfolio.StockHolding;
 import nz.org.venice.quote.EODQuoteBundle;
 import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.IQuote;
@@ -109,11 +106,10 @@ public class ANNPaperTrade extends PaperTrade {
 			ArtificialNeuralNetwork artificialNeuralNetwork) throws EvaluationException {
 
 		// Iterate through our stock holdings and see if we should sell any
-		List stockHoldings = new ArrayList(environment.shareAccount.getStockHoldings().values());
+		Symbol[] stockHoldings = environment.ledger.getHoldings();
 
-		for (Iterator iterator = stockHoldings.iterator(); iterator.hasNext();) {
-			StockHolding stockHolding = (StockHolding) iterator.next();
-			Symbol symbol = stockHolding.getSymbol();
+		for (int i = 0; i < stockHoldings.length; i++) {
+			Symbol symbol = stockHoldings[i];
 
 			// If we care about the order, make sure the "order" variable is set.
 			if (orderCache.isOrdered()) {
@@ -126,8 +122,8 @@ public class ANNPaperTrade extends PaperTrade {
 				variables.setValue("order", order);
 			}
 
-			variables.setValue("held", getHoldingTime(environment, stockHolding, dateOffset));
-			variables.setValue("stockcapital", getStockCapital(environment, stockHolding, symbol, dateOffset));
+			variables.setValue("held", getHoldingTime(environment, symbol, dateOffset));
+			variables.setValue("stockcapital", getStockCapital(environment, symbol, dateOffset));
 
 			try {
 				// Generate the input array of doubles according to the input expressions
@@ -142,9 +138,8 @@ public class ANNPaperTrade extends PaperTrade {
 				// set tradeValueWanted = 0 and sell at open price.
 				double tradeValueWanted = 0;
 				if (!environment.tradeValueSell.equals("open")) {
-					IExpression tradeValueSellExpression = ExpressionFactory.newExpression(environment.tradeValueSell);
-					tradeValueWanted = tradeValueSellExpression.evaluate(variables, environment.quoteBundle, symbol,
-							dateOffset);
+					tradeValueWanted = environment.tradeValueSellExpression.evaluate(variables,
+							environment.quoteBundle, symbol, dateOffset);
 				}
 
 				// If you want to buy the stock, do not sell it.
@@ -154,7 +149,7 @@ public class ANNPaperTrade extends PaperTrade {
 
 						// Did we have enough money to buy at least one share?
 						// Will the stock reach the price wanted (tradeValueWanted)?
-						sell(environment, variables, stockHolding, tradeCost, tradeValueWanted, dateOffset + 1);
+						sell(environment, variables, symbol, tradeCost, tradeValueWanted, dateOffset + 1);
 					}
 				}
 			} catch (MissingQuoteException e) {
@@ -189,7 +184,7 @@ public class ANNPaperTrade extends PaperTrade {
 
 		// If we have enough money, iterate through stocks available today -
 		// should we buy any of it?
-		Money cash = environment.cashAccount.getValue();
+		Money cash = environment.ledger.getCash();
 
 		if (stockValue.add(tradeCost.multiply(2)).isLessThanEqual(cash)) {
 			int order = 0;
@@ -199,7 +194,7 @@ public class ANNPaperTrade extends PaperTrade {
 				Symbol symbol = (Symbol) iterator.next();
 
 				// Skip if we already own it
-				if (!environment.shareAccount.isHolding(symbol)) {
+				if (!environment.ledger.isHolding(symbol)) {
 
 					// If we care about the order, make sure the "order" variable is set
 					if (orderCache.isOrdered())
@@ -211,9 +206,8 @@ public class ANNPaperTrade extends PaperTrade {
 					// set tradeValueWanted = 0 and buy at open price.
 					double tradeValueWanted = 0;
 					if (!environment.tradeValueBuy.equals("open")) {
-						IExpression tradeValueBuyExpression = ExpressionFactory.newExpression(environment.tradeValueBuy);
-						tradeValueWanted = tradeValueBuyExpression.evaluate(variables, environment.quoteBundle, symbol,
-								dateOffset);
+						tradeValueWanted = environment.tradeValueBuyExpression.evaluate(variables,
+								environment.quoteBundle, symbol, dateOffset);
 					}
 
 					try {
@@ -234,7 +228,7 @@ public class ANNPaperTrade extends PaperTrade {
 
 								// If there is no more money left, don't even look at the
 								// other stocks
-								cash = environment.cashAccount.getValue();
+								cash = environment.ledger.getCash();
 
 								if (stockValue.add(tradeCost.multiply(2)).isGreaterThan(cash))
 									break;
@@ -308,10 +302,10 @@ public class ANNPaperTrade extends PaperTrade {
 			variables.setValue("daysfromstart", daysRest + dateOffset);
 
 			// Set the value of the number of transactions done until now
-			variables.setValue("transactions", environment.portfolio.countTransactions());
+			variables.setValue("transactions", environment.ledger.countTransactions());
 
 			// Set the value of actual capital
-			variables.setValue("capital", getCapital(environment.portfolio, environment.quoteBundle, dateOffset));
+			variables.setValue("capital", getCapital(environment.ledger, dateOffset));
 
 			// Get all the (ordered) symbols that we can trade for today and
 			// that we have quotes for.
@@ -329,7 +323,7 @@ public class ANNPaperTrade extends PaperTrade {
 		setTip(environment, quoteBundle, variables, dateOffset, tradeCost, orderCache.getTodaySymbols(dateOffset),
 				orderCache, inputExpressions, artificialNeuralNetwork);
 
-		return environment.portfolio;
+		return environment.ledger.toPortfolio();
 	}
 
 	/**
@@ -398,10 +392,10 @@ public class ANNPaperTrade extends PaperTrade {
 			variables.setValue("daysfromstart", daysRest + dateOffset);
 
 			// Set the value of the number of transactions done until now
-			variables.setValue("transactions", environment.portfolio.countTransactions());
+			variables.setValue("transactions", environment.ledger.countTransactions());
 
 			// Set the value of actual capital
-			variables.setValue("capital", getCapital(environment.portfolio, environment.quoteBundle, dateOffset));
+			variables.setValue("capital", getCapital(environment.ledger, dateOffset));
 
 			// Get all the (ordered) symbols that we can trade for today and
 			// that we have quotes for.
@@ -498,10 +492,10 @@ public class ANNPaperTrade extends PaperTrade {
 			variables.setValue("daysfromstart", daysRest + dateOffset);
 
 			// Set the value of the number of transactions done until now
-			variables.setValue("transactions", environment.portfolio.countTransactions());
+			variables.setValue("transactions", environment.ledger.countTransactions());
 
 			// Set the value of actual capital
-			variables.setValue("capital", getCapital(environment.portfolio, environment.quoteBundle, dateOffset));
+			variables.setValue("capital", getCapital(environment.ledger, dateOffset));
 
 			// Get all the (ordered) symbols that we can trade for today and
 			// that we have quotes for.
@@ -511,7 +505,7 @@ public class ANNPaperTrade extends PaperTrade {
 			Money stockValue = new Money(0);
 			try {
 				// stockValue = (portfolio / numberStocks) - (2 * tradeCost)
-				Money portfolioValue = environment.portfolio.getValue(quoteBundle, dateOffset);
+				Money portfolioValue = environment.ledger.getValue(dateOffset);
 				stockValue = portfolioValue.divide(numberStocks).subtract(tradeCost.multiply(2));
 			} catch (MissingQuoteException e) {
 				// Ignore and move on
@@ -595,10 +589,10 @@ public class ANNPaperTrade extends PaperTrade {
 			variables.setValue("daysfromstart", daysRest + dateOffset);
 
 			// Set the value of the number of transactions done until now
-			variables.setValue("transactions", environment.portfolio.countTransactions());
+			variables.setValue("transactions", environment.ledger.countTransactions());
 
 			// Set the value of actual capital
-			variables.setValue("capital", getCapital(environment.portfolio, environment.quoteBundle, dateOffset));
+			variables.setValue("capital", getCapital(environment.ledger, dateOffset));
 
 			// Get all the (ordered) symbols that we can trade for today and
 			// that we have quotes for.
@@ -608,7 +602,7 @@ public class ANNPaperTrade extends PaperTrade {
 					inputExpressions, artificialNeuralNetwork);
 			try {
 				// stockValue = (portfolio / numberStocks) - (2 * tradeCost)
-				Money portfolioValue = environment.portfolio.getValue(quoteBundle, dateOffset);
+				Money portfolioValue = environment.ledger.getValue(dateOffset);
 				Money stockValue = portfolioValue.divide(numberStocks).subtract(tradeCost.multiply(2));
 				buyTrades(environment, quoteBundle, variables, dateOffset, tradeCost, symbols, orderCache, stockValue,
 						inputExpressions, artificialNeuralNetwork);
@@ -623,7 +617,7 @@ public class ANNPaperTrade extends PaperTrade {
 		setTip(environment, quoteBundle, variables, dateOffset, tradeCost, orderCache.getTodaySymbols(dateOffset),
 				orderCache, inputExpressions, artificialNeuralNetwork);
 
-		return environment.portfolio;
+		return environment.ledger.toPortfolio();
 	}
 
 	/**
@@ -633,23 +627,19 @@ public class ANNPaperTrade extends PaperTrade {
 			Money tradeCost, List symbols, OrderCache orderCache, IExpression[] inputExpressions,
 			ArtificialNeuralNetwork artificialNeuralNetwork) {
 
-		symbolStock = new String[symbols.size()];
-		buyRule = new boolean[symbols.size()];
-		sellRule = new boolean[symbols.size()];
-		buyValue = new double[symbols.size()];
-		sellValue = new double[symbols.size()];
+		Tip tip = createTip(symbols.size());
 
-		setSellTip(environment, quoteBundle, variables, dateOffset, tradeCost, symbols, orderCache, inputExpressions,
-				artificialNeuralNetwork);
+		setSellTip(tip, environment, quoteBundle, variables, dateOffset, tradeCost, symbols, orderCache,
+				inputExpressions, artificialNeuralNetwork);
 
-		setBuyTip(environment, quoteBundle, variables, dateOffset, tradeCost, symbols, orderCache, inputExpressions,
-				artificialNeuralNetwork);
+		setBuyTip(tip, environment, quoteBundle, variables, dateOffset, tradeCost, symbols, orderCache,
+				inputExpressions, artificialNeuralNetwork);
 
 	}
 
-	private static void setSellTip(Environment environment, EODQuoteBundle quoteBundle, Variables variables,
-			int dateOffset, Money tradeCost, List symbols, OrderCache orderCache, IExpression[] inputExpressions,
-			ArtificialNeuralNetwork artificialNeuralNetwork) {
+	private static void setSellTip(Tip tip, Environment environment, EODQuoteBundle quoteBundle,
+			Variables variables, int dateOffset, Money tradeCost, List symbols, OrderCache orderCache,
+			IExpression[] inputExpressions, ArtificialNeuralNetwork artificialNeuralNetwork) {
 
 		// Count the sell tip for the next day
 
@@ -673,18 +663,12 @@ public class ANNPaperTrade extends PaperTrade {
 			}
 
 			// Check if the stock is hold, so that held variable is set.
-			List stockHoldings = new ArrayList(environment.shareAccount.getStockHoldings().values());
-			for (Iterator iteratorHolding = stockHoldings.iterator(); iteratorHolding.hasNext();) {
-				StockHolding stockHolding = (StockHolding) iteratorHolding.next();
-				Symbol symbolHolding = stockHolding.getSymbol();
-				if (symbolHolding.toString().equals(symbol.toString())) {
-					variables.setValue("held", getHoldingTime(environment, stockHolding, dateOffset));
-					variables.setValue("stockcapital", getStockCapital(environment, stockHolding, symbol, dateOffset));
-					break;
-				} else {
-					variables.setValue("held", 0);
-					variables.setValue("stockcapital", 0.0D);
-				}
+			if (environment.ledger.isHolding(symbol)) {
+				variables.setValue("held", getHoldingTime(environment, symbol, dateOffset));
+				variables.setValue("stockcapital", getStockCapital(environment, symbol, dateOffset));
+			} else {
+				variables.setValue("held", 0);
+				variables.setValue("stockcapital", 0.0D);
 			}
 
 			try {
@@ -696,17 +680,16 @@ public class ANNPaperTrade extends PaperTrade {
 
 				// Get if the stock must be sold
 				boolean[] sell = artificialNeuralNetwork.run(inputDoubles);
-				sellRule[index] = sell[artificialNeuralNetwork.OUTPUT_SELL];
+				tip.sellRule[index] = sell[artificialNeuralNetwork.OUTPUT_SELL];
 
 				// calculate the price wanted by user trade value expression
 				// to sell the stock (tradeValueWanted).
 				// If trade value expression is 'open', then
 				// set the price to zero (sell at open price).
-				sellValue[index] = 0;
+				tip.sellValue[index] = 0;
 				if (!environment.tradeValueSell.equals("open")) {
-					IExpression tradeValueSellExpression = ExpressionFactory.newExpression(environment.tradeValueSell);
-					sellValue[index] = tradeValueSellExpression.evaluate(variables, environment.quoteBundle, symbol,
-							dateOffset);
+					tip.sellValue[index] = environment.tradeValueSellExpression.evaluate(variables,
+							environment.quoteBundle, symbol, dateOffset);
 				}
 			} catch (EvaluationException e) {
 				// do nothing
@@ -716,9 +699,9 @@ public class ANNPaperTrade extends PaperTrade {
 		}
 	}
 
-	private static void setBuyTip(Environment environment, EODQuoteBundle quoteBundle, Variables variables,
-			int dateOffset, Money tradeCost, List symbols, OrderCache orderCache, IExpression[] inputExpressions,
-			ArtificialNeuralNetwork artificialNeuralNetwork) {
+	private static void setBuyTip(Tip tip, Environment environment, EODQuoteBundle quoteBundle,
+			Variables variables, int dateOffset, Money tradeCost, List symbols, OrderCache orderCache,
+			IExpression[] inputExpressions, ArtificialNeuralNetwork artificialNeuralNetwork) {
 
 		// Count the buy tip for the next day
 		variables.setValue("held", 0);
@@ -733,7 +716,7 @@ public class ANNPaperTrade extends PaperTrade {
 		for (Iterator iterator = symbols.iterator(); iterator.hasNext();) {
 			Symbol symbol = (Symbol) iterator.next();
 
-			symbolStock[index] = new String(symbol.get());
+			tip.symbolStock[index] = new String(symbol.get());
 
 			// If we care about the order, make sure the "order" variable is set
 			if (orderCache.isOrdered())
@@ -748,26 +731,25 @@ public class ANNPaperTrade extends PaperTrade {
 
 				// Get if the stock must be bought
 				boolean[] buy = artificialNeuralNetwork.run(inputDoubles);
-				buyRule[index] = buy[artificialNeuralNetwork.OUTPUT_BUY];
+				tip.buyRule[index] = buy[artificialNeuralNetwork.OUTPUT_BUY];
 
 				// If you own the stock and both sell and buy rule fire,
 				// you wouldn't sell it, neither would you buy it.
 				// So it is necessary set the buyRule and sellRule to false.
-				// if(environment.shareAccount.isHolding(symbol) && sellRule[index] &&
-				// buyRule[index]) {
-				// sellRule[index] = false;
-				// buyRule[index] = false;
+				// if(environment.shareAccount.isHolding(symbol) && tip.sellRule[index] &&
+				// tip.buyRule[index]) {
+				// tip.sellRule[index] = false;
+				// tip.buyRule[index] = false;
 				// }
 
 				// calculate the price wanted by user trade value expression
 				// to buy the stock (tradeValueWanted).
 				// If trade value expression is 'open', then
 				// set this price to zero (buy at open price).
-				buyValue[index] = 0;
+				tip.buyValue[index] = 0;
 				if (!environment.tradeValueBuy.equals("open")) {
-					IExpression tradeValueBuyExpression = ExpressionFactory.newExpression(environment.tradeValueBuy);
-					buyValue[index] = tradeValueBuyExpression.evaluate(variables, environment.quoteBundle, symbol,
-							dateOffset);
+					tip.buyValue[index] = environment.tradeValueBuyExpression.evaluate(variables,
+							environment.quoteBundle, symbol, dateOffset);
 				}
 			} catch (EvaluationException e) {
 				// do nothing
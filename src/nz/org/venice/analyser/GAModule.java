@@ -49,6 +49,7 @@ import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.ImplicitVariables;
 import nz.org.venice.parser.Variable;
 import nz.org.venice.parser.Variables;
+import nz.org.venice.prefs.PreferencesManager;
 import nz.org.venice.prefs.settings.AnalyserModuleSettings;
 import nz.org.venice.prefs.settings.ISettings;
 import nz.org.venice.quote.EODQuoteBundle;
@@ -60,6 +61,9 @@ import nz.org.venice.util.TradingDate;
 
 public class GAModule extends JPanel implements IModule {
 
+	// Number of individuals created and paper traded together
+	private final static int BATCH_SIZE = 64;
+
 	private PropertyChangeSupport propertySupport;
 	private JDesktopPane desktop;
 	private EODQuoteBundle quoteBundle;
@@ -315,48 +319,60 @@ public class GAModule extends JPanel implements IModule {
 			GeneticAlgorithm geneticAlgorithm = new GeneticAlgorithm(quoteBundle, orderCache, buyRule, sellRule,
 					startDate, endDate, initialCapital, stockValue, numberStocks, tradeCost, breedingPopulation,
 					tradeValueBuy, tradeValueSell, lowestGAIndividual, highestGAIndividual, variables);
+			geneticAlgorithm.setThreads(PreferencesManager.getAnalyserThreads());
 
-			for (int generation = 1; generation <= numberGenerations; generation++) {
-				if (thread.isInterrupted())
-					break;
-
-				int individual = 1;
-
-				// Keep generating more individuals until we've created the
-				// breeding population size or if the breeding population size
-				// is too small. The breeding population size can only be too
-				// small for the first generation.
-				int actualBreedingPopulation = geneticAlgorithm.getNextBreedingPopulationSize();
-				while (individual < population || actualBreedingPopulation < breedingPopulation) {
+			try {
+				for (int generation = 1; generation <= numberGenerations; generation++) {
 					if (thread.isInterrupted())
 						break;
 
-					// "Generation x of y (%)"
-					int perc = Math.min(
-							(new Double((100.0D * actualBreedingPopulation) / breedingPopulation)).intValue(),
-							(new Double((100.0D * individual) / population)).intValue());
-					progress.setNote(Locale.getString("GENERATION_OF", perc, generation, numberGenerations));
-
-					// If we are looping only to increase the breeding population size
-					// then don't update the progress counter as we didn't count this
-					// time in our estimate. Unfortunately this might look to the user
-					// like it has stalled at the end of the first generation.
-					if (individual < population)
-						progress.increment();
-
-					geneticAlgorithm.nextIndividual();
-
-					individual++;
-					actualBreedingPopulation = geneticAlgorithm.getNextBreedingPopulationSize();
+					int individual = 1;
+
+					// Keep generating more individuals until we've created the
+					// breeding population size or if the breeding population size
+					// is too small. The breeding population size can only be too
+					// small for the first generation.
+					int actualBreedingPopulation = geneticAlgorithm.getNextBreedingPopulationSize();
+					while (individual < population || actualBreedingPopulation < breedingPopulation) {
+						if (thread.isInterrupted())
+							break;
+
+						// "Generation x of y (%)"
+						int perc = Math.min(
+								(new Double((100.0D * actualBreedingPopulation) / breedingPopulation)).intValue(),
+								(new Double((100.0D * individual) / population)).intValue());
+						progress.setNote(Locale.getString("GENERATION_OF", perc, generation, numberGenerations));
+
+						// Create a batch of individuals. If we are looping only to
+						// increase the breeding population size, then only create
+						// enough individuals to fill it.
+						int batchSize = (individual < population ? Math.min(BATCH_SIZE, population - individual)
+								: breedingPopulation - actualBreedingPopulation);
+
+						geneticAlgorithm.nextIndividuals(batchSize);
+
+						// If we are looping only to increase the breeding population size
+						// then don't update the progress counter as we didn't count this
+						// time in our estimate. Unfortunately this might look to the user
+						// like it has stalled at the end of the first generation.
+						if (individual < population)
+							progress.setProgress(progress.getProgress() + batchSize);
+
+						individual += batchSize;
+						actualBreedingPopulation = geneticAlgorithm.getNextBreedingPopulationSize();
+					}
+
+					geneticAlgorithm.nextGeneration();
+
+					// The actual breeding population size and the breeding population
+					// may be different iff the operation was cancelled
+					if (geneticAlgorithm.getBreedingPopulationSize() > 0)
+						display(getResults(geneticAlgorithm, geneticAlgorithm.getBreedingPopulationSize(),
+								displayPopulation, quoteBundle, startDate, endDate, initialCapital, tradeCost,
+								generation));
 				}
-
-				geneticAlgorithm.nextGeneration();
-
-				// The actual breeding population size and the breeding population
-				// may be different iff the operation was cancelled
-				if (geneticAlgorithm.getBreedingPopulationSize() > 0)
-					display(getResults(geneticAlgorithm, geneticAlgorithm.getBreedingPopulationSize(),
-							displayPopulation, quoteBundle, startDate, endDate, initialCapital, tradeCost, generation));
+			} finally {
+				geneticAlgorithm.shutdown();
 			}
 		}
 
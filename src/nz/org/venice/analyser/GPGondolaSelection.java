@@ -215,46 +215,80 @@ public class GPGondolaSelection extends Page implements IAnalyserPage {
 		setDefaults();
 	}
 
-	public int getRandomToGenerateFloatInteger() {
-		return GPGondolaSelectionPanel[0].getRandom();
+	public int getRandomToGenerateFloatInteger(Random random) {
+		return GPGondolaSelectionPanel[0].getRandom(random);
 	}
 
-	public int getRandomToGenerateTerminalInteger(boolean isOkLastButOne, boolean isOkLast) {
-		return GPGondolaSelectionPanel[1].getRandom(isOkLastButOne, isOkLast);
+	public int getRandomToGenerateTerminalInteger(Random random, boolean isOkLastButOne, boolean isOkLast) {
+		return GPGondolaSelectionPanel[1].getRandom(random, isOkLastButOne, isOkLast);
 	}
 
-	public int getRandomToGenerateTerminalFloat(boolean isOkLast) {
-		return GPGondolaSelectionPanel[2].getRandom(isOkLast);
+	public int getRandomToGenerateTerminalFloat(Random random, boolean isOkLast) {
+		return GPGondolaSelectionPanel[2].getRandom(random, isOkLast);
 	}
 
-	public int getRandomToGenerateFloatQuote() {
-		return GPGondolaSelectionPanel[3].getRandom();
+	public int getRandomToGenerateFloatQuote(Random random) {
+		return GPGondolaSelectionPanel[3].getRandom(random);
 	}
 
-	public int getRandomToGenerateBoolean() {
-		return GPGondolaSelectionPanel[4].getRandom();
+	public int getRandomToGenerateBoolean(Random random) {
+		return GPGondolaSelectionPanel[4].getRandom(random);
 	}
 
-	public int getRandomToGenerateFloat() {
-		return GPGondolaSelectionPanel[5].getRandom();
+	public int getRandomToGenerateFloat(Random random) {
+		return GPGondolaSelectionPanel[5].getRandom(random);
 	}
 
-	public int getRandomToGenerateInteger() {
-		return GPGondolaSelectionPanel[6].getRandom();
+	public int getRandomToGenerateInteger(Random random) {
+		return GPGondolaSelectionPanel[6].getRandom(random);
 	}
 
-	public int getRandomToGeneratePositiveShortInteger() {
-		return GPGondolaSelectionPanel[7].getRandom();
+	public int getRandomToGeneratePositiveShortInteger(Random random) {
+		return GPGondolaSelectionPanel[7].getRandom(random);
 	}
 
-	public int getRandomToGenerateNegativeShortInteger() {
-		return GPGondolaSelectionPanel[8].getRandom();
+	public int getRandomToGenerateNegativeShortInteger(Random random) {
+		return GPGondolaSelectionPanel[8].getRandom(random);
 	}
 
 	public void load(String key) {
 		// Load last GUI settings from preferences
-		HashMap settings = PreferencesManager.getAnalyserPageSettings(key + getClass().getName());
+		setSettings(PreferencesManager.getAnalyserPageSettings(key + getClass().getName()));
+	}
+
+	public void save(String key) {
+		PreferencesManager.putAnalyserPageSettings(key + getClass().getName(), getSettings());
+	}
+
+	/**
+	 * Return the values entered on this page, keyed the same way as they are
+	 * saved in the preferences.
+	 *
+	 * @return the settings
+	 */
+	public HashMap getSettings() {
+		HashMap settings = new HashMap();
+
+		GPGondolaSelectionPanel[0].save(settings, "gp_float_integer");
+		GPGondolaSelectionPanel[1].save(settings, "gp_terminal_integer");
+		GPGondolaSelectionPanel[2].save(settings, "gp_terminal_float");
+		GPGondolaSelectionPanel[3].save(settings, "gp_float_quote");
+		GPGondolaSelectionPanel[4].save(settings, "gp_boolean");
+		GPGondolaSelectionPanel[5].save(settings, "gp_float_expression");
+		GPGondolaSelectionPanel[6].save(settings, "gp_integer_expression");
+		GPGondolaSelectionPanel[7].save(settings, "gp_pos_integer_expression");
+		GPGondolaSelectionPanel[8].save(settings, "gp_neg_integer_expression");
+
+		return settings;
+	}
 
+	/**
+	 * Enter the given values on this page. The values won't be used until the
+	 * page has been parsed.
+	 *
+	 * @param settings the settings returned by {@link #getSettings}
+	 */
+	public void setSettings(HashMap settings) {
 		Iterator iterator = settings.keySet().iterator();
 
 		while (iterator.hasNext()) {
@@ -273,23 +307,6 @@ public class GPGondolaSelection extends Page implements IAnalyserPage {
 		}
 	}
 
-	public void save(String key) {
-
-		HashMap settings = new HashMap();
-
-		GPGondolaSelectionPanel[0].save(settings, "gp_float_integer");
-		GPGondolaSelectionPanel[1].save(settings, "gp_terminal_integer");
-		GPGondolaSelectionPanel[2].save(settings, "gp_terminal_float");
-		GPGondolaSelectionPanel[3].save(settings, "gp_float_quote");
-		GPGondolaSelectionPanel[4].save(settings, "gp_boolean");
-		GPGondolaSelectionPanel[5].save(settings, "gp_float_expression");
-		GPGondolaSelectionPanel[6].save(settings, "gp_integer_expression");
-		GPGondolaSelectionPanel[7].save(settings, "gp_pos_integer_expression");
-		GPGondolaSelectionPanel[8].save(settings, "gp_neg_integer_expression");
-
-		PreferencesManager.putAnalyserPageSettings(key + getClass().getName(), settings);
-	}
-
 	public boolean parse() {
 		boolean retValue = true;
 		if (!isAllValuesAcceptable()) {
@@ -38,7 +38,6 @@ import javax.swing.ScrollPaneLayout;
 
 import nz.org.venice.ui.GridBagHelper;
 import nz.org.venice.util.Locale;
-import nz.org.venice.util.VeniceLog;
 
 public class GPGondolaSelectionPanel extends JPanel {
 
@@ -60,8 +59,6 @@ public class GPGondolaSelectionPanel extends JPanel {
 	private boolean isLastButOneEnough = true;
 
 	private JDesktopPane desktop;
-	private long seed = System.currentTimeMillis();
-	private Random random = new Random(seed);
 
 	public GPGondolaSelectionPanel(int elements, JDesktopPane desktop, int[] defaultValues,
 			String[] defaultTextFieldValues) {
@@ -74,9 +71,6 @@ public class GPGondolaSelectionPanel extends JPanel {
 		defTextFieldValues = defaultTextFieldValues;
 
 		setGraphic();
-
-		VeniceLog.getInstance().log("GPGondolaSelectionPanel seed = " + seed);
-
 	}
 
 	public void setLastNotEnough() {
@@ -87,23 +81,24 @@ public class GPGondolaSelectionPanel extends JPanel {
 		isLastButOneEnough = false;
 	}
 
-	public int getRandom() {
-		return this.getRandom(true, true);
+	public int getRandom(Random random) {
+		return this.getRandom(random, true, true);
 	}
 
-	public int getRandom(boolean isOkLast) {
-		return this.getRandom(true, isOkLast);
+	public int getRandom(Random random, boolean isOkLast) {
+		return this.getRandom(random, true, isOkLast);
 	}
 
 	/**
 	 * Generate a random number between 0 and the number of fields in the panel,
 	 * optionally restricting the last, and the secondlast fields.
 	 * 
+	 * @param random         the random number generator to use
 	 * @param isOkLastButOne If false the range is restricted to field length-2
 	 * @param isOkLast       If false the range is restricted to field length - 1
 	 */
 
-	public int getRandom(boolean isOkLastButOne, boolean isOkLast) {
+	public int getRandom(Random random, boolean isOkLastButOne, boolean isOkLast) {
 
 		int retValue = 0;
 		int total = 0;
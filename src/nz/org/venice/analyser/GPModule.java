@@ -23,6 +23,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,6 +37,8 @@ import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import javax.swing.SwingUtilities;
 
+import nz.org.venice.analyser.gp.GPIslandSettings;
+import nz.org.venice.analyser.gp.GPIslands;
 import nz.org.venice.analyser.gp.GPQuoteBundle;
 import nz.org.venice.analyser.gp.GeneticProgramme;
 import nz.org.venice.analyser.gp.Individual;
@@ -42,6 +46,8 @@ import nz.org.venice.main.CommandManager;
 import nz.org.venice.main.IModule;
 import nz.org.venice.main.ModuleFrame;
 import nz.org.venice.parser.ExpressionFactory;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.prefs.PreferencesManager;
 import nz.org.venice.prefs.settings.AnalyserModuleSettings;
 import nz.org.venice.prefs.settings.ISettings;
 import nz.org.venice.quote.EODQuoteBundle;
@@ -263,7 +269,30 @@ public class GPModule extends Page implements IModule {
 		OrderComparator orderComparator = quoteRangePage.getOrderComparator(quoteBundle);
 		OrderCache orderCache = new OrderCache(quoteBundle, orderComparator);
 
-		if (!thread.isInterrupted()) {
+		if (!thread.isInterrupted() && !GPPage.getIslands().isEmpty()) {
+			String orderByEquation = null;
+
+			if (orderComparator.getOrderByEquation() != null)
+				orderByEquation = orderComparator.getOrderByEquation().toString();
+
+			GPIslandSettings settings = new GPIslandSettings(quoteRangePage.getQuoteRange(), window,
+					orderComparator.getOrderByKey(), orderByEquation, startDate, endDate, initialCapital, stockValue,
+					numberStocks, tradeCost, tradeValueBuy, tradeValueSell, GPPage.getGenerations(),
+					GPPage.getPopulation(), breedingPopulation, GPGondolaSelection.getSettings(), displayPopulation);
+
+			// The fittest individuals of the islands are paper traded again
+			// here so they can be displayed
+			GeneticProgramme geneticProgramme = new GeneticProgramme(quoteBundle, GPGondolaSelection, orderCache,
+					startDate, endDate, initialCapital, stockValue, numberStocks, tradeCost, breedingPopulation,
+					tradeValueBuy, tradeValueSell);
+			geneticProgramme.setThreads(PreferencesManager.getAnalyserThreads());
+
+			try {
+				islandProgramme(geneticProgramme, settings, progress, quoteBundle);
+			} finally {
+				geneticProgramme.shutdown();
+			}
+		} else if (!thread.isInterrupted()) {
 			int numberGenerations = GPPage.getGenerations();
 			int population = GPPage.getPopulation();
 
@@ -275,73 +304,131 @@ public class GPModule extends Page implements IModule {
 			GeneticProgramme geneticProgramme = new GeneticProgramme(quoteBundle, GPGondolaSelection, orderCache,
 					startDate, endDate, initialCapital, stockValue, numberStocks, tradeCost, breedingPopulation,
 					tradeValueBuy, tradeValueSell);
+			geneticProgramme.setThreads(PreferencesManager.getAnalyserThreads());
 
-			for (int generation = 1; generation <= numberGenerations; generation++) {
-				if (thread.isInterrupted())
-					break;
-
-				int individual = 1;
-
-				// Keep generating more individuals until we've created the
-				// breeding population size or if the breeding population size
-				// is too small. The breeding population size can only be too
-				// small for the first generation.
-				int actualBreedingPopulation = geneticProgramme.getNextBreedingPopulationSize();
-				while (individual < population || actualBreedingPopulation < breedingPopulation) {
+			try {
+				for (int generation = 1; generation <= numberGenerations; generation++) {
 					if (thread.isInterrupted())
 						break;
 
-					// "Generation x of y (%)"
-					int perc = Math.min(
-							(new Double((100.0D * actualBreedingPopulation) / breedingPopulation)).intValue(),
-							(new Double((100.0D * individual) / population)).intValue());
-					progress.setNote(Locale.getString("GENERATION_OF", perc, generation, numberGenerations));
-
-					// If we are looping only to increase the breeding population size
-					// then don't update the progress counter as we didn't count this
-					// time in our estimate. Unfortunately this might look to the user
-					// like it has stalled at the end of the first generation.
-					if (individual < population)
-						progress.increment();
-
-					// GPPageInitialPopulation.getIfRandom()==0 is true
-					// if we must create a random individual.
-					// GPPageInitialPopulation.getIfRandom()==0 is false
-					// if we must create an individual according to
-					// the user defined buy/sell rules
-					// (defined in the Initial Population Section).
-					// All that is written above is applied only
-					// for the first generation, the other generations
-					// get new inidividuals from their parents,
-					// so it can be applied geneticProgramme.nextIndividual(null, null);
-					// with no input rules.
-					if ((GPPageInitialPopulation.getIfRandom() == 0) || (generation != 1)) {
-						geneticProgramme.nextIndividual(null, null, mutations);
-					} else {
-						// Get a random buy/sell rules from initial population
-						int randomRow = GPPageInitialPopulation.getIfRandom();
-						String buyRuleString = GPPageInitialPopulation.getBuyRule(randomRow);
-						String sellRuleString = GPPageInitialPopulation.getSellRule(randomRow);
-						// Call the nextIndividual method to put
-						geneticProgramme.nextIndividual(ExpressionFactory.newExpression(buyRuleString),
-								ExpressionFactory.newExpression(sellRuleString), mutations);
+					int individual = 1;
+
+					// Keep generating more individuals until we've created the
+					// breeding population size or if the breeding population size
+					// is too small. The breeding population size can only be too
+					// small for the first generation.
+					int actualBreedingPopulation = geneticProgramme.getNextBreedingPopulationSize();
+					while (individual < population || actualBreedingPopulation < breedingPopulation) {
+						if (thread.isInterrupted())
+							break;
+
+						// "Generation x of y (%)"
+						int perc = Math.min(
+								(new Double((100.0D * actualBreedingPopulation) / breedingPopulation)).intValue(),
+								(new Double((100.0D * individual) / population)).intValue());
+						progress.setNote(Locale.getString("GENERATION_OF", perc, generation, numberGenerations));
+
+						// Create a batch of individuals. If we are looping only to
+						// increase the breeding population size, then only create
+						// enough individuals to fill it.
+						int batchSize = (individual < population
+								? Math.min(GeneticProgramme.BATCH_SIZE, population - individual)
+								: breedingPopulation - actualBreedingPopulation);
+
+						IExpression[] buyRules = new IExpression[batchSize];
+						IExpression[] sellRules = new IExpression[batchSize];
+
+						// GPPageInitialPopulation.getIfRandom()==0 is true
+						// if we must create a random individual.
+						// GPPageInitialPopulation.getIfRandom()==0 is false
+						// if we must create an individual according to
+						// the user defined buy/sell rules
+						// (defined in the Initial Population Section).
+						// All that is written above is applied only
+						// for the first generation, the other generations
+						// get new inidividuals from their parents,
+						// so they are created with no input rules.
+						for (int i = 0; i < batchSize; i++) {
+							if ((generation == 1) && (GPPageInitialPopulation.getIfRandom() != 0)) {
+								// Get a random buy/sell rules from initial population
+								int randomRow = GPPageInitialPopulation.getIfRandom();
+								buyRules[i] = ExpressionFactory
+										.newExpression(GPPageInitialPopulation.getBuyRule(randomRow));
+								sellRules[i] = ExpressionFactory
+										.newExpression(GPPageInitialPopulation.getSellRule(randomRow));
+							}
+						}
+
+						geneticProgramme.nextIndividuals(buyRules, sellRules, mutations);
+
+						// If we are looping only to increase the breeding population size
+						// then don't update the progress counter as we didn't count this
+						// time in our estimate. Unfortunately this might look to the user
+						// like it has stalled at the end of the first generation.
+						if (individual < population)
+							progress.setProgress(progress.getProgress() + batchSize);
+
+						individual += batchSize;
+						actualBreedingPopulation = geneticProgramme.getNextBreedingPopulationSize();
 					}
 
-					individual++;
-					actualBreedingPopulation = geneticProgramme.getNextBreedingPopulationSize();
+					geneticProgramme.nextGeneration();
+
+					// The actual breeding population size and the breeding population
+					// may be different iff the operation was cancelled
+					if (geneticProgramme.getBreedingPopulationSize() > 0)
+						display(getResults(geneticProgramme, geneticProgramme.getBreedingPopulationSize(),
+								displayPopulation, quoteBundle, startDate, endDate, initialCapital, tradeCost,
+								generation));
 				}
+			} finally {
+				geneticProgramme.shutdown();
+			}
+		}
+
+		ProgressDialogManager.closeProgressDialog(progress);
+	}
+
+	// Run the genetic programme on the islands, displaying the fittest
+	// individuals after each generation.
+	private void islandProgramme(GeneticProgramme geneticProgramme, GPIslandSettings settings,
+			IProgressDialog progress, GPQuoteBundle quoteBundle) {
+		Thread thread = Thread.currentThread();
+		GPIslands islands = null;
 
+		progress.setIndeterminate(false);
+		progress.setMaximum(settings.getGenerations() * settings.getPopulation());
+		progress.setProgress(0);
+		progress.setMaster(true);
+		progress.setNote(Locale.getString("ISLAND_GENERATION_OF", 1, settings.getGenerations()));
+
+		try {
+			islands = new GPIslands(GPPage.getIslands(), settings);
+
+			while (!islands.isFinished() && !thread.isInterrupted()) {
+				List individuals = islands.nextGeneration();
+				int generation = islands.getGeneration();
+
+				geneticProgramme.addImmigrants(individuals);
 				geneticProgramme.nextGeneration();
 
-				// The actual breeding population size and the breeding population
-				// may be different iff the operation was cancelled
+				progress.setProgress(generation * settings.getPopulation());
+				progress.setNote(Locale.getString("ISLAND_GENERATION_OF", Math.min(generation + 1,
+						settings.getGenerations()), settings.getGenerations()));
+
 				if (geneticProgramme.getBreedingPopulationSize() > 0)
 					display(getResults(geneticProgramme, geneticProgramme.getBreedingPopulationSize(),
-							displayPopulation, quoteBundle, startDate, endDate, initialCapital, tradeCost, generation));
+							settings.getFittest(), quoteBundle, settings.getStartDate(), settings.getEndDate(),
+							settings.getInitialCapital(), settings.getTradeCost(), generation));
 			}
+		} catch (InterruptedIOException e) {
+			// The user cancelled the run
+		} catch (IOException e) {
+			showErrorMessage(Locale.getString("ISLAND_ERROR", e.getMessage()), Locale.getString("INVALID_GP_ERROR"));
+		} finally {
+			if (islands != null)
+				islands.close();
 		}
-
-		ProgressDialogManager.closeProgressDialog(progress);
 	}
 
 	private List getResults(GeneticProgramme geneticProgramme, int breedingPopulation, int displayPopulation,
@@ -21,8 +21,10 @@ package nz.org.venice.analyser;
 import java.awt.BorderLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.swing.BoxLayout;
 import javax.swing.JComponent;
@@ -46,6 +48,7 @@ import nz.org.venice.util.Locale;
  * <li>Breeding Population</li>
  * <li>Display Population</li>
  * <li>Window Size</li>
+ * <li>Islands</li>
  * </ul>
  *
  * The generations field describes the number of generations the GP will run
@@ -62,6 +65,10 @@ import nz.org.venice.util.Locale;
  * The window size field describes the number of quote days that the buy/sell
  * rules can access. When equations are evaluating buy or sell decisions, they
  * can only access this many quote days into the past.
+ * <p>
+ * The islands field is optional. It lists the addresses of the
+ * {@link nz.org.venice.analyser.gp.GPIsland} processes that should each evolve
+ * a population of the given size, instead of evolving the population here.
  *
  * @author Andrew Leppard
  */
@@ -73,6 +80,7 @@ public class GPPage extends Page implements IAnalyserPage {
 	private JTextField populationTextField;
 	private JTextField breedingPopulationTextField;
 	private JTextField displayPopulationTextField;
+	private JTextField islandsTextField;
 
 	// Parsed input
 	private int generations;
@@ -80,6 +88,7 @@ public class GPPage extends Page implements IAnalyserPage {
 	private int population;
 	private int breedingPopulation;
 	private int displayPopulation;
+	private List islands;
 
 	/** Minimum number of quote days an equation can see. */
 	private final static int MINIMUM_WINDOW_SIZE = 3;
@@ -114,6 +123,8 @@ public class GPPage extends Page implements IAnalyserPage {
 				breedingPopulationTextField.setText(value);
 			else if (setting.equals("display_population"))
 				displayPopulationTextField.setText(value);
+			else if (setting.equals("islands"))
+				islandsTextField.setText(value);
 		}
 	}
 
@@ -125,6 +136,7 @@ public class GPPage extends Page implements IAnalyserPage {
 		settings.put("population", populationTextField.getText());
 		settings.put("breeding_population", breedingPopulationTextField.getText());
 		settings.put("display_population", displayPopulationTextField.getText());
+		settings.put("islands", islandsTextField.getText());
 
 		PreferencesManager.putAnalyserPageSettings(key + getClass().getName(), settings);
 	}
@@ -135,6 +147,7 @@ public class GPPage extends Page implements IAnalyserPage {
 		breedingPopulation = 0;
 		displayPopulation = 0;
 		window = 0;
+		islands = new ArrayList();
 
 		try {
 			if (!generationsTextField.getText().equals(""))
@@ -188,9 +201,41 @@ public class GPPage extends Page implements IAnalyserPage {
 			return false;
 		}
 
+		String[] addresses = islandsTextField.getText().split(",");
+
+		for (int i = 0; i < addresses.length; i++) {
+			String address = addresses[i].trim();
+
+			if (address.equals(""))
+				continue;
+
+			if (!isIslandAddress(address)) {
+				showErrorMessage(Locale.getString("INVALID_ISLAND_ERROR", address),
+						Locale.getString("INVALID_GP_ERROR"));
+				return false;
+			}
+
+			islands.add(address);
+		}
+
 		return true;
 	}
 
+	// Return true if the address is of the form host:port
+	private boolean isIslandAddress(String address) {
+		int colon = address.lastIndexOf(':');
+
+		if (colon <= 0)
+			return false;
+
+		try {
+			int port = Integer.parseInt(address.substring(colon + 1));
+			return port > 0 && port <= 65535;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
 	public JComponent getComponent() {
 		return this;
 	}
@@ -250,6 +295,17 @@ public class GPPage extends Page implements IAnalyserPage {
 		return displayPopulation;
 	}
 
+	/**
+	 * Return the addresses of the islands that should run the genetic
+	 * programme.
+	 *
+	 * @return the island addresses, each of the form <code>host:port</code>. The
+	 *         list is empty if the genetic programme should run here.
+	 */
+	public List getIslands() {
+		return islands;
+	}
+
 	private void layoutPage() {
 		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
 
@@ -276,6 +332,7 @@ public class GPPage extends Page implements IAnalyserPage {
 		displayPopulationTextField = GridBagHelper.addTextRow(innerPanel, Locale.getString("DISPLAY_POPULATION"), "",
 				gridbag, c, 7);
 		windowTextField = GridBagHelper.addTextRow(innerPanel, Locale.getString("WINDOW_SIZE"), "", gridbag, c, 5);
+		islandsTextField = GridBagHelper.addTextRow(innerPanel, Locale.getString("ISLANDS"), "", gridbag, c, 20);
 
 		panel.add(innerPanel, BorderLayout.NORTH);
 		add(panel);
@@ -32,10 +32,13 @@ import nz.org.venice.quote.EODQuoteBundle;
  * high volume stocks, so ordering the stocks by volume will give high volume
  * stocks a priority. Since sorting is a slow operation, and the GP traverses
  * over the same day many times, it makes sense to cache the order. Profiling
- * results showed this provides a significant speed increase.
+ * results showed this provides a significant speed increase. The days in the
+ * quote bundle are taken from an {@link OrderIndex}, so they are only sorted
+ * once in a session.
  *
  * @author Andrew Leppard
  * @see OrderComparator
+ * @see OrderIndex
  * @see QuoteRangePage
  */
 public class OrderCache {
@@ -46,7 +49,12 @@ public class OrderCache {
 	// A comparator which orders the quotes
 	private OrderComparator orderComparator;
 
-	// The order cache - mapping dates to a list of ordered symbols
+	// The order of every day in the quote bundle, or null if it hasn't been
+	// needed yet
+	private OrderIndex orderIndex;
+
+	// The order cache - mapping dates outside the index to a list of ordered
+	// symbols
 	private HashMap dayOrders;
 
 	/**
@@ -63,12 +71,23 @@ public class OrderCache {
 	}
 
 	/**
-	 * Return a list of the given date's ordered symbols.
+	 * Return a list of the given date's ordered symbols. The cache may be shared
+	 * by paper trades running on different threads.
 	 *
 	 * @param dateOffset fast access date offset
 	 * @return ordered list of symbols
 	 */
-	public List getTodaySymbols(int dateOffset) {
+	public synchronized List getTodaySymbols(int dateOffset) {
+
+		if (orderIndex == null)
+			orderIndex = OrderIndex.getInstance(quoteBundle, orderComparator);
+
+		if (orderIndex != null) {
+			List symbols = orderIndex.getSymbols(dateOffset);
+
+			if (symbols != null)
+				return symbols;
+		}
 
 		// Need a way of looking up items in the HashMap without creating an object
 		Integer date = new Integer(dateOffset);
@@ -141,6 +141,16 @@ public class OrderComparator implements Comparator {
 		return orderByKey;
 	}
 
+	/**
+	 * Return the equation used to order the quotes.
+	 *
+	 * @return the order equation, or <code>null</code> if the quotes are not
+	 *         ordered by equation
+	 */
+	public IExpression getOrderByEquation() {
+		return orderByEquation;
+	}
+
 	/**
 	 * Return whether the stock quotes are ordered.
 	 *
@@ -177,77 +187,86 @@ public class OrderComparator implements Comparator {
 
 		assert isDateSet;
 
-		try {
-			switch (orderByKey) {
-			case (NO_ORDER):
-				return 0;
-			case (STOCK_SYMBOL):
-				return symbol1.compareTo(symbol2);
-			case (DAY_VOLUME_INCREASING):
-				return compare(quoteBundle.getQuote(symbol1, IQuote.DAY_VOLUME, dateOffset),
-						quoteBundle.getQuote(symbol2, IQuote.DAY_VOLUME, dateOffset));
-			case (DAY_VOLUME_DECREASING):
-				return compare(quoteBundle.getQuote(symbol2, IQuote.DAY_VOLUME, dateOffset),
-						quoteBundle.getQuote(symbol1, IQuote.DAY_VOLUME, dateOffset));
-			case (DAY_LOW_INCREASING):
-				return compare(quoteBundle.getQuote(symbol1, IQuote.DAY_LOW, dateOffset),
-						quoteBundle.getQuote(symbol2, IQuote.DAY_LOW, dateOffset));
-			case (DAY_LOW_DECREASING):
-				return compare(quoteBundle.getQuote(symbol2, IQuote.DAY_LOW, dateOffset),
-						quoteBundle.getQuote(symbol1, IQuote.DAY_LOW, dateOffset));
-			case (DAY_HIGH_INCREASING):
-				return compare(quoteBundle.getQuote(symbol1, IQuote.DAY_HIGH, dateOffset),
-						quoteBundle.getQuote(symbol2, IQuote.DAY_HIGH, dateOffset));
-			case (DAY_HIGH_DECREASING):
-				return compare(quoteBundle.getQuote(symbol2, IQuote.DAY_HIGH, dateOffset),
-						quoteBundle.getQuote(symbol1, IQuote.DAY_HIGH, dateOffset));
-			case (DAY_OPEN_INCREASING):
-				return compare(quoteBundle.getQuote(symbol1, IQuote.DAY_OPEN, dateOffset),
-						quoteBundle.getQuote(symbol2, IQuote.DAY_OPEN, dateOffset));
-			case (DAY_OPEN_DECREASING):
-				return compare(quoteBundle.getQuote(symbol2, IQuote.DAY_OPEN, dateOffset),
-						quoteBundle.getQuote(symbol1, IQuote.DAY_OPEN, dateOffset));
-			case (DAY_CLOSE_INCREASING):
-				return compare(quoteBundle.getQuote(symbol1, IQuote.DAY_CLOSE, dateOffset),
-						quoteBundle.getQuote(symbol2, IQuote.DAY_CLOSE, dateOffset));
-			case (DAY_CLOSE_DECREASING):
-				return compare(quoteBundle.getQuote(symbol2, IQuote.DAY_CLOSE, dateOffset),
-						quoteBundle.getQuote(symbol1, IQuote.DAY_CLOSE, dateOffset));
-			case (CHANGE_INCREASING):
-				return compare(
-						quoteBundle.getQuote(symbol1, IQuote.DAY_CLOSE, dateOffset)
-								/ quoteBundle.getQuote(symbol1, IQuote.DAY_OPEN, dateOffset),
-						quoteBundle.getQuote(symbol2, IQuote.DAY_CLOSE, dateOffset)
-								/ quoteBundle.getQuote(symbol2, IQuote.DAY_OPEN, dateOffset));
-			case (CHANGE_DECREASING):
-				return compare(
-						quoteBundle.getQuote(symbol2, IQuote.DAY_CLOSE, dateOffset)
-								/ quoteBundle.getQuote(symbol2, IQuote.DAY_OPEN, dateOffset),
-						quoteBundle.getQuote(symbol1, IQuote.DAY_CLOSE, dateOffset)
-								/ quoteBundle.getQuote(symbol1, IQuote.DAY_OPEN, dateOffset));
-			case (EQUATION):
-				return compareByEquation(symbol1, symbol2);
-			default:
+		switch (orderByKey) {
+		case (NO_ORDER):
+			return 0;
+		case (STOCK_SYMBOL):
+			return symbol1.compareTo(symbol2);
+		default:
+			try {
+				return compareKeys(getKey(symbol1, dateOffset), getKey(symbol2, dateOffset));
+			} catch (MissingQuoteException e) {
 				assert false;
 				return 0;
+			} catch (EvaluationException e) {
+				// I don't know how to easily notify the user of this...
+				return 0;
 			}
-		} catch (MissingQuoteException e) {
-			assert false;
-			return 0;
 		}
 	}
 
-	private int compareByEquation(Symbol symbol1, Symbol symbol2) {
-		assert orderByKey == EQUATION;
-
-		try {
-			double valueOne = orderByEquation.evaluate(new Variables(), quoteBundle, symbol1, dateOffset);
-			double valueTwo = orderByEquation.evaluate(new Variables(), quoteBundle, symbol2, dateOffset);
+	/**
+	 * Return the value the given symbol is ordered by on the given date, e.g. its
+	 * day volume. This isn't defined if the quotes aren't ordered or are ordered
+	 * by symbol.
+	 *
+	 * @param symbol     the symbol
+	 * @param dateOffset fast access date offset
+	 * @return the value to order by
+	 * @exception MissingQuoteException if there is no quote for the symbol
+	 * @exception EvaluationException   if the order equation couldn't be evaluated
+	 */
+	public double getKey(Symbol symbol, int dateOffset) throws MissingQuoteException, EvaluationException {
+		switch (orderByKey) {
+		case (DAY_VOLUME_INCREASING):
+		case (DAY_VOLUME_DECREASING):
+			return quoteBundle.getQuote(symbol, IQuote.DAY_VOLUME, dateOffset);
+		case (DAY_LOW_INCREASING):
+		case (DAY_LOW_DECREASING):
+			return quoteBundle.getQuote(symbol, IQuote.DAY_LOW, dateOffset);
+		case (DAY_HIGH_INCREASING):
+		case (DAY_HIGH_DECREASING):
+			return quoteBundle.getQuote(symbol, IQuote.DAY_HIGH, dateOffset);
+		case (DAY_OPEN_INCREASING):
+		case (DAY_OPEN_DECREASING):
+			return quoteBundle.getQuote(symbol, IQuote.DAY_OPEN, dateOffset);
+		case (DAY_CLOSE_INCREASING):
+		case (DAY_CLOSE_DECREASING):
+			return quoteBundle.getQuote(symbol, IQuote.DAY_CLOSE, dateOffset);
+		case (CHANGE_INCREASING):
+		case (CHANGE_DECREASING):
+			return quoteBundle.getQuote(symbol, IQuote.DAY_CLOSE, dateOffset)
+					/ quoteBundle.getQuote(symbol, IQuote.DAY_OPEN, dateOffset);
+		case (EQUATION):
+			return orderByEquation.evaluate(new Variables(), quoteBundle, symbol, dateOffset);
+		default:
+			assert false;
+			return 0.0D;
+		}
+	}
 
-			return compare(valueTwo, valueOne);
-		} catch (EvaluationException e) {
-			// I don't know how to easily notify the user of this...
-			return 0;
+	/**
+	 * Compare two symbols by the values returned by {@link #getKey}.
+	 *
+	 * @param key1 the value of the first symbol
+	 * @param key2 the value of the second symbol
+	 * @return <code>-1</code> if the first symbol comes first, <code>0</code> if
+	 *         the symbols are equal OR <code>1</code> if the first symbol comes
+	 *         last.
+	 */
+	public int compareKeys(double key1, double key2) {
+		switch (orderByKey) {
+		case (DAY_VOLUME_INCREASING):
+		case (DAY_LOW_INCREASING):
+		case (DAY_HIGH_INCREASING):
+		case (DAY_OPEN_INCREASING):
+		case (DAY_CLOSE_INCREASING):
+		case (CHANGE_INCREASING):
+			return compare(key1, key2);
+		default:
+			// The decreasing orders, and the equation, where the highest value
+			// comes first
+			return compare(key2, key1);
 		}
 	}
 
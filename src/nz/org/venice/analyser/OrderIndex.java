@@ -0,0 +1,346 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nz.org.venice.analyser.gp.GPQuoteBundle;
+import nz.org.venice.parser.CrossSectionEvaluator;
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.prefs.PreferencesManager;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteCache;
+import nz.org.venice.quote.IQuoteSource;
+import nz.org.venice.quote.MissingQuoteException;
+import nz.org.venice.quote.QuoteSourceManager;
+import nz.org.venice.quote.Symbol;
+import nz.org.venice.util.TradingDate;
+import nz.org.venice.util.WeekendDateException;
+
+/**
+ * The order of the symbols on every day of a quote bundle. Where
+ * {@link OrderCache} sorts a day's symbols the first time a paper trade asks
+ * for them, comparing two symbols at a time, the index orders every day at
+ * once. The value each symbol is ordered by is worked out once for each day,
+ * the days are sorted in parallel, and each day's order is kept as an array of
+ * symbol numbers.
+ * <p>
+ * The analysis modules often order the same quotes the same way run after run,
+ * so the last few indexes built are kept for the session. An index is rebuilt
+ * if the quote source changes, e.g. after quotes are imported.
+ *
+ * @see OrderCache
+ * @see OrderComparator
+ */
+public class OrderIndex {
+
+	// Number of indexes kept for the session
+	private final static int CACHE_SIZE = 4;
+
+	// Fewest days ordered by a single task
+	private final static int MINIMUM_TASK_SIZE = 16;
+
+	// The most recently used indexes, keyed by the quote range and order
+	private static Map indexes = new LinkedHashMap(16, 0.75F, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	// The quote source the quotes were ordered from
+	private IQuoteSource source;
+
+	// First day in the index
+	private TradingDate firstDate;
+	private int firstDateOffset;
+
+	// Every symbol in the index, so a symbol's number is its index here
+	private Symbol[] symbols;
+
+	// Each day's ordered symbols, by day from the first day
+	private List[] dayOrders;
+
+	// The index is built by getInstance()
+	private OrderIndex(IQuoteSource source, TradingDate firstDate, int firstDateOffset, Symbol[] symbols,
+			int[][] ranks) {
+		this.source = source;
+		this.firstDate = firstDate;
+		this.firstDateOffset = firstDateOffset;
+		this.symbols = symbols;
+
+		dayOrders = new List[ranks.length];
+
+		for (int i = 0; i < ranks.length; i++)
+			dayOrders[i] = new DayOrder(ranks[i]);
+	}
+
+	/**
+	 * Return an index of the order of the symbols in the given quote bundle. The
+	 * index is shared with any other quote bundle with the same quote range that
+	 * is ordered the same way.
+	 *
+	 * @param quoteBundle     the quotes to order
+	 * @param orderComparator the method of ordering
+	 * @return the index, or <code>null</code> if this thread was interrupted
+	 *         while building it
+	 */
+	public static OrderIndex getInstance(EODQuoteBundle quoteBundle, OrderComparator orderComparator) {
+		IExpression orderByEquation = orderComparator.getOrderByEquation();
+
+		// Equations using random numbers, or sharing state with other copies,
+		// can't be ordered in parallel and might not give the same order twice
+		boolean shared = (orderByEquation == null || CrossSectionEvaluator.isParallel(orderByEquation));
+
+		if (!shared)
+			return build(quoteBundle, orderComparator, 1);
+
+		String key = getKey(quoteBundle, orderComparator);
+		OrderIndex index;
+
+		synchronized (indexes) {
+			index = (OrderIndex) indexes.get(key);
+		}
+
+		if (index == null || !index.isValid()) {
+			index = build(quoteBundle, orderComparator, PreferencesManager.getAnalyserThreads());
+
+			if (index != null) {
+				synchronized (indexes) {
+					indexes.put(key, index);
+				}
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Return the ordered symbols on the given date.
+	 *
+	 * @param dateOffset fast access date offset
+	 * @return the ordered symbols, or <code>null</code> if the date isn't in the
+	 *         index
+	 */
+	public List getSymbols(int dateOffset) {
+		int day = dateOffset - firstDateOffset;
+
+		if (day < 0 || day >= dayOrders.length)
+			return null;
+
+		return dayOrders[day];
+	}
+
+	// Check that the quotes haven't changed, and that the date offsets still
+	// refer to the same dates, since the index was built
+	private boolean isValid() {
+		if (source != QuoteSourceManager.getSource())
+			return false;
+
+		try {
+			return EODQuoteCache.getInstance().dateToOffset(firstDate) == firstDateOffset;
+		} catch (WeekendDateException e) {
+			return false;
+		}
+	}
+
+	// The quote range and order identify the index. The GP's window stops
+	// equations reaching further back, which can change their values.
+	private static String getKey(EODQuoteBundle quoteBundle, OrderComparator orderComparator) {
+		StringBuffer key = new StringBuffer();
+
+		key.append(quoteBundle.getQuoteRange().getType()).append('\n');
+		key.append(quoteBundle.getQuoteRange().toString()).append('\n');
+		key.append(orderComparator.getOrderByKey()).append('\n');
+
+		if (orderComparator.getOrderByEquation() != null)
+			key.append(orderComparator.getOrderByEquation().toString()).append('\n');
+
+		if (quoteBundle instanceof GPQuoteBundle)
+			key.append(((GPQuoteBundle) quoteBundle).getWindow());
+
+		return key.toString();
+	}
+
+	// Order every day in the quote bundle on the given number of threads.
+	// Returns null if this thread was interrupted first.
+	static OrderIndex build(final EODQuoteBundle quoteBundle, final OrderComparator orderComparator,
+			int threads) {
+
+		final int firstDateOffset = quoteBundle.getFirstOffset();
+		int days = Math.max(quoteBundle.getLastOffset() - firstDateOffset + 1, 0);
+
+		// Number the symbols, and find each day's symbols in the order the
+		// quote bundle gives them
+		HashMap numbers = new HashMap();
+		List symbols = new ArrayList();
+		final int[][] ranks = new int[days][];
+
+		for (int day = 0; day < days; day++) {
+			List daySymbols = quoteBundle.getSymbols(firstDateOffset + day);
+			ranks[day] = new int[daySymbols.size()];
+
+			for (int i = 0; i < ranks[day].length; i++) {
+				Symbol symbol = (Symbol) daySymbols.get(i);
+				Integer number = (Integer) numbers.get(symbol);
+
+				if (number == null) {
+					number = Integer.valueOf(symbols.size());
+					numbers.put(symbol, number);
+					symbols.add(symbol);
+				}
+
+				ranks[day][i] = number.intValue();
+			}
+		}
+
+		final Symbol[] symbolArray = (Symbol[]) symbols.toArray(new Symbol[symbols.size()]);
+		OrderIndex index = new OrderIndex(QuoteSourceManager.getSource(), quoteBundle.getFirstDate(),
+				firstDateOffset, symbolArray, ranks);
+
+		if (orderComparator.getOrderByKey() == OrderComparator.NO_ORDER)
+			return index;
+
+		threads = Math.min(threads, days / MINIMUM_TASK_SIZE);
+
+		if (threads <= 1) {
+			sort(quoteBundle, orderComparator, symbolArray, ranks, firstDateOffset, 0, days);
+			return index;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List futures = new ArrayList(threads);
+		Thread thread = Thread.currentThread();
+
+		try {
+			for (int task = 0; task < threads; task++) {
+				final int firstDay = (int) ((long) days * task / threads);
+				final int lastDay = (int) ((long) days * (task + 1) / threads);
+
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						sort(quoteBundle, orderComparator, symbolArray, ranks, firstDateOffset, firstDay, lastDay);
+					}
+				}));
+			}
+
+			for (Iterator iterator = futures.iterator(); iterator.hasNext();)
+				((Future) iterator.next()).get();
+
+			return index;
+
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			else
+				throw (Error) e.getCause();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Sort the symbols of the days from firstDay up to, but not including,
+	// lastDay
+	private static void sort(EODQuoteBundle quoteBundle, OrderComparator orderComparator, final Symbol[] symbols,
+			int[][] ranks, int firstDateOffset, int firstDay, int lastDay) {
+
+		// Expressions aren't safe to evaluate on two threads at once, so each
+		// task orders by its own copy of the equation
+		if (orderComparator.getOrderByKey() == OrderComparator.EQUATION)
+			orderComparator = new OrderComparator(quoteBundle,
+					(IExpression) orderComparator.getOrderByEquation().clone());
+
+		final OrderComparator comparator = orderComparator;
+		final double[] keys = new double[symbols.length];
+		final boolean[] failed = new boolean[symbols.length];
+
+		for (int day = firstDay; day < lastDay; day++) {
+			int[] rank = ranks[day];
+			Integer[] numbers = new Integer[rank.length];
+
+			for (int i = 0; i < rank.length; i++) {
+				numbers[i] = Integer.valueOf(rank[i]);
+
+				if (comparator.getOrderByKey() != OrderComparator.STOCK_SYMBOL) {
+					try {
+						keys[rank[i]] = comparator.getKey(symbols[rank[i]], firstDateOffset + day);
+						failed[rank[i]] = false;
+					} catch (MissingQuoteException e) {
+						assert false;
+						failed[rank[i]] = true;
+					} catch (EvaluationException e) {
+						failed[rank[i]] = true;
+					}
+				}
+			}
+
+			// Compare the symbols just as the order comparator would, so the
+			// stable sort gives the same order as sorting the symbols with it
+			Arrays.sort(numbers, new Comparator() {
+				public int compare(Object object1, Object object2) {
+					int number1 = ((Integer) object1).intValue();
+					int number2 = ((Integer) object2).intValue();
+
+					if (comparator.getOrderByKey() == OrderComparator.STOCK_SYMBOL)
+						return symbols[number1].compareTo(symbols[number2]);
+					else if (failed[number1] || failed[number2])
+						return 0;
+					else
+						return comparator.compareKeys(keys[number1], keys[number2]);
+				}
+			});
+
+			for (int i = 0; i < rank.length; i++)
+				rank[i] = numbers[i].intValue();
+		}
+	}
+
+	// A day's ordered symbols, read from its array of symbol numbers
+	private class DayOrder extends AbstractList implements RandomAccess {
+		private int[] rank;
+
+		public DayOrder(int[] rank) {
+			this.rank = rank;
+		}
+
+		public Object get(int index) {
+			return symbols[rank[index]];
+		}
+
+		public int size() {
+			return rank.length;
+		}
+	}
+}
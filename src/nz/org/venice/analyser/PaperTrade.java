@@ -19,20 +19,16 @@
 package nz.org.venice.analyser;
 
 import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import nz.org.venice.parser.CrossSectionEvaluator;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.ExpressionFactory;
 import nz.org.venice.parser.ImplicitVariables;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.portfolio.CashAccount;
-import nz.org.venice.portfolio.Portfolio;
-import nz.org.venice.portfolio.ShareAccount;
-import nz.org.venice.portfolio.StockHolding;
-import nz.org.venice.portfolio.Transaction;
+import nz.org.venice.parser.expression.ExpressionMemo;
 import nz.org.venice.prefs.PreferencesManager;
 import nz.org.venice.quote.EODQuoteBundle;
 import nz.org.venice.quote.EODQuoteCache;
@@ -49,10 +45,11 @@ import nz.org.venice.util.WeekendDateException;
  * Paper or back trading is a good way of testing the effectiveness of
  * indicators without risking money. This class allows the user to supply
  * historical quote data and buy and sell indicators. The class will then trade
- * using the given indicators and return the final portfolio.
+ * using the given indicators and return the ledger of the trades made.
  *
  * <p>
- * The final portfolio will contain a single cash and a single share account.
+ * The portfolio built from the ledger will contain a single cash and a single
+ * share account.
  *
  * @author Andrew Leppard
  */
@@ -67,12 +64,31 @@ public class PaperTrade {
 	// Stocks per line for the tip()
 	public final static int STOCKS_PER_LINES = 1;
 
+	// Number of symbols screened for the buy rule at a time. We usually run
+	// out of cash before we get to the end of the list.
+	private final static int SCREEN_SIZE = 256;
+
+	// The tip for the next day of the last paper trade run by each thread. Rule
+	// families are paper traded on several threads at once so the tip can't be
+	// shared.
+	private final static ThreadLocal tips = new ThreadLocal();
+
 	// Information to get the next day trading prices
-	protected static String[] symbolStock;
-	protected static boolean[] buyRule;
-	protected static boolean[] sellRule;
-	protected static double[] buyValue;
-	protected static double[] sellValue;
+	protected static class Tip {
+		public String[] symbolStock;
+		public boolean[] buyRule;
+		public boolean[] sellRule;
+		public double[] buyValue;
+		public double[] sellValue;
+
+		public Tip(int size) {
+			symbolStock = new String[size];
+			buyRule = new boolean[size];
+			sellRule = new boolean[size];
+			buyValue = new double[size];
+			sellValue = new double[size];
+		}
+	}
 
 	// Since this process uses so many temporary variables, it makes sense
 	// grouping them all together.
@@ -84,14 +100,8 @@ public class PaperTrade {
 		// Historical quote data
 		public EODQuoteBundle quoteBundle;
 
-		// Current portfolio
-		public Portfolio portfolio;
-
-		// Direct reference to portfolio's only cash account
-		public CashAccount cashAccount;
-
-		// Direct reference to portfolio's only share account
-		public ShareAccount shareAccount;
+		// Cash, stock holdings and trades so far
+		public PaperTradeLedger ledger;
 
 		// Start date of paper trading
 		public int startDateOffset;
@@ -105,6 +115,19 @@ public class PaperTrade {
 		// The rule getting the sell price
 		protected String tradeValueSell;
 
+		// The parsed buy and sell price rules, null if buying or selling at
+		// the open price
+		protected IExpression tradeValueBuyExpression;
+		protected IExpression tradeValueSellExpression;
+
+		// Results of subexpressions shared by the rules, or null if the rules
+		// don't share any
+		protected ExpressionMemo memo = null;
+
+		// Evaluates the buy rule for many symbols at once, or null if the buy
+		// rule has to be evaluated a symbol at a time
+		protected CrossSectionEvaluator buyEvaluator = null;
+
 		/**
 		 * Create a new environment for paper trading.
 		 *
@@ -123,20 +146,14 @@ public class PaperTrade {
 			this.tradeValueBuy = tradeValueBuy;
 			this.tradeValueSell = tradeValueSell;
 
-			// First set up a new (transient) portfolio
-			portfolio = new Portfolio(portfolioName, true);
-
-			// Add a cash account and a share account
-			cashAccount = new CashAccount(CASH_ACCOUNT_NAME);
-			shareAccount = new ShareAccount(SHARE_ACCOUNT_NAME);
-
-			portfolio.addAccount(cashAccount);
-			portfolio.addAccount(shareAccount);
-
-			// Deposit starting capital into portfolio
-			Transaction transaction = Transaction.newDeposit(startDate, capital, cashAccount);
+			// Parse the price rules once rather than for every trade
+			if (!tradeValueBuy.equals("open"))
+				tradeValueBuyExpression = ExpressionFactory.newExpression(tradeValueBuy);
+			if (!tradeValueSell.equals("open"))
+				tradeValueSellExpression = ExpressionFactory.newExpression(tradeValueSell);
 
-			portfolio.addTransaction(transaction);
+			// Deposit starting capital into a new ledger
+			ledger = new PaperTradeLedger(quoteBundle, portfolioName, startDate, capital);
 
 			// Now find the fast date offsets
 			try {
@@ -148,6 +165,39 @@ public class PaperTrade {
 				startDateOffset = endDateOffset = 0;
 			}
 		}
+
+		/**
+		 * Share the subexpressions common to the buy and sell rules and the price
+		 * rules, so each is only evaluated once for a symbol on a day.
+		 *
+		 * @param buy  the buy indicator
+		 * @param sell the sell indicator
+		 * @return the buy and sell indicators to trade with
+		 */
+		public IExpression[] shareSubexpressions(IExpression buy, IExpression sell) {
+			// Symbols are screened for the buy rule by worker threads which can't
+			// share the memo, so they get the buy rule as it was
+			if (CrossSectionEvaluator.isParallel(buy))
+				buyEvaluator = new CrossSectionEvaluator(buy);
+
+			ExpressionMemo shared = new ExpressionMemo();
+			IExpression[] rules = shared
+					.share(new IExpression[] { buy, sell, tradeValueBuyExpression, tradeValueSellExpression });
+
+			// Size the memo from the shared subexpressions and the days traded
+			// rather than giving every paper trade the default table
+			if (shared.getSharedCount() > 0) {
+				long results = (long) shared.getSharedCount() * (endDateOffset - startDateOffset + 1);
+
+				memo = shared;
+				memo.setCapacity((int) Math.max(1, Math.min(results, ExpressionMemo.DEFAULT_CAPACITY)));
+			}
+
+			tradeValueBuyExpression = rules[2];
+			tradeValueSellExpression = rules[3];
+
+			return new IExpression[] { rules[0], rules[1] };
+		}
 	}
 
 	// Users shouldn't instantiate this class
@@ -159,20 +209,19 @@ public class PaperTrade {
 	 * Attempt to sell the given stock holding. If we could not meet the trade cost,
 	 * the stock will not be sold.
 	 *
-	 * @param environment  the paper trade environment
-	 * @param stockHolding the stock holding to sell
-	 * @param tradeCost    the cost of a trade
-	 * @param day          date of trade
+	 * @param environment the paper trade environment
+	 * @param symbol      the stock held to sell
+	 * @param tradeCost   the cost of a trade
+	 * @param day         date of trade
 	 */
-	protected static void sell(Environment environment, Variables variables, StockHolding stockHolding, Money tradeCost,
+	protected static void sell(Environment environment, Variables variables, Symbol symbol, Money tradeCost,
 			double sellPrice, int day) throws EvaluationException, MissingQuoteException {
 
 		// Make sure we have enough money for the trade
-		if (environment.cashAccount.getValue().isGreaterThanEqual(tradeCost)) {
+		if (environment.ledger.getCash().isGreaterThanEqual(tradeCost)) {
 
 			// Get the number of shares we own - we will sell all of them
-			int shares = stockHolding.getShares();
-			Symbol symbol = stockHolding.getSymbol();
+			int shares = environment.ledger.getShares(symbol);
 
 			// If the sellPrice is zero, buy at open price.
 			if (sellPrice == 0) {
@@ -183,10 +232,7 @@ public class PaperTrade {
 			// It simulates an order of selling at fixed price (sellPrice).
 			if (sellPrice <= environment.quoteBundle.getQuote(symbol, IQuote.DAY_HIGH, day)) {
 				Money amount = new Money(shares * sellPrice);
-				TradingDate date = environment.quoteBundle.offsetToDate(day);
-				Transaction sell = Transaction.newReduce(date, amount, symbol, shares, tradeCost,
-						environment.cashAccount, environment.shareAccount);
-				environment.portfolio.addTransaction(sell);
+				environment.ledger.reduce(day, symbol, amount, tradeCost);
 			}
 		}
 	}
@@ -220,11 +266,7 @@ public class PaperTrade {
 				// Now calculate the actual amount the shares will cost
 				amount = new Money(sharePrice * shares);
 
-				TradingDate date = environment.quoteBundle.offsetToDate(day);
-				Transaction buy = Transaction.newAccumulate(date, amount, symbol, shares, tradeCost,
-						environment.cashAccount, environment.shareAccount);
-
-				environment.portfolio.addTransaction(buy);
+				environment.ledger.accumulate(day, symbol, shares, amount, tradeCost);
 				return true;
 			}
 		}
@@ -251,11 +293,10 @@ public class PaperTrade {
 			throws EvaluationException {
 
 		// Iterate through our stock holdings and see if we should sell any
-		List stockHoldings = new ArrayList(environment.shareAccount.getStockHoldings().values());
+		Symbol[] stockHoldings = environment.ledger.getHoldings();
 
-		for (Iterator iterator = stockHoldings.iterator(); iterator.hasNext();) {
-			StockHolding stockHolding = (StockHolding) iterator.next();
-			Symbol symbol = stockHolding.getSymbol();
+		for (int i = 0; i < stockHoldings.length; i++) {
+			Symbol symbol = stockHoldings[i];
 
 			// If we care about the order, make sure the "order" variable is set.
 			if (orderCache.isOrdered()) {
@@ -268,9 +309,9 @@ public class PaperTrade {
 				variables.setValue("order", order);
 			}
 
-			variables.setValue("held", getHoldingTime(environment, stockHolding, dateOffset));
+			variables.setValue("held", getHoldingTime(environment, symbol, dateOffset));
 
-			variables.setValue("stockcapital", getStockCapital(environment, stockHolding, symbol, dateOffset));
+			variables.setValue("stockcapital", getStockCapital(environment, symbol, dateOffset));
 
 			try {
 				// If you want to buy the stock, do not sell it.
@@ -282,15 +323,13 @@ public class PaperTrade {
 						// set tradeValueWanted = 0 and sell at open price.
 						double tradeValueWanted = 0;
 						if (!environment.tradeValueSell.equals("open")) {
-							IExpression tradeValueSellExpression = ExpressionFactory
-									.newExpression(environment.tradeValueSell);
-							tradeValueWanted = tradeValueSellExpression.evaluate(variables, environment.quoteBundle,
-									symbol, dateOffset);
+							tradeValueWanted = environment.tradeValueSellExpression.evaluate(variables,
+									environment.quoteBundle, symbol, dateOffset);
 						}
 
 						// Did we have enough money to buy at least one share?
 						// Will the stock reach the price wanted (tradeValueWanted)?
-						sell(environment, variables, stockHolding, tradeCost, tradeValueWanted, dateOffset + 1);
+						sell(environment, variables, symbol, tradeCost, tradeValueWanted, dateOffset + 1);
 					}
 				}
 			} catch (MissingQuoteException e) {
@@ -325,24 +364,41 @@ public class PaperTrade {
 
 		// If we have enough money, iterate through stocks available today -
 		// should we buy any of it?
-		Money cash = environment.cashAccount.getValue();
+		Money cash = environment.ledger.getCash();
 
 		if (stockValue.add(tradeCost.multiply(2)).isLessThanEqual(cash)) {
 			int order = 0;
 
+			// Value of the buy rule for each symbol screened so far
+			double[] buyValues = null;
+			int screened = 0;
+
+			if (environment.buyEvaluator != null) {
+				buyValues = new double[symbols.size()];
+				environment.buyEvaluator.setIndexVariable(orderCache.isOrdered() ? "order" : null);
+			}
+
 			// Iterate through stocks available today - should we buy or sell any of it?
 			for (Iterator iterator = symbols.iterator(); iterator.hasNext();) {
 				Symbol symbol = (Symbol) iterator.next();
 
 				// Skip if we already own it
-				if (!environment.shareAccount.isHolding(symbol)) {
+				if (!environment.ledger.isHolding(symbol)) {
+
+					// Screen the next few symbols for the buy rule
+					if (buyValues != null && order >= screened) {
+						screened = Math.min(order + SCREEN_SIZE, symbols.size());
+						environment.buyEvaluator.evaluate(variables, quoteBundle, symbols, dateOffset, order,
+								screened, buyValues);
+					}
 
 					// If we care about the order, make sure the "order" variable is set
 					if (orderCache.isOrdered())
 						variables.setValue("order", order);
 
 					try {
-						if (buy.evaluate(variables, quoteBundle, symbol, dateOffset) >= IExpression.TRUE) {
+						if (evaluateBuyRule(environment, quoteBundle, variables, buy, symbol, dateOffset, buyValues,
+								order) >= IExpression.TRUE) {
 
 							// calculate the price wanted by user trade value expression
 							// to buy the stock (tradeValueWanted).
@@ -350,10 +406,8 @@ public class PaperTrade {
 							// set tradeValueWanted = 0 and buy at open price.
 							double tradeValueWanted = 0;
 							if (!environment.tradeValueBuy.equals("open")) {
-								IExpression tradeValueBuyExpression = ExpressionFactory
-										.newExpression(environment.tradeValueBuy);
-								tradeValueWanted = tradeValueBuyExpression.evaluate(variables, environment.quoteBundle,
-										symbol, dateOffset);
+								tradeValueWanted = environment.tradeValueBuyExpression.evaluate(variables,
+										environment.quoteBundle, symbol, dateOffset);
 							}
 
 							// Did we have enough money to buy at least one share?
@@ -363,7 +417,7 @@ public class PaperTrade {
 
 								// If there is no more money left, don't even look at the
 								// other stocks
-								cash = environment.cashAccount.getValue();
+								cash = environment.ledger.getCash();
 
 								if (stockValue.add(tradeCost.multiply(2)).isGreaterThan(cash))
 									break;
@@ -382,39 +436,48 @@ public class PaperTrade {
 		}
 	}
 
+	// Return the value of the buy rule for the symbol at the given index, either
+	// from the screened values or by evaluating it
+	private static double evaluateBuyRule(Environment environment, EODQuoteBundle quoteBundle, Variables variables,
+			IExpression buy, Symbol symbol, int dateOffset, double[] buyValues, int index)
+			throws EvaluationException {
+
+		if (buyValues == null)
+			return buy.evaluate(variables, quoteBundle, symbol, dateOffset);
+
+		EvaluationException e = environment.buyEvaluator.getException(index);
+
+		if (e != null)
+			throw e;
+
+		return buyValues[index];
+	}
+
 	/**
 	 * Return the number of days we have held the given stock.
 	 *
-	 * @param environment  the paper trade environment
-	 * @param stockHolding to query
-	 * @param dateOffset   current date
+	 * @param environment the paper trade environment
+	 * @param symbol      the stock held
+	 * @param dateOffset  current date
 	 * @return the holding time
 	 */
-	protected static int getHoldingTime(Environment environment, StockHolding stockHolding, int dateOffset) {
-		try {
-			return (1 - (EODQuoteCache.getInstance().dateToOffset(stockHolding.getDate()) - dateOffset));
-
-		} catch (WeekendDateException e) {
-			assert false;
-			return 0;
-		}
+	protected static int getHoldingTime(Environment environment, Symbol symbol, int dateOffset) {
+		return (1 - (environment.ledger.getDateOffset(symbol) - dateOffset));
 	}
 
 	/**
 	 * Return the actual capital of the given stock.
 	 *
-	 * @param environment  the paper trade environment
-	 * @param stockHolding to query
-	 * @param dateOffset   current date
-	 * @param symbol       the stock of whom you want to know the capital owned
+	 * @param environment the paper trade environment
+	 * @param symbol      the stock of whom you want to know the capital owned
+	 * @param dateOffset  current date
 	 * @return the actual capital of the given stock
 	 */
-	protected static double getStockCapital(Environment environment, StockHolding stockHolding, Symbol symbol,
-			int dateOffset) {
+	protected static double getStockCapital(Environment environment, Symbol symbol, int dateOffset) {
 		double retValue = 0.0D;
 		try {
 			// Set the actual value of capital for the stock
-			int shares = stockHolding.getShares();
+			int shares = environment.ledger.getShares(symbol);
 			double price = environment.quoteBundle.getQuote(symbol, IQuote.DAY_CLOSE, dateOffset);
 			retValue = (double) price * shares;
 		} catch (MissingQuoteException e) {
@@ -422,7 +485,7 @@ public class PaperTrade {
 			// Can't do nothing unless num shares == 0,
 			// otherwise stockcapital will = 0
 
-			int shares = stockHolding.getShares();
+			int shares = environment.ledger.getShares(symbol);
 
 			try {
 				if (shares > 0) {
@@ -438,17 +501,16 @@ public class PaperTrade {
 	}
 
 	/**
-	 * Return the actual capital of the portfolio.
+	 * Return the actual capital of the paper trade.
 	 *
-	 * @param portfolio   the paper trade portfolio
-	 * @param quoteBundle historical quote data
-	 * @param dateOffset  current date
-	 * @return the actual capital of the portfolio
+	 * @param ledger     the paper trade ledger
+	 * @param dateOffset current date
+	 * @return the actual capital of the paper trade
 	 */
-	protected static double getCapital(Portfolio portfolio, EODQuoteBundle quoteBundle, int dateOffset) {
+	protected static double getCapital(PaperTradeLedger ledger, int dateOffset) {
 		double retValue = 0.0D;
 		try {
-			retValue = portfolio.getValue(quoteBundle, dateOffset).doubleValue();
+			retValue = ledger.getValue(dateOffset).doubleValue();
 		} catch (MissingQuoteException e) {
 			// Ignore and move on
 		} finally {
@@ -471,9 +533,9 @@ public class PaperTrade {
 	 * @param capital       initial capital in the portfolio
 	 * @param stockValue    the rough value of each stock holding
 	 * @param tradeCost     the cost of a trade
-	 * @return the portfolio at the close of the last day's trade
+	 * @return the ledger at the close of the last day's trade
 	 */
-	public static Portfolio paperTrade(String portfolioName, EODQuoteBundle quoteBundle, Variables variables,
+	public static PaperTradeLedger paperTrade(String portfolioName, EODQuoteBundle quoteBundle, Variables variables,
 			OrderCache orderCache, TradingDate startDate, TradingDate endDate, IExpression buy, IExpression sell,
 			Money capital, Money stockValue, Money tradeCost, String tradeValueBuy, String tradeValueSell)
 			throws EvaluationException {
@@ -484,6 +546,11 @@ public class PaperTrade {
 				tradeValueBuy, tradeValueSell);
 		int dateOffset = environment.startDateOffset;
 
+		// Rules often share subexpressions, e.g. the same moving average
+		IExpression[] rules = environment.shareSubexpressions(buy, sell);
+		buy = rules[0];
+		sell = rules[1];
+
 		// Paper Trading variables
 		ImplicitVariables.getInstance().setup(variables, orderCache.isOrdered());
 
@@ -501,25 +568,21 @@ public class PaperTrade {
 
 			// days from last transaction, if no such transaction,
 			// the daysfromstart value should be safe to use.
-			TradingDate dateOfLastTransaction = environment.portfolio.getLastDate();
-
-			int daysLastTrn = (dateOfLastTransaction != null)
-					? daysFromStart - dateOfLastTransaction.getDifference(startDate)
-					: daysFromStart;
+			int daysLastTrn = daysFromStart - environment.ledger.getLastDifference();
 
 			variables.setValue("daysfromlastransaction", daysLastTrn);
 
 			// Set the value of the number of transactions done until now
-			variables.setValue("transactions", environment.portfolio.countTransactions());
+			variables.setValue("transactions", environment.ledger.countTransactions());
 
 			// Set the value of actual capital
-			variables.setValue("capital", getCapital(environment.portfolio, environment.quoteBundle, dateOffset));
+			variables.setValue("capital", getCapital(environment.ledger, dateOffset));
 
 			// Get all the (ordered) symbols that we can trade for today and
 			// that we have quotes for.
 			List symbols = orderCache.getTodaySymbols(dateOffset);
 
-			int origTransactionCount = environment.portfolio.countTransactions();
+			int origTransactionCount = environment.ledger.countTransactions();
 
 			sellTrades(environment, quoteBundle, variables, sell, buy, dateOffset, tradeCost, symbols, orderCache);
 
@@ -534,7 +597,7 @@ public class PaperTrade {
 		setTip(environment, quoteBundle, variables, buy, sell, dateOffset, tradeCost,
 				orderCache.getTodaySymbols(dateOffset), orderCache);
 
-		return environment.portfolio;
+		return environment.ledger;
 	}
 
 	/**
@@ -554,9 +617,9 @@ public class PaperTrade {
 	 * @param capital       initial capital in the portfolio
 	 * @param numberStocks  try to keep this number of stocks in the portfolio
 	 * @param tradeCost     the cost of a trade
-	 * @return the portfolio at the close of the last day's trade
+	 * @return the ledger at the close of the last day's trade
 	 */
-	public static Portfolio paperTrade(String portfolioName, EODQuoteBundle quoteBundle, Variables variables,
+	public static PaperTradeLedger paperTrade(String portfolioName, EODQuoteBundle quoteBundle, Variables variables,
 			OrderCache orderCache, TradingDate startDate, TradingDate endDate, IExpression buy, IExpression sell,
 			Money capital, int numberStocks, Money tradeCost, String tradeValueBuy, String tradeValueSell)
 			throws EvaluationException {
@@ -567,6 +630,11 @@ public class PaperTrade {
 				tradeValueBuy, tradeValueSell);
 		int dateOffset = environment.startDateOffset;
 
+		// Rules often share subexpressions, e.g. the same moving average
+		IExpression[] rules = environment.shareSubexpressions(buy, sell);
+		buy = rules[0];
+		sell = rules[1];
+
 		// Paper Trading variables
 		ImplicitVariables.getInstance().setup(variables, orderCache.isOrdered());
 
@@ -585,25 +653,21 @@ public class PaperTrade {
 
 			// days from last transaction, if no such transaction,
 			// the daysfromstart value should be safe to use.
-			TradingDate dateOfLastTransaction = environment.portfolio.getLastDate();
-
-			int daysLastTrn = (dateOfLastTransaction != null)
-					? daysFromStart - dateOfLastTransaction.getDifference(startDate)
-					: daysFromStart;
+			int daysLastTrn = daysFromStart - environment.ledger.getLastDifference();
 
 			variables.setValue("daysfromlasttransaction", daysLastTrn);
 
 			// Set the value of the number of transactions done until now
-			variables.setValue("transactions", environment.portfolio.countTransactions());
+			variables.setValue("transactions", environment.ledger.countTransactions());
 
 			// Set the value of actual capital
-			variables.setValue("capital", getCapital(environment.portfolio, environment.quoteBundle, dateOffset));
+			variables.setValue("capital", getCapital(environment.ledger, dateOffset));
 
 			// Get all the (ordered) symbols that we can trade for today and
 			// that we have quotes for.
 			List symbols = orderCache.getTodaySymbols(dateOffset);
 
-			int origTransactionCount = environment.portfolio.countTransactions();
+			int origTransactionCount = environment.ledger.countTransactions();
 
 			sellTrades(environment, quoteBundle, variables, sell, buy, dateOffset, tradeCost, symbols, orderCache);
 
@@ -613,7 +677,7 @@ public class PaperTrade {
 
 			try {
 				// stockValue = (portfolio / numberStocks) - (2 * tradeCost)
-				Money portfolioValue = environment.portfolio.getValue(quoteBundle, dateOffset);
+				Money portfolioValue = environment.ledger.getValue(dateOffset);
 				Money stockValue = portfolioValue.divide(numberStocks).subtract(tradeCost.multiply(2));
 
 				buyTrades(environment, quoteBundle, variables, buy, dateOffset, tradeCost, symbols, orderCache,
@@ -630,7 +694,7 @@ public class PaperTrade {
 		setTip(environment, quoteBundle, variables, buy, sell, dateOffset, tradeCost,
 				orderCache.getTodaySymbols(dateOffset), orderCache);
 
-		return environment.portfolio;
+		return environment.ledger;
 	}
 
 	/**
@@ -639,20 +703,30 @@ public class PaperTrade {
 	private static void setTip(Environment environment, EODQuoteBundle quoteBundle, Variables variables, IExpression buy,
 			IExpression sell, int dateOffset, Money tradeCost, List symbols, OrderCache orderCache) {
 
-		symbolStock = new String[symbols.size()];
-		buyRule = new boolean[symbols.size()];
-		sellRule = new boolean[symbols.size()];
-		buyValue = new double[symbols.size()];
-		sellValue = new double[symbols.size()];
+		Tip tip = createTip(symbols.size());
 
-		setSellTip(environment, quoteBundle, variables, sell, dateOffset, tradeCost, symbols, orderCache);
+		setSellTip(tip, environment, quoteBundle, variables, sell, dateOffset, tradeCost, symbols, orderCache);
 
-		setBuyTip(environment, quoteBundle, variables, buy, dateOffset, tradeCost, symbols, orderCache);
+		setBuyTip(tip, environment, quoteBundle, variables, buy, dateOffset, tradeCost, symbols, orderCache);
 
 	}
 
-	private static void setSellTip(Environment environment, EODQuoteBundle quoteBundle, Variables variables,
-			IExpression sell, int dateOffset, Money tradeCost, List symbols, OrderCache orderCache) {
+	/**
+	 * Create an empty tip for the given number of symbols and make it the tip
+	 * returned by {@link #getTip} on this thread.
+	 *
+	 * @param size the number of symbols traded today
+	 * @return the new tip
+	 */
+	protected static Tip createTip(int size) {
+		Tip tip = new Tip(size);
+		tips.set(tip);
+		return tip;
+	}
+
+	private static void setSellTip(Tip tip, Environment environment, EODQuoteBundle quoteBundle,
+			Variables variables, IExpression sell, int dateOffset, Money tradeCost, List symbols,
+			OrderCache orderCache) {
 
 		// Count the sell tip for the next day
 
@@ -676,33 +750,26 @@ public class PaperTrade {
 			}
 
 			// Check if the stock is hold, so that held variable is set.
-			List stockHoldings = new ArrayList(environment.shareAccount.getStockHoldings().values());
-			for (Iterator iteratorHolding = stockHoldings.iterator(); iteratorHolding.hasNext();) {
-				StockHolding stockHolding = (StockHolding) iteratorHolding.next();
-				Symbol symbolHolding = stockHolding.getSymbol();
-				if (symbolHolding.toString().equals(symbol.toString())) {
-					variables.setValue("held", getHoldingTime(environment, stockHolding, dateOffset));
-					variables.setValue("stockcapital", getStockCapital(environment, stockHolding, symbol, dateOffset));
-					break;
-				} else {
-					variables.setValue("held", 0);
-					variables.setValue("stockcapital", 0.0D);
-				}
+			if (environment.ledger.isHolding(symbol)) {
+				variables.setValue("held", getHoldingTime(environment, symbol, dateOffset));
+				variables.setValue("stockcapital", getStockCapital(environment, symbol, dateOffset));
+			} else {
+				variables.setValue("held", 0);
+				variables.setValue("stockcapital", 0.0D);
 			}
 
 			try {
 				// Get if the stock must be sold
-				sellRule[index] = (sell.evaluate(variables, quoteBundle, symbol, dateOffset) >= IExpression.TRUE);
+				tip.sellRule[index] = (sell.evaluate(variables, quoteBundle, symbol, dateOffset) >= IExpression.TRUE);
 
 				// calculate the price wanted by user trade value expression
 				// to sell the stock (tradeValueWanted).
 				// If trade value expression is 'open', then
 				// set the price to zero (sell at open price).
-				sellValue[index] = 0;
+				tip.sellValue[index] = 0;
 				if (!environment.tradeValueSell.equals("open")) {
-					IExpression tradeValueSellExpression = ExpressionFactory.newExpression(environment.tradeValueSell);
-					sellValue[index] = tradeValueSellExpression.evaluate(variables, environment.quoteBundle, symbol,
-							dateOffset);
+					tip.sellValue[index] = environment.tradeValueSellExpression.evaluate(variables,
+							environment.quoteBundle, symbol, dateOffset);
 				}
 			} catch (EvaluationException e) {
 				// do nothing
@@ -712,8 +779,9 @@ public class PaperTrade {
 		}
 	}
 
-	private static void setBuyTip(Environment environment, EODQuoteBundle quoteBundle, Variables variables,
-			IExpression buy, int dateOffset, Money tradeCost, List symbols, OrderCache orderCache) {
+	private static void setBuyTip(Tip tip, Environment environment, EODQuoteBundle quoteBundle,
+			Variables variables, IExpression buy, int dateOffset, Money tradeCost, List symbols,
+			OrderCache orderCache) {
 
 		// Count the buy tip for the next day
 		variables.setValue("held", 0);
@@ -724,11 +792,19 @@ public class PaperTrade {
 
 		int index = 0;
 
+		// Screen all the symbols for the buy rule at once if we can
+		double[] buyValues = null;
+
+		if (environment.buyEvaluator != null) {
+			environment.buyEvaluator.setIndexVariable(orderCache.isOrdered() ? "order" : null);
+			buyValues = environment.buyEvaluator.evaluate(variables, quoteBundle, symbols, dateOffset);
+		}
+
 		// Iterate through stocks available today
 		for (Iterator iterator = symbols.iterator(); iterator.hasNext();) {
 			Symbol symbol = (Symbol) iterator.next();
 
-			symbolStock[index] = new String(symbol.get());
+			tip.symbolStock[index] = new String(symbol.get());
 
 			// If we care about the order, make sure the "order" variable is set
 			if (orderCache.isOrdered())
@@ -736,26 +812,26 @@ public class PaperTrade {
 
 			try {
 				// Get if the stock must be bought
-				buyRule[index] = (buy.evaluate(variables, quoteBundle, symbol, dateOffset) >= IExpression.TRUE);
+				tip.buyRule[index] = (evaluateBuyRule(environment, quoteBundle, variables, buy, symbol, dateOffset,
+						buyValues, index) >= IExpression.TRUE);
 
 				// If you own the stock and both sell and buy rule fire,
 				// you wouldn't sell it, neither would you buy it.
 				// So it is necessary set the buyRule and sellRule to false.
-				// if(environment.shareAccount.isHolding(symbol) && sellRule[index] &&
-				// buyRule[index]) {
-				// sellRule[index] = false;
-				// buyRule[index] = false;
+				// if(environment.shareAccount.isHolding(symbol) && tip.sellRule[index] &&
+				// tip.buyRule[index]) {
+				// tip.sellRule[index] = false;
+				// tip.buyRule[index] = false;
 				// }
 
 				// calculate the price wanted by user trade value expression
 				// to buy the stock (tradeValueWanted).
 				// If trade value expression is 'open', then
 				// set this price to zero (buy at open price).
-				buyValue[index] = 0;
+				tip.buyValue[index] = 0;
 				if (!environment.tradeValueBuy.equals("open")) {
-					IExpression tradeValueBuyExpression = ExpressionFactory.newExpression(environment.tradeValueBuy);
-					buyValue[index] = tradeValueBuyExpression.evaluate(variables, environment.quoteBundle, symbol,
-							dateOffset);
+					tip.buyValue[index] = environment.tradeValueBuyExpression.evaluate(variables,
+							environment.quoteBundle, symbol, dateOffset);
 				}
 			} catch (EvaluationException e) {
 				// do nothing
@@ -771,11 +847,13 @@ public class PaperTrade {
 	 * Return a string representing the tip for next day trading. The method can be
 	 * called after a paperTrade one, so doing it obtains a tip for next day
 	 * trading, where next is the date folowing the end date of the trading period
-	 * of paperTrade.
+	 * of paperTrade. The paper trade must have been run by the same thread.
 	 *
 	 * @return the string representing the tip.
 	 */
 	public static String getTip() {
+		Tip tip = (Tip) tips.get();
+
 		// tip() format for output numbers
 		NumberFormat format;
 
@@ -791,19 +869,19 @@ public class PaperTrade {
 
 		retValue.append(Locale.getString("BUY_STOCKS"));
 
-		for (int i = 0; i < symbolStock.length; i++) {
+		for (int i = 0; i < tip.symbolStock.length; i++) {
 
-			if (buyRule[i]) {
+			if (tip.buyRule[i]) {
 				if (found % STOCKS_PER_LINES == 0) {
 					retValue.append("\n");
 				} else {
 					retValue.append(", ");
 				}
 
-				retValue.append(symbolStock[i]);
+				retValue.append(tip.symbolStock[i]);
 
-				if (buyValue[i] != 0)
-					retValue.append(" (@ " + format.format(buyValue[i]) + ")");
+				if (tip.buyValue[i] != 0)
+					retValue.append(" (@ " + format.format(tip.buyValue[i]) + ")");
 
 				found++;
 			}
@@ -815,19 +893,19 @@ public class PaperTrade {
 		found = 0;
 		retValue.append(Locale.getString("SELL_STOCKS"));
 
-		for (int i = 0; i < symbolStock.length; i++) {
+		for (int i = 0; i < tip.symbolStock.length; i++) {
 
-			if (sellRule[i]) {
+			if (tip.sellRule[i]) {
 				if (found % STOCKS_PER_LINES == 0) {
 					retValue.append("\n");
 				} else {
 					retValue.append(", ");
 				}
 
-				retValue.append(symbolStock[i]);
+				retValue.append(tip.symbolStock[i]);
 
-				if (sellValue[i] != 0)
-					retValue.append(" (@ " + format.format(sellValue[i]) + ")");
+				if (tip.sellValue[i] != 0)
+					retValue.append(" (@ " + format.format(tip.sellValue[i]) + ")");
 
 				found++;
 			}
@@ -841,7 +919,7 @@ public class PaperTrade {
 
 	private static void resetDaysLastVar(Environment environment, Variables variables, int origTrnCount,
 			int lastTrnOffset) {
-		int newTransactionCount = environment.portfolio.countTransactions() - origTrnCount;
+		int newTransactionCount = environment.ledger.countTransactions() - origTrnCount;
 
 		if (newTransactionCount > 0) {
 			variables.setValue("daysfromlasttransaction", 0);
@@ -0,0 +1,343 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser;
+
+import java.util.Arrays;
+
+import nz.org.venice.portfolio.CashAccount;
+import nz.org.venice.portfolio.Portfolio;
+import nz.org.venice.portfolio.ShareAccount;
+import nz.org.venice.portfolio.Transaction;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteCache;
+import nz.org.venice.quote.IQuote;
+import nz.org.venice.quote.MissingQuoteException;
+import nz.org.venice.quote.Symbol;
+import nz.org.venice.util.Money;
+import nz.org.venice.util.TradingDate;
+import nz.org.venice.util.WeekendDateException;
+
+/**
+ * The cash, stock holdings and trades of a paper trade. A paper trade only ever
+ * has a single cash account and a single share account and is run thousands of
+ * times by the genetic programme, so rather than building a {@link Portfolio}
+ * the ledger keeps its money in the smallest unit of the currency, as
+ * {@link Money} does internally, and its holdings and trades in arrays. The
+ * portfolio is only built by {@link #toPortfolio} when a result is shown to the
+ * user.
+ *
+ * @see PaperTrade
+ */
+public class PaperTradeLedger {
+
+	// Initial size of the holding and trade arrays
+	private final static int INITIAL_SIZE = 16;
+
+	// Historical quote data
+	private EODQuoteBundle quoteBundle;
+
+	// Name of the portfolio built from the ledger
+	private String portfolioName;
+
+	// Date the capital was deposited
+	private TradingDate startDate;
+
+	// Initial capital, also used to convert to and from the smallest unit of
+	// its currency
+	private Money capital;
+
+	// Cash in the smallest unit of the currency
+	private long cash;
+
+	// Stock holdings in the order they were bought
+	private int holdings = 0;
+	private Symbol[] holdingSymbols = new Symbol[INITIAL_SIZE];
+	private int[] holdingShares = new int[INITIAL_SIZE];
+	private int[] holdingDateOffsets = new int[INITIAL_SIZE];
+
+	// Trades in the order they were made
+	private int trades = 0;
+	private int[] tradeTypes = new int[INITIAL_SIZE];
+	private int[] tradeDateOffsets = new int[INITIAL_SIZE];
+	private Symbol[] tradeSymbols = new Symbol[INITIAL_SIZE];
+	private int[] tradeShares = new int[INITIAL_SIZE];
+	private long[] tradeAmounts = new long[INITIAL_SIZE];
+	private long[] tradeCosts = new long[INITIAL_SIZE];
+
+	// Number of trading days between the start date and the date of the last
+	// transaction, or -1 if it hasn't been calculated since the last trade
+	private int lastDifference = 0;
+
+	/**
+	 * Create a new ledger holding the given capital.
+	 *
+	 * @param quoteBundle   historical quote data
+	 * @param portfolioName name of the portfolio built from the ledger
+	 * @param startDate     date the capital is deposited
+	 * @param capital       initial capital
+	 */
+	public PaperTradeLedger(EODQuoteBundle quoteBundle, String portfolioName, TradingDate startDate, Money capital) {
+		this.quoteBundle = quoteBundle;
+		this.portfolioName = portfolioName;
+		this.startDate = startDate;
+		this.capital = capital;
+
+		cash = capital.getUnits();
+	}
+
+	/**
+	 * Return the cash in the ledger.
+	 *
+	 * @return the cash
+	 */
+	public Money getCash() {
+		return capital.fromUnits(cash);
+	}
+
+	/**
+	 * Return the value of the cash and stock holdings on the given date.
+	 *
+	 * @param dateOffset fast access date offset
+	 * @return the value
+	 * @exception MissingQuoteException if there is no quote for a stock held
+	 */
+	public Money getValue(int dateOffset) throws MissingQuoteException {
+		long value = cash;
+
+		// Round each holding separately as the share account does
+		for (int i = 0; i < holdings; i++)
+			value += capital.toUnits(
+					quoteBundle.getQuote(holdingSymbols[i], IQuote.DAY_CLOSE, dateOffset) * holdingShares[i]);
+
+		return capital.fromUnits(value);
+	}
+
+	/**
+	 * Return the value of the cash and stock holdings on the given date.
+	 *
+	 * @param date the date
+	 * @return the value
+	 * @exception MissingQuoteException if there is no quote for a stock held
+	 */
+	public Money getValue(TradingDate date) throws MissingQuoteException {
+		try {
+			return getValue(EODQuoteCache.getInstance().dateToOffset(date));
+		} catch (WeekendDateException e) {
+			throw MissingQuoteException.getInstance();
+		}
+	}
+
+	/**
+	 * Return the stocks held, in the order they were bought.
+	 *
+	 * @return the symbols of the stocks held
+	 */
+	public Symbol[] getHoldings() {
+		Symbol[] symbols = new Symbol[holdings];
+		System.arraycopy(holdingSymbols, 0, symbols, 0, holdings);
+		return symbols;
+	}
+
+	/**
+	 * Return whether the given stock is held.
+	 *
+	 * @param symbol the stock
+	 * @return <code>true</code> if the stock is held
+	 */
+	public boolean isHolding(Symbol symbol) {
+		return indexOf(symbol) != -1;
+	}
+
+	/**
+	 * Return the number of shares held in the given stock.
+	 *
+	 * @param symbol the stock
+	 * @return the number of shares, or <code>0</code> if the stock isn't held
+	 */
+	public int getShares(Symbol symbol) {
+		int index = indexOf(symbol);
+
+		return index == -1 ? 0 : holdingShares[index];
+	}
+
+	/**
+	 * Return the date the given stock was bought.
+	 *
+	 * @param symbol the stock, which must be held
+	 * @return fast access date offset
+	 */
+	public int getDateOffset(Symbol symbol) {
+		int index = indexOf(symbol);
+
+		assert index != -1;
+
+		return holdingDateOffsets[index];
+	}
+
+	/**
+	 * Return the number of transactions, including the deposit of the initial
+	 * capital.
+	 *
+	 * @return the number of transactions
+	 */
+	public int countTransactions() {
+		return trades + 1;
+	}
+
+	/**
+	 * Return the number of trading days between the start date and the date of
+	 * the last transaction.
+	 *
+	 * @return the number of trading days
+	 */
+	public int getLastDifference() {
+		if (lastDifference == -1)
+			lastDifference = quoteBundle.offsetToDate(tradeDateOffsets[trades - 1]).getDifference(startDate);
+
+		return lastDifference;
+	}
+
+	/**
+	 * Buy shares in a stock that isn't already held.
+	 *
+	 * @param dateOffset date of the trade
+	 * @param symbol     the stock
+	 * @param shares     number of shares bought
+	 * @param amount     price paid for the shares
+	 * @param tradeCost  the cost of the trade
+	 */
+	public void accumulate(int dateOffset, Symbol symbol, int shares, Money amount, Money tradeCost) {
+		assert shares > 0 && !isHolding(symbol);
+		assert amount.getCurrency().equals(capital.getCurrency())
+				&& tradeCost.getCurrency().equals(capital.getCurrency());
+
+		if (holdings == holdingSymbols.length) {
+			holdingSymbols = Arrays.copyOf(holdingSymbols, holdings * 2);
+			holdingShares = Arrays.copyOf(holdingShares, holdings * 2);
+			holdingDateOffsets = Arrays.copyOf(holdingDateOffsets, holdings * 2);
+		}
+
+		holdingSymbols[holdings] = symbol;
+		holdingShares[holdings] = shares;
+		holdingDateOffsets[holdings] = dateOffset;
+		holdings++;
+
+		cash -= amount.getUnits() + tradeCost.getUnits();
+
+		addTrade(Transaction.ACCUMULATE, dateOffset, symbol, shares, amount, tradeCost);
+	}
+
+	/**
+	 * Sell all the shares held in a stock.
+	 *
+	 * @param dateOffset date of the trade
+	 * @param symbol     the stock, which must be held
+	 * @param amount     price received for the shares
+	 * @param tradeCost  the cost of the trade
+	 */
+	public void reduce(int dateOffset, Symbol symbol, Money amount, Money tradeCost) {
+		int index = indexOf(symbol);
+
+		assert index != -1;
+		assert amount.getCurrency().equals(capital.getCurrency())
+				&& tradeCost.getCurrency().equals(capital.getCurrency());
+
+		int shares = holdingShares[index];
+
+		// Keep the remaining holdings in the order they were bought
+		int remaining = holdings - index - 1;
+		System.arraycopy(holdingSymbols, index + 1, holdingSymbols, index, remaining);
+		System.arraycopy(holdingShares, index + 1, holdingShares, index, remaining);
+		System.arraycopy(holdingDateOffsets, index + 1, holdingDateOffsets, index, remaining);
+		holdingSymbols[--holdings] = null;
+
+		cash += amount.getUnits() - tradeCost.getUnits();
+
+		addTrade(Transaction.REDUCE, dateOffset, symbol, shares, amount, tradeCost);
+	}
+
+	/**
+	 * Build the portfolio holding a single cash and a single share account that
+	 * the trades in the ledger would have made.
+	 *
+	 * @return the portfolio
+	 */
+	public Portfolio toPortfolio() {
+		Portfolio portfolio = new Portfolio(portfolioName, true);
+
+		CashAccount cashAccount = new CashAccount(PaperTrade.CASH_ACCOUNT_NAME);
+		ShareAccount shareAccount = new ShareAccount(PaperTrade.SHARE_ACCOUNT_NAME);
+
+		portfolio.addAccount(cashAccount);
+		portfolio.addAccount(shareAccount);
+
+		portfolio.addTransaction(Transaction.newDeposit(startDate, capital, cashAccount));
+
+		for (int i = 0; i < trades; i++) {
+			TradingDate date = quoteBundle.offsetToDate(tradeDateOffsets[i]);
+			Money amount = capital.fromUnits(tradeAmounts[i]);
+			Money tradeCost = capital.fromUnits(tradeCosts[i]);
+			Transaction transaction;
+
+			if (tradeTypes[i] == Transaction.ACCUMULATE)
+				transaction = Transaction.newAccumulate(date, amount, tradeSymbols[i], tradeShares[i], tradeCost,
+						cashAccount, shareAccount);
+			else
+				transaction = Transaction.newReduce(date, amount, tradeSymbols[i], tradeShares[i], tradeCost,
+						cashAccount, shareAccount);
+
+			portfolio.addTransaction(transaction);
+		}
+
+		return portfolio;
+	}
+
+	// Record a trade in the trade log
+	private void addTrade(int type, int dateOffset, Symbol symbol, int shares, Money amount, Money tradeCost) {
+		if (trades == tradeTypes.length) {
+			tradeTypes = Arrays.copyOf(tradeTypes, trades * 2);
+			tradeDateOffsets = Arrays.copyOf(tradeDateOffsets, trades * 2);
+			tradeSymbols = Arrays.copyOf(tradeSymbols, trades * 2);
+			tradeShares = Arrays.copyOf(tradeShares, trades * 2);
+			tradeAmounts = Arrays.copyOf(tradeAmounts, trades * 2);
+			tradeCosts = Arrays.copyOf(tradeCosts, trades * 2);
+		}
+
+		tradeTypes[trades] = type;
+		tradeDateOffsets[trades] = dateOffset;
+		tradeSymbols[trades] = symbol;
+		tradeShares[trades] = shares;
+		tradeAmounts[trades] = amount.getUnits();
+		tradeCosts[trades] = tradeCost.getUnits();
+		trades++;
+
+		lastDifference = -1;
+	}
+
+	// Return the index of the given stock in the holdings, or -1 if it isn't
+	// held. There are rarely more than a few holdings so a search is quicker
+	// than hashing the symbol.
+	private int indexOf(Symbol symbol) {
+		for (int i = 0; i < holdings; i++)
+			if (holdingSymbols[i].equals(symbol))
+				return i;
+
+		return -1;
+	}
+}
@@ -25,7 +25,14 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.beans.PropertyVetoException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
@@ -39,19 +46,26 @@ import javax.swing.SwingUtilities;
 import nz.org.venice.main.CommandManager;
 import nz.org.venice.main.IModule;
 import nz.org.venice.main.ModuleFrame;
+import nz.org.venice.parser.CrossSectionEvaluator;
 import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.ExpressionCompiler;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.Variable;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.portfolio.Portfolio;
+import nz.org.venice.parser.expression.AbstractExpression;
+import nz.org.venice.parser.expression.ExpressionOptimiser;
+import nz.org.venice.parser.expression.ExpressionProfiler;
+import nz.org.venice.prefs.PreferencesManager;
 import nz.org.venice.prefs.settings.AnalyserModuleSettings;
 import nz.org.venice.prefs.settings.ISettings;
 import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.ui.ExpressionEditorDialog;
 import nz.org.venice.ui.IProgressDialog;
 import nz.org.venice.ui.ProgressDialogManager;
 import nz.org.venice.util.Locale;
 import nz.org.venice.util.Money;
 import nz.org.venice.util.TradingDate;
+import nz.org.venice.util.VeniceLog;
 
 public class PaperTradeModule extends Page implements IModule {
 
@@ -70,6 +84,10 @@ public class PaperTradeModule extends Page implements IModule {
 	private PortfolioPage portfolioPage;
 	private TradeValuePage tradeValuePage;
 
+	// Profile of the last paper trade rules, if the user wants them profiled
+	private ExpressionProfiler profiler = null;
+	private String profiledRulesText;
+
 	/**
 	 * Create a new paper trade module.
 	 *
@@ -219,8 +237,12 @@ public class PaperTradeModule extends Page implements IModule {
 				if (parse()) {
 					List paperTradeResults = getPaperTradeResults();
 
-					if (paperTradeResults != null && !thread.isInterrupted())
+					if (paperTradeResults != null && !thread.isInterrupted()) {
 						display(paperTradeResults);
+
+						if (profiler != null)
+							displayProfile();
+					}
 				}
 			}
 		});
@@ -247,32 +269,169 @@ public class PaperTradeModule extends Page implements IModule {
 			return true;
 	}
 
-	private PaperTradeResult paperTrade(IProgressDialog progress, EODQuoteBundle quoteBundle,
+	private static PaperTradeResult paperTrade(IProgressDialog progress, EODQuoteBundle quoteBundle,
 			String quoteRangeDescription, OrderCache orderCache, TradingDate startDate, TradingDate endDate,
-			IExpression buyRule, IExpression sellRule, Money initialCapital, int mode, Money stockValue, int numberStocks,
-			Money tradeCost, Variables variables, int a, int b, int c, String tradeValueBuy, String tradeValueSell)
-			throws EvaluationException {
+			IExpression buyRule, IExpression sellRule, String buyRuleText, String sellRuleText, Money initialCapital,
+			int mode, Money stockValue, int numberStocks, Money tradeCost, Variables variables, int a, int b, int c,
+			String tradeValueBuy, String tradeValueSell) throws EvaluationException {
 
-		Portfolio portfolio;
+		PaperTradeLedger ledger;
 
 		if (mode == PortfolioPage.STOCK_VALUE_MODE) {
-			portfolio = PaperTrade.paperTrade(Locale.getString("PAPER_TRADE_OF", quoteRangeDescription), quoteBundle,
+			ledger = PaperTrade.paperTrade(Locale.getString("PAPER_TRADE_OF", quoteRangeDescription), quoteBundle,
 					variables, orderCache, startDate, endDate, buyRule, sellRule, initialCapital, stockValue, tradeCost,
 					tradeValueBuy, tradeValueSell);
 		} else {
-			assert portfolioPage.getMode() == PortfolioPage.NUMBER_STOCKS_MODE;
-			portfolio = PaperTrade.paperTrade(Locale.getString("PAPER_TRADE_OF", quoteRangeDescription), quoteBundle,
+			assert mode == PortfolioPage.NUMBER_STOCKS_MODE;
+			ledger = PaperTrade.paperTrade(Locale.getString("PAPER_TRADE_OF", quoteRangeDescription), quoteBundle,
 					variables, orderCache, startDate, endDate, buyRule, sellRule, initialCapital, numberStocks,
 					tradeCost, tradeValueBuy, tradeValueSell);
 		}
 
 		// Running the equation means we might need to load in
 		// more quotes so the note may have changed...
-		progress.setNote(Locale.getString("PAPER_TRADING"));
-		progress.increment();
+		synchronized (progress) {
+			progress.setNote(Locale.getString("PAPER_TRADING"));
+			progress.increment();
+		}
+
+		return new PaperTradeResult(ledger.toPortfolio(), quoteBundle, initialCapital, tradeCost, buyRuleText,
+				sellRuleText, a, b, c, startDate, endDate, PaperTrade.getTip());
+	}
+
+	// Paper trade every rule in the family one at a time, stopping when the
+	// thread is interrupted
+	static List paperTradeFamilyInOrder(Thread thread, IProgressDialog progress, int aRange, int bRange,
+			int cRange, EODQuoteBundle quoteBundle, String quoteRangeDescription, OrderCache orderCache,
+			TradingDate startDate, TradingDate endDate, IExpression buyRule, IExpression sellRule,
+			String buyRuleText, String sellRuleText, Money initialCapital, int mode, Money stockValue,
+			int numberStocks, Money tradeCost, String tradeValueBuy, String tradeValueSell)
+			throws EvaluationException {
+
+		List paperTradeResults = new ArrayList(aRange * bRange * cRange);
+		Variables variables = new Variables();
+
+		variables.add("a", IExpression.INTEGER_TYPE, Variable.CONSTANT);
+		variables.add("b", IExpression.INTEGER_TYPE, Variable.CONSTANT);
+		variables.add("c", IExpression.INTEGER_TYPE, Variable.CONSTANT);
+
+		for (int a = 1; a <= aRange; a++) {
+			if (thread.isInterrupted())
+				break;
+
+			variables.setValue("a", a);
+
+			for (int b = 1; b <= bRange; b++) {
+				if (thread.isInterrupted())
+					break;
+
+				variables.setValue("b", b);
+
+				for (int c = 1; c <= cRange; c++) {
+					if (thread.isInterrupted())
+						break;
+
+					variables.setValue("c", c);
+					paperTradeResults.add(paperTrade(progress, quoteBundle, quoteRangeDescription, orderCache,
+							startDate, endDate, buyRule, sellRule, buyRuleText, sellRuleText, initialCapital, mode,
+							stockValue, numberStocks, tradeCost, variables, a, b, c, tradeValueBuy, tradeValueSell));
+				}
+			}
+		}
+
+		return paperTradeResults;
+	}
+
+	// Paper trade every rule in the family on a pool of threads. Each thread
+	// trades its own copy of the rules, and the results come back in the same
+	// order as if the rules had been traded one at a time.
+	static List paperTradeFamily(final Thread thread, final IProgressDialog progress, int threads,
+			final int aRange, final int bRange, final int cRange, final EODQuoteBundle quoteBundle,
+			final String quoteRangeDescription, final OrderCache orderCache, final TradingDate startDate,
+			final TradingDate endDate, final IExpression buyRule, final IExpression sellRule,
+			final String buyRuleText, final String sellRuleText, final Money initialCapital, final int mode,
+			final Money stockValue, final int numberStocks, final Money tradeCost, final String tradeValueBuy,
+			final String tradeValueSell) throws EvaluationException {
+
+		final int numberEquations = aRange * bRange * cRange;
+		final PaperTradeResult[] results = new PaperTradeResult[numberEquations];
+		final EvaluationException[] exceptions = new EvaluationException[numberEquations];
+
+		// Equations are handed out in order, so when one fails every equation
+		// before it has already been started
+		final AtomicInteger nextEquation = new AtomicInteger();
+		final AtomicBoolean failed = new AtomicBoolean();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List workers = new ArrayList(threads);
+
+		try {
+			for (int i = 0; i < threads; i++) {
+				workers.add(executor.submit(new Runnable() {
+					public void run() {
+						IExpression workerBuyRule = (IExpression) buyRule.clone();
+						IExpression workerSellRule = (IExpression) sellRule.clone();
+
+						// Errors should report the lines of the rules the user
+						// entered
+						AbstractExpression.copyParseMetadata(buyRule, workerBuyRule);
+						AbstractExpression.copyParseMetadata(sellRule, workerSellRule);
+
+						while (!failed.get() && !thread.isInterrupted()) {
+							int equation = nextEquation.getAndIncrement();
+
+							if (equation >= numberEquations)
+								break;
+
+							int a = equation / (bRange * cRange) + 1;
+							int b = equation / cRange % bRange + 1;
+							int c = equation % cRange + 1;
+
+							Variables variables = new Variables();
+							variables.add("a", IExpression.INTEGER_TYPE, Variable.CONSTANT, a);
+							variables.add("b", IExpression.INTEGER_TYPE, Variable.CONSTANT, b);
+							variables.add("c", IExpression.INTEGER_TYPE, Variable.CONSTANT, c);
+
+							try {
+								results[equation] = paperTrade(progress, quoteBundle, quoteRangeDescription,
+										orderCache, startDate, endDate, workerBuyRule, workerSellRule, buyRuleText,
+										sellRuleText, initialCapital, mode, stockValue, numberStocks, tradeCost,
+										variables, a, b, c, tradeValueBuy, tradeValueSell);
+							} catch (EvaluationException e) {
+								// The exception may be shared with other threads
+								exceptions[equation] = e.copy();
+								failed.set(true);
+							}
+						}
+					}
+				}));
+			}
+
+			for (Iterator iterator = workers.iterator(); iterator.hasNext();)
+				((Future) iterator.next()).get();
+
+		} catch (InterruptedException e) {
+			// The user cancelled the paper trade. Keep the results we have.
+			thread.interrupt();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			else
+				throw (Error) e.getCause();
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List paperTradeResults = new ArrayList(numberEquations);
 
-		return new PaperTradeResult(portfolio, quoteBundle, initialCapital, tradeCost, buyRule.toString(),
-				sellRule.toString(), a, b, c, startDate, endDate, PaperTrade.getTip());
+		for (int equation = 0; equation < numberEquations; equation++) {
+			if (exceptions[equation] != null)
+				throw exceptions[equation];
+			else if (results[equation] != null)
+				paperTradeResults.add(results[equation]);
+		}
+
+		return paperTradeResults;
 	}
 
 	private List getPaperTradeResults() {
@@ -292,6 +451,36 @@ public class PaperTradeModule extends Page implements IModule {
 		TradingDate endDate = quoteRangePage.getQuoteRange().getLastDate();
 		IExpression buyRule = rulesPage.getBuyRule();
 		IExpression sellRule = rulesPage.getSellRule();
+
+		// The results show the rules as the user entered them
+		String buyRuleText = buyRule.toString();
+		String sellRuleText = sellRule.toString();
+
+		ExpressionOptimiser optimiser = new ExpressionOptimiser();
+		buyRule = optimiser.optimise(buyRule);
+		sellRule = optimiser.optimise(sellRule);
+
+		VeniceLog.getInstance().log("Optimised paper trade rules from " + optimiser.getNodeCountBefore() + " to "
+				+ optimiser.getNodeCountAfter() + " nodes");
+
+		// Profiled rules can't be compiled as the compiled code has no nodes to
+		// profile
+		if (PreferencesManager.getProfileRules()) {
+			profiler = new ExpressionProfiler();
+			profiledRulesText = Locale.getString("BUY_RULE") + ":\n" + buyRuleText + "\n\n"
+					+ Locale.getString("SELL_RULE") + ":\n" + sellRuleText;
+
+			buyRule = profiler.profile(Locale.getString("BUY_RULE"), buyRule);
+			sellRule = profiler.profile(Locale.getString("SELL_RULE"), sellRule);
+		} else {
+			profiler = null;
+
+			if (PreferencesManager.getCompileRules()) {
+				buyRule = ExpressionCompiler.compile(buyRule);
+				sellRule = ExpressionCompiler.compile(sellRule);
+			}
+		}
+
 		Money initialCapital = portfolioPage.getInitialCapital();
 		int mode = portfolioPage.getMode();
 		Money stockValue = portfolioPage.getStockValue();
@@ -323,46 +512,38 @@ public class PaperTradeModule extends Page implements IModule {
 
 		long startTime = System.currentTimeMillis();
 
+		if (profiler != null)
+			profiler.start();
+
 		try {
 			Variables variables = new Variables();
 
-			// If the user has selected rule family, then iterate through
-			// each combination of a, b, c
-			if (isFamilyEnabled) {
-				variables.add("a", IExpression.INTEGER_TYPE, Variable.CONSTANT);
-				variables.add("b", IExpression.INTEGER_TYPE, Variable.CONSTANT);
-				variables.add("c", IExpression.INTEGER_TYPE, Variable.CONSTANT);
-
-				for (int a = 1; a <= aRange; a++) {
-					if (thread.isInterrupted())
-						break;
-
-					variables.setValue("a", a);
-
-					for (int b = 1; b <= bRange; b++) {
-						if (thread.isInterrupted())
-							break;
-
-						variables.setValue("b", b);
+			int threads = Math.min(PreferencesManager.getAnalyserThreads(), numberEquations);
 
-						for (int c = 1; c <= cRange; c++) {
-							if (thread.isInterrupted())
-								break;
+			// Rules which can be evaluated by several threads at once are
+			// traded on a pool of threads. Profiled rules never can be.
+			if (isFamilyEnabled && threads > 1 && CrossSectionEvaluator.isParallel(buyRule)
+					&& CrossSectionEvaluator.isParallel(sellRule)) {
+				paperTradeResults = paperTradeFamily(thread, progress, threads, aRange, bRange, cRange, quoteBundle,
+						quoteRangeDescription, orderCache, startDate, endDate, buyRule, sellRule, buyRuleText,
+						sellRuleText, initialCapital, mode, stockValue, numberStocks, tradeCost, tradeValueBuy,
+						tradeValueSell);
+			}
 
-							variables.setValue("c", c);
-							paperTradeResults.add(paperTrade(progress, quoteBundle, quoteRangeDescription, orderCache,
-									startDate, endDate, buyRule, sellRule, initialCapital, mode, stockValue,
-									numberStocks, tradeCost, variables, a, b, c, tradeValueBuy, tradeValueSell));
-						}
-					}
-				}
+			// If the user has selected rule family, then iterate through
+			// each combination of a, b, c
+			else if (isFamilyEnabled) {
+				paperTradeResults = paperTradeFamilyInOrder(thread, progress, aRange, bRange, cRange, quoteBundle,
+						quoteRangeDescription, orderCache, startDate, endDate, buyRule, sellRule, buyRuleText,
+						sellRuleText, initialCapital, mode, stockValue, numberStocks, tradeCost, tradeValueBuy,
+						tradeValueSell);
 			}
 
 			// Otherwise there is only one equation and one result.
 			else if (!thread.isInterrupted())
 				paperTradeResults.add(paperTrade(progress, quoteBundle, quoteRangeDescription, orderCache, startDate,
-						endDate, buyRule, sellRule, initialCapital, mode, stockValue, numberStocks, tradeCost,
-						variables, 0, 0, 0, tradeValueBuy, tradeValueSell));
+						endDate, buyRule, sellRule, buyRuleText, sellRuleText, initialCapital, mode, stockValue,
+						numberStocks, tradeCost, variables, 0, 0, 0, tradeValueBuy, tradeValueSell));
 
 		} catch (EvaluationException e) {
 			ProgressDialogManager.closeProgressDialog(progress);
@@ -371,6 +552,9 @@ public class PaperTradeModule extends Page implements IModule {
 			showErrorMessage(e.getReason(), Locale.getString("ERROR_EVALUATING_EQUATION"));
 
 			return null;
+		} finally {
+			if (profiler != null)
+				profiler.stop();
 		}
 
 		long endTime = System.currentTimeMillis();
@@ -381,6 +565,12 @@ public class PaperTradeModule extends Page implements IModule {
 		return paperTradeResults;
 	}
 
+	// Show where the time went in the paper trade rules
+	private void displayProfile() {
+		ExpressionEditorDialog.showProfileDialog(Locale.getString("PAPER_TRADE_PROFILE_TITLE"), profiledRulesText,
+				profiler.getReport(), profiler.getFoldedStacks());
+	}
+
 	private void display(final List paperTradeResults) {
 
 		// Invokes on dispatch thread
@@ -25,6 +25,7 @@ package nz.org.venice.analyser.ga;
 import java.util.Random;
 
 import nz.org.venice.parser.IExpression;
+import nz.org.venice.analyser.PaperTradeLedger;
 import nz.org.venice.portfolio.Portfolio;
 import nz.org.venice.util.Money;
 
@@ -39,7 +40,9 @@ public class GAIndividual {
 	private double[] values = null;
 	private int[] types = null;
 
-	// The portfolio value
+	// The trades of the individual, and the portfolio built from them when it
+	// is first asked for
+	private PaperTradeLedger ledger = null;
 	private Portfolio portfolio = null;
 	private Money value = null;
 
@@ -181,16 +184,29 @@ public class GAIndividual {
 	 * @return the portfolio
 	 */
 	public Portfolio getPortfolio() {
+		if (portfolio == null && ledger != null)
+			portfolio = ledger.toPortfolio();
+
 		return portfolio;
 	}
 
 	/**
-	 * Set the portfolio according to individual.
+	 * Get the ledger of the trades according to individual.
+	 *
+	 * @return the ledger
+	 */
+	public PaperTradeLedger getLedger() {
+		return ledger;
+	}
+
+	/**
+	 * Set the ledger of the trades according to individual.
 	 *
-	 * @param portfolio the portfolio
+	 * @param ledger the ledger
 	 */
-	public void setPortfolio(Portfolio portfolio) {
-		this.portfolio = portfolio;
+	public void setLedger(PaperTradeLedger ledger) {
+		this.ledger = ledger;
+		this.portfolio = null;
 	}
 
 	/**
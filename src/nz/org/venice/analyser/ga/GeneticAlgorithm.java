@@ -22,16 +22,28 @@
  */
 package nz.org.venice.analyser.ga;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nz.org.venice.analyser.OrderCache;
 import nz.org.venice.analyser.PaperTrade;
+import nz.org.venice.analyser.PaperTradeLedger;
+import nz.org.venice.parser.CrossSectionEvaluator;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.portfolio.Portfolio;
+import nz.org.venice.parser.expression.AbstractExpression;
 import nz.org.venice.quote.EODQuoteBundle;
 import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.util.Locale;
@@ -47,6 +59,9 @@ public class GeneticAlgorithm {
 	// The generic name of all the Individuals' portfolios
 	private final static String PORTFOLIO_NAME = Locale.getString("GENETIC_ALGORITHM_PORTFOLIO");
 
+	// Number of paper traded individuals remembered by the fitness cache
+	private final static int FITNESS_CACHE_SIZE = 4096;
+
 	// Size of breeding population. This is the number of individuals
 	// each generation that can have their "genes" pass on to the
 	// next generation.
@@ -65,7 +80,9 @@ public class GeneticAlgorithm {
 	// An ordered map of the breeding individuals for the next generation
 	private TreeMap nextBreedingPopulation;
 
-	// Our random number generator
+	// Our random number generator. Each new individual is bred with its own
+	// generator seeded from this one, so the individuals don't depend on how
+	// many threads paper trade them.
 	private Random random;
 
 	// Historical quote data
@@ -112,6 +129,19 @@ public class GeneticAlgorithm {
 	// Variables containing parameters
 	private Variables variables;
 
+	// Number of threads paper trading individuals
+	private int threads = 1;
+
+	// The threads paper trading individuals. They are started the first time
+	// they are needed and kept until the run is finished.
+	private ExecutorService executor;
+
+	// Map of parameter values to the individual which was paper traded with
+	// them, in least recently used order. Breeding often creates individuals
+	// that have already been paper traded, especially when there are only a
+	// few parameter values to choose from.
+	private Map fitnessCache;
+
 	/**
 	 * Get ready to run the GA.
 	 *
@@ -158,64 +188,260 @@ public class GeneticAlgorithm {
 		breedingPopulation = new TreeMap();
 		random = new Random(System.currentTimeMillis());
 
+		fitnessCache = new LinkedHashMap(16, 0.75F, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > FITNESS_CACHE_SIZE;
+			}
+		};
+
 		generation = 1;
 	}
 
+	/**
+	 * Set the seed of the random number generator. Running the GA again with the
+	 * same seed and settings creates the same individuals, whatever the number of
+	 * threads.
+	 *
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Set the number of threads used to paper trade individuals. Individuals are
+	 * paper traded one at a time if the rules can't be evaluated by several
+	 * threads at once.
+	 *
+	 * @param threads the number of threads
+	 * @see #shutdown
+	 */
+	public void setThreads(int threads) {
+		if (threads != this.threads)
+			shutdown();
+
+		this.threads = threads;
+	}
+
+	/**
+	 * Stop the threads paper trading individuals. This should be called when the
+	 * run is finished. The threads are started again if more individuals are
+	 * paper traded.
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
 	/**
 	 * Run one iteration of the GA. This will create a single valid individual.
 	 */
 	public void nextIndividual() {
-		boolean validIndividual = false;
-		GAIndividual individual;
+		nextIndividuals(1);
+	}
 
-		// Loop until we create a valid individual that paper trade is OK
-		while (!validIndividual) {
-			if (generation == 1) {
-				individual = new GAIndividual(random, lowest, highest);
-			} else {
-				// Otherwise breed two parent individuals. We do these by calculating
-				// a random value between 0 and the sum of all the individual values.
-				// See getBreedingIndividual(double) for details.
-				double motherValue = random.nextDouble() * breedingPopulationSum;
-				double fatherValue = random.nextDouble() * breedingPopulationSum;
+	/**
+	 * Run several iterations of the GA. This will create the given number of
+	 * valid individuals. The individuals are bred on this thread and paper traded
+	 * at the same time, then compete for breeding in the order they were bred.
+	 *
+	 * @param count the number of individuals
+	 */
+	public void nextIndividuals(int count) {
+		Random[] randoms = new Random[count];
+		GAIndividual[] individuals = new GAIndividual[count];
 
-				GAIndividual mother = getBreedingIndividual(motherValue);
-				GAIndividual father = getBreedingIndividual(fatherValue);
+		for (int i = 0; i < count; i++)
+			randoms[i] = new Random(random.nextLong());
 
-				individual = new GAIndividual(random, mother, father, lowest, highest);
-			}
-			// Set the variables with parameters of individual just created
-			for (int ii = 0; ii < individual.size(); ii++) {
-				variables.setValue(individual.parameter(ii), individual.value(ii));
+		// Loop until we create valid individuals that paper trade OK
+		List invalidIndividuals = new ArrayList(count);
+
+		for (int i = 0; i < count; i++)
+			invalidIndividuals.add(Integer.valueOf(i));
+
+		while (!invalidIndividuals.isEmpty()) {
+			// Map of parameter values to the individual paper traded with them
+			Map genomes = new HashMap();
+			List newIndividuals = new ArrayList();
+
+			for (Iterator iterator = invalidIndividuals.iterator(); iterator.hasNext();) {
+				int i = ((Integer) iterator.next()).intValue();
+
+				individuals[i] = createIndividual(randoms[i]);
+
+				List genome = getGenome(individuals[i]);
+
+				if (!genomes.containsKey(genome)) {
+					GAIndividual cachedIndividual = (GAIndividual) fitnessCache.get(genome);
+
+					if (cachedIndividual != null)
+						genomes.put(genome, cachedIndividual);
+					else {
+						genomes.put(genome, individuals[i]);
+						newIndividuals.add(individuals[i]);
+					}
+				}
 			}
-			// Calculate the portfolio over the trading perdiod for the individual just
-			// created
-			try {
-				Money value = null;
-				Portfolio portfolio = paperTrade(quoteBundle, orderCache, startDate, endDate, this.buyRule,
-						this.sellRule, initialCapital, stockValue, numberStocks, tradeCost, variables, tradeValueBuy,
-						tradeValueSell);
-
-				individual.setPortfolio(portfolio);
-
-				// Get final value of portfolio
-				try {
-					value = portfolio.getValue(quoteBundle, endDate);
-					individual.setValue(value);
-				} catch (MissingQuoteException e) {
-					// Already checked...
+
+			if (!paperTrade(newIndividuals))
+				return;
+
+			for (Iterator iterator = invalidIndividuals.iterator(); iterator.hasNext();) {
+				int i = ((Integer) iterator.next()).intValue();
+				List genome = getGenome(individuals[i]);
+				GAIndividual tradedIndividual = (GAIndividual) genomes.get(genome);
+
+				fitnessCache.put(genome, tradedIndividual);
+
+				if (tradedIndividual != individuals[i]) {
+					individuals[i].setLedger(tradedIndividual.getLedger());
+					individuals[i].setValue(tradedIndividual.getValue());
 				}
 
-				// If we got here the paper trade was successful. Now let the
-				// individual 'compete' to see if it gets to breed next round.
-				// If the individual is fit enough, it'll get a chance to breed.
-				competeForBreeding(individual, value);
-				if (value != null && individual != null)
-					validIndividual = true;
-			} catch (EvaluationException e) {
-				// If there is a problem running the equation then
-				// it dies off naturally!
+				if (individuals[i].getValue() != null)
+					iterator.remove();
+			}
+		}
+
+		// If we got here the paper trades were successful. Now let the
+		// individuals 'compete' to see if they get to breed next round.
+		// If an individual is fit enough, it'll get a chance to breed.
+		for (int i = 0; i < count; i++)
+			competeForBreeding(individuals[i], individuals[i].getValue());
+	}
+
+	// Create a new individual using the given random number generator
+	private GAIndividual createIndividual(Random random) {
+		if (generation == 1) {
+			return new GAIndividual(random, lowest, highest);
+		} else {
+			// Otherwise breed two parent individuals. We do these by calculating
+			// a random value between 0 and the sum of all the individual values.
+			// See getBreedingIndividual(double) for details.
+			double motherValue = random.nextDouble() * breedingPopulationSum;
+			double fatherValue = random.nextDouble() * breedingPopulationSum;
+
+			GAIndividual mother = getBreedingIndividual(motherValue);
+			GAIndividual father = getBreedingIndividual(fatherValue);
+
+			return new GAIndividual(random, mother, father, lowest, highest);
+		}
+	}
+
+	// Return the key of the individual in the fitness cache
+	private List getGenome(GAIndividual individual) {
+		List genome = new ArrayList(individual.size());
+
+		for (int ii = 0; ii < individual.size(); ii++)
+			genome.add(Double.valueOf(individual.value(ii)));
+
+		return genome;
+	}
+
+	// Paper trade the given individuals. Returns false if this thread was
+	// interrupted first.
+	private boolean paperTrade(final List individuals) {
+		Thread thread = Thread.currentThread();
+		int threads = Math.min(this.threads, individuals.size());
+
+		// The rules and variables are shared by every individual paper traded
+		// on this thread
+		if (threads <= 1 || !CrossSectionEvaluator.isParallel(buyRule)
+				|| !CrossSectionEvaluator.isParallel(sellRule)) {
+			for (Iterator iterator = individuals.iterator(); iterator.hasNext();) {
+				if (thread.isInterrupted())
+					return false;
+
+				paperTrade((GAIndividual) iterator.next(), buyRule, sellRule, variables);
+			}
+
+			return true;
+		}
+
+		// Otherwise each thread gets its own copy of the rules and variables
+		final AtomicInteger nextIndividual = new AtomicInteger();
+		List workers = new ArrayList(threads);
+
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(this.threads);
+
+		try {
+			for (int i = 0; i < threads; i++) {
+				workers.add(executor.submit(new Runnable() {
+					public void run() {
+						IExpression workerBuyRule = (IExpression) buyRule.clone();
+						IExpression workerSellRule = (IExpression) sellRule.clone();
+						Variables workerVariables = null;
+
+						AbstractExpression.copyParseMetadata(buyRule, workerBuyRule);
+						AbstractExpression.copyParseMetadata(sellRule, workerSellRule);
+
+						try {
+							workerVariables = (Variables) variables.copyVariables();
+						} catch (CloneNotSupportedException e) {
+							assert false;
+						}
+
+						int index;
+
+						while ((index = nextIndividual.getAndIncrement()) < individuals.size())
+							paperTrade((GAIndividual) individuals.get(index), workerBuyRule, workerSellRule,
+									workerVariables);
+					}
+				}));
+			}
+
+			for (Iterator iterator = workers.iterator(); iterator.hasNext();)
+				((Future) iterator.next()).get();
+
+			return true;
+
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			else
+				throw (Error) e.getCause();
+		} finally {
+			// Don't leave paper trades from this batch running if we
+			// stopped early
+			for (Iterator iterator = workers.iterator(); iterator.hasNext();)
+				((Future) iterator.next()).cancel(true);
+		}
+	}
+
+	// Paper trade the individual and set its ledger and value. The value is
+	// left null if there is a problem running the rules.
+	private void paperTrade(GAIndividual individual, IExpression buyRule, IExpression sellRule,
+			Variables variables) {
+
+		// Set the variables with parameters of individual just created
+		for (int ii = 0; ii < individual.size(); ii++) {
+			variables.setValue(individual.parameter(ii), individual.value(ii));
+		}
+
+		// Calculate the portfolio over the trading perdiod for the individual just
+		// created
+		try {
+			PaperTradeLedger ledger = paperTrade(quoteBundle, orderCache, startDate, endDate, buyRule, sellRule,
+					initialCapital, stockValue, numberStocks, tradeCost, variables, tradeValueBuy, tradeValueSell);
+
+			individual.setLedger(ledger);
+
+			// Get final value of portfolio
+			try {
+				individual.setValue(ledger.getValue(endDate));
+			} catch (MissingQuoteException e) {
+				// Already checked...
 			}
+		} catch (EvaluationException e) {
+			// If there is a problem running the equation then
+			// it dies off naturally!
 		}
 	}
 
@@ -370,26 +596,26 @@ public class GeneticAlgorithm {
 	 * @param variables      variables used by GA
 	 * @param tradeValueBuy  the buy value of a stock
 	 * @param tradeValueSell the sell value of a stock
-	 * @return portfolio of individual after paper trading
+	 * @return ledger of individual's trades after paper trading
 	 */
-	public Portfolio paperTrade(EODQuoteBundle quoteBundle, OrderCache orderCache, TradingDate startDate,
+	public PaperTradeLedger paperTrade(EODQuoteBundle quoteBundle, OrderCache orderCache, TradingDate startDate,
 			TradingDate endDate, IExpression buyRule, IExpression sellRule, Money initialCapital, Money stockValue,
 			int numberStocks, Money tradeCost, Variables variables, String tradeValueBuy, String tradeValueSell)
 			throws EvaluationException {
 
-		Portfolio portfolio = null;
+		PaperTradeLedger ledger = null;
 
 		// Is there a fixed number of stocks?
 		if (stockValue == null) {
-			portfolio = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, variables, orderCache, startDate, endDate,
+			ledger = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, variables, orderCache, startDate, endDate,
 					buyRule, sellRule, initialCapital, numberStocks, tradeCost, tradeValueBuy, tradeValueSell);
 			// Or a fixed value?
 		} else {
-			portfolio = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, variables, orderCache, startDate, endDate,
+			ledger = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, variables, orderCache, startDate, endDate,
 					buyRule, sellRule, initialCapital, stockValue, tradeCost, tradeValueBuy, tradeValueSell);
 		}
 
-		return portfolio;
+		return ledger;
 	}
 
 }
@@ -0,0 +1,342 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser.gp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import nz.org.venice.analyser.GPGondolaSelection;
+import nz.org.venice.analyser.OrderCache;
+import nz.org.venice.analyser.OrderComparator;
+import nz.org.venice.parser.ExpressionException;
+import nz.org.venice.parser.ExpressionFactory;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.Parser;
+import nz.org.venice.parser.expression.NumberExpression;
+import nz.org.venice.prefs.PreferencesManager;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.util.VeniceLog;
+
+/**
+ * An island of the island model genetic programme. An island is a headless
+ * Venice process that evolves its own population of individuals, using quotes
+ * from its own quote source. It is started with:
+ *
+ * <pre>
+ * ant island -Disland.port=4321 -Disland.address=0.0.0.0
+ * </pre>
+ *
+ * An island only accepts coordinators on the local machine unless it is given
+ * the address of a network interface to listen on. The protocol has no
+ * authentication, so islands should only listen on trusted networks.
+ *
+ * The island waits for a coordinator ({@link GPIslands}) to connect and send
+ * it the {@link GPIslandSettings}. At the end of each generation the island
+ * sends the coordinator its fittest individuals, and the coordinator replies
+ * with individuals that have migrated from another island. These join the
+ * island's next breeding population if they are fit enough. When the run is
+ * over the island waits for the next coordinator.
+ *
+ * @see GeneticProgramme
+ */
+public class GPIsland {
+
+	/** The port an island listens on if none is given. */
+	public final static int DEFAULT_PORT = 4321;
+
+	// Version of the protocol between the coordinator and the islands
+	final static int PROTOCOL_VERSION = 3;
+
+	// Messages from the island to the coordinator
+	final static int GENERATION_MESSAGE = 1;
+	final static int ERROR_MESSAGE = 2;
+
+	// Cannot create an instance of this class
+	private GPIsland() {
+		// not possible
+		assert false;
+	}
+
+	/**
+	 * Run an island.
+	 *
+	 * @param args the port to listen on, and optionally the address of the
+	 *             network interface to listen on
+	 */
+	public static void main(String[] args) {
+		int port = DEFAULT_PORT;
+
+		if (args.length > 0)
+			port = Integer.parseInt(args[0]);
+
+		try {
+			InetAddress address = InetAddress.getLoopbackAddress();
+
+			if (args.length > 1 && args[1].length() > 0)
+				address = InetAddress.getByName(args[1]);
+
+			serve(port, address);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Accept coordinators on the given port and run their genetic programmes one
+	 * at a time. This method doesn't return unless the port can't be used.
+	 *
+	 * @param port    the port to listen on
+	 * @param address the address of the network interface to listen on
+	 * @exception IOException if the port can't be used
+	 */
+	public static void serve(int port, InetAddress address) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(port, 0, address);
+
+		VeniceLog.getInstance().log("GPIsland listening on " + address.getHostAddress() + " port " + port);
+
+		while (true) {
+			Socket socket = serverSocket.accept();
+
+			try {
+				evolve(socket);
+			} catch (IOException e) {
+				// The coordinator has gone, most likely because the user
+				// cancelled the run
+				VeniceLog.getInstance().log("GPIsland coordinator " + socket.getInetAddress() + ": " + e.getMessage());
+			} catch (Exception e) {
+				// Whatever the coordinator sent, keep serving the next one
+				VeniceLog.getInstance().log("GPIsland coordinator " + socket.getInetAddress() + ": " + e);
+			} finally {
+				socket.close();
+			}
+		}
+	}
+
+	// Run the genetic programme sent by the coordinator on the given socket
+	private static void evolve(Socket socket) throws IOException {
+		BufferedInputStream bufferedInput = new BufferedInputStream(socket.getInputStream());
+		DataInputStream input = new DataInputStream(bufferedInput);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		if (input.readInt() != PROTOCOL_VERSION) {
+			writeError(output, "Island protocol version " + PROTOCOL_VERSION + " expected");
+			return;
+		}
+
+		GPIslandSettings settings = GPIslandSettings.read(input);
+
+		GPQuoteBundle quoteBundle = new GPQuoteBundle(new EODQuoteBundle(settings.getQuoteRange()),
+				settings.getWindow());
+		OrderComparator orderComparator;
+
+		if (settings.getOrderByEquation() != null) {
+			try {
+				orderComparator = new OrderComparator(quoteBundle, Parser.parse(settings.getOrderByEquation()));
+			} catch (ExpressionException e) {
+				writeError(output, e.getReason());
+				return;
+			}
+		} else
+			orderComparator = new OrderComparator(quoteBundle, settings.getOrderByKey());
+
+		// The coordinator has already checked the values fit
+		GPGondolaSelection gondolaSelection = new GPGondolaSelection(null, 0);
+		gondolaSelection.setSettings(settings.getGondolaSettings());
+
+		if (!gondolaSelection.parse()) {
+			writeError(output, "Invalid GP language settings");
+			return;
+		}
+
+		GeneticProgramme geneticProgramme = new GeneticProgramme(quoteBundle, gondolaSelection,
+				new OrderCache(quoteBundle, orderComparator), settings.getStartDate(), settings.getEndDate(),
+				settings.getInitialCapital(), settings.getStockValue(), settings.getNumberStocks(),
+				settings.getTradeCost(), settings.getBreedingPopulation(), settings.getTradeValueBuy(),
+				settings.getTradeValueSell());
+		geneticProgramme.setSeed(settings.getSeed());
+		geneticProgramme.setThreads(PreferencesManager.getAnalyserThreads());
+
+		int population = settings.getPopulation();
+		int breedingPopulation = settings.getBreedingPopulation();
+
+		try {
+			for (int generation = 1; generation <= settings.getGenerations(); generation++) {
+				int individual = 1;
+
+				// As in GPModule, the first generation keeps going until the
+				// breeding population is full.
+				while (individual < population
+						|| geneticProgramme.getNextBreedingPopulationSize() < breedingPopulation) {
+					if (!isConnected(socket, bufferedInput))
+						return;
+
+					int batchSize = (individual < population
+							? Math.min(GeneticProgramme.BATCH_SIZE, population - individual)
+							: breedingPopulation - geneticProgramme.getNextBreedingPopulationSize());
+
+					geneticProgramme.nextIndividuals(new IExpression[batchSize], new IExpression[batchSize], 0);
+					individual += batchSize;
+				}
+
+				output.writeByte(GENERATION_MESSAGE);
+				output.writeInt(generation);
+				writeIndividuals(output, geneticProgramme.getFittestIndividuals(settings.getFittest()));
+				output.flush();
+
+				geneticProgramme.addImmigrants(readIndividuals(input));
+				geneticProgramme.nextGeneration();
+			}
+		} finally {
+			geneticProgramme.shutdown();
+		}
+	}
+
+	// The coordinator doesn't send anything while the island is breeding, so
+	// if there is anything to read, it can only be the end of the stream.
+	private static boolean isConnected(Socket socket, BufferedInputStream input) throws IOException {
+		socket.setSoTimeout(1);
+		input.mark(1);
+
+		try {
+			if (input.read() == -1)
+				return false;
+
+			input.reset();
+		} catch (SocketTimeoutException e) {
+			// Nothing to read
+		} finally {
+			socket.setSoTimeout(0);
+		}
+
+		return true;
+	}
+
+	private static void writeError(DataOutputStream output, String message) throws IOException {
+		output.writeByte(ERROR_MESSAGE);
+		GPIslandSettings.writeText(output, message);
+		output.flush();
+	}
+
+	/**
+	 * Write the buy and sell rules of the given individuals to the stream. The
+	 * text of a rule rounds its numbers, so each rule is followed by the exact
+	 * value of each decimal number in it.
+	 *
+	 * @param output      the stream
+	 * @param individuals the individuals
+	 * @exception IOException if the individuals couldn't be written
+	 */
+	static void writeIndividuals(DataOutputStream output, List individuals) throws IOException {
+		output.writeInt(individuals.size());
+
+		for (Iterator iterator = individuals.iterator(); iterator.hasNext();) {
+			Individual individual = (Individual) iterator.next();
+
+			writeRule(output, individual.getBuyRule());
+			writeRule(output, individual.getSellRule());
+		}
+	}
+
+	private static void writeRule(DataOutputStream output, IExpression rule) throws IOException {
+		List numbers = new ArrayList();
+		addDecimalNumbers(rule, numbers);
+
+		GPIslandSettings.writeText(output, rule.toString());
+		output.writeInt(numbers.size());
+
+		for (Iterator iterator = numbers.iterator(); iterator.hasNext();)
+			output.writeDouble(((NumberExpression) iterator.next()).getValue());
+	}
+
+	// Add the decimal numbers in the expression to the list, in the same order
+	// as IndicatorStore.getKey
+	private static void addDecimalNumbers(IExpression expression, List numbers) {
+		if (expression instanceof NumberExpression && expression.getType() == IExpression.FLOAT_TYPE)
+			numbers.add(expression);
+
+		for (int i = 0; i < expression.getChildCount(); i++)
+			if (expression.getChild(i) != null)
+				addDecimalNumbers(expression.getChild(i), numbers);
+	}
+
+	/**
+	 * Read individuals written by {@link #writeIndividuals} from the stream. The
+	 * individuals have not been paper traded.
+	 *
+	 * @param input the stream
+	 * @return the individuals
+	 * @exception IOException if the individuals couldn't be read
+	 */
+	static List readIndividuals(DataInputStream input) throws IOException {
+		int size = GPIslandSettings.readCount(input);
+		List individuals = new ArrayList(size);
+
+		for (int i = 0; i < size; i++) {
+			IExpression buyRule = readRule(input);
+			IExpression sellRule = readRule(input);
+
+			individuals.add(new Individual(buyRule, sellRule));
+		}
+
+		return individuals;
+	}
+
+	private static IExpression readRule(DataInputStream input) throws IOException {
+		String text = GPIslandSettings.readText(input);
+		double[] values = new double[GPIslandSettings.readCount(input)];
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = input.readDouble();
+
+		IExpression rule = ExpressionFactory.newExpression(text);
+
+		if (rule == null)
+			throw new IOException("Invalid rule " + text);
+
+		// Parsing can add numbers which weren't in the text, such as the
+		// offset of a quote, so skip any number which doesn't print the same
+		// as the next exact value
+		List numbers = new ArrayList();
+		addDecimalNumbers(rule, numbers);
+		int next = 0;
+
+		for (Iterator iterator = numbers.iterator(); iterator.hasNext() && next < values.length;) {
+			NumberExpression number = (NumberExpression) iterator.next();
+
+			if (number.toString().equals(NumberExpression.toString(IExpression.FLOAT_TYPE, values[next])))
+				number.setValue(values[next++]);
+		}
+
+		if (next != values.length)
+			throw new IOException("Invalid numbers for rule " + text);
+
+		return rule;
+	}
+}
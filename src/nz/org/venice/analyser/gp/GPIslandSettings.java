@@ -0,0 +1,416 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser.gp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.Symbol;
+import nz.org.venice.quote.SymbolFormatException;
+import nz.org.venice.util.Money;
+import nz.org.venice.util.TradingDate;
+
+/**
+ * The settings an island needs to run its part of a genetic programme. The
+ * coordinator sends these to each island when the run starts.
+ *
+ * @see GPIsland
+ * @see GPIslands
+ */
+public class GPIslandSettings {
+
+	// Largest number of items in a list we will read. Anything bigger came
+	// from a broken or hostile coordinator.
+	private final static int MAX_COUNT = 1000000;
+
+	// Largest text we will read, in bytes
+	private final static int MAX_TEXT_LENGTH = 16 * 1024 * 1024;
+
+	// Quotes the individuals trade
+	private EODQuoteRange quoteRange;
+	private int window;
+
+	// Order of the quotes, and the order equation iff orderByKey is
+	// OrderComparator.EQUATION.
+	private int orderByKey;
+	private String orderByEquation;
+
+	// Paper trade settings
+	private TradingDate startDate;
+	private TradingDate endDate;
+	private Money initialCapital;
+	private Money stockValue;
+	private int numberStocks;
+	private Money tradeCost;
+	private String tradeValueBuy;
+	private String tradeValueSell;
+
+	// GP settings
+	private int generations;
+	private int population;
+	private int breedingPopulation;
+	private HashMap gondolaSettings;
+
+	// Number of its fittest individuals the island reports each generation
+	private int fittest;
+
+	// Seed of the island's random number generator
+	private long seed;
+
+	/**
+	 * Create the settings for a genetic programme island.
+	 *
+	 * @param quoteRange         the quotes the individuals trade
+	 * @param window             the number of quote days the rules can see
+	 * @param orderByKey         the order of the quotes
+	 * @param orderByEquation    the order equation, or <code>null</code>
+	 * @param startDate          start date of trading
+	 * @param endDate            last date of trading
+	 * @param initialCapital     initial capital in the portfolio
+	 * @param stockValue         the rough value of each stock holding, or
+	 *                           <code>null</code>
+	 * @param numberStocks       number of stocks in the portfolio
+	 * @param tradeCost          the cost of a trade
+	 * @param tradeValueBuy      value for buying a stock
+	 * @param tradeValueSell     value for selling a stock
+	 * @param generations        number of generations
+	 * @param population         number of individuals in each generation
+	 * @param breedingPopulation number of individuals that can breed
+	 * @param gondolaSettings    settings of the GP language page
+	 * @param fittest            number of fittest individuals reported each
+	 *                           generation
+	 */
+	public GPIslandSettings(EODQuoteRange quoteRange, int window, int orderByKey, String orderByEquation,
+			TradingDate startDate, TradingDate endDate, Money initialCapital, Money stockValue, int numberStocks,
+			Money tradeCost, String tradeValueBuy, String tradeValueSell, int generations, int population,
+			int breedingPopulation, HashMap gondolaSettings, int fittest) {
+		this.quoteRange = quoteRange;
+		this.window = window;
+		this.orderByKey = orderByKey;
+		this.orderByEquation = orderByEquation;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.initialCapital = initialCapital;
+		this.stockValue = stockValue;
+		this.numberStocks = numberStocks;
+		this.tradeCost = tradeCost;
+		this.tradeValueBuy = tradeValueBuy;
+		this.tradeValueSell = tradeValueSell;
+		this.generations = generations;
+		this.population = population;
+		this.breedingPopulation = breedingPopulation;
+		this.gondolaSettings = gondolaSettings;
+		this.fittest = fittest;
+	}
+
+	public EODQuoteRange getQuoteRange() {
+		return quoteRange;
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	public int getOrderByKey() {
+		return orderByKey;
+	}
+
+	public String getOrderByEquation() {
+		return orderByEquation;
+	}
+
+	public TradingDate getStartDate() {
+		return startDate;
+	}
+
+	public TradingDate getEndDate() {
+		return endDate;
+	}
+
+	public Money getInitialCapital() {
+		return initialCapital;
+	}
+
+	public Money getStockValue() {
+		return stockValue;
+	}
+
+	public int getNumberStocks() {
+		return numberStocks;
+	}
+
+	public Money getTradeCost() {
+		return tradeCost;
+	}
+
+	public String getTradeValueBuy() {
+		return tradeValueBuy;
+	}
+
+	public String getTradeValueSell() {
+		return tradeValueSell;
+	}
+
+	public int getGenerations() {
+		return generations;
+	}
+
+	public int getPopulation() {
+		return population;
+	}
+
+	public int getBreedingPopulation() {
+		return breedingPopulation;
+	}
+
+	public HashMap getGondolaSettings() {
+		return gondolaSettings;
+	}
+
+	public int getFittest() {
+		return fittest;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Set the seed of the island's random number generator. Each island should
+	 * be given a different seed.
+	 *
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Write these settings to the given stream.
+	 *
+	 * @param output the stream
+	 * @exception IOException if the settings couldn't be written
+	 */
+	public void write(DataOutputStream output) throws IOException {
+		output.writeInt(quoteRange.getType());
+
+		if (quoteRange.getType() == EODQuoteRange.GIVEN_SYMBOLS) {
+			List symbols = quoteRange.getAllSymbols();
+			output.writeInt(symbols.size());
+
+			for (Iterator iterator = symbols.iterator(); iterator.hasNext();)
+				writeText(output, iterator.next().toString());
+		}
+
+		writeDate(output, quoteRange.getFirstDate());
+		writeDate(output, quoteRange.getLastDate());
+		output.writeInt(window);
+		output.writeInt(orderByKey);
+		writeString(output, orderByEquation);
+		writeDate(output, startDate);
+		writeDate(output, endDate);
+		writeMoney(output, initialCapital);
+		writeMoney(output, stockValue);
+		output.writeInt(numberStocks);
+		writeMoney(output, tradeCost);
+		writeString(output, tradeValueBuy);
+		writeString(output, tradeValueSell);
+		output.writeInt(generations);
+		output.writeInt(population);
+		output.writeInt(breedingPopulation);
+		output.writeInt(gondolaSettings.size());
+
+		for (Iterator iterator = gondolaSettings.keySet().iterator(); iterator.hasNext();) {
+			String setting = (String) iterator.next();
+			writeText(output, setting);
+			writeText(output, (String) gondolaSettings.get(setting));
+		}
+
+		output.writeInt(fittest);
+		output.writeLong(seed);
+	}
+
+	/**
+	 * Read settings written by {@link #write} from the given stream.
+	 *
+	 * @param input the stream
+	 * @return the settings
+	 * @exception IOException if the settings couldn't be read
+	 */
+	public static GPIslandSettings read(DataInputStream input) throws IOException {
+		int type = input.readInt();
+		List symbols = null;
+
+		if (type == EODQuoteRange.GIVEN_SYMBOLS) {
+			int size = readCount(input);
+			symbols = new ArrayList(size);
+
+			try {
+				for (int i = 0; i < size; i++)
+					symbols.add(Symbol.find(readText(input)));
+			} catch (SymbolFormatException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		TradingDate firstDate = readDate(input);
+		TradingDate lastDate = readDate(input);
+		EODQuoteRange quoteRange;
+
+		if (type == EODQuoteRange.GIVEN_SYMBOLS)
+			quoteRange = new EODQuoteRange(symbols, firstDate, lastDate);
+		else
+			quoteRange = new EODQuoteRange(type, firstDate, lastDate);
+
+		int window = readCount(input);
+		int orderByKey = input.readInt();
+		String orderByEquation = readString(input);
+		TradingDate startDate = readDate(input);
+		TradingDate endDate = readDate(input);
+		Money initialCapital = readMoney(input);
+		Money stockValue = readMoney(input);
+		int numberStocks = readCount(input);
+		Money tradeCost = readMoney(input);
+		String tradeValueBuy = readString(input);
+		String tradeValueSell = readString(input);
+		int generations = readCount(input);
+		int population = readCount(input);
+		int breedingPopulation = readCount(input);
+		int size = readCount(input);
+		HashMap gondolaSettings = new HashMap();
+
+		for (int i = 0; i < size; i++) {
+			String setting = readText(input);
+			gondolaSettings.put(setting, readText(input));
+		}
+
+		int fittest = readCount(input);
+
+		GPIslandSettings settings = new GPIslandSettings(quoteRange, window, orderByKey, orderByEquation, startDate,
+				endDate, initialCapital, stockValue, numberStocks, tradeCost, tradeValueBuy, tradeValueSell,
+				generations, population, breedingPopulation, gondolaSettings, fittest);
+		settings.setSeed(input.readLong());
+
+		return settings;
+	}
+
+	// The following write optional values as a flag followed by the value
+
+	private static void writeDate(DataOutputStream output, TradingDate date) throws IOException {
+		output.writeBoolean(date != null);
+
+		if (date != null) {
+			output.writeInt(date.getYear());
+			output.writeInt(date.getMonth());
+			output.writeInt(date.getDay());
+		}
+	}
+
+	private static TradingDate readDate(DataInputStream input) throws IOException {
+		if (!input.readBoolean())
+			return null;
+
+		int year = input.readInt();
+		int month = input.readInt();
+		int day = input.readInt();
+
+		return new TradingDate(year, month, day);
+	}
+
+	private static void writeMoney(DataOutputStream output, Money money) throws IOException {
+		output.writeBoolean(money != null);
+
+		if (money != null)
+			output.writeDouble(money.doubleValue());
+	}
+
+	private static Money readMoney(DataInputStream input) throws IOException {
+		return input.readBoolean() ? new Money(input.readDouble()) : null;
+	}
+
+	private static void writeString(DataOutputStream output, String string) throws IOException {
+		output.writeBoolean(string != null);
+
+		if (string != null)
+			writeText(output, string);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? readText(input) : null;
+	}
+
+	/**
+	 * Read a count written with {@link DataOutputStream#writeInt}, checking that
+	 * it is small enough to allocate and loop over.
+	 *
+	 * @param input the stream
+	 * @return the count
+	 * @exception IOException if the count couldn't be read or is out of range
+	 */
+	static int readCount(DataInputStream input) throws IOException {
+		int count = input.readInt();
+
+		if (count < 0 || count > MAX_COUNT)
+			throw new IOException("Invalid count " + count);
+
+		return count;
+	}
+
+	/**
+	 * Write text of any length to the stream. Unlike
+	 * {@link DataOutputStream#writeUTF} this isn't limited to 64KB, which long
+	 * rules can exceed.
+	 *
+	 * @param output the stream
+	 * @param text   the text
+	 * @exception IOException if the text couldn't be written
+	 */
+	static void writeText(DataOutputStream output, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	/**
+	 * Read text written by {@link #writeText} from the stream.
+	 *
+	 * @param input the stream
+	 * @return the text
+	 * @exception IOException if the text couldn't be read or is too long
+	 */
+	static String readText(DataInputStream input) throws IOException {
+		int length = input.readInt();
+
+		if (length < 0 || length > MAX_TEXT_LENGTH)
+			throw new IOException("Invalid text length " + length);
+
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,239 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser.gp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The coordinator of an island model genetic programme. Each island
+ * ({@link GPIsland}) evolves its own population. After every generation the
+ * coordinator collects the fittest individuals of each island, and every
+ * {@link #MIGRATION_INTERVAL} generations it passes them on to the next island
+ * along a ring, so good genes spread without the islands' populations all
+ * becoming the same.
+ *
+ * @see GPIslandSettings
+ */
+public class GPIslands {
+
+	/** Number of generations between migrations. */
+	public final static int MIGRATION_INTERVAL = 5;
+
+	// Milliseconds to wait for an island to accept our connection
+	private final static int CONNECT_TIMEOUT = 10000;
+
+	// Milliseconds to wait for an island before checking whether the
+	// user has cancelled
+	private final static int POLL_TIMEOUT = 500;
+
+	private String[] addresses;
+	private Socket[] sockets;
+	private DataInputStream[] inputs;
+	private DataOutputStream[] outputs;
+
+	private int generations;
+	private int generation = 0;
+
+	// The rules of all the individuals reported so far
+	private HashSet reported = new HashSet();
+
+	/**
+	 * Connect to the given islands and start their genetic programmes.
+	 *
+	 * @param addresses the island addresses, each of the form
+	 *                  <code>host:port</code>
+	 * @param settings  the settings of the genetic programme. Each island gets
+	 *                  its own seed.
+	 * @exception IOException if an island couldn't be started
+	 */
+	public GPIslands(List addresses, GPIslandSettings settings) throws IOException {
+		this.addresses = (String[]) addresses.toArray(new String[addresses.size()]);
+
+		generations = settings.getGenerations();
+		sockets = new Socket[this.addresses.length];
+		inputs = new DataInputStream[this.addresses.length];
+		outputs = new DataOutputStream[this.addresses.length];
+
+		Random random = new Random();
+
+		try {
+			for (int i = 0; i < this.addresses.length; i++) {
+				String address = this.addresses[i];
+				int colon = address.lastIndexOf(':');
+
+				try {
+					sockets[i] = new Socket();
+					sockets[i].connect(new InetSocketAddress(address.substring(0, colon),
+							Integer.parseInt(address.substring(colon + 1))), CONNECT_TIMEOUT);
+					sockets[i].setSoTimeout(POLL_TIMEOUT);
+
+					inputs[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+					outputs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+
+					settings.setSeed(random.nextLong());
+					outputs[i].writeInt(GPIsland.PROTOCOL_VERSION);
+					settings.write(outputs[i]);
+					outputs[i].flush();
+				} catch (IOException e) {
+					throw islandException(i, e);
+				}
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return the last generation reported by the islands.
+	 *
+	 * @return the generation, or <code>0</code> if none have been reported
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Return whether the islands have reported every generation.
+	 *
+	 * @return <code>true</code> if the genetic programme is over
+	 */
+	public boolean isFinished() {
+		return generation >= generations;
+	}
+
+	/**
+	 * Wait for every island to finish the next generation, then send each island
+	 * its immigrants.
+	 *
+	 * @return the fittest individuals of the islands that haven't been returned
+	 *         before. These have not been paper traded.
+	 * @exception InterruptedIOException if the thread was interrupted
+	 * @exception IOException            if an island failed
+	 */
+	public List nextGeneration() throws IOException {
+		List[] fittest = new List[addresses.length];
+
+		for (int i = 0; i < addresses.length; i++)
+			fittest[i] = readGeneration(i);
+
+		generation++;
+
+		// Each island's fittest individuals migrate to the next island
+		boolean isMigration = generation % MIGRATION_INTERVAL == 0 && generation < generations;
+
+		for (int i = 0; i < addresses.length; i++) {
+			try {
+				GPIsland.writeIndividuals(outputs[i],
+						isMigration ? fittest[(i + addresses.length - 1) % addresses.length] : new ArrayList());
+				outputs[i].flush();
+			} catch (IOException e) {
+				throw islandException(i, e);
+			}
+		}
+
+		List individuals = new ArrayList();
+
+		for (int i = 0; i < addresses.length; i++) {
+			for (Iterator iterator = fittest[i].iterator(); iterator.hasNext();) {
+				Individual individual = (Individual) iterator.next();
+
+				if (reported.add(individual.getBuyRule() + "\n" + individual.getSellRule()))
+					individuals.add(individual);
+			}
+		}
+
+		return individuals;
+	}
+
+	/**
+	 * Disconnect from the islands. Islands that haven't finished stop at the end
+	 * of their current batch of individuals.
+	 */
+	public void close() {
+		for (int i = 0; i < sockets.length; i++) {
+			try {
+				if (sockets[i] != null)
+					sockets[i].close();
+			} catch (IOException e) {
+				// Nothing more we can do
+			}
+		}
+	}
+
+	// Read the island's fittest individuals from the next generation. We wait
+	// for the message to start in short timeouts so the user can cancel.
+	private List readGeneration(int island) throws IOException {
+		Thread thread = Thread.currentThread();
+		DataInputStream input = inputs[island];
+
+		try {
+			int message;
+
+			while (true) {
+				try {
+					message = input.read();
+					break;
+				} catch (SocketTimeoutException e) {
+					if (thread.isInterrupted())
+						throw new InterruptedIOException();
+				}
+			}
+
+			if (message == -1)
+				throw new EOFException("Island closed the connection");
+
+			sockets[island].setSoTimeout(0);
+
+			if (message == GPIsland.ERROR_MESSAGE)
+				throw new IOException(GPIslandSettings.readText(input));
+			else if (message != GPIsland.GENERATION_MESSAGE || input.readInt() != generation + 1)
+				throw new IOException("Unexpected message from island");
+
+			List fittest = GPIsland.readIndividuals(input);
+			sockets[island].setSoTimeout(POLL_TIMEOUT);
+
+			return fittest;
+
+		} catch (InterruptedIOException e) {
+			throw e;
+		} catch (IOException e) {
+			throw islandException(island, e);
+		}
+	}
+
+	// Say which island an exception came from
+	private IOException islandException(int island, IOException e) {
+		return new IOException(addresses[island] + ": " + e.getMessage());
+	}
+}
@@ -54,6 +54,16 @@ public class GPQuoteBundle extends EODQuoteBundle {
 		this.window = window;
 	}
 
+	/**
+	 * Return the number of days before the current date that quotes may be
+	 * accessed.
+	 *
+	 * @return the window
+	 */
+	public int getWindow() {
+		return window;
+	}
+
 	/**
 	 * Get a stock quote. This function has been primarily created for Gondola
 	 * scripts. It passes in the current date and the date offset so that
@@ -89,6 +99,17 @@ public class GPQuoteBundle extends EODQuoteBundle {
 			return getQuote(symbol, quoteType, today + offset);
 	}
 
+	public double findQuote(Symbol symbol, int quoteType, int today, int offset) throws EvaluationException {
+
+		// Same checks as getQuote() above
+		if (offset > 0)
+			throw EvaluationException.FUTURE_DATE_EXCEPTION;
+		else if (Math.abs(offset) > Math.abs(window) || offset == Integer.MIN_VALUE)
+			throw EvaluationException.PAST_DATE_EXCEPTION;
+		else
+			return findQuote(symbol, quoteType, today + offset);
+	}
+
 	/**
 	 * Set the qutoe range which specifies this quote bundle.
 	 *
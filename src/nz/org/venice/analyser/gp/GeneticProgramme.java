@@ -18,13 +18,25 @@
 
 package nz.org.venice.analyser.gp;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nz.org.venice.analyser.GPGondolaSelection;
 import nz.org.venice.analyser.GPModuleConstants;
 import nz.org.venice.analyser.OrderCache;
+import nz.org.venice.parser.EvaluationBudget;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.util.Money;
@@ -41,6 +53,13 @@ import nz.org.venice.util.VeniceLog;
  */
 public class GeneticProgramme {
 
+	/**
+	 * Number of individuals that should be created and paper traded together.
+	 * This doesn't depend on the number of threads, so a run gives the same
+	 * individuals with any number of threads.
+	 */
+	public final static int BATCH_SIZE = 64;
+
 	// An individual with less nodes than this will be dropped
 	private final int MIN_SIZE = 12;
 
@@ -55,6 +74,17 @@ public class GeneticProgramme {
 	// Mutation rate to generate a population from a given initial population
 	private final static int MUTATION_PERCENT = 95;
 
+	// Default limits on evaluating an individual's rules for a single day
+	// and symbol. Individuals from the initial population can loop or recurse
+	// far longer than it is worth waiting for. There is no time limit, as
+	// whether it was reached would depend on the machine and the number of
+	// threads, and the same seed would no longer give the same results.
+	private final static EvaluationBudget DEFAULT_BUDGET = new EvaluationBudget(100000, EvaluationBudget.UNLIMITED,
+			50);
+
+	// Maximum number of paper traded individuals remembered by their rules
+	private final static int FITNESS_CACHE_SIZE = 4096;
+
 	// Size of breeding population. This is the number of individuals
 	// each generation that can have their "genes" pass on to the
 	// next generation.
@@ -73,13 +103,8 @@ public class GeneticProgramme {
 	// An ordered map of the breeding individuals for the next generation
 	private TreeMap nextBreedingPopulation;
 
-	// The mutator used to create/mutate buy rules
-	private Mutator buyRuleMutator;
-
-	// The mutator used to create/mutate sell rules
-	private Mutator sellRuleMutator;
-
-	// Our random number generator
+	// Our random number generator. Each new individual gets its own generator
+	// seeded from this one.
 	private Random random;
 
 	// Historical quote data
@@ -118,6 +143,83 @@ public class GeneticProgramme {
 	// The rule getting the sell price
 	private String tradeValueSell;
 
+	// Limits on evaluating the rules of an individual
+	private EvaluationBudget budget = DEFAULT_BUDGET;
+
+	// Number of threads paper trading individuals
+	private int threads = 1;
+
+	// The threads paper trading individuals. They are started the first time
+	// they are needed and kept until the run is finished.
+	private ExecutorService executor;
+
+	// Map of simplified buy and sell rules to the individual which was paper
+	// traded with them, in least recently used order. Cloning and recombining
+	// parents often breeds an individual with the same rules as one we have
+	// already paper traded.
+	private Map fitnessCache;
+
+	// Whether individuals with the same rules share their paper trade
+	private boolean isFitnessCached = true;
+
+	// Number of individuals this generation, and how many of them were found
+	// in the fitness cache
+	private int cacheLookups;
+	private int cacheHits;
+
+	// Creates and paper trades the individual for one place in a generation.
+	// Each breeder has its own random number generator, so the individual it
+	// creates doesn't depend on how many threads are paper trading or which
+	// paper trades finish first.
+	private class Breeder {
+		private Random random;
+
+		// The mutators used to create/mutate buy and sell rules
+		private Mutator buyRuleMutator;
+		private Mutator sellRuleMutator;
+
+		// The rules from the initial population, or null
+		private IExpression buyRule;
+		private IExpression sellRule;
+
+		// Set once the first individual has been created
+		private boolean twice = false;
+
+		private Individual individual;
+		private Money value;
+
+		// An individual bred elsewhere, which only needs paper trading
+		public Breeder(Individual individual) {
+			this.individual = individual;
+		}
+
+		public Breeder(long seed, IExpression buyRule, IExpression sellRule) {
+			this.buyRule = buyRule;
+			this.sellRule = sellRule;
+
+			random = new Random(seed);
+
+			// Buy rules shouldn't use the "held" variable (buy rules won't be
+			// evaluated if held > 0).
+			buyRuleMutator = new Mutator(random, GPGondolaSelection, false, orderCache.isOrdered());
+			sellRuleMutator = new Mutator(random, GPGondolaSelection, true, orderCache.isOrdered());
+		}
+
+		// Create a new individual of the right size
+		public void breed(int mutations) {
+			do {
+				individual = createIndividual(this, mutations);
+				twice = true;
+			} while (!individual.isValid(MIN_SIZE, MAX_SIZE));
+		}
+
+		// Paper trade the individual. The value is null if the individual's
+		// rules failed to evaluate.
+		public void paperTrade() {
+			value = GeneticProgramme.this.paperTrade(individual);
+		}
+	}
+
 	/**
 	 * Get ready to run the GP.
 	 *
@@ -154,50 +256,292 @@ public class GeneticProgramme {
 
 		nextBreedingPopulation = new TreeMap();
 		breedingPopulation = new TreeMap();
-		long seed = System.currentTimeMillis();
+		setSeed(System.currentTimeMillis());
+
+		fitnessCache = new LinkedHashMap(16, 0.75F, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > FITNESS_CACHE_SIZE;
+			}
+		};
+
+		generation = 1;
+	}
 
+	/**
+	 * Set the limits on evaluating the rules of an individual. An individual whose
+	 * rules use up the budget is dropped like any other individual whose rules
+	 * fail to evaluate. By default only the steps and call depth are limited. A
+	 * budget with a time limit means the same seed may not give the same
+	 * results, since it depends on how fast the rules are evaluated.
+	 *
+	 * @param budget the evaluation budget
+	 */
+	public void setEvaluationBudget(EvaluationBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Return the limits on evaluating the rules of an individual.
+	 *
+	 * @return the evaluation budget
+	 */
+	public EvaluationBudget getEvaluationBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set the seed of the random number generator. Running the GP again with the
+	 * same seed and settings creates the same individuals, whatever the number of
+	 * threads.
+	 *
+	 * @param seed the seed
+	 */
+	public void setSeed(long seed) {
 		VeniceLog.getInstance().log("GeneticProgramme seed = " + seed);
 		random = new Random(seed);
+	}
 
-		// Create a mutator for the buy and sell rules. Buy rules shouldn't
-		// use the "held" variable (buy rules won't be evaluated if held > 0).
-		buyRuleMutator = new Mutator(random, GPGondolaSelection, false, orderCache.isOrdered());
-		sellRuleMutator = new Mutator(random, GPGondolaSelection, true, orderCache.isOrdered());
+	/**
+	 * Set the number of threads used to paper trade individuals.
+	 *
+	 * @param threads the number of threads
+	 * @see #shutdown
+	 */
+	public void setThreads(int threads) {
+		if (threads != this.threads)
+			shutdown();
 
-		generation = 1;
+		this.threads = threads;
+	}
+
+	/**
+	 * Stop the threads paper trading individuals. This should be called when the
+	 * run is finished. The threads are started again if more individuals are
+	 * paper traded.
+	 */
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	// Set whether individuals with the same rules as one already paper traded
+	// share its result, or are paper traded again. The results are the same
+	// either way, which the tests check.
+	void setFitnessCached(boolean isFitnessCached) {
+		this.isFitnessCached = isFitnessCached;
 	}
 
 	/**
 	 * Run one iteration of the GP. This will create a single valid individual.
 	 */
 	public void nextIndividual(IExpression buyRule, IExpression sellRule, int mutations) {
-		boolean validIndividual = false;
-		// consider if you try to create an individual twice,
-		// the second time we create it with random mutations, because
-		// the rules passed as parameters from user do not fit the breeding process.
-		boolean twice = false;
-
-		// Loop until we create a valid individual that paper trades OK
-		while (!validIndividual) {
-			Individual individual = createIndividual(buyRule, sellRule, mutations, twice);
-			twice = true;
-			if (individual.isValid(MIN_SIZE, MAX_SIZE)) {
-				try {
-					Money value = individual.paperTrade(quoteBundle, orderCache, startDate, endDate, initialCapital,
-							stockValue, numberStocks, tradeCost, tradeValueBuy, tradeValueSell);
-
-					// If we got here the paper trade was successful. Now let the
-					// individual 'compete' to see if it gets to breed next round.
-					// If the individual is fit enough, it'll get a chance to breed.
-					competeForBreeding(individual, value);
-					if (individual != null && value != null)
-						validIndividual = true;
-				} catch (EvaluationException e) {
-					// If there is a problem running the equation then
-					// it dies off naturally!
+		nextIndividuals(new IExpression[] { buyRule }, new IExpression[] { sellRule }, mutations);
+	}
+
+	/**
+	 * Run several iterations of the GP. This will create a valid individual for
+	 * each pair of rules given. The individuals are created on this thread and
+	 * paper traded at the same time, then compete for breeding in the order the
+	 * rules were given.
+	 *
+	 * @param buyRules  the buy rules from the initial population, or null
+	 *                  elements for random individuals
+	 * @param sellRules the matching sell rules
+	 * @param mutations number of mutations of the initial population rules
+	 */
+	public void nextIndividuals(IExpression[] buyRules, IExpression[] sellRules, int mutations) {
+		assert buyRules.length == sellRules.length;
+
+		Breeder[] breeders = new Breeder[buyRules.length];
+
+		for (int i = 0; i < breeders.length; i++)
+			breeders[i] = new Breeder(random.nextLong(), buyRules[i], sellRules[i]);
+
+		// Loop until each breeder creates a valid individual that paper trades OK
+		List failedBreeders = new ArrayList();
+
+		for (int i = 0; i < breeders.length; i++)
+			failedBreeders.add(breeders[i]);
+
+		while (!failedBreeders.isEmpty()) {
+			for (Iterator iterator = failedBreeders.iterator(); iterator.hasNext();)
+				((Breeder) iterator.next()).breed(mutations);
+
+			if (!paperTrade(failedBreeders))
+				return;
+
+			for (Iterator iterator = failedBreeders.iterator(); iterator.hasNext();) {
+				if (((Breeder) iterator.next()).value != null)
+					iterator.remove();
+			}
+		}
+
+		// If we got here the paper trades were successful. Now let the
+		// individuals 'compete' to see if they get to breed next round.
+		// If an individual is fit enough, it'll get a chance to breed.
+		for (int i = 0; i < breeders.length; i++)
+			competeForBreeding(breeders[i].individual, breeders[i].value);
+	}
+
+	/**
+	 * Add individuals bred by another genetic programme, e.g. one running on
+	 * another island. The individuals are paper traded here and then compete for
+	 * a place in the next generation's breeding population like the individuals
+	 * bred here.
+	 *
+	 * @param individuals the individuals to add
+	 */
+	public void addImmigrants(List individuals) {
+		List breeders = new ArrayList(individuals.size());
+
+		for (Iterator iterator = individuals.iterator(); iterator.hasNext();)
+			breeders.add(new Breeder((Individual) iterator.next()));
+
+		if (!paperTrade(breeders))
+			return;
+
+		for (Iterator iterator = breeders.iterator(); iterator.hasNext();) {
+			Breeder breeder = (Breeder) iterator.next();
+			competeForBreeding(breeder.individual, breeder.value);
+		}
+	}
+
+	// Paper trade the individual under our evaluation budget. Returns the
+	// value of the individual's portfolio, or null if its rules failed to
+	// evaluate.
+	private Money paperTrade(Individual individual) {
+		EvaluationBudget previousBudget = EvaluationBudget.setBudget(budget);
+
+		try {
+			return individual.paperTrade(quoteBundle, orderCache, startDate, endDate, initialCapital, stockValue,
+					numberStocks, tradeCost, tradeValueBuy, tradeValueSell);
+		} catch (EvaluationException e) {
+			// If there is a problem running the equation then
+			// it dies off naturally!
+			return null;
+		} finally {
+			EvaluationBudget.setBudget(previousBudget);
+		}
+	}
+
+	// Paper trade the breeders' individuals, unless an individual with the same
+	// rules is in this batch or has been paper traded before. Returns false if
+	// this thread was interrupted first.
+	private boolean paperTrade(List breeders) {
+		if (!isFitnessCached)
+			return paperTradeBreeders(breeders);
+
+		// Map of rules to the individual paper traded with them
+		Map rules = new HashMap();
+		List keys = new ArrayList(breeders.size());
+		List newBreeders = new ArrayList();
+
+		for (Iterator iterator = breeders.iterator(); iterator.hasNext();) {
+			Breeder breeder = (Breeder) iterator.next();
+			List key = getRules(breeder.individual);
+
+			keys.add(key);
+			cacheLookups++;
+
+			if (rules.containsKey(key))
+				cacheHits++;
+			else {
+				Individual cachedIndividual = (Individual) fitnessCache.get(key);
+
+				if (cachedIndividual != null) {
+					rules.put(key, cachedIndividual);
+					cacheHits++;
+				} else {
+					rules.put(key, breeder.individual);
+					newBreeders.add(breeder);
 				}
 			}
 		}
+
+		if (!paperTradeBreeders(newBreeders))
+			return false;
+
+		for (int i = 0; i < breeders.size(); i++) {
+			Breeder breeder = (Breeder) breeders.get(i);
+			List key = (List) keys.get(i);
+			Individual tradedIndividual = (Individual) rules.get(key);
+
+			fitnessCache.put(key, tradedIndividual);
+
+			if (tradedIndividual != breeder.individual) {
+				breeder.individual.setLedger(tradedIndividual.getLedger());
+				breeder.individual.setValue(tradedIndividual.getValue());
+				breeder.value = tradedIndividual.getValue();
+			}
+		}
+
+		return true;
+	}
+
+	// Return the key of the individual in the fitness cache. The rules of most
+	// individuals were simplified when they were created, but not those from
+	// the initial population or other islands.
+	private List getRules(Individual individual) {
+		return Arrays.asList(new IExpression[] { individual.getBuyRule().simplify(),
+				individual.getSellRule().simplify() });
+	}
+
+	// Paper trade the breeders' individuals. Returns false if this thread was
+	// interrupted first.
+	private boolean paperTradeBreeders(List breeders) {
+		Thread thread = Thread.currentThread();
+
+		if (breeders.isEmpty())
+			return true;
+
+		if (threads == 1 || breeders.size() == 1) {
+			for (Iterator iterator = breeders.iterator(); iterator.hasNext();) {
+				if (thread.isInterrupted())
+					return false;
+
+				((Breeder) iterator.next()).paperTrade();
+			}
+
+			return true;
+		}
+
+		if (executor == null)
+			executor = Executors.newFixedThreadPool(threads);
+
+		List futures = new ArrayList(breeders.size());
+
+		try {
+			for (Iterator iterator = breeders.iterator(); iterator.hasNext();) {
+				final Breeder breeder = (Breeder) iterator.next();
+
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						breeder.paperTrade();
+					}
+				}));
+			}
+
+			for (Iterator iterator = futures.iterator(); iterator.hasNext();)
+				((Future) iterator.next()).get();
+
+			return true;
+
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			else
+				throw (Error) e.getCause();
+		} finally {
+			// Don't leave paper trades from this batch running if we
+			// stopped early
+			for (Iterator iterator = futures.iterator(); iterator.hasNext();)
+				((Future) iterator.next()).cancel(true);
+		}
 	}
 
 	/**
@@ -220,6 +564,11 @@ public class GeneticProgramme {
 			breedingPopulationSum += value.doubleValue();
 		}
 
+		VeniceLog.getInstance().log("GeneticProgramme generation " + generation + " fitness cache hits = "
+				+ cacheHits + " of " + cacheLookups);
+		cacheLookups = 0;
+		cacheHits = 0;
+
 		return ++generation;
 	}
 
@@ -291,14 +640,36 @@ public class GeneticProgramme {
 		return nextBreedingPopulation.size();
 	}
 
+	/**
+	 * Get the fittest individuals of the next generation's breeding population.
+	 *
+	 * @param count the maximum number of individuals to return
+	 * @return the individuals, fittest first
+	 */
+	public List getFittestIndividuals(int count) {
+		List individuals = new ArrayList(nextBreedingPopulation.values());
+		Collections.reverse(individuals);
+
+		return new ArrayList(individuals.subList(0, Math.min(count, individuals.size())));
+	}
+
 	/**
 	 * Create a new individual. If it is the first generation then we will create an
 	 * entirely random individual, otherwise we will base it on the combination of
 	 * two existing individuals.
 	 *
+	 * @param breeder   the breeder creating the individual
+	 * @param mutations number of mutations of the initial population rules
 	 * @return the new individual
 	 */
-	private Individual createIndividual(IExpression buyRule, IExpression sellRule, int mutations, boolean twice) {
+	private Individual createIndividual(Breeder breeder, int mutations) {
+		Random random = breeder.random;
+		Mutator buyRuleMutator = breeder.buyRuleMutator;
+		Mutator sellRuleMutator = breeder.sellRuleMutator;
+		IExpression buyRule = breeder.buyRule;
+		IExpression sellRule = breeder.sellRule;
+		boolean twice = breeder.twice;
+
 		// The first generation we use the rules as defined
 		// in Initial Population Section.
 		if (generation == 1)
@@ -22,6 +22,7 @@ import java.util.Random;
 
 import nz.org.venice.analyser.OrderCache;
 import nz.org.venice.analyser.PaperTrade;
+import nz.org.venice.analyser.PaperTradeLedger;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.TypeMismatchException;
@@ -48,7 +49,9 @@ public class Individual implements Comparable {
 	// The evolved sell indicator
 	private IExpression sellRule = null;
 
-	// The individuals portfolio after trades
+	// The individuals trades, and the portfolio built from them when it is
+	// first asked for
+	private PaperTradeLedger ledger = null;
 	private Portfolio portfolio = null;
 
 	// The value of the portfolio
@@ -218,19 +221,19 @@ public class Individual implements Comparable {
 
 		// Is there a fixed number of stocks?
 		if (stockValue == null)
-			portfolio = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, new Variables(), orderCache, startDate,
+			ledger = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, new Variables(), orderCache, startDate,
 					endDate, getBuyRule(), getSellRule(), initialCapital, numberStocks, tradeCost, tradeValueBuy,
 					tradeValueSell);
 		// Or a fixed value?
 		else {
-			portfolio = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, new Variables(), orderCache, startDate,
+			ledger = PaperTrade.paperTrade(PORTFOLIO_NAME, quoteBundle, new Variables(), orderCache, startDate,
 					endDate, getBuyRule(), getSellRule(), initialCapital, stockValue, tradeCost, tradeValueBuy,
 					tradeValueSell);
 		}
 
 		// Get final value of portfolio
 		try {
-			value = portfolio.getValue(quoteBundle, endDate);
+			value = ledger.getValue(endDate);
 		} catch (MissingQuoteException e) {
 			// Already checked...
 			assert false;
@@ -248,6 +251,15 @@ public class Individual implements Comparable {
 		return value;
 	}
 
+	/**
+	 * Set the final value of the individual after paper trading.
+	 *
+	 * @param value the final value
+	 */
+	public void setValue(Money value) {
+		this.value = value;
+	}
+
 	/**
 	 * Get the buy rule.
 	 *
@@ -272,9 +284,31 @@ public class Individual implements Comparable {
 	 * @return final portfolio
 	 */
 	public Portfolio getPortfolio() {
+		if (portfolio == null && ledger != null)
+			portfolio = ledger.toPortfolio();
+
 		return portfolio;
 	}
 
+	/**
+	 * Get the ledger of the individual's trades.
+	 *
+	 * @return the ledger
+	 */
+	public PaperTradeLedger getLedger() {
+		return ledger;
+	}
+
+	/**
+	 * Set the ledger of the individual's trades.
+	 *
+	 * @param ledger the ledger
+	 */
+	public void setLedger(PaperTradeLedger ledger) {
+		this.ledger = ledger;
+		this.portfolio = null;
+	}
+
 	/**
 	 * Compare the individuals' final values.
 	 *
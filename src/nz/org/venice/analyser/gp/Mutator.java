@@ -363,7 +363,7 @@ public class Mutator {
 				return new NumberExpression(0.01D + random.nextDouble() * (1.0D - 0.01D));
 			}
 
-			randomNumber = GPGondolaSelection.getRandomToGenerateTerminalFloat(allowHeld);
+			randomNumber = GPGondolaSelection.getRandomToGenerateTerminalFloat(random, allowHeld);
 
 			if (randomNumber == 0) {
 				// Generate an ordinary number
@@ -382,7 +382,7 @@ public class Mutator {
 				return new NumberExpression(0 - random.nextInt(50));
 			}
 
-			randomNumber = GPGondolaSelection.getRandomToGenerateTerminalInteger(allowHeld, allowOrder);
+			randomNumber = GPGondolaSelection.getRandomToGenerateTerminalInteger(random, allowHeld, allowOrder);
 
 			if (randomNumber == 0) {
 
@@ -423,7 +423,7 @@ public class Mutator {
 
 		case IExpression.FLOAT_QUOTE_TYPE:
 
-			randomNumber = GPGondolaSelection.getRandomToGenerateFloatQuote();
+			randomNumber = GPGondolaSelection.getRandomToGenerateFloatQuote(random);
 
 			if (randomNumber == 0) {
 				return new QuoteExpression(IQuote.DAY_OPEN);
@@ -440,11 +440,11 @@ public class Mutator {
 			return new QuoteExpression(IQuote.DAY_VOLUME);
 
 		case IExpression.NUMERIC_TYPE:
-			randomNumber = GPGondolaSelection.getRandomToGenerateTerminalInteger(allowHeld, allowOrder);
+			randomNumber = GPGondolaSelection.getRandomToGenerateTerminalInteger(random, allowHeld, allowOrder);
 
 			if (randomNumber % 2 == 0) {
 
-				randomNumber = GPGondolaSelection.getRandomToGenerateTerminalInteger(allowHeld, allowOrder);
+				randomNumber = GPGondolaSelection.getRandomToGenerateTerminalInteger(random, allowHeld, allowOrder);
 
 				if (randomNumber % 2 != 0) {
 					// Generate an ordinary number small and negative.
@@ -459,7 +459,7 @@ public class Mutator {
 					return new NumberExpression(0.01D + random.nextDouble() * (1.0D - 0.01D));
 				}
 
-				randomNumber = GPGondolaSelection.getRandomToGenerateTerminalFloat(allowHeld);
+				randomNumber = GPGondolaSelection.getRandomToGenerateTerminalFloat(random, allowHeld);
 
 				if (randomNumber == 0) {
 					// Generate an ordinary number
@@ -487,7 +487,7 @@ public class Mutator {
 	 * @return randomly generated non-terminal boolean expression
 	 */
 	private IExpression createRandomNonTerminalBoolean(IExpression model, int level) {
-		int randomNumber = GPGondolaSelection.getRandomToGenerateBoolean();
+		int randomNumber = GPGondolaSelection.getRandomToGenerateBoolean(random);
 
 		if (randomNumber == 0) {
 			return new NotExpression(getChild(model, level, 0, IExpression.BOOLEAN_TYPE));
@@ -566,7 +566,7 @@ public class Mutator {
 			return numberExpression;
 		}
 
-		int randomNumber = GPGondolaSelection.getRandomToGenerateFloat();
+		int randomNumber = GPGondolaSelection.getRandomToGenerateFloat(random);
 
 		if (randomNumber == 0) {
 			return createRandomTerminal(IExpression.FLOAT_TYPE);
@@ -678,7 +678,7 @@ public class Mutator {
 	}
 
 	private IExpression createRandomNonTerminalNumeric(IExpression model, int level) {
-		int randomNumber = GPGondolaSelection.getRandomToGenerateInteger();
+		int randomNumber = GPGondolaSelection.getRandomToGenerateInteger(random);
 
 		if (randomNumber % 2 == 0) {
 			return createRandomNonTerminalInteger(model, level);
@@ -716,7 +716,7 @@ public class Mutator {
 			return numberExpression;
 		}
 
-		int randomNumber = GPGondolaSelection.getRandomToGenerateInteger();
+		int randomNumber = GPGondolaSelection.getRandomToGenerateInteger(random);
 
 		if (randomNumber == 0) {
 			rv = createRandomTerminal(IExpression.INTEGER_TYPE);
@@ -848,7 +848,7 @@ public class Mutator {
 			return numberExpression;
 		}
 
-		int randomNumber = GPGondolaSelection.getRandomToGeneratePositiveShortInteger();
+		int randomNumber = GPGondolaSelection.getRandomToGeneratePositiveShortInteger(random);
 
 		// MH: I have a feeling that the generator never returns 11 at all
 		// which might be a bug.
@@ -950,7 +950,7 @@ public class Mutator {
 			return numberExpression;
 		}
 
-		int randomNumber = GPGondolaSelection.getRandomToGenerateNegativeShortInteger();
+		int randomNumber = GPGondolaSelection.getRandomToGenerateNegativeShortInteger(random);
 
 		// MH: I have a feeling that the generator never returns 7 at all
 		// which might be a bug.
@@ -1011,7 +1011,7 @@ public class Mutator {
 		if (model == null || arg >= model.getChildCount() || (model.getChild(arg).getType() != IExpression.FLOAT_TYPE
 				&& model.getChild(arg).getType() != IExpression.INTEGER_TYPE)) {
 
-			int randomNumber = GPGondolaSelection.getRandomToGenerateFloatInteger();
+			int randomNumber = GPGondolaSelection.getRandomToGenerateFloatInteger(random);
 
 			if (randomNumber == 0) {
 				return createRandom(null, IExpression.FLOAT_TYPE, this.NO_SUBTYPE, level);
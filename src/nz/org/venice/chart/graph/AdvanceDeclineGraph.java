@@ -24,13 +24,12 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.Vector;
 
 import nz.org.venice.chart.GraphTools;
 import nz.org.venice.chart.Graphable;
 import nz.org.venice.chart.source.IGraphSource;
+import nz.org.venice.quote.MarketBreadth;
 import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.QuoteSourceManager;
 import nz.org.venice.ui.IProgressDialog;
@@ -217,20 +216,17 @@ public class AdvanceDeclineGraph implements IGraph {
 		int cumulativeAdvanceDecline = START_VALUE;
 
 		try {
-			HashMap advanceDeclines = QuoteSourceManager.getSource().getAdvanceDecline(firstDate, lastDate);
+			MarketBreadth marketBreadth = QuoteSourceManager.getSource().getMarketBreadth();
 
-			SortedSet sortedAdvanceDeclines = new TreeSet(advanceDeclines.keySet());
-			Iterator iterator = sortedAdvanceDeclines.iterator();
-			Iterator datesIterator = dates.iterator();
-
-			while (iterator.hasNext()) {
+			for (Iterator iterator = dates.iterator(); iterator.hasNext();) {
 				TradingDate date = (TradingDate) iterator.next();
 
-				Integer advanceDeclineValue = (Integer) advanceDeclines.get(date);
-
-				cumulativeAdvanceDecline += advanceDeclineValue.intValue();
+				// Skip days without any trading
+				if (marketBreadth.getIssues(date) > 0) {
+					cumulativeAdvanceDecline += marketBreadth.getAdvances(date) - marketBreadth.getDeclines(date);
 
-				advanceDecline.putY((Comparable) date, new Double(cumulativeAdvanceDecline));
+					advanceDecline.putY((Comparable) date, new Double(cumulativeAdvanceDecline));
+				}
 
 				if (thread.isInterrupted())
 					break;
@@ -20,8 +20,10 @@ package nz.org.venice.chart.graph;
 
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import javax.swing.JCheckBox;
@@ -34,6 +36,8 @@ import nz.org.venice.parser.ExpressionException;
 import nz.org.venice.parser.Parser;
 import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.IndicatorStore;
+import nz.org.venice.quote.QuoteSourceManager;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.ui.ExpressionComboBox;
 import nz.org.venice.ui.GridBagHelper;
@@ -172,25 +176,64 @@ public class CustomGraphUI implements IGraphUI {
 
 		Graphable indicatorGraphable = new Graphable();
 
-		// Date set and value array will be in sync
-		double[] values = source.toArray();
 		Set xRange = source.getXRange();
 		Iterator iterator = xRange.iterator();
 		Variables variables = new Variables();
+		List dates = new ArrayList();
+		List offsets = new ArrayList();
+		int firstOffset = Integer.MAX_VALUE;
+		int lastOffset = Integer.MIN_VALUE;
 
 		while (iterator.hasNext()) {
 			TradingDate date = (TradingDate) iterator.next();
 
 			try {
 				int dateOffset = quoteBundle.dateToOffset(date);
-				double value = indicator.evaluate(variables, quoteBundle, symbol, dateOffset);
 
-				indicatorGraphable.putY(date, new Double(value));
+				dates.add(date);
+				offsets.add(Integer.valueOf(dateOffset));
+				firstOffset = Math.min(firstOffset, dateOffset);
+				lastOffset = Math.max(lastOffset, dateOffset);
 			} catch (WeekendDateException e) {
 				// ignore
 			}
 		}
 
+		// Reuse any results already calculated for this symbol
+		IndicatorStore indicatorStore = null;
+
+		if (IndicatorStore.isStorable(indicator))
+			indicatorStore = QuoteSourceManager.getSource().getIndicatorStore();
+
+		try {
+			// If the graph covers every day in the range, evaluate the whole
+			// range at once, otherwise fall back to evaluating each day.
+			if (!dates.isEmpty() && lastOffset - firstOffset + 1 == dates.size()) {
+				double[] values = indicatorStore != null
+						? indicatorStore.getSeries(indicator, quoteBundle, symbol, firstOffset, lastOffset)
+						: indicator.evaluateSeries(variables, quoteBundle, symbol, firstOffset, lastOffset);
+
+				for (int i = 0; i < dates.size(); i++) {
+					int dateOffset = ((Integer) offsets.get(i)).intValue();
+
+					indicatorGraphable.putY((TradingDate) dates.get(i),
+							Double.valueOf(values[dateOffset - firstOffset]));
+				}
+			} else {
+				for (int i = 0; i < dates.size(); i++) {
+					int dateOffset = ((Integer) offsets.get(i)).intValue();
+					double value = indicatorStore != null
+							? indicatorStore.getValue(indicator, quoteBundle, symbol, dateOffset)
+							: indicator.evaluate(variables, quoteBundle, symbol, dateOffset);
+
+					indicatorGraphable.putY((TradingDate) dates.get(i), Double.valueOf(value));
+				}
+			}
+		} finally {
+			if (indicatorStore != null)
+				indicatorStore.save();
+		}
+
 		return indicatorGraphable;
 	}
 
@@ -123,10 +123,16 @@ public class RSIGraph extends AbstractGraph {
 	}
 
 	/**
-	 * Create a new RSI based on the given data source.
+	 * Create a new RSI based on the given data source. The smoothed RSI chains
+	 * Wilder's averages from the start of the graph, so it differs from the
+	 * smoothed <code>rsi</code> expression, which only smooths over its own
+	 * window. The RSI of a given period on a day is the same as the expression
+	 * <code>rsi(period + 2)</code> on the next day, see
+	 * {@link nz.org.venice.parser.expression.RSIExpression}.
 	 *
-	 * @param source the input graph source
-	 * @param period the desired period of the RSI
+	 * @param source    the input graph source
+	 * @param period    the desired period of the RSI
+	 * @param smoothing whether to smooth the averages
 	 * @return the RSI graphable
 	 */
 	public static Graphable createRSI(Graphable source, int period, boolean smoothing) {
@@ -22,6 +22,7 @@ import nz.org.venice.quote.EODQuote;
 import nz.org.venice.quote.FileEODQuoteImport;
 import nz.org.venice.quote.IFileEODQuoteFilter;
 import nz.org.venice.quote.IFileEODQuoteImport;
+import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.QuoteFormatException;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.quote.SymbolFormatException;
@@ -115,7 +116,7 @@ public class EzyChartQuoteFilter implements IFileEODQuoteFilter {
 	 * @param quote a stock quote
 	 * @return string version of the quote
 	 */
-	public String toString(EODQuote quote) {
+	public String toString(IQuote quote) {
 		return new String(quote.getSymbol() + "," + quote.getDate().toString("yymmdd") + ","
 				+ Math.round(quote.getDayOpen() * 100.0) + "," + Math.round(quote.getDayHigh() * 100.0) + ","
 				+ Math.round(quote.getDayLow() * 100.0) + "," + Math.round(quote.getDayClose() * 100.0) + ","
@@ -20,6 +20,7 @@ package nz.org.venice.importer;
 
 import nz.org.venice.quote.EODQuote;
 import nz.org.venice.quote.IEODQuoteFilter;
+import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.QuoteFormatException;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.util.Locale;
@@ -112,7 +113,7 @@ public class GenericWSEODQuoteFilter implements IEODQuoteFilter {
 	 * @param quote a stock quote
 	 * @return string version of the quote
 	 */
-	public String toString(EODQuote quote) {
+	public String toString(IQuote quote) {
 		throw new UnsupportedOperationException();
 	}
 }
@@ -24,6 +24,7 @@ import nz.org.venice.quote.EODQuote;
 import nz.org.venice.quote.FileEODQuoteImport;
 import nz.org.venice.quote.IFileEODQuoteFilter;
 import nz.org.venice.quote.IFileEODQuoteImport;
+import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.QuoteFormatException;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.quote.SymbolFormatException;
@@ -120,7 +121,7 @@ public class MetaStockQuoteFilter implements IFileEODQuoteFilter {
 	 * @return string version of the quote
 	 */
 
-	public String toString(EODQuote quote) {
+	public String toString(IQuote quote) {
 		if (format == null) {
 			// FIXME
 			// Replace this with something like opencsv.CSVWriter
@@ -21,6 +21,7 @@ package nz.org.venice.importer;
 import nz.org.venice.quote.EODQuote;
 import nz.org.venice.quote.IFileEODQuoteFilter;
 import nz.org.venice.quote.IFileEODQuoteImport;
+import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.QuoteFormatException;
 import nz.org.venice.util.Report;
 
@@ -33,7 +34,7 @@ public class MetastockBinaryEODFilter implements IFileEODQuoteFilter {
 		return null;
 	}
 
-	public String toString(EODQuote quote) {
+	public String toString(IQuote quote) {
 		return null;
 	}
 
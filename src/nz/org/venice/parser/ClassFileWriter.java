@@ -0,0 +1,535 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * A minimal Java class file writer used by the {@link ExpressionCompiler}. It
+ * only supports what the compiler needs: a constant pool, methods with a
+ * <code>Code</code> attribute and forward and backward branches. Classes are
+ * written with class file version 49 so that no stack map frames are
+ * required.
+ */
+class ClassFileWriter {
+
+	// Opcodes used by the expression compiler
+	static final int ICONST_0 = 0x03;
+	static final int DCONST_0 = 0x0e;
+	static final int DCONST_1 = 0x0f;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int LDC2_W = 0x14;
+	static final int ILOAD = 0x15;
+	static final int DLOAD = 0x18;
+	static final int ALOAD = 0x19;
+	static final int DSTORE = 0x39;
+	static final int ASTORE = 0x3a;
+	static final int POP2 = 0x58;
+	static final int AALOAD = 0x32;
+	static final int DADD = 0x63;
+	static final int DSUB = 0x67;
+	static final int DMUL = 0x6b;
+	static final int DDIV = 0x6f;
+	static final int DCMPL = 0x97;
+	static final int DCMPG = 0x98;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IFLT = 0x9b;
+	static final int IFGE = 0x9c;
+	static final int IFGT = 0x9d;
+	static final int IFLE = 0x9e;
+	static final int GOTO = 0xa7;
+	static final int DRETURN = 0xaf;
+	static final int RETURN = 0xb1;
+	static final int GETFIELD = 0xb4;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKESTATIC = 0xb8;
+	static final int INVOKEINTERFACE = 0xb9;
+	static final int ATHROW = 0xbf;
+
+	// Access flags
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	// Constant pool tags
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELD_REF = 9;
+	private static final int CONSTANT_METHOD_REF = 10;
+	private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private DataOutputStream pool = new DataOutputStream(poolBytes);
+	private HashMap constants = new HashMap();
+	private int poolCount = 1;
+	private Vector methods = new Vector();
+
+	private String name;
+	private String superName;
+
+	/**
+	 * Create a new class file writer.
+	 *
+	 * @param name      the internal name of the class, e.g. <code>a/b/C</code>
+	 * @param superName the internal name of its super class
+	 */
+	public ClassFileWriter(String name, String superName) {
+		this.name = name;
+		this.superName = superName;
+	}
+
+	/**
+	 * Return the internal name of the class being written.
+	 *
+	 * @return the class name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Add a public method to the class.
+	 *
+	 * @param methodName the method name
+	 * @param descriptor the method descriptor
+	 * @param code       the method's byte code
+	 */
+	public void addMethod(String methodName, String descriptor, Code code) {
+		methods.add(new Object[] { Integer.valueOf(utf8(methodName)), Integer.valueOf(utf8(descriptor)), code });
+	}
+
+	/**
+	 * Return the class file.
+	 *
+	 * @return the bytes of the class file
+	 */
+	public byte[] toByteArray() {
+		try {
+			int thisClass = classRef(name);
+			int superClass = classRef(superName);
+			int codeName = utf8("Code");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(poolCount);
+			pool.flush();
+			poolBytes.writeTo(out);
+
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+
+			out.writeShort(methods.size());
+			for (Iterator iterator = methods.iterator(); iterator.hasNext();) {
+				Object[] method = (Object[]) iterator.next();
+				Code code = (Code) method[2];
+
+				out.writeShort(ACC_PUBLIC);
+				out.writeShort(((Integer) method[0]).intValue());
+				out.writeShort(((Integer) method[1]).intValue());
+				out.writeShort(1);
+
+				out.writeShort(codeName);
+				out.writeInt(12 + code.length);
+				out.writeShort(code.maxStack);
+				out.writeShort(code.maxLocals);
+				out.writeInt(code.length);
+				out.write(code.bytes, 0, code.length);
+				out.writeShort(0); // exception table
+				out.writeShort(0); // attributes
+			}
+
+			out.writeShort(0); // attributes
+			out.flush();
+
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			// Can't happen writing to memory
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * Return the constant pool index of a UTF8 string.
+	 */
+	public int utf8(String value) {
+		String key = "U" + value;
+		Integer index = (Integer) constants.get(key);
+
+		if (index == null) {
+			index = addConstant(key, 1);
+			write(CONSTANT_UTF8);
+			try {
+				pool.writeUTF(value);
+			} catch (IOException e) {
+				throw new IllegalStateException(e.toString());
+			}
+		}
+		return index.intValue();
+	}
+
+	/**
+	 * Return the constant pool index of a class reference.
+	 */
+	public int classRef(String className) {
+		String key = "C" + className;
+		Integer index = (Integer) constants.get(key);
+
+		if (index == null) {
+			int nameIndex = utf8(className);
+			index = addConstant(key, 1);
+			write(CONSTANT_CLASS);
+			writeShort(nameIndex);
+		}
+		return index.intValue();
+	}
+
+	/**
+	 * Return the constant pool index of a field reference.
+	 */
+	public int fieldRef(String owner, String fieldName, String descriptor) {
+		return memberRef(CONSTANT_FIELD_REF, owner, fieldName, descriptor);
+	}
+
+	/**
+	 * Return the constant pool index of a class method reference.
+	 */
+	public int methodRef(String owner, String methodName, String descriptor) {
+		return memberRef(CONSTANT_METHOD_REF, owner, methodName, descriptor);
+	}
+
+	/**
+	 * Return the constant pool index of an interface method reference.
+	 */
+	public int interfaceMethodRef(String owner, String methodName, String descriptor) {
+		return memberRef(CONSTANT_INTERFACE_METHOD_REF, owner, methodName, descriptor);
+	}
+
+	/**
+	 * Return the constant pool index of an integer constant.
+	 */
+	public int integerConstant(int value) {
+		String key = "I" + value;
+		Integer index = (Integer) constants.get(key);
+
+		if (index == null) {
+			index = addConstant(key, 1);
+			write(CONSTANT_INTEGER);
+			writeInt(value);
+		}
+		return index.intValue();
+	}
+
+	/**
+	 * Return the constant pool index of a double constant.
+	 */
+	public int doubleConstant(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		String key = "D" + bits;
+		Integer index = (Integer) constants.get(key);
+
+		if (index == null) {
+			// Doubles take up two constant pool entries
+			index = addConstant(key, 2);
+			write(CONSTANT_DOUBLE);
+			writeInt((int) (bits >>> 32));
+			writeInt((int) bits);
+		}
+		return index.intValue();
+	}
+
+	private int memberRef(int tag, String owner, String memberName, String descriptor) {
+		String key = tag + owner + "." + memberName + descriptor;
+		Integer index = (Integer) constants.get(key);
+
+		if (index == null) {
+			int classIndex = classRef(owner);
+			int nameAndType = nameAndType(memberName, descriptor);
+			index = addConstant(key, 1);
+			write(tag);
+			writeShort(classIndex);
+			writeShort(nameAndType);
+		}
+		return index.intValue();
+	}
+
+	private int nameAndType(String memberName, String descriptor) {
+		String key = "N" + memberName + descriptor;
+		Integer index = (Integer) constants.get(key);
+
+		if (index == null) {
+			int nameIndex = utf8(memberName);
+			int descriptorIndex = utf8(descriptor);
+			index = addConstant(key, 1);
+			write(CONSTANT_NAME_AND_TYPE);
+			writeShort(nameIndex);
+			writeShort(descriptorIndex);
+		}
+		return index.intValue();
+	}
+
+	private Integer addConstant(String key, int entries) {
+		if (poolCount + entries > 0xffff)
+			throw new IllegalStateException("Constant pool overflow");
+
+		Integer index = Integer.valueOf(poolCount);
+		constants.put(key, index);
+		poolCount += entries;
+		return index;
+	}
+
+	private void write(int value) {
+		try {
+			pool.writeByte(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	private void writeShort(int value) {
+		try {
+			pool.writeShort(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	private void writeInt(int value) {
+		try {
+			pool.writeInt(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * A jump target within a method's code.
+	 */
+	static class Label {
+		// Offset of the label, or -1 if not yet placed
+		private int position = -1;
+
+		// Offsets of branch instructions waiting for this label
+		private Vector branches = new Vector();
+	}
+
+	/**
+	 * The byte code of a single method. The writer keeps track of the operand
+	 * stack depth so that it can fill in the method's maximum stack size.
+	 */
+	static class Code {
+		private byte[] bytes = new byte[256];
+		private int length = 0;
+		private int stack = 0;
+		private int maxStack = 0;
+		private int maxLocals;
+
+		/**
+		 * Create a new method body.
+		 *
+		 * @param locals the number of local variable slots used by the
+		 *               method's arguments, including <code>this</code>
+		 */
+		public Code(int locals) {
+			maxLocals = locals;
+		}
+
+		/**
+		 * Allocate a new local variable.
+		 *
+		 * @param size the number of slots required, 2 for a double
+		 * @return the slot of the new local variable
+		 */
+		public int newLocal(int size) {
+			int slot = maxLocals;
+			maxLocals += size;
+			return slot;
+		}
+
+		/**
+		 * Return the current depth of the operand stack, in slots.
+		 */
+		public int getStack() {
+			return stack;
+		}
+
+		/**
+		 * Set the current depth of the operand stack. This is used after an
+		 * unconditional jump where the depth at the next label is known.
+		 */
+		public void setStack(int stack) {
+			this.stack = stack;
+		}
+
+		/**
+		 * Return the number of bytes of code written so far.
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * Write an instruction without operands.
+		 *
+		 * @param opcode     the instruction
+		 * @param stackDelta the change in operand stack depth, in slots
+		 */
+		public void op(int opcode, int stackDelta) {
+			write(opcode);
+			adjustStack(stackDelta);
+		}
+
+		/**
+		 * Write an instruction with a one byte operand.
+		 */
+		public void op1(int opcode, int operand, int stackDelta) {
+			write(opcode);
+			write(operand);
+			adjustStack(stackDelta);
+		}
+
+		/**
+		 * Write an instruction with a two byte operand.
+		 */
+		public void op2(int opcode, int operand, int stackDelta) {
+			write(opcode);
+			write(operand >> 8);
+			write(operand);
+			adjustStack(stackDelta);
+		}
+
+		/**
+		 * Write an <code>invokeinterface</code> instruction.
+		 *
+		 * @param method     constant pool index of the interface method
+		 * @param argSlots   argument slots, including the receiver
+		 * @param stackDelta the change in operand stack depth
+		 */
+		public void invokeInterface(int method, int argSlots, int stackDelta) {
+			op2(INVOKEINTERFACE, method, stackDelta);
+			write(argSlots);
+			write(0);
+		}
+
+		/**
+		 * Write a local variable instruction such as <code>dload</code>.
+		 */
+		public void local(int opcode, int slot, int stackDelta) {
+			if (slot > 0xff)
+				throw new IllegalStateException("Too many local variables");
+			op1(opcode, slot, stackDelta);
+		}
+
+		/**
+		 * Push an integer constant.
+		 */
+		public void pushInt(ClassFileWriter writer, int value) {
+			if (value >= -1 && value <= 5)
+				op(ICONST_0 + value, 1);
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+				op1(BIPUSH, value, 1);
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+				op2(SIPUSH, value, 1);
+			else
+				op2(LDC_W, writer.integerConstant(value), 1);
+		}
+
+		/**
+		 * Push a double constant.
+		 */
+		public void pushDouble(ClassFileWriter writer, double value) {
+			// Only use dconst for positive zero so -0.0 keeps its sign
+			if (Double.doubleToRawLongBits(value) == 0L)
+				op(DCONST_0, 2);
+			else if (value == 1.0D)
+				op(DCONST_1, 2);
+			else
+				op2(LDC2_W, writer.doubleConstant(value), 2);
+		}
+
+		/**
+		 * Write a branch instruction to the given label.
+		 */
+		public void branch(int opcode, Label label, int stackDelta) {
+			int position = length;
+			write(opcode);
+			write(0);
+			write(0);
+			adjustStack(stackDelta);
+
+			if (label.position >= 0)
+				patch(position, label.position);
+			else
+				label.branches.add(Integer.valueOf(position));
+		}
+
+		/**
+		 * Place the given label at the current position.
+		 */
+		public void mark(Label label) {
+			label.position = length;
+
+			for (Iterator iterator = label.branches.iterator(); iterator.hasNext();)
+				patch(((Integer) iterator.next()).intValue(), length);
+			label.branches.clear();
+		}
+
+		private void patch(int branch, int target) {
+			int offset = target - branch;
+
+			if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+				throw new IllegalStateException("Branch offset too large");
+
+			bytes[branch + 1] = (byte) (offset >> 8);
+			bytes[branch + 2] = (byte) offset;
+		}
+
+		private void adjustStack(int delta) {
+			stack += delta;
+			if (stack > maxStack)
+				maxStack = stack;
+		}
+
+		private void write(int value) {
+			if (length == bytes.length) {
+				byte[] newBytes = new byte[bytes.length * 2];
+				System.arraycopy(bytes, 0, newBytes, 0, length);
+				bytes = newBytes;
+			}
+			bytes[length++] = (byte) value;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import nz.org.venice.parser.expression.AbstractExpression;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * An expression whose evaluation has been compiled to Java byte code by the
+ * {@link ExpressionCompiler}. It can be used wherever the original expression
+ * was used: evaluation runs the compiled code, everything else such as
+ * type checking, simplification and printing is passed to the original
+ * expression tree.
+ *
+ * @see ExpressionCompiler
+ */
+public class CompiledExpression implements IExpression {
+
+	/**
+	 * Base class of the code generated by the expression compiler.
+	 */
+	public static abstract class Code {
+
+		/**
+		 * Nodes of the expression tree referenced by the generated code. These
+		 * are the nodes that were not compiled and are evaluated by the
+		 * interpreter, and nodes needed for error messages.
+		 */
+		protected IExpression[] nodes;
+
+		protected Code() {
+			// nothing to do
+		}
+
+		/**
+		 * Evaluate the compiled expression.
+		 *
+		 * @see IExpression#evaluate
+		 */
+		public abstract double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
+				throws EvaluationException;
+
+		/**
+		 * Return a copy of the variables for a compiled clause, as
+		 * {@link nz.org.venice.parser.expression.ClauseExpression} does.
+		 *
+		 * @param variables the variables
+		 * @return the copy, or <code>null</code> if they could not be copied
+		 */
+		protected static Variables cloneVariables(Variables variables) {
+			try {
+				return (Variables) variables.clone();
+			} catch (CloneNotSupportedException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Return the exception thrown when a compiled division divides by zero.
+		 *
+		 * @param expression the divide expression
+		 * @param right      the value of the divisor
+		 * @return the exception to throw
+		 */
+		protected static EvaluationException divideByZero(IExpression expression, double right) {
+			EvaluationException e = EvaluationException.DIVIDE_BY_ZERO_EXCEPTION.copy();
+			e.setMessage(expression, "", right);
+			return e;
+		}
+	}
+
+	// The original expression tree
+	private IExpression expression;
+
+	// Compiled evaluation code
+	private Code code;
+
+	// Number of nodes compiled to byte code
+	private int compiledNodes;
+
+	/**
+	 * Create a new compiled expression.
+	 *
+	 * @param expression    the original expression
+	 * @param code          the compiled code
+	 * @param compiledNodes the number of nodes that were compiled
+	 */
+	CompiledExpression(IExpression expression, Code code, int compiledNodes) {
+		this.expression = expression;
+		this.code = code;
+		this.compiledNodes = compiledNodes;
+	}
+
+	/**
+	 * Return the original, interpreted, expression.
+	 *
+	 * @return the original expression
+	 */
+	public IExpression getExpression() {
+		return expression;
+	}
+
+	/**
+	 * Return the number of nodes of the expression that were compiled to byte
+	 * code. The remaining nodes are evaluated by the interpreter.
+	 *
+	 * @return the number of compiled nodes
+	 */
+	public int getCompiledNodeCount() {
+		return compiledNodes;
+	}
+
+	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
+			throws EvaluationException {
+		return code.evaluate(variables, quoteBundle, symbol, day);
+	}
+
+	/**
+	 * Evaluate the original expression for a series of days. Whole series
+	 * evaluation is already faster than evaluating compiled code day by day.
+	 */
+	public double[] evaluateSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+		return expression.evaluateSeries(variables, quoteBundle, symbol, firstDay, lastDay);
+	}
+
+	public String toString() {
+		return expression.toString();
+	}
+
+	public int checkType() throws TypeMismatchException {
+		return expression.checkType();
+	}
+
+	public int getType() {
+		return expression.getType();
+	}
+
+	public int getChildCount() {
+		return expression.getChildCount();
+	}
+
+	public IExpression getParent() {
+		return expression.getParent();
+	}
+
+	public void setParent(IExpression parent) {
+		expression.setParent(parent);
+	}
+
+	/**
+	 * Clone the expression. The clone is compiled separately so that it does
+	 * not share any nodes with this expression.
+	 *
+	 * @return the cloned expression
+	 */
+	public Object clone() {
+		IExpression copy = (IExpression) expression.clone();
+
+		// Keep the line numbers for error messages
+		AbstractExpression.copyParseMetadata(expression, copy);
+		return ExpressionCompiler.compile(copy);
+	}
+
+	public boolean isRoot() {
+		return expression.isRoot();
+	}
+
+	public Iterator iterator() {
+		return expression.iterator();
+	}
+
+	public IExpression getChild(int index) {
+		return expression.getChild(index);
+	}
+
+	/**
+	 * Set a child of the original expression. As the compiled code would no
+	 * longer match, the original expression is returned.
+	 */
+	public IExpression setChild(IExpression child, int index) {
+		return expression.setChild(child, index);
+	}
+
+	/**
+	 * Simplify the original expression. The simplified expression is not
+	 * compiled.
+	 */
+	public IExpression simplify() {
+		return expression.simplify();
+	}
+
+	public int getIndex(IExpression child) {
+		return expression.getIndex(child);
+	}
+
+	public boolean equals(Object object) {
+		if (object instanceof CompiledExpression)
+			object = ((CompiledExpression) object).getExpression();
+
+		return expression.equals(object);
+	}
+
+	public int hashCode() {
+		return expression.hashCode();
+	}
+
+	public int size() {
+		return expression.size();
+	}
+
+	public int size(int type) {
+		return expression.size(type);
+	}
+
+	public boolean validTree() {
+		return expression.validTree();
+	}
+
+	public void setParseMetadata(HashMap parseTree, HashMap tokenLineMap) {
+		expression.setParseMetadata(parseTree, tokenLineMap);
+	}
+
+	public ParseMetadata getParseMetadata() {
+		return expression.getParseMetadata();
+	}
+
+	public String getId() {
+		return expression.getId();
+	}
+}
@@ -0,0 +1,360 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import nz.org.venice.parser.expression.AbstractExpression;
+import nz.org.venice.parser.expression.DefineParameterExpression;
+import nz.org.venice.parser.expression.DefineVariableExpression;
+import nz.org.venice.parser.expression.GetVariableExpression;
+import nz.org.venice.parser.expression.MemoExpression;
+import nz.org.venice.parser.expression.ProfiledExpression;
+import nz.org.venice.parser.expression.SetVariableExpression;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * Evaluates a <i>Gondola</i> expression for every symbol in a list on a single
+ * day. Screening the market for a day evaluates the same rule for a few
+ * thousand symbols, and each symbol can be evaluated on its own, so the
+ * symbols are shared out between the threads of a fork-join pool.
+ * <p>
+ * Expression nodes keep caches between evaluations, such as the rolling
+ * windows of <code>avg</code>, which are not thread safe. Each task evaluates
+ * its own copy of the variables and a copy of the expression which no other
+ * task is using. The copies are made as they are needed during a call, so
+ * there are no more of them than tasks running at once, and are dropped when
+ * the call returns. Expressions
+ * whose result could depend on the order the symbols are evaluated in are
+ * evaluated one symbol after another in the calling thread, as before; see
+ * {@link #isParallel}. So are short lists of symbols, which aren't worth
+ * sharing out.
+ * <p>
+ * The results are returned in an array in the same order as the symbols. If
+ * the expression could not be evaluated for a symbol its result is
+ * <code>NaN</code> and the exception can be found using
+ * {@link #getException}.
+ *
+ * <pre>
+ * CrossSectionEvaluator evaluator = new CrossSectionEvaluator(rule);
+ * double[] values = evaluator.evaluate(variables, quoteBundle, symbols, day);
+ *
+ * for (int i = 0; i &lt; values.length; i++)
+ * 	if (values[i] &gt;= IExpression.TRUE_LEVEL)
+ * 		...
+ * </pre>
+ */
+public class CrossSectionEvaluator {
+
+	// Fewest symbols evaluated by a single task
+	private final static int MINIMUM_TASK_SIZE = 16;
+
+	// Tasks per worker thread, so threads which finish early can steal work
+	private final static int TASKS_PER_THREAD = 4;
+
+	// The expression as given, evaluated by the calling thread
+	private final IExpression expression;
+
+	// Whether the symbols can be evaluated in any order
+	private final boolean isParallel;
+
+	private final ForkJoinPool pool;
+
+	// Variable set to the index of each symbol in the list, if any
+	private String indexVariable = null;
+
+	// Budget of the thread which asked for the evaluation, which the worker
+	// threads evaluate under
+	private EvaluationBudget budget;
+
+	// Exceptions thrown by the last evaluation, or null for symbols which
+	// evaluated without one
+	private EvaluationException[] exceptions = new EvaluationException[0];
+
+	/**
+	 * Create a new evaluator which uses the common fork-join pool.
+	 *
+	 * @param expression the expression to evaluate
+	 */
+	public CrossSectionEvaluator(IExpression expression) {
+		this(expression, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a new evaluator.
+	 *
+	 * @param expression the expression to evaluate
+	 * @param pool       the pool of worker threads
+	 */
+	public CrossSectionEvaluator(IExpression expression, ForkJoinPool pool) {
+		this.expression = expression;
+		this.pool = pool;
+
+		isParallel = isParallel(expression);
+	}
+
+	/**
+	 * Set the variable which is set to the index of each symbol in the list
+	 * before the expression is evaluated for it, e.g. the <code>order</code>
+	 * variable when paper trading.
+	 *
+	 * @param indexVariable the name of the variable, or <code>null</code> to
+	 *                      leave the variables alone
+	 */
+	public void setIndexVariable(String indexVariable) {
+		this.indexVariable = indexVariable;
+	}
+
+	/**
+	 * Evaluate the expression for every symbol in the list.
+	 *
+	 * @param variables   the variables, which are not changed unless the
+	 *                    symbols are evaluated in the calling thread, or
+	 *                    <code>null</code> to give each symbol new variables
+	 * @param quoteBundle the quote bundle
+	 * @param symbols     the symbols
+	 * @param day         fast access date offset of the day to evaluate
+	 * @return the result for each symbol
+	 */
+	public double[] evaluate(Variables variables, IQuoteBundle quoteBundle, List symbols, int day) {
+		double[] values = new double[symbols.size()];
+
+		evaluate(variables, quoteBundle, symbols, day, 0, symbols.size(), values);
+
+		return values;
+	}
+
+	/**
+	 * Evaluate the expression for some of the symbols in the list. This lets the
+	 * caller stop once it has found enough symbols.
+	 *
+	 * @param variables   the variables, which are not changed unless the
+	 *                    symbols are evaluated in the calling thread, or
+	 *                    <code>null</code> to give each symbol new variables
+	 * @param quoteBundle the quote bundle
+	 * @param symbols     the symbols
+	 * @param day         fast access date offset of the day to evaluate
+	 * @param fromIndex   index of the first symbol to evaluate
+	 * @param toIndex     index after the last symbol to evaluate
+	 * @param values      array to fill with the result for each symbol, at the
+	 *                    same index as the symbol
+	 */
+	public void evaluate(Variables variables, IQuoteBundle quoteBundle, List symbols, int day, int fromIndex,
+			int toIndex, double[] values) {
+
+		assert values.length >= symbols.size() && fromIndex <= toIndex;
+
+		if (exceptions.length != symbols.size())
+			exceptions = new EvaluationException[symbols.size()];
+
+		Symbol[] symbolArray = (Symbol[]) symbols.toArray(new Symbol[symbols.size()]);
+		int count = toIndex - fromIndex;
+
+		if (isParallel && pool.getParallelism() > 1 && count >= 2 * MINIMUM_TASK_SIZE) {
+			int taskSize = Math.max(MINIMUM_TASK_SIZE, count / (pool.getParallelism() * TASKS_PER_THREAD));
+
+			// Copies of the expression not in use by a task during this call
+			List copies = new ArrayList();
+
+			budget = EvaluationBudget.getBudget();
+			pool.invoke(new EvaluationTask(copies, variables, quoteBundle, symbolArray, day, fromIndex, toIndex,
+					taskSize, values));
+		} else
+			evaluate(expression, variables, quoteBundle, symbolArray, day, fromIndex, toIndex, values);
+	}
+
+	/**
+	 * Return the exception thrown when the expression was last evaluated for the
+	 * symbol at the given index.
+	 *
+	 * @param index the index of the symbol
+	 * @return the exception or <code>null</code> if the expression was
+	 *         evaluated
+	 */
+	public EvaluationException getException(int index) {
+		return exceptions[index];
+	}
+
+	/**
+	 * Return whether the given expression gives the same results whatever order
+	 * the symbols are evaluated in, and whether copies of it can be evaluated by
+	 * different threads. This isn't the case if the expression:
+	 * <ul>
+	 * <li>sets a variable it didn't define, which could carry a value from one
+	 * symbol to the next,</li>
+	 * <li>has any other node which isn't pure, such as random numbers, alerts,
+	 * loops, user functions or logging, see
+	 * {@link AbstractExpression#isPureNode(IExpression)}, or</li>
+	 * <li>is memoised or profiled, as every copy shares the memo or profile.</li>
+	 * </ul>
+	 * Reading and defining variables is allowed, as each thread evaluates with
+	 * its own copy of the variables.
+	 *
+	 * @param expression the expression
+	 * @return <code>true</code> if the symbols can be evaluated in parallel
+	 */
+	public static boolean isParallel(IExpression expression) {
+		if (expression instanceof CompiledExpression)
+			expression = ((CompiledExpression) expression).getExpression();
+
+		Set definedVariables = new HashSet();
+		addDefinedVariables(expression, definedVariables);
+
+		return isParallel(expression, definedVariables);
+	}
+
+	private static void addDefinedVariables(IExpression expression, Set definedVariables) {
+		if (expression instanceof DefineVariableExpression)
+			definedVariables.add(((DefineVariableExpression) expression).getName());
+
+		for (int i = 0; i < expression.getChildCount(); i++)
+			if (expression.getChild(i) != null)
+				addDefinedVariables(expression.getChild(i), definedVariables);
+	}
+
+	private static boolean isParallel(IExpression expression, Set definedVariables) {
+		if (expression instanceof MemoExpression || expression instanceof ProfiledExpression)
+			return false;
+
+		if (!AbstractExpression.isPureNode(expression) && !isVariableNode(expression, definedVariables))
+			return false;
+
+		for (int i = 0; i < expression.getChildCount(); i++)
+			if (expression.getChild(i) != null && !isParallel(expression.getChild(i), definedVariables))
+				return false;
+
+		return true;
+	}
+
+	// Return whether the node only reads or defines a variable, or sets one
+	// which the expression defined itself
+	private static boolean isVariableNode(IExpression expression, Set definedVariables) {
+		if (expression instanceof SetVariableExpression)
+			return definedVariables.contains(((SetVariableExpression) expression).getName());
+
+		return expression instanceof GetVariableExpression || expression instanceof DefineVariableExpression
+				|| expression instanceof DefineParameterExpression;
+	}
+
+	// Evaluate the given copy of the expression for a range of the symbols
+	private void evaluate(IExpression expression, Variables variables, IQuoteBundle quoteBundle, Symbol[] symbols,
+			int day, int fromIndex, int toIndex, double[] values) {
+
+		for (int index = fromIndex; index < toIndex; index++) {
+			Variables symbolVariables = variables != null ? variables : new Variables();
+
+			if (indexVariable != null)
+				symbolVariables.setValue(indexVariable, index);
+
+			try {
+				values[index] = expression.evaluate(symbolVariables, quoteBundle, symbols[index], day);
+				exceptions[index] = null;
+			} catch (EvaluationException e) {
+				values[index] = Double.NaN;
+
+				// The shared exceptions are changed each time they are thrown
+				exceptions[index] = e.copy();
+			}
+		}
+	}
+
+	// Take a copy of the expression which no other task is using, making a
+	// new one if they are all in use
+	private IExpression takeCopy(List copies) {
+		synchronized (copies) {
+			if (!copies.isEmpty())
+				return (IExpression) copies.remove(copies.size() - 1);
+		}
+
+		IExpression copy = (IExpression) expression.clone();
+
+		// Keep the line numbers for error messages
+		AbstractExpression.copyParseMetadata(expression, copy);
+
+		return copy;
+	}
+
+	// Evaluates a range of the symbols, splitting it between worker threads
+	private class EvaluationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List copies;
+		private final Variables variables;
+		private final IQuoteBundle quoteBundle;
+		private final Symbol[] symbols;
+		private final int day;
+		private final int fromIndex;
+		private final int toIndex;
+		private final int taskSize;
+		private final double[] values;
+
+		EvaluationTask(List copies, Variables variables, IQuoteBundle quoteBundle, Symbol[] symbols, int day,
+				int fromIndex, int toIndex, int taskSize, double[] values) {
+			this.copies = copies;
+			this.variables = variables;
+			this.quoteBundle = quoteBundle;
+			this.symbols = symbols;
+			this.day = day;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+			this.taskSize = taskSize;
+			this.values = values;
+		}
+
+		protected void compute() {
+			if (toIndex - fromIndex <= taskSize) {
+				Variables copy = null;
+
+				try {
+					if (variables != null)
+						copy = (Variables) variables.copyVariables();
+				} catch (CloneNotSupportedException e) {
+					assert false;
+				}
+
+				EvaluationBudget previousBudget = EvaluationBudget.setBudget(budget);
+				IExpression expressionCopy = takeCopy(copies);
+
+				try {
+					evaluate(expressionCopy, copy, quoteBundle, symbols, day, fromIndex, toIndex, values);
+				} finally {
+					EvaluationBudget.setBudget(previousBudget);
+
+					synchronized (copies) {
+						copies.add(expressionCopy);
+					}
+				}
+			} else {
+				int middle = (fromIndex + toIndex) >>> 1;
+
+				invokeAll(
+						new EvaluationTask(copies, variables, quoteBundle, symbols, day, fromIndex, middle, taskSize,
+								values),
+						new EvaluationTask(copies, variables, quoteBundle, symbols, day, middle, toIndex, taskSize,
+								values));
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+/**
+ * Limits how much work a single evaluation of an expression may do, so that a
+ * rule with a loop which never ends, or a function which calls itself forever,
+ * fails with an {@link EvaluationException} instead of hanging the analysis.
+ * <p>
+ * An evaluation starts when the outermost loop or function call of an
+ * expression starts. From then on every loop iteration and function call is
+ * counted as a step. The evaluation fails if it takes more steps than the
+ * budget allows, if it runs for longer than the budget allows, or if function
+ * calls are nested too deeply. The clock is only read every few steps.
+ * <p>
+ * Each thread keeps its own count in a {@link Meter}, so expressions can be
+ * evaluated by several threads at once without any locking. Analyses which
+ * need tighter limits, such as the GP, can set a budget for the threads
+ * running them; other threads use the default budget.
+ *
+ * <pre>
+ * EvaluationBudget previousBudget = EvaluationBudget.setBudget(budget);
+ *
+ * try {
+ * 	...
+ * } finally {
+ * 	EvaluationBudget.setBudget(previousBudget);
+ * }
+ * </pre>
+ */
+public class EvaluationBudget {
+
+	/** No limit on the number of steps or the running time. */
+	public final static long UNLIMITED = Long.MAX_VALUE;
+
+	// Number of steps between reading the clock, less one
+	private final static int CLOCK_CHECK_MASK = 63;
+
+	// Budget used by threads which haven't set one
+	private static volatile EvaluationBudget defaultBudget = new EvaluationBudget(UNLIMITED, 60 * 1000, 200);
+
+	// Each thread's meter
+	private static final ThreadLocal meters = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Meter();
+		}
+	};
+
+	private final long maxSteps;
+	private final long maxRunTime;
+	private final int maxCallDepth;
+
+	/**
+	 * Create a new budget.
+	 *
+	 * @param maxSteps     the most loop iterations and function calls in an
+	 *                     evaluation, or {@link #UNLIMITED}
+	 * @param maxRunTime   the longest an evaluation may run in milliseconds, or
+	 *                     {@link #UNLIMITED}
+	 * @param maxCallDepth the deepest function calls may be nested
+	 */
+	public EvaluationBudget(long maxSteps, long maxRunTime, int maxCallDepth) {
+		assert maxSteps > 0 && maxRunTime > 0 && maxCallDepth > 0;
+
+		this.maxSteps = maxSteps;
+		this.maxRunTime = maxRunTime;
+		this.maxCallDepth = maxCallDepth;
+	}
+
+	/**
+	 * Return the most loop iterations and function calls in an evaluation.
+	 *
+	 * @return the number of steps or {@link #UNLIMITED}
+	 */
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * Return the longest an evaluation may run.
+	 *
+	 * @return the time in milliseconds or {@link #UNLIMITED}
+	 */
+	public long getMaxRunTime() {
+		return maxRunTime;
+	}
+
+	/**
+	 * Return the deepest function calls may be nested.
+	 *
+	 * @return the call depth
+	 */
+	public int getMaxCallDepth() {
+		return maxCallDepth;
+	}
+
+	/**
+	 * Return the budget used by threads which haven't set their own.
+	 *
+	 * @return the default budget
+	 */
+	public static EvaluationBudget getDefaultBudget() {
+		return defaultBudget;
+	}
+
+	/**
+	 * Set the budget used by threads which haven't set their own.
+	 *
+	 * @param budget the new default budget
+	 */
+	public static void setDefaultBudget(EvaluationBudget budget) {
+		defaultBudget = budget;
+	}
+
+	/**
+	 * Return the budget for evaluations started by the current thread.
+	 *
+	 * @return the budget
+	 */
+	public static EvaluationBudget getBudget() {
+		Meter meter = getMeter();
+
+		return meter.budget != null ? meter.budget : defaultBudget;
+	}
+
+	/**
+	 * Set the budget for evaluations started by the current thread. An
+	 * evaluation which has already started keeps its budget.
+	 *
+	 * @param budget the budget or <code>null</code> to use the default budget
+	 * @return the budget the thread had set, or <code>null</code> if it used
+	 *         the default budget
+	 */
+	public static EvaluationBudget setBudget(EvaluationBudget budget) {
+		Meter meter = getMeter();
+		EvaluationBudget previousBudget = meter.budget;
+
+		meter.budget = budget;
+
+		return previousBudget;
+	}
+
+	/**
+	 * Return the current thread's meter.
+	 *
+	 * @return the meter
+	 */
+	public static Meter getMeter() {
+		return (Meter) meters.get();
+	}
+
+	/**
+	 * Counts the steps taken by the evaluation running in a thread. Loops and
+	 * function calls fetch the meter once when they start and must always tell
+	 * it when they finish, even if they fail.
+	 */
+	public static final class Meter {
+
+		// Budget set by the thread, or null for the default budget
+		private EvaluationBudget budget = null;
+
+		// Budget of the current evaluation
+		private EvaluationBudget limits;
+
+		// Nested loops and function calls being evaluated
+		private int depth = 0;
+
+		private int callDepth = 0;
+		private long steps;
+		private long deadline;
+
+		private Meter() {
+			// Only one meter per thread
+		}
+
+		/**
+		 * Record that a loop has begun evaluation.
+		 */
+		public void startLoop() {
+			start();
+		}
+
+		/**
+		 * Record that a loop has completed.
+		 */
+		public void finishLoop() {
+			depth--;
+		}
+
+		/**
+		 * Record that a function is being called. If the call would exceed the
+		 * budget then it is not recorded.
+		 *
+		 * @exception EvaluationException if the calls are nested too deeply or the
+		 *                                evaluation has used up its budget
+		 */
+		public void startCall() throws EvaluationException {
+			start();
+			callDepth++;
+
+			try {
+				if (callDepth > limits.maxCallDepth)
+					throw EvaluationException.STACK_DEPTH_EXCEEDED_EXCEPTION;
+
+				step();
+			} catch (EvaluationException e) {
+				finishCall();
+				throw e;
+			}
+		}
+
+		/**
+		 * Record that a function call has completed.
+		 */
+		public void finishCall() {
+			callDepth--;
+			depth--;
+		}
+
+		/**
+		 * Record a loop iteration.
+		 *
+		 * @exception EvaluationException if the evaluation has used up its budget
+		 */
+		public void step() throws EvaluationException {
+			if (++steps > limits.maxSteps)
+				throw EvaluationException.EVAL_STEPS_EXCEEDED_EXCEPTION;
+
+			if ((steps & CLOCK_CHECK_MASK) == 0 && limits.maxRunTime != UNLIMITED
+					&& System.nanoTime() - deadline > 0)
+				throw EvaluationException.EVAL_TIME_TOO_LONG_EXCEPTION;
+		}
+
+		// Start a new evaluation unless one is already running
+		private void start() {
+			if (depth++ == 0) {
+				limits = budget != null ? budget : defaultBudget;
+				steps = 0;
+
+				if (limits.maxRunTime != UNLIMITED)
+					deadline = System.nanoTime() + limits.maxRunTime * 1000000L;
+			}
+		}
+	}
+}
@@ -187,6 +187,14 @@ public class EvaluationException extends ExpressionException {
 	public static EvaluationException EVAL_TIME_TOO_LONG_EXCEPTION = new EvaluationException(
 			Locale.getString("EVAL_TIME_TOO_LONG"));
 
+	/**
+	 * An exception which is thrown when the calculation for a day/symbol takes
+	 * more loop iterations and function calls than its {@link EvaluationBudget}
+	 * allows.
+	 */
+	public static EvaluationException EVAL_STEPS_EXCEEDED_EXCEPTION = new EvaluationException(
+			Locale.getString("EVAL_STEPS_EXCEEDED"));
+
 	/**
 	 * An exception which is thrown when the function call depth exceeds the limit.
 	 * e.g. possibly due to infinite recursion
@@ -211,6 +219,15 @@ public class EvaluationException extends ExpressionException {
 		super(reason);
 	}
 
+	/**
+	 * Set the run-time error message. Never call this on the shared exceptions
+	 * above, expressions are evaluated in parallel and would race on the
+	 * message; set it on a {@link #copy()} instead.
+	 *
+	 * @param e     the expression which failed
+	 * @param label a label for the value
+	 * @param value the value which caused the failure
+	 */
 	public void setMessage(IExpression e, String label, double value) {
 		message = super.getReason();
 		if (e.getParseMetadata() != null) {
@@ -223,4 +240,18 @@ public class EvaluationException extends ExpressionException {
 	public String getReason() {
 		return (message != null) ? message : super.getReason();
 	}
+
+	/**
+	 * Return a new exception with the same reason and message as this one. The
+	 * exceptions above are shared, so any exception which needs a run-time
+	 * message should be a copy.
+	 *
+	 * @return the copy
+	 */
+	public EvaluationException copy() {
+		EvaluationException copy = new EvaluationException(super.getReason());
+
+		copy.message = message;
+		return copy;
+	}
 }
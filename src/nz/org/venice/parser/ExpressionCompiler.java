@@ -0,0 +1,430 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+import java.util.Vector;
+
+import nz.org.venice.parser.expression.AddExpression;
+import nz.org.venice.parser.expression.AndExpression;
+import nz.org.venice.parser.expression.ClauseExpression;
+import nz.org.venice.parser.expression.DivideExpression;
+import nz.org.venice.parser.expression.EqualThanExpression;
+import nz.org.venice.parser.expression.GreaterThanEqualExpression;
+import nz.org.venice.parser.expression.GreaterThanExpression;
+import nz.org.venice.parser.expression.IfExpression;
+import nz.org.venice.parser.expression.LagExpression;
+import nz.org.venice.parser.expression.LessThanEqualExpression;
+import nz.org.venice.parser.expression.LessThanExpression;
+import nz.org.venice.parser.expression.MultiplyExpression;
+import nz.org.venice.parser.expression.NotEqualExpression;
+import nz.org.venice.parser.expression.NotExpression;
+import nz.org.venice.parser.expression.NumberExpression;
+import nz.org.venice.parser.expression.OrExpression;
+import nz.org.venice.parser.expression.QuoteExpression;
+import nz.org.venice.parser.expression.SubtractExpression;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * Compiles <i>Gondola</i> expressions to Java byte code. The same rules are
+ * evaluated for every symbol on every day of a paper trade or genetic
+ * programme run, and walking the expression tree for each evaluation spends
+ * most of its time in virtual calls between nodes. The compiler turns an
+ * expression tree into a single generated method which the JIT can inline and
+ * optimise as a whole.
+ * <p>
+ * Arithmetic, comparison and logic operators, constants, quotes and the
+ * <code>lag</code> function with constant arguments are compiled. Any other
+ * node, such as a variable or a loop, is evaluated by calling the interpreter
+ * for that subtree, so every expression can be compiled. Functions over a
+ * range of days, such as <code>avg</code>, are also left to the interpreter as
+ * their nodes keep rolling windows of quotes between evaluations.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * IExpression rule = ExpressionCompiler.compile(Parser.parse(&quot;avg(close, 15) &gt; lag(close, -1)&quot;));
+ * </pre>
+ *
+ * @see CompiledExpression
+ */
+public class ExpressionCompiler {
+
+	// Local variable slots of the generated evaluate method
+	private final static int VARIABLES = 1;
+	private final static int QUOTE_BUNDLE = 2;
+	private final static int SYMBOL = 3;
+	private final static int DAY = 4;
+	private final static int ARGUMENT_SLOTS = 5;
+
+	private final static String CODE_CLASS = internalName(CompiledExpression.Code.class);
+	private final static String EXPRESSION_CLASS = internalName(IExpression.class);
+	private final static String VARIABLES_TYPE = "L" + internalName(Variables.class) + ";";
+	private final static String QUOTE_BUNDLE_TYPE = "L" + internalName(IQuoteBundle.class) + ";";
+	private final static String SYMBOL_TYPE = "L" + internalName(Symbol.class) + ";";
+
+	private final static String EVALUATE_DESCRIPTOR = "(" + VARIABLES_TYPE + QUOTE_BUNDLE_TYPE + SYMBOL_TYPE + "I)D";
+	private final static String QUOTE_DESCRIPTOR = "(" + QUOTE_BUNDLE_TYPE + SYMBOL_TYPE + "II)D";
+	private final static String LAG_DESCRIPTOR = "(" + QUOTE_BUNDLE_TYPE + SYMBOL_TYPE + SYMBOL_TYPE + "III)D";
+	private final static String CLONE_VARIABLES_DESCRIPTOR = "(" + VARIABLES_TYPE + ")" + VARIABLES_TYPE;
+	private final static String DIVIDE_DESCRIPTOR = "(L" + EXPRESSION_CLASS + ";D)L"
+			+ internalName(EvaluationException.class) + ";";
+
+	// Used to give each generated class a unique name
+	private static int classCount = 0;
+
+	private ClassFileWriter writer;
+	private ClassFileWriter.Code code;
+
+	// Nodes referenced by the generated code
+	private Vector nodes = new Vector();
+
+	// Number of nodes compiled to byte code
+	private int compiledNodes = 0;
+
+	// Local variable holding the variables of the current clause
+	private int variablesSlot = VARIABLES;
+
+	private ExpressionCompiler(String className) {
+		writer = new ClassFileWriter(className, CODE_CLASS);
+	}
+
+	/**
+	 * Compile the given expression. The expression should already have been
+	 * type checked. If the expression cannot be compiled, for example because
+	 * it is too large for a single Java method, or if compiling would not
+	 * help, then the expression is returned unchanged.
+	 *
+	 * @param expression the expression to compile
+	 * @return the compiled expression or the original expression
+	 */
+	public static IExpression compile(IExpression expression) {
+		if (expression instanceof CompiledExpression)
+			return expression;
+
+		try {
+			ExpressionCompiler compiler = new ExpressionCompiler(getClassName());
+			return compiler.compileExpression(expression);
+		} catch (IllegalStateException e) {
+			// Expression is too large to compile
+			return expression;
+		} catch (LinkageError e) {
+			return expression;
+		} catch (ReflectiveOperationException e) {
+			return expression;
+		}
+	}
+
+	private static synchronized String getClassName() {
+		return "nz/org/venice/parser/GeneratedExpression" + (classCount++);
+	}
+
+	private static String internalName(Class type) {
+		return type.getName().replace('.', '/');
+	}
+
+	private IExpression compileExpression(IExpression expression) throws ReflectiveOperationException {
+
+		// Constructor
+		ClassFileWriter.Code constructor = new ClassFileWriter.Code(1);
+		constructor.local(ClassFileWriter.ALOAD, 0, 1);
+		constructor.op2(ClassFileWriter.INVOKESPECIAL, writer.methodRef(CODE_CLASS, "<init>", "()V"), -1);
+		constructor.op(ClassFileWriter.RETURN, 0);
+		writer.addMethod("<init>", "()V", constructor);
+
+		// Evaluate method
+		code = new ClassFileWriter.Code(ARGUMENT_SLOTS);
+		compileNode(expression);
+		code.op(ClassFileWriter.DRETURN, -2);
+
+		if (code.getLength() > 0xffff)
+			throw new IllegalStateException("Method too large");
+
+		// Nothing gained if the interpreter evaluates everything
+		if (compiledNodes == 0)
+			return expression;
+
+		writer.addMethod("evaluate", EVALUATE_DESCRIPTOR, code);
+
+		byte[] bytes = writer.toByteArray();
+		Class generatedClass = new CodeLoader().define(writer.getName().replace('/', '.'), bytes);
+
+		CompiledExpression.Code compiledCode = (CompiledExpression.Code) generatedClass.getDeclaredConstructor()
+				.newInstance();
+		compiledCode.nodes = (IExpression[]) nodes.toArray(new IExpression[nodes.size()]);
+
+		return new CompiledExpression(expression, compiledCode, compiledNodes);
+	}
+
+	// Generate code which leaves the value of the expression on the stack
+	private void compileNode(IExpression expression) {
+		Class type = expression.getClass();
+
+		if (type == NumberExpression.class)
+			code.pushDouble(writer, ((NumberExpression) expression).getValue());
+		else if (type == AddExpression.class)
+			compileArithmetic(expression, ClassFileWriter.DADD);
+		else if (type == SubtractExpression.class)
+			compileArithmetic(expression, ClassFileWriter.DSUB);
+		else if (type == MultiplyExpression.class)
+			compileArithmetic(expression, ClassFileWriter.DMUL);
+		else if (type == DivideExpression.class)
+			compileDivide(expression);
+
+		// dcmpg pushes 1 for NaN and dcmpl pushes -1 so that any
+		// comparison involving NaN is false, as in Java.
+		else if (type == LessThanExpression.class)
+			compileComparison(expression, ClassFileWriter.DCMPG, ClassFileWriter.IFGE);
+		else if (type == LessThanEqualExpression.class)
+			compileComparison(expression, ClassFileWriter.DCMPG, ClassFileWriter.IFGT);
+		else if (type == GreaterThanExpression.class)
+			compileComparison(expression, ClassFileWriter.DCMPL, ClassFileWriter.IFLE);
+		else if (type == GreaterThanEqualExpression.class)
+			compileComparison(expression, ClassFileWriter.DCMPL, ClassFileWriter.IFLT);
+		else if (type == EqualThanExpression.class)
+			compileComparison(expression, ClassFileWriter.DCMPL, ClassFileWriter.IFNE);
+		else if (type == NotEqualExpression.class)
+			compileComparison(expression, ClassFileWriter.DCMPL, ClassFileWriter.IFEQ);
+
+		else if (type == AndExpression.class)
+			compileAnd(expression);
+		else if (type == OrExpression.class)
+			compileOr(expression);
+		else if (type == NotExpression.class)
+			compileNot(expression);
+		else if (type == IfExpression.class)
+			compileIf(expression);
+		else if (type == ClauseExpression.class)
+			compileClause(expression);
+
+		else if (type == QuoteExpression.class)
+			compileQuote((QuoteExpression) expression);
+		else if (type == LagExpression.class && isCompilableLag(expression))
+			compileLag(expression);
+		else {
+			compileInterpreted(expression);
+			return;
+		}
+
+		compiledNodes++;
+	}
+
+	private void compileArithmetic(IExpression expression, int opcode) {
+		compileNode(expression.getChild(0));
+		compileNode(expression.getChild(1));
+		code.op(opcode, -2);
+	}
+
+	private void compileDivide(IExpression expression) {
+		// The divisor is evaluated first, as in DivideExpression
+		int right = code.newLocal(2);
+		compileNode(expression.getChild(1));
+		code.local(ClassFileWriter.DSTORE, right, -2);
+
+		ClassFileWriter.Label divide = new ClassFileWriter.Label();
+		code.local(ClassFileWriter.DLOAD, right, 2);
+		code.op(ClassFileWriter.DCONST_0, 2);
+		code.op(ClassFileWriter.DCMPL, -3);
+		code.branch(ClassFileWriter.IFNE, divide, -1);
+
+		loadNode(expression);
+		code.local(ClassFileWriter.DLOAD, right, 2);
+		code.op2(ClassFileWriter.INVOKESTATIC, writer.methodRef(CODE_CLASS, "divideByZero", DIVIDE_DESCRIPTOR), -2);
+		code.op(ClassFileWriter.ATHROW, -1);
+
+		code.mark(divide);
+		compileNode(expression.getChild(0));
+		code.local(ClassFileWriter.DLOAD, right, 2);
+		code.op(ClassFileWriter.DDIV, -2);
+	}
+
+	private void compileComparison(IExpression expression, int compare, int branchIfFalse) {
+		compileNode(expression.getChild(0));
+		compileNode(expression.getChild(1));
+		code.op(compare, -3);
+
+		ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+		code.branch(branchIfFalse, isFalse, -1);
+		pushResult(isFalse, IExpression.TRUE, IExpression.FALSE);
+	}
+
+	private void compileAnd(IExpression expression) {
+		ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+
+		compileCondition(expression.getChild(0));
+		code.branch(ClassFileWriter.IFLT, isFalse, -1);
+		compileCondition(expression.getChild(1));
+		code.branch(ClassFileWriter.IFLT, isFalse, -1);
+		pushResult(isFalse, IExpression.TRUE, IExpression.FALSE);
+	}
+
+	private void compileOr(IExpression expression) {
+		ClassFileWriter.Label isTrue = new ClassFileWriter.Label();
+
+		compileCondition(expression.getChild(0));
+		code.branch(ClassFileWriter.IFGE, isTrue, -1);
+		compileCondition(expression.getChild(1));
+		code.branch(ClassFileWriter.IFGE, isTrue, -1);
+		pushResult(isTrue, IExpression.FALSE, IExpression.TRUE);
+	}
+
+	private void compileNot(IExpression expression) {
+		ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+
+		compileCondition(expression.getChild(0));
+		code.branch(ClassFileWriter.IFGE, isFalse, -1);
+		pushResult(isFalse, IExpression.TRUE, IExpression.FALSE);
+	}
+
+	private void compileIf(IExpression expression) {
+		ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+		ClassFileWriter.Label end = new ClassFileWriter.Label();
+
+		compileCondition(expression.getChild(0));
+		code.branch(ClassFileWriter.IFLT, isFalse, -1);
+
+		int stack = code.getStack();
+		compileNode(expression.getChild(1));
+		code.branch(ClassFileWriter.GOTO, end, 0);
+
+		code.setStack(stack);
+		code.mark(isFalse);
+		compileNode(expression.getChild(2));
+		code.mark(end);
+	}
+
+	private void compileClause(IExpression expression) {
+		// Each clause evaluates its sub-expressions with a copy of the
+		// variables, as in ClauseExpression
+		int outerVariablesSlot = variablesSlot;
+		int clauseVariablesSlot = code.newLocal(1);
+
+		code.local(ClassFileWriter.ALOAD, variablesSlot, 1);
+		code.op2(ClassFileWriter.INVOKESTATIC,
+				writer.methodRef(CODE_CLASS, "cloneVariables", CLONE_VARIABLES_DESCRIPTOR), 0);
+		code.local(ClassFileWriter.ASTORE, clauseVariablesSlot, -1);
+		variablesSlot = clauseVariablesSlot;
+
+		for (int child = 0; child < expression.getChildCount(); child++) {
+			if (child > 0)
+				code.op(ClassFileWriter.POP2, -2);
+			compileNode(expression.getChild(child));
+		}
+
+		variablesSlot = outerVariablesSlot;
+	}
+
+	// Generate code comparing the expression with TRUE_LEVEL. The int left on
+	// the stack is negative if the expression is false, including NaN.
+	private void compileCondition(IExpression expression) {
+		compileNode(expression);
+		code.pushDouble(writer, IExpression.TRUE_LEVEL);
+		code.op(ClassFileWriter.DCMPL, -3);
+	}
+
+	// Push one of two values depending on whether a branch to the given label
+	// was taken.
+	private void pushResult(ClassFileWriter.Label branchTaken, double notTakenValue, double takenValue) {
+		ClassFileWriter.Label end = new ClassFileWriter.Label();
+		int stack = code.getStack();
+
+		code.pushDouble(writer, notTakenValue);
+		code.branch(ClassFileWriter.GOTO, end, 0);
+
+		code.setStack(stack);
+		code.mark(branchTaken);
+		code.pushDouble(writer, takenValue);
+		code.mark(end);
+	}
+
+	private void compileQuote(QuoteExpression expression) {
+		code.local(ClassFileWriter.ALOAD, QUOTE_BUNDLE, 1);
+		code.local(ClassFileWriter.ALOAD, SYMBOL, 1);
+		code.pushInt(writer, expression.getQuoteKind());
+		code.local(ClassFileWriter.ILOAD, DAY, 1);
+		code.op2(ClassFileWriter.INVOKESTATIC,
+				writer.methodRef(internalName(QuoteExpression.class), "getQuote", QUOTE_DESCRIPTOR), -2);
+	}
+
+	// Lags of a plain quote by a valid constant offset can be compiled. Lags
+	// of a quote of another symbol, or by a computed or invalid offset, are
+	// left to the interpreter.
+	private boolean isCompilableLag(IExpression expression) {
+		return expression.getChild(0).getClass() == QuoteExpression.class && getConstant(expression.getChild(1)) <= 0;
+	}
+
+	private void compileLag(IExpression expression) {
+		QuoteExpression quote = (QuoteExpression) expression.getChild(0);
+
+		code.local(ClassFileWriter.ALOAD, QUOTE_BUNDLE, 1);
+		code.local(ClassFileWriter.ALOAD, SYMBOL, 1);
+		code.local(ClassFileWriter.ALOAD, SYMBOL, 1);
+		code.pushInt(writer, quote.getQuoteKind());
+		code.local(ClassFileWriter.ILOAD, DAY, 1);
+		code.pushInt(writer, getConstant(expression.getChild(1)));
+		code.op2(ClassFileWriter.INVOKESTATIC,
+				writer.methodRef(internalName(LagExpression.class), "getLagQuote", LAG_DESCRIPTOR), -4);
+	}
+
+	// Return the integer value of a constant argument, or Integer.MAX_VALUE if
+	// the argument is not a constant. Functions truncate their arguments to
+	// integers, so we do the same.
+	private int getConstant(IExpression expression) {
+		if (expression.getClass() == NumberExpression.class)
+			return (int) ((NumberExpression) expression).getValue();
+		else
+			return Integer.MAX_VALUE;
+	}
+
+	// Generate code which calls the interpreter to evaluate the expression
+	private void compileInterpreted(IExpression expression) {
+		loadNode(expression);
+		code.local(ClassFileWriter.ALOAD, variablesSlot, 1);
+		code.local(ClassFileWriter.ALOAD, QUOTE_BUNDLE, 1);
+		code.local(ClassFileWriter.ALOAD, SYMBOL, 1);
+		code.local(ClassFileWriter.ILOAD, DAY, 1);
+		code.invokeInterface(writer.interfaceMethodRef(EXPRESSION_CLASS, "evaluate", EVALUATE_DESCRIPTOR), 5, -3);
+	}
+
+	// Generate code which pushes the given node of the expression tree
+	private void loadNode(IExpression expression) {
+		int index = nodes.size();
+		nodes.add(expression);
+
+		code.local(ClassFileWriter.ALOAD, 0, 1);
+		code.op2(ClassFileWriter.GETFIELD, writer.fieldRef(CODE_CLASS, "nodes", "[L" + EXPRESSION_CLASS + ";"), 0);
+		code.pushInt(writer, index);
+		code.op(ClassFileWriter.AALOAD, -1);
+	}
+
+	/**
+	 * Class loader for generated code. Each compiled expression has its own
+	 * loader so that its class can be unloaded when the expression is no
+	 * longer used.
+	 */
+	private static class CodeLoader extends ClassLoader {
+		public CodeLoader() {
+			super(ExpressionCompiler.class.getClassLoader());
+		}
+
+		public Class define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
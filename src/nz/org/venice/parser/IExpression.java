@@ -93,6 +93,25 @@ public interface IExpression extends Cloneable {
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
 			throws EvaluationException;
 
+	/**
+	 * Evaluates the given expression for every day in a range and returns the
+	 * results. This gives the same results as calling {@link #evaluate} for each
+	 * day in turn, but expressions that only depend on quotes are calculated a
+	 * whole series at a time, which is much faster.
+	 *
+	 * @param variables   variable storage area for expression
+	 * @param quoteBundle the quote bundle containing quote data to use
+	 * @param symbol      the current symbol
+	 * @param firstDay    first date in cache fast access format
+	 * @param lastDay     last date in cache fast access format
+	 * @return a new array containing the result for each day, starting with
+	 *         <code>firstDay</code>
+	 * @throws EvaluationException if the expression performs an illegal operation
+	 *                             on any day, such as divide by zero.
+	 */
+	public double[] evaluateSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException;
+
 	/**
 	 * Convert the given expression to a string.
 	 * 
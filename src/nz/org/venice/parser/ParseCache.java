@@ -0,0 +1,165 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed expressions, used by {@link Parser} so that the same
+ * expression text isn't parsed again each time it is used. Expressions are
+ * cached against their text and the names and types of the variables they were
+ * parsed with. The cached expressions are never returned, instead each caller
+ * gets a clone, so they are never modified once they are in the cache. The
+ * cache may be used by several threads at once.
+ */
+class ParseCache {
+
+	/** The default maximum number of expressions in the cache. */
+	public final static int DEFAULT_SIZE = 256;
+
+	// A parsed expression along with the parse state needed to use it
+	private static class Entry {
+		IExpression expression;
+		HashMap parseTree;
+		HashMap tokenLineMap;
+
+		// The variables the parse added, which need to be added again each
+		// time the expression is taken from the cache
+		List addedVariables;
+	}
+
+	// Map of keys to entries in least recently used order
+	private Map entries;
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Create a new empty parse cache.
+	 *
+	 * @param maximumSize the maximum number of expressions to keep
+	 */
+	public ParseCache(final int maximumSize) {
+		entries = Collections.synchronizedMap(new LinkedHashMap(16, 0.75F, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				return size() > maximumSize;
+			}
+		});
+	}
+
+	/**
+	 * Return the key for the given expression text parsed with the given
+	 * variables. This must be called before the text is parsed, as parsing may
+	 * add variables.
+	 *
+	 * @param variables the variables the expression will be parsed with
+	 * @param string    the expression text
+	 * @return the key
+	 */
+	public static String getKey(Variables variables, String string) {
+		String signature = (variables != null ? variables.getSignature() : "null");
+
+		return signature + "|" + string;
+	}
+
+	/**
+	 * Return a copy of the cached expression with the given key, or
+	 * <code>null</code> if there isn't one. Any variables defined by the
+	 * expression are added to the given variables, as if it had been parsed.
+	 *
+	 * @param key       the key, see {@link #getKey}
+	 * @param variables the variables the expression is being parsed with
+	 * @return the expression or <code>null</code>
+	 */
+	public IExpression get(String key, Variables variables) {
+		Entry entry = (Entry) entries.get(key);
+
+		synchronized (this) {
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+
+			hits++;
+		}
+
+		// The parser always adds variables with a zero value. The values in
+		// the list might have been changed since by evaluating the expression.
+		for (Iterator iterator = entry.addedVariables.iterator(); iterator.hasNext();) {
+			Variable variable = (Variable) iterator.next();
+			variables.add(variable.getName(), variable.getType(), variable.isConstant(), variable.isFunction(), 0.0D);
+		}
+
+		IExpression expression = (IExpression) entry.expression.clone();
+		expression.setParseMetadata(entry.parseTree, entry.tokenLineMap);
+
+		return expression;
+	}
+
+	/**
+	 * Add a parsed expression to the cache.
+	 *
+	 * @param key            the key, see {@link #getKey}
+	 * @param expression     the parsed expression, a copy of which is kept
+	 * @param parseTree      the parse tree built while parsing
+	 * @param tokenLineMap   the token line map built while parsing
+	 * @param addedVariables the variables added by parsing the expression
+	 */
+	public void put(String key, IExpression expression, HashMap parseTree, HashMap tokenLineMap,
+			List addedVariables) {
+
+		Entry entry = new Entry();
+		entry.expression = (IExpression) expression.clone();
+		entry.parseTree = parseTree;
+		entry.tokenLineMap = tokenLineMap;
+		entry.addedVariables = addedVariables;
+
+		entries.put(key, entry);
+	}
+
+	/**
+	 * Return the number of times an expression was found in the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized int getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of times an expression was not found in the cache.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized int getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Remove all expressions from the cache.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+}
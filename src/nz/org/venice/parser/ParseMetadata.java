@@ -113,4 +113,20 @@ public class ParseMetadata {
 		String lineNumber = tmp.toString();
 		return lineNumber;
 	}
+
+	/**
+	 * Return the line on which the given expression appears. Unlike
+	 * {@link #getLineForExpression} this can be used for expressions that
+	 * weren't written by the user, such as those made by simplification.
+	 *
+	 * @param expression the expression
+	 * @return the line number, counting from 0, or <code>-1</code> if the
+	 *         expression was not parsed
+	 */
+	public int getLine(IExpression expression) {
+		Token token = (Token) parseTree.get(expression);
+		Integer line = (token != null ? (Integer) tokenLineMap.get(token) : null);
+
+		return (line != null ? line.intValue() : -1);
+	}
 }
\ No newline at end of file
@@ -111,12 +111,21 @@ import nz.org.venice.util.Locale;
  */
 public class Parser {
 
-	private static HashMap tokenLineMap;
-	private static HashMap parseTree;
-	private static HashMap parameterMap;
+	// Expressions parsed recently
+	private static ParseCache parseCache = new ParseCache(ParseCache.DEFAULT_SIZE);
+
+	// State of a single parse. Each call to parse() uses its own parser so
+	// that several threads can parse at once.
+	private HashMap tokenLineMap;
+	private HashMap parseTree;
+	private HashMap parameterMap;
+
+	// Set if the expression includes a stored expression, which might change
+	// after it has been parsed
+	private boolean hasInclude = false;
 
 	private Parser() {
-		// class should not be instantiated
+		// class should only be instantiated by parse()
 	}
 
 	/**
@@ -131,7 +140,25 @@ public class Parser {
 	 */
 	public static IExpression parse(Variables variables, String string) throws ExpressionException {
 
-		return parse(variables, string, false);
+		String key = ParseCache.getKey(variables, string);
+		IExpression expression = parseCache.get(key, variables);
+
+		if (expression == null) {
+			Variables predefined = copy(variables);
+			Parser parser = new Parser();
+
+			expression = parser.parse(variables, string, false);
+
+			// Function bodies are looked up in the parse tree, so don't
+			// share expressions that define them
+			List addedVariables = (variables != null ? Variables.getDifferences(variables, predefined)
+					: new ArrayList());
+
+			if (!parser.hasInclude && !definesFunction(addedVariables))
+				parseCache.put(key, expression, parser.parseTree, parser.tokenLineMap, addedVariables);
+		}
+
+		return expression;
 	}
 
 	/**
@@ -142,14 +169,35 @@ public class Parser {
 	 * @exception ExpressionException if there was an error parsing the expression.
 	 */
 	public static IExpression parse(String string) throws ExpressionException {
-		return parse(new Variables(), string, false);
+		return parse(new Variables(), string);
+	}
+
+	// Copy the variables without their values so we can tell which variables
+	// parsing adds
+	private static Variables copy(Variables variables) {
+		try {
+			return (variables != null ? (Variables) variables.clone() : null);
+		} catch (CloneNotSupportedException e) {
+			assert false;
+			return null;
+		}
+	}
+
+	// Return whether any of the variables are functions
+	private static boolean definesFunction(List variables) {
+		for (Iterator iterator = variables.iterator(); iterator.hasNext();) {
+			if (((Variable) iterator.next()).isFunction())
+				return true;
+		}
+
+		return false;
 	}
 
 	// Private constructor - set internal to true only for rules including other
 	// rules. Otherwise parse metadata from a previous "run" will be available
 	// and that will break things like parameter count checking.
 
-	private static IExpression parse(Variables variables, String string, boolean internal) throws ExpressionException {
+	private IExpression parse(Variables variables, String string, boolean internal) throws ExpressionException {
 		if (string == null || string.equals("")) {
 			throw new ExpressionException(Locale.getString("MISSING_EQUATION_NAME"));
 		}
@@ -174,7 +222,7 @@ public class Parser {
 
 	}
 
-	private static void createMaps(boolean internal) {
+	private void createMaps(boolean internal) {
 		if (internal) {
 			if (parseTree == null) {
 				parseTree = new HashMap();
@@ -192,7 +240,7 @@ public class Parser {
 		}
 	}
 
-	private static TokenStack lexicalAnalysis(Variables variables, String string) throws ParserException {
+	private TokenStack lexicalAnalysis(Variables variables, String string) throws ParserException {
 
 		TokenStack tokens = new TokenStack();
 		Token token;
@@ -224,11 +272,11 @@ public class Parser {
 		return tokens;
 	}
 
-	private static IExpression parseRootExpression(Variables variables, TokenStack tokens) throws ParserException {
-		return Parser.parseRootExpression(variables, tokens, false);
+	private IExpression parseRootExpression(Variables variables, TokenStack tokens) throws ParserException {
+		return parseRootExpression(variables, tokens, false);
 	}
 
-	private static IExpression parseRootExpression(Variables variables, TokenStack tokens, boolean internal)
+	private IExpression parseRootExpression(Variables variables, TokenStack tokens, boolean internal)
 			throws ParserException {
 
 		List subExpressions = new ArrayList();
@@ -236,6 +284,7 @@ public class Parser {
 
 		while (head.getType() == Token.INCLUDE_TOKEN) {
 			tokens.pop();
+			hasInclude = true;
 
 			List includedExpressions = new ArrayList();
 
@@ -261,7 +310,7 @@ public class Parser {
 				throw new ParserException(Locale.getString("UNKNOWN_IDENTIFIER_ERROR", includeName));
 			} else {
 				try {
-					IExpression includedExpression = Parser.parse(variables, includedStoredExpression.expression, true);
+					IExpression includedExpression = parse(variables, includedStoredExpression.expression, true);
 
 					// Included Expression different to ClauseExpression
 					// in that variables defined and set stay in scope.
@@ -307,7 +356,7 @@ public class Parser {
 		}
 	}
 
-	private static IExpression parseExpression(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseExpression(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token head = tokens.get();
 
@@ -347,7 +396,7 @@ public class Parser {
 		}
 	}
 
-	private static IExpression parseSubExpression(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseSubExpression(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token head = tokens.get();
 		IExpression left = parseBooleanExpression(variables, tokens);
@@ -365,7 +414,7 @@ public class Parser {
 		return left;
 	}
 
-	private static IExpression parseBooleanExpression(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseBooleanExpression(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token head = tokens.get();
 		IExpression left = parseAddExpression(variables, tokens);
@@ -387,7 +436,7 @@ public class Parser {
 		return left;
 	}
 
-	private static IExpression parseAddExpression(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseAddExpression(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token head = tokens.get();
 		IExpression left = parseMultiplyExpression(variables, tokens);
@@ -406,7 +455,7 @@ public class Parser {
 		return left;
 	}
 
-	private static IExpression parseMultiplyExpression(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseMultiplyExpression(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token head = tokens.get();
 		IExpression left = parseFactor(variables, tokens);
@@ -426,7 +475,7 @@ public class Parser {
 		return left;
 	}
 
-	private static IExpression parseFactor(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseFactor(Variables variables, TokenStack tokens) throws ParserException {
 
 		IExpression expression;
 		Token head = tokens.get();
@@ -489,7 +538,7 @@ public class Parser {
 		return expression;
 	}
 
-	private static IExpression parseVariable(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseVariable(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token token = tokens.pop();
 		assert token.getType() == Token.VARIABLE_TOKEN;
@@ -558,7 +607,7 @@ public class Parser {
 		}
 	}
 
-	private static IExpression parseDefineVariable(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseDefineVariable(Variables variables, TokenStack tokens) throws ParserException {
 
 		String name;
 		boolean isConstant = false;
@@ -624,7 +673,7 @@ public class Parser {
 
 	}
 
-	private static IExpression parseQuote(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseQuote(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token quote = tokens.pop();
 		IExpression expression;
@@ -653,7 +702,7 @@ public class Parser {
 		return expression;
 	}
 
-	private static IExpression parseString(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseString(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token string = tokens.pop();
 
@@ -666,7 +715,7 @@ public class Parser {
 		}
 	}
 
-	private static IExpression parseNumber(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseNumber(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token number = tokens.pop();
 		boolean negate = false;
@@ -695,7 +744,7 @@ public class Parser {
 		}
 	}
 
-	private static IExpression parseFunction(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseFunction(Variables variables, TokenStack tokens) throws ParserException {
 
 		IExpression expression;
 		IExpression arg1 = null;
@@ -948,7 +997,7 @@ public class Parser {
 		return expression;
 	}
 
-	private static IExpression parseDayQuoteFunction(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseDayQuoteFunction(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token head = tokens.get();
 		IExpression lagExpression = new LagExpression(parseQuote(variables, tokens), new NumberExpression(0));
@@ -957,7 +1006,7 @@ public class Parser {
 		return lagExpression;
 	}
 
-	private static IExpression parseFlowControl(Variables variables, TokenStack tokens) throws ParserException {
+	private IExpression parseFlowControl(Variables variables, TokenStack tokens) throws ParserException {
 
 		Token token = tokens.pop();
 		IExpression flowExpression;
@@ -992,7 +1041,7 @@ public class Parser {
 		return flowExpression;
 	}
 
-	private static IExpression parseUserFunction(Variables variables, TokenStack tokens, int type)
+	private IExpression parseUserFunction(Variables variables, TokenStack tokens, int type)
 			throws ParserException {
 
 		Token token = tokens.pop();
@@ -1048,7 +1097,7 @@ public class Parser {
 		return userFunction;
 	}
 
-	private static IExpression parseParameters(Variables variables, TokenStack tokens, String functionName)
+	private IExpression parseParameters(Variables variables, TokenStack tokens, String functionName)
 			throws ParserException {
 
 		Token token = tokens.pop();
@@ -1109,39 +1158,39 @@ public class Parser {
 		return parameterList;
 	}
 
-	private static void parseComma(Variables variables, TokenStack tokens) throws ParserException {
+	private void parseComma(Variables variables, TokenStack tokens) throws ParserException {
 		if (!tokens.pop(Token.COMMA_TOKEN))
 			throw new ParserException(Locale.getString("EXPECTED_COMMA_ERROR"));
 	}
 
-	private static void parseLeftParenthesis(Variables variables, TokenStack tokens) throws ParserException {
+	private void parseLeftParenthesis(Variables variables, TokenStack tokens) throws ParserException {
 		if (!tokens.pop(Token.LEFT_PARENTHESIS_TOKEN))
 			throw new ParserException(Locale.getString("EXPECTED_LEFT_PARENTHESIS_ERROR"));
 	}
 
-	private static void parseRightParenthesis(Variables variables, TokenStack tokens) throws ParserException {
+	private void parseRightParenthesis(Variables variables, TokenStack tokens) throws ParserException {
 		if (!tokens.pop(Token.RIGHT_PARENTHESIS_TOKEN))
 			throw new ParserException(Locale.getString("MISSING_RIGHT_PARENTHESIS_ERROR"));
 
 	}
 
-	private static void parseLeftBrace(Variables variables, TokenStack tokens) throws ParserException {
+	private void parseLeftBrace(Variables variables, TokenStack tokens) throws ParserException {
 		if (!tokens.pop(Token.LEFT_BRACE_TOKEN))
 			throw new ParserException(Locale.getString("EXPECTED_LEFT_BRACE_ERROR"));
 	}
 
-	private static void parseRightBrace(Variables variables, TokenStack tokens) throws ParserException {
+	private void parseRightBrace(Variables variables, TokenStack tokens) throws ParserException {
 
 		if (!tokens.pop(Token.RIGHT_BRACE_TOKEN))
 			throw new ParserException(Locale.getString("MISSING_RIGHT_BRACE_ERROR"));
 	}
 
-	private static void parseElse(Variables variables, TokenStack tokens) throws ParserException {
+	private void parseElse(Variables variables, TokenStack tokens) throws ParserException {
 		if (!tokens.pop(Token.ELSE_TOKEN))
 			throw new ParserException(Locale.getString("EXPECTED_ELSE_ERROR"));
 	}
 
-	private static void parseSemicolon(Variables variables, TokenStack tokens) throws ParserException {
+	private void parseSemicolon(Variables variables, TokenStack tokens) throws ParserException {
 		if (!tokens.pop(Token.SEMICOLON_TOKEN))
 			throw new ParserException(Locale.getString("EXPECTED_SEMICOLON_ERROR"));
 	}
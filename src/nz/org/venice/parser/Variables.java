@@ -18,24 +18,71 @@
 
 package nz.org.venice.parser;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
 
 /**
  * A collection of variables.
+ * <p>
+ * Each variable is kept in the next free slot of the collection when it is
+ * added, and a clone keeps the slots of the collection it was cloned from.
+ * Expressions remember the slot their variable was found in and check that
+ * slot first, see {@link #getSlot(String, int)}, so evaluating them usually
+ * only has to index an array rather than search for the name.
  */
 public class Variables {
 
-	// Mapping between names and variables
-	private HashMap variables;
+	private final static Variable[] NO_VARIABLES = new Variable[0];
+
+	// Variables in the order they were added
+	private Variable[] slots;
+
+	// Number of variables defined
+	private int size;
 
 	/**
 	 * Create a new empty collection of variables.
 	 */
 	public Variables() {
-		variables = new HashMap();
+		this(NO_VARIABLES, 0);
+	}
+
+	private Variables(Variable[] slots, int size) {
+		this.slots = slots;
+		this.size = size;
+	}
+
+	/**
+	 * Return the slot of the given variable.
+	 *
+	 * @param name the name of the variable
+	 * @return the slot or <code>-1</code> if the variable isn't defined
+	 */
+	public int getSlot(String name) {
+		// There are few variables, so searching is quicker than hashing
+		for (int slot = 0; slot < size; slot++) {
+			if (slots[slot].getName().equals(name))
+				return slot;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Return the slot of the given variable, checking the given slot first.
+	 * Expressions pass the slot their variable was last found in, which is
+	 * the same for every collection made from the same one by cloning.
+	 *
+	 * @param name the name of the variable
+	 * @param slot the slot the variable is expected in
+	 * @return the slot or <code>-1</code> if the variable isn't defined
+	 */
+	public int getSlot(String name, int slot) {
+		if (slot >= 0 && slot < size && slots[slot].getName().equals(name))
+			return slot;
+
+		return getSlot(name);
 	}
 
 	/**
@@ -46,11 +93,7 @@ public class Variables {
 	 * @throws CloneNotSupportedException this should never happen.
 	 */
 	public Object clone() throws CloneNotSupportedException {
-		Variables results = null;
-		results = new Variables();
-
-		results.variables.putAll(variables);
-		return (results);
+		return new Variables(slots.clone(), size);
 	}
 
 	/**
@@ -62,22 +105,12 @@ public class Variables {
 	 */
 
 	public Object copyVariables() throws CloneNotSupportedException {
-		Variables results = null;
-		results = new Variables();
-
-		try {
-			Iterator iterator = variables.keySet().iterator();
-			while (iterator.hasNext()) {
-				String key = (String) iterator.next();
-				Variable variable = (Variable) variables.get(key);
-				Variable newVariable = (Variable) variable.clone();
-				results.variables.put(key, newVariable);
-			}
-		} catch (CloneNotSupportedException e) {
+		Variable[] copies = new Variable[slots.length];
 
-		}
+		for (int slot = 0; slot < size; slot++)
+			copies[slot] = (Variable) slots[slot].clone();
 
-		return (results);
+		return new Variables(copies, size);
 	}
 
 	/**
@@ -86,7 +119,16 @@ public class Variables {
 	 * @param name the name of the variable o query.
 	 */
 	public boolean contains(String name) {
-		return variables.containsKey(name);
+		return get(name) != null;
+	}
+
+	/**
+	 * Return whether the collection contains the variable in the given slot.
+	 * 
+	 * @param slot the slot of the variable, see {@link #getSlot(String)}.
+	 */
+	public boolean contains(int slot) {
+		return get(slot) != null;
 	}
 
 	/**
@@ -110,14 +152,7 @@ public class Variables {
 	 * @param value      the initial value.
 	 */
 	public void add(String name, int type, boolean isConstant, double value) {
-		if (!variables.containsKey(name)) {
-			Variable variable = new Variable(name, type, isConstant, value);
-			variables.put(name, variable);
-		} else {
-			// This can happen if a user enters one of the implicit
-			// parameters which is always added.
-			assert false;
-		}
+		add(new Variable(name, type, isConstant, value));
 	}
 
 	/**
@@ -129,11 +164,7 @@ public class Variables {
 	 * @param value      the initial value.
 	 */
 	public void add(String name, int type, boolean isConstant, int value) {
-		if (!variables.containsKey(name)) {
-			Variable variable = new Variable(name, type, isConstant, value);
-			variables.put(name, variable);
-		} else
-			assert false;
+		add(new Variable(name, type, isConstant, value));
 	}
 
 	/**
@@ -146,13 +177,19 @@ public class Variables {
 	 * @param value      the initial value.
 	 */
 	public void add(String name, int type, boolean isConstant, boolean isFunction, double value) {
-		if (!variables.containsKey(name)) {
-			Variable variable = new Variable(name, type, isConstant, isFunction, value);
-			variables.put(name, variable);
+		add(new Variable(name, type, isConstant, isFunction, value));
+	}
+
+	// Add the variable to the next free slot
+	private void add(Variable variable) {
+		if (getSlot(variable.getName()) < 0) {
+			if (size == slots.length)
+				slots = Arrays.copyOf(slots, Math.max(4, size * 2));
+
+			slots[size++] = variable;
 		} else {
 			// This can happen if a user enters one of the implicit
 			// parameters which is always added.
-
 			assert false;
 		}
 	}
@@ -228,19 +265,52 @@ public class Variables {
 	 * @return the variable.
 	 */
 	public Variable get(String name) {
-		return (Variable) variables.get(name);
+		return get(getSlot(name));
+	}
+
+	/**
+	 * Get the variable in the given slot.
+	 * 
+	 * @param slot the slot of the variable, see {@link #getSlot(String)}.
+	 * @return the variable or <code>null</code> if it isn't defined.
+	 */
+	public Variable get(int slot) {
+		return (slot >= 0 && slot < size ? slots[slot] : null);
 	}
 
 	public int getSize() {
-		return variables.size();
+		return size;
 	}
 
-	public void dump() {
-		Iterator iterator = variables.keySet().iterator();
-		while (iterator.hasNext()) {
-			String v = (String) iterator.next();
-			System.out.println("v = " + v);
+	/**
+	 * Return a string which identifies the names, types and kinds of the
+	 * variables in this collection, but not their values. Two collections with
+	 * the same signature parse expressions in the same way.
+	 *
+	 * @return the signature
+	 */
+	String getSignature() {
+		StringBuffer signature = new StringBuffer();
+
+		for (int slot = 0; slot < size; slot++) {
+			Variable variable = slots[slot];
+
+			signature.append(variable.getName()).append(' ').append(variable.getType());
+
+			if (variable.isConstant())
+				signature.append(" const");
+			if (variable.isFunction())
+				signature.append(" function");
+
+			signature.append(',');
 		}
+
+		return signature.toString();
+	}
+
+	public void dump() {
+		for (int slot = 0; slot < size; slot++)
+			System.out.println("v = " + slots[slot].getName());
 	}
 
 	/**
@@ -253,30 +323,21 @@ public class Variables {
 	 * @return a list of the differences found.
 	 */
 	public static List getDifferences(Variables vars1, Variables vars2) {
-		Iterator iterator1 = vars1.variables.keySet().iterator();
-		Iterator iterator2 = vars2.variables.keySet().iterator();
 		List diffs = new Vector();
 
-		while (iterator1.hasNext()) {
-			String vname1 = (String) iterator1.next();
-			Variable v1 = vars1.get(vname1);
+		for (int slot = 0; slot < vars1.size; slot++) {
+			Variable v1 = vars1.slots[slot];
+			Variable v2 = vars2.get(vars2.getSlot(v1.getName(), slot));
 
-			if (vars2.contains(vname1)) {
-				if (vars2.getValue(v1.getName()) != v1.getValue()) {
-					diffs.add(v1);
-				}
-			} else {
+			if (v2 == null || v2.getValue() != v1.getValue())
 				diffs.add(v1);
-			}
 		}
 
-		while (iterator2.hasNext()) {
-			String vname2 = (String) iterator2.next();
-			Variable v2 = vars2.get(vname2);
+		for (int slot = 0; slot < vars2.size; slot++) {
+			Variable v2 = vars2.slots[slot];
 
-			if (!vars1.contains(vname2)) {
+			if (vars1.getSlot(v2.getName(), slot) < 0)
 				diffs.add(v2);
-			}
 		}
 
 		return diffs;
@@ -29,9 +29,13 @@ import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
 
+import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.ExpressionFactory;
 import nz.org.venice.parser.ParseMetadata;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
 import nz.org.venice.util.VeniceLog;
 
 /**
@@ -107,6 +111,108 @@ public abstract class AbstractExpression implements IExpression {
 		id = setId();
 	}
 
+	/**
+	 * Evaluate the expression for every day in a range. Pure expressions are
+	 * evaluated a whole series at a time, see {@link #evaluatePureSeries}, and
+	 * any others a day at a time.
+	 */
+	public double[] evaluateSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		// Purity is checked once here rather than at every node
+		if (isPure(this))
+			return evaluatePureSeries(variables, quoteBundle, symbol, firstDay, lastDay);
+		else
+			return evaluateEachDay(variables, quoteBundle, symbol, firstDay, lastDay);
+	}
+
+	/**
+	 * Evaluate the expression for every day in a range. This is only called
+	 * once the whole expression is known to be pure, so the children can be
+	 * evaluated with {@link #evaluateChildSeries} in any order. Expressions which
+	 * can calculate a whole series more efficiently than a day at a time
+	 * override this.
+	 */
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol,
+			int firstDay, int lastDay) throws EvaluationException {
+
+		return evaluateEachDay(variables, quoteBundle, symbol, firstDay, lastDay);
+	}
+
+	/**
+	 * Evaluate a child of a pure expression for every day in a range.
+	 *
+	 * @param index the index of the child
+	 * @return the value of the child on each day
+	 * @see #evaluatePureSeries
+	 */
+	protected double[] evaluateChildSeries(int index, Variables variables, IQuoteBundle quoteBundle, Symbol symbol,
+			int firstDay, int lastDay) throws EvaluationException {
+
+		// Every node of a pure expression is an AbstractExpression
+		return ((AbstractExpression) getChild(index)).evaluatePureSeries(variables, quoteBundle, symbol, firstDay,
+				lastDay);
+	}
+
+	/**
+	 * Evaluate the expression for every day in a range by evaluating it for
+	 * each day in turn.
+	 */
+	protected double[] evaluateEachDay(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		double[] values = new double[lastDay - firstDay + 1];
+
+		for (int day = firstDay; day <= lastDay; day++)
+			values[day - firstDay] = evaluate(variables, quoteBundle, symbol, day);
+
+		return values;
+	}
+
+	/**
+	 * Return whether this node, not counting its children, always gives the
+	 * same result for the same quotes and day. Nodes which use variables or
+	 * random numbers, or which have side effects, return <code>false</code>.
+	 *
+	 * @return <code>true</code> if the node is pure
+	 */
+	protected boolean isPureNode() {
+		return true;
+	}
+
+	/**
+	 * Return whether the given node, not counting its children, always gives the
+	 * same result for the same quotes and day.
+	 *
+	 * @param expression the node to check
+	 * @return <code>true</code> if the node is pure
+	 */
+	public static boolean isPureNode(IExpression expression) {
+		return expression instanceof AbstractExpression && ((AbstractExpression) expression).isPureNode();
+	}
+
+	/**
+	 * Return whether the given expression always gives the same result for the
+	 * same quotes and day, and can be evaluated in any order. Series evaluation
+	 * is only done a child at a time for pure expressions. This walks the whole
+	 * expression, so it should be called once at the root rather than at every
+	 * node.
+	 *
+	 * @param expression the expression to check
+	 * @return <code>true</code> if the expression and all its children are pure
+	 */
+	public static boolean isPure(IExpression expression) {
+		if (!isPureNode(expression))
+			return false;
+
+		for (int i = 0; i < expression.getChildCount(); i++) {
+			if (!isPure(expression.getChild(i)))
+				return false;
+		}
+
+		return true;
+	}
+
 	/**
 	 * Get the parent of this node.
 	 */
@@ -203,6 +309,22 @@ public abstract class AbstractExpression implements IExpression {
 		VeniceLog.getInstance().log("SetChild Exit");
 	}
 
+	/**
+	 * Replace this expression's child with the given child. Unlike
+	 * {@link #setChildMutableVersion} the old child is left alone, so it can be
+	 * moved under the new child.
+	 *
+	 * @param child the new child
+	 * @param index the index of the new child
+	 */
+	void replaceChild(IExpression child, int index) {
+		assert index < getChildCount();
+		assert child != this;
+
+		child.setParent(this);
+		children[index] = child;
+	}
+
 	/**
 	 * Return true if none of the children of this expression are null. This means
 	 * the expression can be simplified safely.
@@ -529,6 +651,19 @@ public abstract class AbstractExpression implements IExpression {
 		parseMetadata = new ParseMetadata(parseTree, tokenLineMap);
 	}
 
+	/**
+	 * Give a copy of an expression tree the parse metadata of the original, so
+	 * that functions and the line numbers of errors can still be found. The
+	 * metadata is looked up by structure so it also covers the copy.
+	 *
+	 * @param original the original expression
+	 * @param copy     the root of the copy
+	 */
+	public static void copyParseMetadata(IExpression original, IExpression copy) {
+		if (copy instanceof AbstractExpression)
+			((AbstractExpression) copy).parseMetadata = original.getParseMetadata();
+	}
+
 	public ParseMetadata getParseMetadata() {
 		if (parent != null) {
 			return parent.getParseMetadata();
@@ -168,4 +168,9 @@ public class AlertExpression extends UnaryExpression {
 	public Object clone() {
 		return new AlertExpression(getChild(0), optionalArgs);
 	}
+
+	// Not pure as this displays a message
+	protected boolean isPureNode() {
+		return false;
+	}
 }
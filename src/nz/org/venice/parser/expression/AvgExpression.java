@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -34,6 +35,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class AvgExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new average expression for the given <code>quote</code> kind, for
 	 * the given number of <code>days</code> starting with <code>lag</code> days
@@ -55,7 +59,7 @@ public class AvgExpression extends TernaryExpression {
 		// Extract arguments
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, symbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.AVG_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.AVG_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
@@ -64,13 +68,26 @@ public class AvgExpression extends TernaryExpression {
 
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.AVG_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.AVG_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, period, false);
+		if (window != null)
+			return window.getAverage();
+
+		return avg(quoteBundle, explicitSymbol, quoteKind, period, day, offset);
+	}
+
+	/**
+	 * Calculate the average of the given quote over a range of days.
+	 */
+	public static double avg(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int period, int day, int offset)
+			throws EvaluationException {
+
 		// Calculate and return the average.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind, day,
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, symbol, quoteKind, day,
 				offset, period);
 
 		return QuoteFunctions.avg(source, period);
@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -35,6 +36,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class BBLExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new Bollinger Band Lower expression for the given <code>quote</code>
 	 * kind, for the given number of <code>days</code>, starting with
@@ -59,21 +63,25 @@ public class BBLExpression extends TernaryExpression {
 
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.BBL_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.BBL_RANGE_EXCEPTION.copy();
 
 			e.setMessage(this, "", period);
 			throw e;
 		}
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.BBL_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.BBL_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, period, false);
+		if (window != null)
+			return window.getAverage() - 2.0D * window.getStandardDeviation();
+
 		// Calculate and return the BBL.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind, day,
-				offset, period);
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, explicitSymbol, quoteKind,
+				day, offset, period);
 
 		return QuoteFunctions.bollingerLower(source, period);
 	}
@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -35,6 +36,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class BBUExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new Bollinger Band Upper expression for the given <code>quote</code>
 	 * kind, for the given number of <code>days</code>, starting with
@@ -58,20 +62,24 @@ public class BBUExpression extends TernaryExpression {
 		Symbol explicitSymbol = (quoteChild.getSymbol() != null) ? quoteChild.getSymbol() : symbol;
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, symbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.BBU_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.BBU_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.BBU_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.BBU_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, period, false);
+		if (window != null)
+			return window.getAverage() + 2.0D * window.getStandardDeviation();
+
 		// Calculate and return the BBU.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind, day,
-				offset, period);
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, explicitSymbol, quoteKind,
+				day, offset, period);
 
 		return QuoteFunctions.bollingerUpper(source, period);
 	}
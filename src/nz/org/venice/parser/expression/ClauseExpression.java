@@ -178,7 +178,7 @@ public class ClauseExpression extends AbstractExpression {
 		List expressions = new ArrayList();
 
 		for (int child = 0; child < getChildCount(); child++)
-			expressions.add(getChild(child));
+			expressions.add(getChild(child).clone());
 
 		return new ClauseExpression(expressions);
 	}
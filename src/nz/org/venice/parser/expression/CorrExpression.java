@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingCorrelation;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.quote.SymbolFormatException;
 
@@ -35,6 +36,9 @@ import nz.org.venice.quote.SymbolFormatException;
  */
 public class CorrExpression extends QuaternaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new correlation expression between the current stock quote, and the
 	 * given quote. Find the correlation of the given quote kind. For the given
@@ -60,13 +64,13 @@ public class CorrExpression extends QuaternaryExpression {
 
 		int period = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (period <= 1) {
-			EvaluationException e = EvaluationException.CORR_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.CORR_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
 		int offset = (int) getChild(3).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.CORR_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.CORR_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
@@ -80,10 +84,15 @@ public class CorrExpression extends QuaternaryExpression {
 			throw new EvaluationException(e.getMessage());
 		}
 
+		RollingCorrelation correlation = windows.getCorrelation(quoteBundle, symbol, correlatedSymbol, quoteKind,
+				day + offset, period);
+		if (correlation != null)
+			return correlation.getCorrelation();
+
 		// Calculate and return the correleation
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, symbol, quoteKind, day, offset,
-				period);
-		QuoteBundleFunctionSource correlatedSource = new QuoteBundleFunctionSource(quoteBundle, correlatedSymbol,
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, symbol, quoteKind, day,
+				offset, period);
+		QuoteBundleFunctionSource correlatedSource = QuoteBundleFunctionSource.getView(1, quoteBundle, correlatedSymbol,
 				quoteKind, day, offset, period);
 
 		return QuoteFunctions.corr(source, correlatedSource, period);
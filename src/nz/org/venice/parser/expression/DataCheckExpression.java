@@ -50,22 +50,20 @@ public class DataCheckExpression extends BinaryExpression {
 		int offset = (int) getChild(1).evaluate(variables, quoteBundle, symbol, day);
 
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.LAG_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.LAG_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		if (!Double.isNaN(quoteBundle.findQuote(explicitSymbol, quoteKind, day + offset)))
+			return IExpression.TRUE;
+
 		try {
-			quoteBundle.getQuote(explicitSymbol, quoteKind, day + offset);
+			quoteBundle.getNearestQuote(explicitSymbol, quoteKind, day + offset);
+
 			return IExpression.TRUE;
-		} catch (MissingQuoteException e) {
-			try {
-				quoteBundle.getNearestQuote(explicitSymbol, quoteKind, day + offset);
-
-				return IExpression.TRUE;
-			} catch (MissingQuoteException e2) {
-				return IExpression.FALSE;
-			}
+		} catch (MissingQuoteException e2) {
+			return IExpression.FALSE;
 		}
 	}
 
@@ -128,4 +128,9 @@ public class DefineParameterExpression extends TerminalExpression {
 	public Object clone() {
 		return new DefineParameterExpression(getName(), getType());
 	}
+
+	// Not pure as this defines a variable
+	protected boolean isPureNode() {
+		return false;
+	}
 }
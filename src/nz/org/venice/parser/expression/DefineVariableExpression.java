@@ -55,7 +55,7 @@ public class DefineVariableExpression extends UnaryExpression {
 		// otherwise we might miss the silly case of a variable being defined in its
 		// own definition. E.g.
 		// int a = 5 + (int a = 6)
-		if (!variables.contains(getName())) {
+		if (!variables.contains(name)) {
 			variables.add(getName(), getType(), isConstant(), value);
 			return value;
 		} else
@@ -128,4 +128,9 @@ public class DefineVariableExpression extends UnaryExpression {
 	public Object clone() {
 		return new DefineVariableExpression(getName(), getType(), isConstant(), (IExpression) getChild(0).clone());
 	}
+
+	// Not pure as this defines a variable
+	protected boolean isPureNode() {
+		return false;
+	}
 }
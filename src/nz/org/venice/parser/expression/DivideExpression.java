@@ -44,12 +44,33 @@ public class DivideExpression extends ArithmeticExpression {
 			return getChild(0).evaluate(variables, quoteBundle, symbol, day) / right;
 		else {
 
-			EvaluationException e = EvaluationException.DIVIDE_BY_ZERO_EXCEPTION;
+			EvaluationException e = EvaluationException.DIVIDE_BY_ZERO_EXCEPTION.copy();
 			e.setMessage(this, "", right);
 			throw e;
 		}
 	}
 
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		double[] right = evaluateChildSeries(1, variables, quoteBundle, symbol, firstDay, lastDay);
+
+		for (int i = 0; i < right.length; i++) {
+			if (right[i] == 0.0D) {
+				EvaluationException e = EvaluationException.DIVIDE_BY_ZERO_EXCEPTION.copy();
+				e.setMessage(this, "", right[i]);
+				throw e;
+			}
+		}
+
+		double[] values = evaluateChildSeries(0, variables, quoteBundle, symbol, firstDay, lastDay);
+
+		for (int i = 0; i < values.length; i++)
+			values[i] /= right[i];
+
+		return values;
+	}
+
 	public IExpression simplify() {
 		// First perform arithmetic simplifications
 		IExpression simplified = super.simplify();
@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -35,6 +36,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class EMAExpression extends QuaternaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new exponential moving average expression for the given
 	 * <code>quote</code> kind, for the given number of <code>days</code>, with the
@@ -60,26 +64,31 @@ public class EMAExpression extends QuaternaryExpression {
 		Symbol explicitSymbol = (quoteChild.getSymbol() != null) ? quoteChild.getSymbol() : symbol;
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.EMA_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.EMA_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.EMA_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.EMA_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 		double smoothing = (double) getChild(3).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if ((smoothing < 0.01) || (smoothing > 1.0)) {
-			EvaluationException e = EvaluationException.EMA_SMOOTHING_EXCEPTION;
+			EvaluationException e = EvaluationException.EMA_SMOOTHING_EXCEPTION.copy();
 			e.setMessage(this, "", smoothing);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, period, false,
+				smoothing);
+		if (window != null)
+			return window.getExponentialAverage();
+
 		// Calculate and return the average.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind, day,
-				offset, period);
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, explicitSymbol, quoteKind,
+				day, offset, period);
 
 		return QuoteFunctions.ema(source, period, smoothing);
 	}
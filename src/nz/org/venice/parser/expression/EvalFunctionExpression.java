@@ -21,9 +21,8 @@ package nz.org.venice.parser.expression;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.UUID;
 
-import nz.org.venice.parser.AnalyserGuard;
+import nz.org.venice.parser.EvaluationBudget;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.TypeMismatchException;
@@ -45,11 +44,6 @@ public class EvalFunctionExpression extends UnaryExpression {
 
 	private HashMap setParameters;
 
-	// Expression identifier so that AnalyserGuard can monitor the "call stack"
-	// (parent hashcode uses class hashcode, so it would the same for all
-	// EvalFunctionExpressions)
-	private UUID id;
-
 	/**
 	 * Create a new average expression for the given <code>quote</code> kind, for
 	 * <code>lag</code> days away.
@@ -65,39 +59,38 @@ public class EvalFunctionExpression extends UnaryExpression {
 		this.type = type;
 
 		setParameters = new HashMap();
-
-		id = UUID.randomUUID();
 	}
 
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
 			throws EvaluationException {
 
-		AnalyserGuard.getInstance().startFunction(this, id, symbol, day);
-		if (AnalyserGuard.getInstance().stackDepthLimitExceeded(this, id, symbol, day)) {
-			throw EvaluationException.STACK_DEPTH_EXCEEDED_EXCEPTION;
-		}
+		// Fails if the calls are nested too deeply, e.g. infinite recursion
+		EvaluationBudget.Meter meter = EvaluationBudget.getMeter();
+		meter.startCall();
 
 		Variables parameters = null;
+		double rv = 0.0;
 
 		try {
-			// Need actual copies of the variables otherwise
-			// function evaluation is not idemptotent
-			parameters = (Variables) (variables.copyVariables());
-
-			// setup the function parameters as new variables,
-			// replacing variables already defined.
-			setupParameters(parameters, quoteBundle, symbol, day);
+			try {
+				// Need actual copies of the variables otherwise
+				// function evaluation is not idemptotent
+				parameters = (Variables) (variables.copyVariables());
 
-		} catch (CloneNotSupportedException e) {
+				// setup the function parameters as new variables,
+				// replacing variables already defined.
+				setupParameters(parameters, quoteBundle, symbol, day);
 
-		}
+			} catch (CloneNotSupportedException e) {
 
-		IExpression body = getParseMetadata().getFunctionBody(name);
+			}
 
-		double rv = 0.0;
-		rv = body.evaluate(parameters, quoteBundle, symbol, day);
+			IExpression body = getParseMetadata().getFunctionBody(name);
 
-		AnalyserGuard.getInstance().finishFunction(this, id, symbol, day);
+			rv = body.evaluate(parameters, quoteBundle, symbol, day);
+		} finally {
+			meter.finishCall();
+		}
 
 		/*
 		 * We use parameters (as a copy of variables) so that if a function sets the
@@ -260,4 +253,8 @@ public class EvalFunctionExpression extends UnaryExpression {
 		}
 	}
 
+	// Not pure as this calls a user function
+	protected boolean isPureNode() {
+		return false;
+	}
 }
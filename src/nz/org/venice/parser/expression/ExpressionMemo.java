@@ -0,0 +1,304 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser.expression;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import nz.org.venice.parser.CompiledExpression;
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.ExpressionCompiler;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * Remembers the results of subexpressions shared by several rules, such as the
+ * buy and sell rules of a paper trade, so that each is only evaluated once for
+ * a symbol and day. For example, given the rules
+ * <code>close &gt; avg(close, 20)</code> and <code>close &lt; avg(close, 20) *
+ * 0.95</code> the moving average is calculated once.
+ * <p>
+ * Only pure subexpressions are shared, see {@link AbstractExpression#isPure},
+ * as their value depends on nothing but the quotes, symbol and day. Results
+ * are kept in a fixed size table where a new result replaces any older result
+ * in the same slot, so the memory used is bounded however long the rules are
+ * run for. The table isn't allocated until the first shared subexpression is
+ * evaluated. Evaluation errors are not remembered.
+ * <p>
+ * Like the expressions themselves, a memo is only used by one thread at a time
+ * so this class is not synchronized.
+ */
+public class ExpressionMemo {
+
+	/** Default number of results kept. */
+	public final static int DEFAULT_CAPACITY = 1 << 16;
+
+	// Smallest subexpression worth remembering. Anything smaller, e.g.
+	// "close - open", is cheaper to evaluate than to look up.
+	private final static int MINIMUM_SIZE = 4;
+
+	// Table of results, or null until a result is remembered. A slot is empty
+	// if its identifier is zero.
+	private int[] ids = null;
+	private Symbol[] symbols = null;
+	private int[] days = null;
+	private double[] values = null;
+
+	// Number of slots - 1
+	private int mask;
+
+	// The quote bundle the results were calculated from
+	private IQuoteBundle quoteBundle = null;
+
+	// Map of shared subexpressions to their identifiers
+	private Map subexpressions = new HashMap();
+
+	// Map of identifiers to the copy of each subexpression that is evaluated
+	private Map targets = new HashMap();
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Create a new memo with the default capacity.
+	 */
+	public ExpressionMemo() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a new memo.
+	 *
+	 * @param capacity the number of results to keep, rounded up to a power of two
+	 */
+	public ExpressionMemo(int capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Set the number of results to keep. Any remembered results are
+	 * forgotten.
+	 *
+	 * @param capacity the number of results to keep, rounded up to a power of two
+	 */
+	public void setCapacity(int capacity) {
+		assert capacity > 0;
+
+		mask = (Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1) - 1;
+		ids = null;
+		symbols = null;
+		days = null;
+		values = null;
+		quoteBundle = null;
+	}
+
+	/**
+	 * Return copies of the given rules where every pure subexpression that
+	 * appears more than once, in one rule or across the rules, is evaluated
+	 * through this memo. The given rules are not changed, and rules without
+	 * any shared subexpressions are returned as they are. Compiled rules are
+	 * recompiled with the shared subexpressions left to the interpreter.
+	 *
+	 * @param expressions the rules, any of which may be <code>null</code>
+	 * @return the rewritten rules in the same order
+	 */
+	public IExpression[] share(IExpression[] expressions) {
+		Map counts = new HashMap();
+
+		for (int i = 0; i < expressions.length; i++) {
+			if (expressions[i] != null)
+				count(expressions[i], counts);
+		}
+
+		IExpression[] shared = new IExpression[expressions.length];
+
+		for (int i = 0; i < expressions.length; i++) {
+			IExpression expression = expressions[i];
+
+			if (expression instanceof CompiledExpression)
+				expression = ((CompiledExpression) expression).getExpression();
+
+			if (expression == null || !isShared(expression, counts))
+				shared[i] = expressions[i];
+			else {
+				IExpression rewritten = rewrite((IExpression) expression.clone(), counts);
+				AbstractExpression.copyParseMetadata(expression, rewritten);
+
+				if (expressions[i] instanceof CompiledExpression)
+					rewritten = ExpressionCompiler.compile(rewritten);
+
+				shared[i] = rewritten;
+			}
+		}
+
+		return shared;
+	}
+
+	/**
+	 * Return the number of subexpressions that have been shared.
+	 *
+	 * @return the number of shared subexpressions
+	 */
+	public int getSharedCount() {
+		return targets.size();
+	}
+
+	/**
+	 * Return the number of evaluations answered from the memo.
+	 *
+	 * @return the number of hits
+	 */
+	public int getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of evaluations that had to be calculated.
+	 *
+	 * @return the number of misses
+	 */
+	public int getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Forget all the remembered results.
+	 */
+	public void clear() {
+		if (ids != null) {
+			Arrays.fill(ids, 0);
+			Arrays.fill(symbols, null);
+		}
+		quoteBundle = null;
+	}
+
+	/**
+	 * Return the value of a shared subexpression, evaluating it if it hasn't
+	 * been remembered.
+	 */
+	double evaluate(int id, IExpression expression, Variables variables, IQuoteBundle quoteBundle, Symbol symbol,
+			int day) throws EvaluationException {
+
+		if (ids == null) {
+			ids = new int[mask + 1];
+			symbols = new Symbol[mask + 1];
+			days = new int[mask + 1];
+			values = new double[mask + 1];
+		}
+
+		if (quoteBundle != this.quoteBundle) {
+			clear();
+			this.quoteBundle = quoteBundle;
+		}
+
+		int hash = id * 0x9E3779B1 + day * 0x85EBCA6B;
+		if (symbol != null)
+			hash += symbol.hashCode() * 0xC2B2AE35;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+
+		// Symbols are canonical so they can be compared directly
+		if (ids[slot] == id && days[slot] == day && symbols[slot] == symbol) {
+			hits++;
+			return values[slot];
+		}
+
+		double value = expression.evaluate(variables, quoteBundle, symbol, day);
+
+		misses++;
+		ids[slot] = id;
+		symbols[slot] = symbol;
+		days[slot] = day;
+		values[slot] = value;
+
+		return value;
+	}
+
+	// Count the subexpressions worth sharing in the given expression
+	private void count(IExpression expression, Map counts) {
+		if (isShareable(expression)) {
+			Integer count = (Integer) counts.get(expression);
+			counts.put(expression, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+		}
+
+		for (int i = 0; i < expression.getChildCount(); i++)
+			count(expression.getChild(i), counts);
+	}
+
+	// Return whether the given expression contains a shared subexpression
+	private boolean isShared(IExpression expression, Map counts) {
+		Integer count = (Integer) counts.get(expression);
+
+		if (count != null && count.intValue() > 1)
+			return true;
+
+		for (int i = 0; i < expression.getChildCount(); i++) {
+			if (isShared(expression.getChild(i), counts))
+				return true;
+		}
+
+		return false;
+	}
+
+	// Replace the shared subexpressions in the given expression, which is
+	// modified, and return the result
+	private IExpression rewrite(IExpression expression, Map counts) {
+		Integer count = (Integer) counts.get(expression);
+		Integer id = null;
+
+		// Look up the identifier before the children are replaced, which
+		// changes the hash code
+		if (count != null && count.intValue() > 1) {
+			id = (Integer) subexpressions.get(expression);
+
+			if (id == null) {
+				id = Integer.valueOf(subexpressions.size() + 1);
+				subexpressions.put(expression.clone(), id);
+			}
+		}
+
+		for (int i = 0; i < expression.getChildCount(); i++) {
+			IExpression child = expression.getChild(i);
+			IExpression sharedChild = rewrite(child, counts);
+
+			if (sharedChild != child)
+				((AbstractExpression) expression).replaceChild(sharedChild, i);
+		}
+
+		if (id == null)
+			return expression;
+
+		IExpression target = (IExpression) targets.get(id);
+
+		if (target == null) {
+			target = expression;
+			targets.put(id, target);
+		}
+
+		return new MemoExpression(this, id.intValue(), target, expression);
+	}
+
+	// Return whether the expression is worth sharing
+	private boolean isShareable(IExpression expression) {
+		return !(expression instanceof MemoExpression) && expression.size() >= MINIMUM_SIZE
+				&& AbstractExpression.isPure(expression);
+	}
+}
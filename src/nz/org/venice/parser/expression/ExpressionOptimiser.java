@@ -0,0 +1,423 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.org.venice.parser.CompiledExpression;
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.ExpressionCompiler;
+import nz.org.venice.parser.IExpression;
+
+/**
+ * Optimises <i>Gondola</i> expressions before they are run over every symbol
+ * and day of an analysis. The {@link IExpression#simplify} methods tidy up
+ * the rules bred by the genetic programme; the optimiser instead works on
+ * whole rules as the user wrote them, and only makes changes which keep the
+ * value of the rule the same:
+ * <ul>
+ * <li>Arithmetic, comparison, logic and mathematical functions of constants are
+ * folded into a constant, e.g. <code>close &gt; 10 * 2</code> becomes
+ * <code>close &gt; 20</code>.</li>
+ * <li>Branches of an <code>if</code> that can never be taken are removed.</li>
+ * <li>The arguments of <code>and</code> and <code>or</code> are reordered so
+ * cheap tests are made before functions over a range of days, which are
+ * then often not needed.</li>
+ * <li>Subexpressions in <code>for</code> and <code>while</code> loops which
+ * don't use any variable are hoisted out of the loop, so they are evaluated
+ * once rather than every time round.</li>
+ * <li>Strength reduction, e.g. <code>x / 4</code> becomes
+ * <code>x * 0.25</code> and <code>x * 1</code> becomes
+ * <code>x</code>. Rewriting <code>x * 2</code> as <code>x + x</code> isn't
+ * done, as it would evaluate <code>x</code> twice for no gain in the
+ * interpreter, and <i>Gondola</i> has no power operator for
+ * <code>sqrt(x)^2</code> to apply to.</li>
+ * </ul>
+ * Only pure arguments are reordered, see {@link AbstractExpression#isPure}. A
+ * reordered rule can still fail on a different argument, for example if a
+ * quote is missing, than the original; the analysis tools treat a rule that
+ * fails on a day as not having triggered.
+ * <p>
+ * The given expression is never changed. The optimiser counts the nodes in
+ * the expressions before and after optimisation, so the saving can be
+ * reported.
+ */
+public class ExpressionOptimiser {
+
+	// Estimated costs of evaluating a node, not counting its children
+	private final static int NODE_COST = 1;
+	private final static int RANGE_COST = 20;
+	private final static int LOOP_COST = 100;
+
+	// Nodes which can be replaced by a constant if all their arguments are
+	// constant
+	private final static Class[] FOLDABLE = { AddExpression.class, SubtractExpression.class,
+			MultiplyExpression.class, DivideExpression.class, PercentExpression.class, EqualThanExpression.class,
+			NotEqualExpression.class, LessThanExpression.class, LessThanEqualExpression.class,
+			GreaterThanExpression.class, GreaterThanEqualExpression.class, AndExpression.class, OrExpression.class,
+			NotExpression.class, AbsExpression.class, SqrtExpression.class, SineExpression.class,
+			CosineExpression.class, LogarithmExpression.class, ExponentialExpression.class, FloorExpression.class,
+			CeilExpression.class, IfExpression.class };
+
+	// Functions over a range of days
+	private final static Class[] RANGE_FUNCTIONS = { AvgExpression.class, SumExpression.class,
+			StandardDeviationExpression.class, MinExpression.class, MaxExpression.class, BBLExpression.class,
+			BBUExpression.class, TrendExpression.class, CorrExpression.class, EMAExpression.class,
+			MACDExpression.class, OBVExpression.class, RSIExpression.class, MomentumExpression.class };
+
+	private int nodesBefore = 0;
+	private int nodesAfter = 0;
+
+	/**
+	 * Create a new optimiser.
+	 */
+	public ExpressionOptimiser() {
+		// nothing to do
+	}
+
+	/**
+	 * Return an optimised copy of the given expression. A compiled expression
+	 * is optimised and compiled again.
+	 *
+	 * @param expression the expression to optimise
+	 * @return the optimised expression
+	 */
+	public IExpression optimise(IExpression expression) {
+		IExpression optimised;
+
+		nodesBefore += expression.size();
+
+		if (expression instanceof CompiledExpression)
+			optimised = ExpressionCompiler.compile(optimiseTree(((CompiledExpression) expression).getExpression()));
+		else
+			optimised = optimiseTree(expression);
+
+		nodesAfter += optimised.size();
+
+		return optimised;
+	}
+
+	/**
+	 * Return the number of nodes in the expressions given to the optimiser.
+	 *
+	 * @return the number of nodes before optimisation
+	 */
+	public int getNodeCountBefore() {
+		return nodesBefore;
+	}
+
+	/**
+	 * Return the number of nodes in the optimised expressions.
+	 *
+	 * @return the number of nodes after optimisation
+	 */
+	public int getNodeCountAfter() {
+		return nodesAfter;
+	}
+
+	// Return an optimised copy of the given expression tree
+	private IExpression optimiseTree(IExpression expression) {
+		IExpression optimised = optimiseNode((IExpression) expression.clone());
+
+		// The root may have been replaced by one of its descendants
+		if (!optimised.isRoot())
+			optimised = (IExpression) optimised.clone();
+
+		AbstractExpression.copyParseMetadata(expression, optimised);
+
+		return optimised;
+	}
+
+	// Optimise the given expression, which is modified, and return the result
+	private IExpression optimiseNode(IExpression expression) {
+		if (!(expression instanceof AbstractExpression))
+			return expression;
+
+		for (int i = 0; i < expression.getChildCount(); i++) {
+			IExpression child = expression.getChild(i);
+			IExpression optimisedChild = optimiseNode(child);
+
+			if (optimisedChild != child)
+				((AbstractExpression) expression).replaceChild(optimisedChild, i);
+		}
+
+		if (isFoldable(expression))
+			return fold(expression);
+		else if (expression instanceof IfExpression)
+			return removeDeadBranch(expression);
+		else if (expression instanceof AndExpression || expression instanceof OrExpression)
+			return optimiseLogic(expression);
+		else if (expression instanceof ForExpression) {
+			// The initial clause is only run once
+			hoist(expression, 1);
+			return expression;
+		} else if (expression instanceof WhileExpression) {
+			hoist(expression, 0);
+			return expression;
+		} else
+			return reduceStrength(expression);
+	}
+
+	// Return whether the expression is a function of constants
+	private boolean isFoldable(IExpression expression) {
+		if (!isInstance(expression, FOLDABLE))
+			return false;
+
+		for (int i = 0; i < expression.getChildCount(); i++) {
+			if (!(expression.getChild(i) instanceof NumberExpression))
+				return false;
+		}
+
+		return true;
+	}
+
+	// Replace a function of constants by its value
+	private IExpression fold(IExpression expression) {
+		try {
+			return new NumberExpression(expression.evaluate(null, null, null, 0), expression.getType());
+		} catch (EvaluationException e) {
+			// E.g. 1/0, leave it to fail when the rule is run
+			return expression;
+		}
+	}
+
+	// Remove an if branch that can't be taken
+	private IExpression removeDeadBranch(IExpression expression) {
+		IExpression condition = expression.getChild(0);
+
+		if (condition instanceof NumberExpression) {
+			if (((NumberExpression) condition).getValue() >= IExpression.TRUE_LEVEL)
+				return expression.getChild(1);
+			else
+				return expression.getChild(2);
+		}
+
+		// if(c) {x} else {x} is x, as long as c doesn't do anything
+		else if (expression.getChild(1).equals(expression.getChild(2)) && AbstractExpression.isPure(condition))
+			return expression.getChild(1);
+
+		else
+			return expression;
+	}
+
+	// Remove constant arguments of an and/or and reorder the rest
+	private IExpression optimiseLogic(IExpression expression) {
+		boolean isAnd = expression instanceof AndExpression;
+		IExpression left = expression.getChild(0);
+		IExpression right = expression.getChild(1);
+
+		// true and x = x, false or x = x. Otherwise x is never evaluated.
+		if (left instanceof NumberExpression) {
+			boolean value = ((NumberExpression) left).getValue() >= IExpression.TRUE_LEVEL;
+
+			if (value != isAnd)
+				return new NumberExpression(value);
+			else if (right.getType() == IExpression.BOOLEAN_TYPE)
+				return right;
+		}
+
+		// x and true = x, x or false = x. Otherwise the result is constant but
+		// x still needs to be evaluated unless it is pure.
+		if (right instanceof NumberExpression) {
+			boolean value = ((NumberExpression) right).getValue() >= IExpression.TRUE_LEVEL;
+
+			if (value != isAnd && AbstractExpression.isPure(left))
+				return new NumberExpression(value);
+			else if (value == isAnd && left.getType() == IExpression.BOOLEAN_TYPE)
+				return left;
+		}
+
+		return reorder(expression);
+	}
+
+	// Reorder a chain of and/or so the cheapest arguments are evaluated first
+	private IExpression reorder(IExpression expression) {
+		List arguments = new ArrayList();
+		getArguments(expression, expression.getClass(), arguments);
+
+		int[] costs = new int[arguments.size()];
+		boolean isOrdered = true;
+
+		for (int i = 0; i < arguments.size(); i++) {
+			IExpression argument = (IExpression) arguments.get(i);
+
+			// Arguments which change variables or have other side effects have
+			// to be run in the order given
+			if (!AbstractExpression.isPure(argument))
+				return expression;
+
+			costs[i] = getCost(argument);
+
+			if (i > 0 && costs[i] < costs[i - 1])
+				isOrdered = false;
+		}
+
+		if (isOrdered)
+			return expression;
+
+		// Stable insertion sort, so arguments of equal cost keep their order
+		for (int i = 1; i < arguments.size(); i++) {
+			for (int j = i; j > 0 && costs[j] < costs[j - 1]; j--) {
+				int cost = costs[j];
+				costs[j] = costs[j - 1];
+				costs[j - 1] = cost;
+
+				arguments.set(j - 1, arguments.set(j, arguments.get(j - 1)));
+			}
+		}
+
+		IExpression reordered = (IExpression) arguments.get(0);
+
+		for (int i = 1; i < arguments.size(); i++) {
+			IExpression argument = (IExpression) arguments.get(i);
+
+			if (expression instanceof AndExpression)
+				reordered = new AndExpression(reordered, argument);
+			else
+				reordered = new OrExpression(reordered, argument);
+		}
+
+		return reordered;
+	}
+
+	// Add the arguments of a chain of and/or expressions to the list
+	private void getArguments(IExpression expression, Class type, List arguments) {
+		if (expression.getClass() == type) {
+			getArguments(expression.getChild(0), type, arguments);
+			getArguments(expression.getChild(1), type, arguments);
+		} else
+			arguments.add(expression);
+	}
+
+	// Return the estimated cost of evaluating the expression
+	private int getCost(IExpression expression) {
+		int cost = NODE_COST;
+
+		if (isInstance(expression, RANGE_FUNCTIONS))
+			cost = RANGE_COST;
+		else if (expression instanceof ForExpression || expression instanceof WhileExpression)
+			cost = LOOP_COST;
+
+		for (int i = 0; i < expression.getChildCount(); i++)
+			cost += getCost(expression.getChild(i));
+
+		return cost;
+	}
+
+	// Hoist the invariant subexpressions out of the clauses of a loop that are
+	// run each time round
+	private void hoist(IExpression loop, int firstChild) {
+		for (int i = firstChild; i < loop.getChildCount(); i++) {
+			IExpression child = loop.getChild(i);
+			IExpression hoisted = hoistInvariants(child);
+
+			if (hoisted != child)
+				((AbstractExpression) loop).replaceChild(hoisted, i);
+		}
+	}
+
+	// Wrap the largest pure subexpressions, which can't change while the loop
+	// runs, so they are only evaluated once
+	private IExpression hoistInvariants(IExpression expression) {
+		if (expression instanceof TerminalExpression || expression instanceof HoistedExpression)
+			return expression;
+		else if (AbstractExpression.isPure(expression))
+			return new HoistedExpression(expression);
+		else if (!(expression instanceof AbstractExpression))
+			return expression;
+
+		for (int i = 0; i < expression.getChildCount(); i++) {
+			IExpression child = expression.getChild(i);
+			IExpression hoisted = hoistInvariants(child);
+
+			if (hoisted != child)
+				((AbstractExpression) expression).replaceChild(hoisted, i);
+		}
+
+		return expression;
+	}
+
+	// Replace operations by cheaper ones giving exactly the same result
+	private IExpression reduceStrength(IExpression expression) {
+		if (expression instanceof NotExpression) {
+			// not(not(x)) = x for true/false values
+			IExpression argument = expression.getChild(0);
+
+			if (argument instanceof NotExpression && argument.getChild(0).getType() == IExpression.BOOLEAN_TYPE)
+				return argument.getChild(0);
+			else
+				return expression;
+		}
+
+		if (!(expression instanceof ArithmeticExpression))
+			return expression;
+
+		IExpression left = expression.getChild(0);
+		IExpression right = expression.getChild(1);
+
+		// Identities, as long as the type doesn't change: x + 0, 0 + x, x - 0,
+		// x * 1, 1 * x and x / 1
+		if (expression instanceof AddExpression) {
+			if (isConstant(right, 0.0D) && left.getType() == expression.getType())
+				return left;
+			else if (isConstant(left, 0.0D) && right.getType() == expression.getType())
+				return right;
+		} else if (expression instanceof SubtractExpression) {
+			if (isConstant(right, 0.0D) && left.getType() == expression.getType())
+				return left;
+		} else if (expression instanceof MultiplyExpression) {
+			if (isConstant(right, 1.0D) && left.getType() == expression.getType())
+				return left;
+			else if (isConstant(left, 1.0D) && right.getType() == expression.getType())
+				return right;
+		} else if (expression instanceof DivideExpression) {
+			if (isConstant(right, 1.0D) && left.getType() == expression.getType())
+				return left;
+
+			// Dividing by a power of two is the same as multiplying by its
+			// reciprocal, which is cheaper
+			else if (right instanceof NumberExpression && expression.getType() == IExpression.FLOAT_TYPE) {
+				double divisor = ((NumberExpression) right).getValue();
+				int exponent = Math.getExponent(divisor);
+
+				if (divisor != 0.0D && Math.abs(divisor) == Math.scalb(1.0D, exponent)
+						&& exponent > Double.MIN_EXPONENT && exponent < Double.MAX_EXPONENT)
+					return new MultiplyExpression(left, new NumberExpression(1.0D / divisor));
+			}
+		}
+
+		return expression;
+	}
+
+	// Return whether the expression is the given constant
+	private boolean isConstant(IExpression expression, double value) {
+		return expression instanceof NumberExpression && ((NumberExpression) expression).getValue() == value;
+	}
+
+	// Return whether the expression is an instance of one of the classes
+	private boolean isInstance(IExpression expression, Class[] classes) {
+		for (int i = 0; i < classes.length; i++) {
+			if (expression.getClass() == classes[i])
+				return true;
+		}
+
+		return false;
+	}
+}
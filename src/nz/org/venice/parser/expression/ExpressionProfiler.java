@@ -0,0 +1,286 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser.expression;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import nz.org.venice.parser.CompiledExpression;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.ParseMetadata;
+import nz.org.venice.quote.EODQuoteBundle;
+
+/**
+ * Profiles the evaluation of <i>Gondola</i> expressions, so the user can see
+ * which parts of a slow rule take the time. The profiler returns a copy of a
+ * rule where each node is wrapped in a {@link ProfiledExpression}, which
+ * records the number of times the node is called, the time spent in it and
+ * the number of quotes it fetches.
+ * <p>
+ * Each node in the profile is labelled with the line it appears on, found
+ * from the rule's {@link ParseMetadata}. Nodes which weren't written by the
+ * user, for example those created by the optimiser, are given the line of
+ * their parent. Constants and quote arguments such as <code>close</code> are
+ * not wrapped, as functions over a range of days need their quote argument as
+ * it is, so their time and quote fetches are counted against the node using
+ * them. Nodes that print the same as their parent, such as a clause of a
+ * single expression, share their parent's entry.
+ * <p>
+ * The results can be written as an annotated tree, or as folded stacks which
+ * can be turned into a flame graph, e.g. by <code>flamegraph.pl</code>.
+ * Profiled rules should only be evaluated by one thread at a time and will
+ * run slower than the original rules.
+ *
+ * <pre>
+ * ExpressionProfiler profiler = new ExpressionProfiler();
+ * IExpression profiledRule = profiler.profile("Buy Rule", rule);
+ *
+ * profiler.start();
+ * // ... evaluate profiledRule ...
+ * profiler.stop();
+ *
+ * System.out.println(profiler.getReport());
+ * </pre>
+ */
+public class ExpressionProfiler {
+
+	// Longest label written for a node
+	private final static int MAXIMUM_LABEL_LENGTH = 60;
+
+	// The root node of each profiled rule
+	private List roots = new ArrayList();
+
+	/**
+	 * A node in the profile, recording the evaluation of one subexpression of a
+	 * rule.
+	 */
+	static class Node {
+		private String label;
+		private int line;
+		private List children = new ArrayList();
+
+		private long calls = 0;
+		private long nanos = 0;
+		private long fetches = 0;
+
+		private Node(String label, int line) {
+			this.label = label;
+			this.line = line;
+		}
+
+		/**
+		 * Record the evaluation of the subexpression.
+		 *
+		 * @param calls   the number of days evaluated
+		 * @param nanos   the time taken in nanoseconds
+		 * @param fetches the number of quotes fetched
+		 */
+		void add(long calls, long nanos, long fetches) {
+			this.calls += calls;
+			this.nanos += nanos;
+			this.fetches += fetches;
+		}
+
+		// Return the time spent in this node, not counting its children
+		private long getSelfNanos() {
+			long selfNanos = nanos;
+
+			for (Iterator iterator = children.iterator(); iterator.hasNext();)
+				selfNanos -= ((Node) iterator.next()).nanos;
+
+			return Math.max(selfNanos, 0);
+		}
+
+		// Return the quotes fetched by this node, not counting its children
+		private long getSelfFetches() {
+			long selfFetches = fetches;
+
+			for (Iterator iterator = children.iterator(); iterator.hasNext();)
+				selfFetches -= ((Node) iterator.next()).fetches;
+
+			return Math.max(selfFetches, 0);
+		}
+	}
+
+	/**
+	 * Create a new profiler.
+	 */
+	public ExpressionProfiler() {
+		// nothing to do
+	}
+
+	/**
+	 * Return a copy of the given rule which records its evaluation in this
+	 * profile. The given rule is not changed. Compiled rules are profiled
+	 * through the expression they were compiled from, as the compiled code has
+	 * no nodes to profile.
+	 *
+	 * @param name       the name of the rule used as the root of the profile
+	 * @param expression the rule
+	 * @return the profiled copy of the rule
+	 */
+	public IExpression profile(String name, IExpression expression) {
+		if (expression instanceof CompiledExpression)
+			expression = ((CompiledExpression) expression).getExpression();
+
+		ParseMetadata parseMetadata = expression.getParseMetadata();
+		IExpression copy = (IExpression) expression.clone();
+		Node root = new Node(name, getLine(parseMetadata, copy, -1));
+
+		roots.add(root);
+		profileChildren(parseMetadata, copy, root);
+
+		IExpression profiled = new ProfiledExpression(root, copy);
+		AbstractExpression.copyParseMetadata(expression, profiled);
+
+		return profiled;
+	}
+
+	/**
+	 * Start counting the quotes fetched by the profiled rules.
+	 */
+	public void start() {
+		EODQuoteBundle.setCountingFetches(true);
+	}
+
+	/**
+	 * Stop counting the quotes fetched by the profiled rules.
+	 */
+	public void stop() {
+		EODQuoteBundle.setCountingFetches(false);
+	}
+
+	/**
+	 * Return the profile as a tree with one line for each node. Each line gives
+	 * the number of calls, the total time including the node's children, the
+	 * time spent in the node itself, the quotes fetched by the node itself and
+	 * the line of the rule the node appears on.
+	 *
+	 * @return the annotated tree
+	 */
+	public String getReport() {
+		StringBuffer report = new StringBuffer();
+
+		report.append("     Calls     Total ms      Self ms    Fetches   Line  Expression\n");
+
+		for (Iterator iterator = roots.iterator(); iterator.hasNext();)
+			appendReport(report, (Node) iterator.next(), "");
+
+		return report.toString();
+	}
+
+	/**
+	 * Return the profile as folded stacks. Each line holds the labels of a node
+	 * and its parents, separated by semicolons, followed by the time spent in
+	 * the node itself in microseconds. This is the input format of most flame
+	 * graph tools.
+	 *
+	 * @return the folded stacks
+	 */
+	public String getFoldedStacks() {
+		StringBuffer stacks = new StringBuffer();
+
+		for (Iterator iterator = roots.iterator(); iterator.hasNext();)
+			appendFoldedStacks(stacks, (Node) iterator.next(), "");
+
+		return stacks.toString();
+	}
+
+	// Wrap the children of the given node in profiled expressions
+	private void profileChildren(ParseMetadata parseMetadata, IExpression expression, Node node) {
+
+		// The bodies of functions are evaluated from the parse metadata and
+		// memoised subexpressions evaluate a different copy, so the children of
+		// either are never evaluated in place.
+		if (!(expression instanceof AbstractExpression) || expression instanceof FunctionExpression
+				|| expression instanceof MemoExpression)
+			return;
+
+		for (int i = 0; i < expression.getChildCount(); i++) {
+			IExpression child = expression.getChild(i);
+
+			if (child == null || child instanceof NumberExpression || child instanceof IQuoteSymbol
+					|| child instanceof StringExpression || child instanceof DefineParameterExpression)
+				continue;
+
+			String label = getLabel(child);
+
+			// Function calls need their parameter list as it is, but the
+			// parameter values can be profiled
+			if (expression instanceof EvalFunctionExpression || label.equals(node.label)) {
+				profileChildren(parseMetadata, child, node);
+				continue;
+			}
+
+			Node childNode = new Node(label, getLine(parseMetadata, child, node.line));
+
+			node.children.add(childNode);
+			profileChildren(parseMetadata, child, childNode);
+
+			((AbstractExpression) expression).replaceChild(new ProfiledExpression(childNode, child), i);
+		}
+	}
+
+	// Return the line the given expression appears on, or the given line of
+	// its parent if it wasn't parsed. This must be done before the children of
+	// the expression are wrapped, as the lines are looked up by structure.
+	private int getLine(ParseMetadata parseMetadata, IExpression expression, int parentLine) {
+		int line = (parseMetadata != null ? parseMetadata.getLine(expression) : -1);
+
+		return (line != -1 ? line : parentLine);
+	}
+
+	// Return a one line label for the given expression
+	private String getLabel(IExpression expression) {
+		String label = expression.toString().replaceAll("\\s+", " ").trim();
+
+		if (label.length() > MAXIMUM_LABEL_LENGTH)
+			label = label.substring(0, MAXIMUM_LABEL_LENGTH - 3) + "...";
+
+		return label;
+	}
+
+	// Return the line for display, where the first line is 1
+	private String getLineText(Node node) {
+		return (node.line != -1 ? Integer.toString(node.line + 1) : "-");
+	}
+
+	private void appendReport(StringBuffer report, Node node, String indent) {
+		report.append(String.format("%10d %12.3f %12.3f %10d %6s  %s%s\n", new Object[] { Long.valueOf(node.calls),
+				Double.valueOf(node.nanos / 1000000.0D), Double.valueOf(node.getSelfNanos() / 1000000.0D),
+				Long.valueOf(node.getSelfFetches()), getLineText(node), indent, node.label }));
+
+		for (Iterator iterator = node.children.iterator(); iterator.hasNext();)
+			appendReport(report, (Node) iterator.next(), indent + "  ");
+	}
+
+	private void appendFoldedStacks(StringBuffer stacks, Node node, String parentStack) {
+		// Semicolons separate the frames so they can't appear in a label
+		String frame = node.label.replace(';', ',') + " [" + getLineText(node) + "]";
+		String stack = (parentStack.length() > 0 ? parentStack + ";" + frame : frame);
+		long selfMicros = node.getSelfNanos() / 1000;
+
+		if (selfMicros > 0)
+			stacks.append(stack + " " + selfMicros + "\n");
+
+		for (Iterator iterator = node.children.iterator(); iterator.hasNext();)
+			appendFoldedStacks(stacks, (Node) iterator.next(), stack);
+	}
+}
@@ -18,9 +18,7 @@
 
 package nz.org.venice.parser.expression;
 
-import java.util.UUID;
-
-import nz.org.venice.parser.AnalyserGuard;
+import nz.org.venice.parser.EvaluationBudget;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.TypeMismatchException;
@@ -45,9 +43,6 @@ public class ForExpression extends QuaternaryExpression {
 	private final static int LOOP = 2;
 	private final static int COMMAND = 3;
 
-	// Expression identifier - parent hashcode uses class hashcode
-	private UUID id;
-
 	/**
 	 * Construct a <code>for</code> expression.
 	 * 
@@ -64,7 +59,6 @@ public class ForExpression extends QuaternaryExpression {
 	 */
 	public ForExpression(IExpression initial, IExpression condition, IExpression loop, IExpression command) {
 		super(initial, condition, loop, command);
-		id = UUID.randomUUID();
 	}
 
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
@@ -72,37 +66,36 @@ public class ForExpression extends QuaternaryExpression {
 
 		double value = 0.0D;
 
-		UUID loopId = UUID.randomUUID();
+		EvaluationBudget.Meter meter = EvaluationBudget.getMeter();
+		meter.startLoop();
 
-		AnalyserGuard.getInstance().startLoop(this, loopId, symbol, day);
+		try {
+			// Execute the initial
+			getChild(INITIAL).evaluate(variables, quoteBundle, symbol, day);
 
-		// Execute the initial
-		getChild(INITIAL).evaluate(variables, quoteBundle, symbol, day);
+			/*
+			 * Used to be a do while, but because that executes at least once , that
+			 * breaks for loops where the condition is false to begin with
+			 * 
+			 */
+			// Now loop running the command until the condition is no longer true
+			while (getChild(CONDITION).evaluate(variables, quoteBundle, symbol, day) >= IExpression.TRUE_LEVEL) {
 
-		/*
-		 * Used to be a do while, but because that executes at least once , that breaks
-		 * for loops where the condition is false to begin with
-		 * 
-		 */
-		// Now loop running the command until the condition is no longer true
-		while (getChild(CONDITION).evaluate(variables, quoteBundle, symbol, day) >= IExpression.TRUE_LEVEL) {
-
-			// Don't want to run forever - if the limit is exceeded
-			// could be an infinite loop.
-			if (AnalyserGuard.getInstance().evaluationTimeElapsed(this, loopId, symbol, day)) {
-				throw EvaluationException.EVAL_TIME_TOO_LONG_EXCEPTION;
-			}
+				// Don't want to run forever - if the budget is used up
+				// could be an infinite loop.
+				meter.step();
 
-			// Execute command
-			value = getChild(COMMAND).evaluate(variables, quoteBundle, symbol, day);
+				// Execute command
+				value = getChild(COMMAND).evaluate(variables, quoteBundle, symbol, day);
 
-			// Execute loop
-			getChild(LOOP).evaluate(variables, quoteBundle, symbol, day);
+				// Execute loop
+				getChild(LOOP).evaluate(variables, quoteBundle, symbol, day);
 
+			}
+		} finally {
+			meter.finishLoop();
 		}
 
-		AnalyserGuard.getInstance().finishLoop(this, loopId, symbol, day);
-
 		// Return the results of the last command
 		return value;
 	}
@@ -146,4 +139,8 @@ public class ForExpression extends QuaternaryExpression {
 				(IExpression) getChild(2).clone(), (IExpression) getChild(3).clone());
 	}
 
+	// Not pure as this loops using variables
+	protected boolean isPureNode() {
+		return false;
+	}
 }
@@ -126,4 +126,8 @@ public class FunctionExpression extends BinaryExpression {
 				(IExpression) getChild(1).clone());
 	}
 
+	// Not pure as this defines a function
+	protected boolean isPureNode() {
+		return false;
+	}
 }
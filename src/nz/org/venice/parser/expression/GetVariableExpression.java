@@ -34,6 +34,9 @@ public class GetVariableExpression extends TerminalExpression {
 	private String name;
 	private int type;
 
+	// The variable's slot in the variables it was last evaluated with
+	private int slot = 0;
+
 	public GetVariableExpression(String name, int type) {
 		assert name != null && name.length() > 0;
 
@@ -44,11 +47,12 @@ public class GetVariableExpression extends TerminalExpression {
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
 			throws EvaluationException {
 
-		Variable variable = variables.get(name);
+		slot = variables.getSlot(name, slot);
+		Variable variable = variables.get(slot);
 
 		if (variable != null) {
 			assert (variable.getType() == type);
-			return variables.getValue(name);
+			return variable.getValue();
 		} else
 			throw new EvaluationException(Locale.getString("VARIABLE_NOT_DEFINED_ERROR", name));
 	}
@@ -84,4 +88,8 @@ public class GetVariableExpression extends TerminalExpression {
 		return new GetVariableExpression(name, type);
 	}
 
+	// Not pure as this reads a variable
+	protected boolean isPureNode() {
+		return false;
+	}
 }
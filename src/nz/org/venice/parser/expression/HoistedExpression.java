@@ -0,0 +1,94 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser.expression;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.TypeMismatchException;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * A pure subexpression inside a loop that has been hoisted out of the loop by
+ * the {@link ExpressionOptimiser}. It doesn't depend on any variable so it
+ * has the same value every time round the loop, and is only evaluated the
+ * first time for each symbol and day.
+ */
+public class HoistedExpression extends UnaryExpression {
+
+	// The symbol, day and quote bundle of the remembered value
+	private IQuoteBundle quoteBundle = null;
+	private Symbol symbol = null;
+	private int day;
+
+	private double value;
+	private boolean isEvaluated = false;
+
+	/**
+	 * Create a new hoisted subexpression.
+	 *
+	 * @param subexpression the loop invariant subexpression
+	 */
+	public HoistedExpression(IExpression subexpression) {
+		super(subexpression);
+	}
+
+	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
+			throws EvaluationException {
+
+		if (!isEvaluated || quoteBundle != this.quoteBundle || symbol != this.symbol || day != this.day) {
+			// Only remember the value once it has been calculated
+			value = getChild(0).evaluate(variables, quoteBundle, symbol, day);
+
+			this.quoteBundle = quoteBundle;
+			this.symbol = symbol;
+			this.day = day;
+			isEvaluated = true;
+		}
+
+		return value;
+	}
+
+	public String toString() {
+		return getChild(0).toString();
+	}
+
+	public int checkType() throws TypeMismatchException {
+		return getChild(0).checkType();
+	}
+
+	public int getType() {
+		return getChild(0).getType();
+	}
+
+	/**
+	 * Hoisted subexpressions are only created by the optimiser, after
+	 * simplification.
+	 *
+	 * @return this expression
+	 */
+	public IExpression simplify() {
+		return this;
+	}
+
+	public Object clone() {
+		return new HoistedExpression((IExpression) getChild(0).clone());
+	}
+}
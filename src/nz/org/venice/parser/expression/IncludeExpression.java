@@ -67,4 +67,8 @@ public class IncludeExpression extends ClauseExpression {
 		return value;
 	}
 
-}
\ No newline at end of file
+	// Not pure as this includes stored expressions
+	protected boolean isPureNode() {
+		return false;
+	}
+}
@@ -24,6 +24,7 @@ import nz.org.venice.parser.TypeMismatchException;
 import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.QuoteSeriesFunctionSource;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.util.Locale;
 
@@ -53,7 +54,7 @@ public class LagExpression extends BinaryExpression {
 
 		int lag = (int) getChild(1).evaluate(variables, quoteBundle, symbol, day);
 		if (lag > 0) {
-			EvaluationException e = EvaluationException.LAG_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.LAG_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", lag);
 			throw e;
 		}
@@ -61,33 +62,90 @@ public class LagExpression extends BinaryExpression {
 		Symbol explicitSymbol = (quoteChild.getSymbol() != null) ? quoteChild.getSymbol() : symbol;
 		int quoteKind = quoteChild.getQuoteKind();
 
-		try {
-			return quoteBundle.getQuote(explicitSymbol, quoteKind, day, lag);
-		} catch (MissingQuoteException e) {
-			// Used to return but causes hard to track down behaviour in
-			// rules when this occurs.
-			// return 0.0D;
+		return getLagQuote(quoteBundle, symbol, explicitSymbol, quoteKind, day, lag);
+	}
+
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		if (!QuoteSeriesFunctionSource.isSupported(quoteBundle))
+			return evaluateEachDay(variables, quoteBundle, symbol, firstDay, lastDay);
+
+		IQuoteSymbol quoteChild = (IQuoteSymbol) getChild(0);
+
+		double[] lags = evaluateChildSeries(1, variables, quoteBundle, symbol, firstDay, lastDay);
+		long first = firstDay;
+		long last = lastDay;
+
+		for (int i = 0; i < lags.length; i++) {
+			int lag = (int) lags[i];
+			if (lag > 0) {
+				EvaluationException e = EvaluationException.LAG_OFFSET_EXCEPTION.copy();
+				e.setMessage(this, "", lag);
+				throw e;
+			}
+			first = Math.min(first, (long) firstDay + i + lag);
+		}
+
+		if (!QuoteSeriesFunctionSource.isSupported(first, last))
+			return evaluateEachDay(variables, quoteBundle, symbol, firstDay, lastDay);
+
+		Symbol explicitSymbol = (quoteChild.getSymbol() != null) ? quoteChild.getSymbol() : symbol;
+		int quoteKind = quoteChild.getQuoteKind();
 
-			// Instead, return the next available quote, if one exists
-			try {
-				if (day + lag > 0) {
-					String message = Locale.getString("LAG_OFFSET_ERROR") + " offset: " + (day + lag);
-					throw new EvaluationException(message);
-				}
+		QuoteSeriesFunctionSource source = new QuoteSeriesFunctionSource(quoteBundle, explicitSymbol, quoteKind,
+				(int) first, (int) last);
+		double[] values = new double[lags.length];
 
-				double nearQuote = quoteBundle.getNearestQuote(explicitSymbol, quoteKind, day + lag);
-				return nearQuote;
-			} catch (MissingQuoteException e2) {
-				// No suitable quote found.
-				String message = symbol + " : "
-						+ Locale.getString("NO_QUOTES_DATE", quoteBundle.offsetToDate((day + lag)).toString());
+		for (int i = 0; i < values.length; i++) {
+			int day = firstDay + i;
+			int lag = (int) lags[i];
 
+			values[i] = source.getQuote(day + lag);
+
+			// Let the interpreter find the nearest quote or report the error
+			if (Double.isNaN(values[i]))
+				values[i] = getLagQuote(quoteBundle, symbol, explicitSymbol, quoteKind, day, lag);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Return the given quote offset from the current day, falling back to the
+	 * nearest earlier quote.
+	 */
+	public static double getLagQuote(IQuoteBundle quoteBundle, Symbol symbol, Symbol explicitSymbol, int quoteKind,
+			int day, int lag) throws EvaluationException {
+
+		double quote = quoteBundle.findQuote(explicitSymbol, quoteKind, day, lag);
+
+		if (!Double.isNaN(quote))
+			return quote;
+
+		// Used to return but causes hard to track down behaviour in
+		// rules when this occurs.
+		// return 0.0D;
+
+		// Instead, return the next available quote, if one exists
+		try {
+			if (day + lag > 0) {
+				String message = Locale.getString("LAG_OFFSET_ERROR") + " offset: " + (day + lag);
 				throw new EvaluationException(message);
-			} finally {
-				// There's another race here:
-				// paper trade doesn't always catch the exception in the return
-				// return 0.0D;
 			}
+
+			double nearQuote = quoteBundle.getNearestQuote(explicitSymbol, quoteKind, day + lag);
+			return nearQuote;
+		} catch (MissingQuoteException e2) {
+			// No suitable quote found.
+			String message = symbol + " : "
+					+ Locale.getString("NO_QUOTES_DATE", quoteBundle.offsetToDate((day + lag)).toString());
+
+			throw new EvaluationException(message);
+		} finally {
+			// There's another race here:
+			// paper trade doesn't always catch the exception in the return
+			// return 0.0D;
 		}
 	}
 
@@ -44,6 +44,18 @@ public class LessThanExpression extends ComparisionExpression {
 			return FALSE;
 	}
 
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		double[] values = evaluateChildSeries(0, variables, quoteBundle, symbol, firstDay, lastDay);
+		double[] right = evaluateChildSeries(1, variables, quoteBundle, symbol, firstDay, lastDay);
+
+		for (int i = 0; i < values.length; i++)
+			values[i] = (values[i] < right[i]) ? TRUE : FALSE;
+
+		return values;
+	}
+
 	public IExpression simplify() {
 
 		// First perform comparision simplifications
@@ -46,7 +46,7 @@ public class LogarithmExpression extends UnaryExpression {
 		if (number > 0)
 			return (double) Math.log(number);
 		else {
-			EvaluationException e = EvaluationException.LOGARITHM_NEGATIVE_EXCEPTION;
+			EvaluationException e = EvaluationException.LOGARITHM_NEGATIVE_EXCEPTION.copy();
 			e.setMessage(this, "", number);
 			throw e;
 		}
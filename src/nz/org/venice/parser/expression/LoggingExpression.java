@@ -158,4 +158,9 @@ public class LoggingExpression extends UnaryExpression {
 	public Object clone() {
 		return new HaltExpression(getChild(0), optionalArgs);
 	}
+
+	// Not pure as this writes to the log
+	protected boolean isPureNode() {
+		return false;
+	}
 }
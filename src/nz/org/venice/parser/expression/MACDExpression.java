@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -38,6 +39,13 @@ public class MACDExpression extends BinaryExpression {
 	final public static int PERIOD_SLOW = 26;
 	final public static int PERIOD_FAST = 12;
 
+	// Smoothing constant used by QuoteFunctions.macd()
+	private final static double SMOOTHING = 0.1D;
+
+	// Rolling windows of quotes for each symbol, for each average
+	private RollingWindowCache slowWindows = new RollingWindowCache();
+	private RollingWindowCache fastWindows = new RollingWindowCache();
+
 	/**
 	 * Create a new Moving Average Convergence Divergence expression for the given
 	 * <code>quote</code> kind, starting with <code>lag</code> days away. The
@@ -60,16 +68,23 @@ public class MACDExpression extends BinaryExpression {
 		Symbol explicitSymbol = (quoteChild.getSymbol() != null) ? quoteChild.getSymbol() : symbol;
 		int offset = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.MACD_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.MACD_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow windowSlow = slowWindows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset,
+				PERIOD_SLOW, false, SMOOTHING);
+		RollingWindow windowFast = fastWindows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset,
+				PERIOD_FAST, false, SMOOTHING);
+		if (windowSlow != null && windowFast != null)
+			return windowSlow.getExponentialAverage() - windowFast.getExponentialAverage();
+
 		// Calculate and return the MACD.
-		QuoteBundleFunctionSource sourceSlow = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind,
-				day, offset, PERIOD_SLOW);
-		QuoteBundleFunctionSource sourceFast = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind,
-				day, offset, PERIOD_FAST);
+		QuoteBundleFunctionSource sourceSlow = QuoteBundleFunctionSource.getView(0, quoteBundle, explicitSymbol,
+				quoteKind, day, offset, PERIOD_SLOW);
+		QuoteBundleFunctionSource sourceFast = QuoteBundleFunctionSource.getView(1, quoteBundle, explicitSymbol,
+				quoteKind, day, offset, PERIOD_FAST);
 
 		return QuoteFunctions.macd(sourceSlow, sourceFast);
 	}
@@ -22,8 +22,8 @@ import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.TypeMismatchException;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -33,6 +33,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class MaxExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new maximum expression for the given <code>quote</code> kind, for
 	 * the given number of <code>days</code> starting with <code>lag</code> days
@@ -56,18 +59,27 @@ public class MaxExpression extends TernaryExpression {
 		int quoteKind = quoteChild.getQuoteKind();
 
 		if (days <= 0) {
-			EvaluationException e = EvaluationException.MAX_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.MAX_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", days);
 			throw e;
 		}
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.MAX_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.MAX_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, days, true);
+		if (window != null) {
+			if (window.getCount() == 0)
+				throw EvaluationException.UNDEFINED_RESULT_EXCEPTION;
+
+			// The same starting value as max()
+			return Math.max(window.getMaximum(), Double.MIN_VALUE);
+		}
+
 		return max(quoteBundle, explicitSymbol, quoteKind, days, day, offset);
 	}
 
@@ -102,7 +114,10 @@ public class MaxExpression extends TernaryExpression {
 		}
 	}
 
-	private double max(IQuoteBundle quoteBundle, Symbol symbol, int quote, int days, int day, int offset)
+	/**
+	 * Find the highest value of the given quote over a range of days.
+	 */
+	public static double max(IQuoteBundle quoteBundle, Symbol symbol, int quote, int days, int day, int offset)
 			throws EvaluationException {
 
 		// double max = 0.0D;
@@ -111,17 +126,16 @@ public class MaxExpression extends TernaryExpression {
 		boolean missingQuotes = false;
 
 		for (int i = offset - days + 1; i <= offset; i++) {
-			try {
-				double value = quoteBundle.getQuote(symbol, quote, day, i);
+			double value = quoteBundle.findQuote(symbol, quote, day, i);
+
+			if (!Double.isNaN(value)) {
 				if (value > max) {
 					max = value;
 				}
 
 				setValue = true;
-			} catch (MissingQuoteException e) {
+			} else
 				missingQuotes = true;
-				// nothing to do
-			}
 		}
 		/*
 		 * Returning Double.MIN_VALUE here causes offset to overflow when the parent is
@@ -0,0 +1,94 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser.expression;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.TypeMismatchException;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * A subexpression whose results are remembered by an {@link ExpressionMemo}.
+ * Every copy of the same subexpression in the rules given to the memo is
+ * replaced by one of these, and they all evaluate the first copy, so the
+ * subexpression is only evaluated once for each symbol and day.
+ *
+ * @see ExpressionMemo
+ */
+public class MemoExpression extends UnaryExpression {
+
+	// The memo holding the results
+	private ExpressionMemo memo;
+
+	// The memo's identifier for the subexpression
+	private int id;
+
+	// The copy of the subexpression that is evaluated
+	private IExpression target;
+
+	/**
+	 * Create a new memoised subexpression.
+	 *
+	 * @param memo          the memo holding the results
+	 * @param id            the memo's identifier for the subexpression
+	 * @param target        the copy of the subexpression that is evaluated
+	 * @param subexpression this copy of the subexpression
+	 */
+	MemoExpression(ExpressionMemo memo, int id, IExpression target, IExpression subexpression) {
+		super(subexpression);
+
+		this.memo = memo;
+		this.id = id;
+		this.target = target;
+	}
+
+	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
+			throws EvaluationException {
+
+		return memo.evaluate(id, target, variables, quoteBundle, symbol, day);
+	}
+
+	public String toString() {
+		return getChild(0).toString();
+	}
+
+	public int checkType() throws TypeMismatchException {
+		return getChild(0).checkType();
+	}
+
+	public int getType() {
+		return getChild(0).getType();
+	}
+
+	/**
+	 * Memoised subexpressions are only created after simplification, so there is
+	 * nothing more to do.
+	 *
+	 * @return this expression
+	 */
+	public IExpression simplify() {
+		return this;
+	}
+
+	public Object clone() {
+		return new MemoExpression(memo, id, target, (IExpression) getChild(0).clone());
+	}
+}
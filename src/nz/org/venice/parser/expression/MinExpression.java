@@ -22,8 +22,8 @@ import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.TypeMismatchException;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -33,6 +33,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class MinExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new minimum expression for the given <code>quote</code> kind, for
 	 * the given number of <code>days</code> starting with <code>lag</code> days
@@ -54,18 +57,27 @@ public class MinExpression extends TernaryExpression {
 
 		int days = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (days <= 0) {
-			EvaluationException e = EvaluationException.MIN_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.MIN_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", days);
 			throw e;
 		}
 		int quoteKind = quoteChild.getQuoteKind();
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.MIN_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.MIN_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, days, true);
+		if (window != null) {
+			if (window.getCount() == 0)
+				throw EvaluationException.UNDEFINED_RESULT_EXCEPTION;
+
+			// The same starting value as min()
+			return Math.min(window.getMinimum(), Double.MAX_VALUE);
+		}
+
 		return min(quoteBundle, explicitSymbol, quoteKind, days, day, offset);
 	}
 
@@ -101,7 +113,10 @@ public class MinExpression extends TernaryExpression {
 		}
 	}
 
-	private double min(IQuoteBundle quoteBundle, Symbol symbol, int quote, int days, int day, int offset)
+	/**
+	 * Find the lowest value of the given quote over a range of days.
+	 */
+	public static double min(IQuoteBundle quoteBundle, Symbol symbol, int quote, int days, int day, int offset)
 			throws EvaluationException {
 
 		double min = Double.MAX_VALUE;
@@ -109,17 +124,15 @@ public class MinExpression extends TernaryExpression {
 		boolean missingQuotes = false;
 
 		for (int i = offset - days + 1; i <= offset; i++) {
-			try {
-				double value = quoteBundle.getQuote(symbol, quote, day, i);
+			double value = quoteBundle.findQuote(symbol, quote, day, i);
 
+			if (!Double.isNaN(value)) {
 				if (value < min)
 					min = value;
 
 				setValue = true;
-			} catch (MissingQuoteException e) {
+			} else
 				missingQuotes = true;
-				// nothing to do
-			}
 		}
 
 		/*
@@ -57,20 +57,20 @@ public class MomentumExpression extends TernaryExpression {
 		Symbol explicitSymbol = (quoteChild.getSymbol() != null) ? quoteChild.getSymbol() : symbol;
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.MOMENTUM_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.MOMENTUM_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.MOMENTUM_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.MOMENTUM_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
 		// Calculate and return the momentum.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind, day,
-				offset, period);
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, explicitSymbol, quoteKind,
+				day, offset, period);
 
 		return QuoteFunctions.momentum(source, period);
 	}
@@ -40,6 +40,18 @@ public class MultiplyExpression extends ArithmeticExpression {
 				* getChild(1).evaluate(variables, quoteBundle, symbol, day);
 	}
 
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		double[] values = evaluateChildSeries(0, variables, quoteBundle, symbol, firstDay, lastDay);
+		double[] right = evaluateChildSeries(1, variables, quoteBundle, symbol, firstDay, lastDay);
+
+		for (int i = 0; i < values.length; i++)
+			values[i] *= right[i];
+
+		return values;
+	}
+
 	public IExpression simplify() {
 		// First perform arithmetic simplifications
 		IExpression simplified = super.simplify();
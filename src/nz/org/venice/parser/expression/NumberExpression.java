@@ -20,6 +20,7 @@ package nz.org.venice.parser.expression;
 
 import java.text.NumberFormat;
 
+import java.util.Arrays;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
@@ -70,6 +71,13 @@ public class NumberExpression extends TerminalExpression {
 		return value;
 	}
 
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) {
+		double[] values = new double[lastDay - firstDay + 1];
+		Arrays.fill(values, value);
+		return values;
+	}
+
 	public static String toString(int type, double value) {
 		switch (type) {
 		case BOOLEAN_TYPE:
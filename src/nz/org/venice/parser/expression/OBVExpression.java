@@ -26,6 +26,7 @@ import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -36,6 +37,26 @@ import nz.org.venice.quote.Symbol;
  */
 public class OBVExpression extends TernaryExpression {
 
+	// Rolling windows of the volume each day adds to or takes away from
+	// the OBV, for each symbol
+	private RollingWindowCache windows = new RollingWindowCache() {
+		protected double getValue(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int day) {
+			double open = quoteBundle.findQuote(symbol, IQuote.DAY_OPEN, day);
+			double close = quoteBundle.findQuote(symbol, IQuote.DAY_CLOSE, day);
+			double volume = quoteBundle.findQuote(symbol, IQuote.DAY_VOLUME, day);
+
+			// Days with missing quotes don't change the OBV
+			if (Double.isNaN(open) || Double.isNaN(close) || Double.isNaN(volume))
+				return 0.0D;
+			else if (close > open)
+				return (int) volume;
+			else if (close < open)
+				return -(int) volume;
+			else
+				return 0.0D;
+		}
+	};
+
 	/**
 	 * Create a new On Balance Volume (OBV) expression for the given
 	 * <code>quote</code> kind, for the given number of <code>days</code>, starting
@@ -55,26 +76,30 @@ public class OBVExpression extends TernaryExpression {
 		// Extract arguments
 		int period = (int) getChild(0).evaluate(variables, quoteBundle, symbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.OBV_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.OBV_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 
 		}
 		int offset = (int) getChild(1).evaluate(variables, quoteBundle, symbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.OBV_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.OBV_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 		int initialValue = (int) getChild(2).evaluate(variables, quoteBundle, symbol, day);
 
+		RollingWindow window = windows.getWindow(quoteBundle, symbol, IQuote.DAY_VOLUME, day + offset, period, false);
+		if (window != null)
+			return (int) (initialValue + (long) window.getSum());
+
 		// Calculate and return the OBV.
-		QuoteBundleFunctionSource sourceOpen = new QuoteBundleFunctionSource(quoteBundle, symbol, IQuote.DAY_OPEN, day,
-				offset, period);
-		QuoteBundleFunctionSource sourceClose = new QuoteBundleFunctionSource(quoteBundle, symbol, IQuote.DAY_CLOSE, day,
-				offset, period);
-		QuoteBundleFunctionSource sourceVolume = new QuoteBundleFunctionSource(quoteBundle, symbol, IQuote.DAY_VOLUME,
-				day, offset, period);
+		QuoteBundleFunctionSource sourceOpen = QuoteBundleFunctionSource.getView(0, quoteBundle, symbol,
+				IQuote.DAY_OPEN, day, offset, period);
+		QuoteBundleFunctionSource sourceClose = QuoteBundleFunctionSource.getView(1, quoteBundle, symbol,
+				IQuote.DAY_CLOSE, day, offset, period);
+		QuoteBundleFunctionSource sourceVolume = QuoteBundleFunctionSource.getView(2, quoteBundle, symbol,
+				IQuote.DAY_VOLUME, day, offset, period);
 
 		return QuoteFunctions.obv(sourceOpen, sourceClose, sourceVolume, period, initialValue);
 	}
@@ -0,0 +1,112 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser.expression;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.TypeMismatchException;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * A subexpression being profiled by an {@link ExpressionProfiler}. Each time
+ * the subexpression is evaluated the call, the time taken and the number of
+ * quotes fetched are added to its entry in the profile. The times include
+ * the subexpression's children.
+ *
+ * @see ExpressionProfiler
+ */
+public class ProfiledExpression extends UnaryExpression {
+
+	// The subexpression's entry in the profile
+	private ExpressionProfiler.Node node;
+
+	/**
+	 * Create a new profiled subexpression.
+	 *
+	 * @param node          the subexpression's entry in the profile
+	 * @param subexpression the subexpression to profile
+	 */
+	ProfiledExpression(ExpressionProfiler.Node node, IExpression subexpression) {
+		super(subexpression);
+
+		this.node = node;
+	}
+
+	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
+			throws EvaluationException {
+
+		long fetches = EODQuoteBundle.getFetchCount();
+		long startTime = System.nanoTime();
+
+		try {
+			return getChild(0).evaluate(variables, quoteBundle, symbol, day);
+		} finally {
+			node.add(1, System.nanoTime() - startTime, EODQuoteBundle.getFetchCount() - fetches);
+		}
+	}
+
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol,
+			int firstDay, int lastDay) throws EvaluationException {
+
+		long fetches = EODQuoteBundle.getFetchCount();
+		long startTime = System.nanoTime();
+
+		try {
+			return evaluateChildSeries(0, variables, quoteBundle, symbol, firstDay, lastDay);
+		} finally {
+			node.add(lastDay - firstDay + 1, System.nanoTime() - startTime,
+					EODQuoteBundle.getFetchCount() - fetches);
+		}
+	}
+
+	public String toString() {
+		return getChild(0).toString();
+	}
+
+	public int checkType() throws TypeMismatchException {
+		return getChild(0).checkType();
+	}
+
+	public int getType() {
+		return getChild(0).getType();
+	}
+
+	/**
+	 * Profiled subexpressions are only created once the rules are ready to run,
+	 * so there is nothing more to do.
+	 *
+	 * @return this expression
+	 */
+	public IExpression simplify() {
+		return this;
+	}
+
+	/**
+	 * Return a copy of this subexpression. The copy adds to the same entry in
+	 * the profile.
+	 *
+	 * @return the copy
+	 */
+	public Object clone() {
+		return new ProfiledExpression(node, (IExpression) getChild(0).clone());
+	}
+}
@@ -20,9 +20,9 @@ package nz.org.venice.parser.expression;
 
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.QuoteSeriesFunctionSource;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.util.Locale;
 
@@ -81,9 +81,42 @@ public class QuoteExpression extends TerminalExpression implements IQuoteSymbol
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
 			throws EvaluationException {
 
-		try {
-			return quoteBundle.getQuote(symbol, getQuoteKind(), day, 0);
-		} catch (MissingQuoteException e) {
+		return getQuote(quoteBundle, symbol, getQuoteKind(), day);
+	}
+
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		if (!QuoteSeriesFunctionSource.isSupported(quoteBundle))
+			return evaluateEachDay(variables, quoteBundle, symbol, firstDay, lastDay);
+
+		QuoteSeriesFunctionSource source = new QuoteSeriesFunctionSource(quoteBundle, symbol, quoteKind, firstDay,
+				lastDay);
+		double[] values = new double[lastDay - firstDay + 1];
+
+		for (int day = firstDay; day <= lastDay; day++) {
+			double value = source.getQuote(day);
+
+			// Missing quotes are reported in the same way as evaluate()
+			if (Double.isNaN(value))
+				value = getQuote(quoteBundle, symbol, quoteKind, day);
+
+			values[day - firstDay] = value;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Return the given quote for the current day. Compiled expressions call
+	 * this so that missing quotes are reported the same way.
+	 */
+	public static double getQuote(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int day)
+			throws EvaluationException {
+
+		double quote = quoteBundle.findQuote(symbol, quoteKind, day, 0);
+
+		if (Double.isNaN(quote)) {
 			// What should I do in this case?
 			String message = symbol + " : "
 					+ Locale.getString("NO_QUOTES_DATE", quoteBundle.offsetToDate(day).toString());
@@ -91,6 +124,8 @@ public class QuoteExpression extends TerminalExpression implements IQuoteSymbol
 			throw new EvaluationException(message);
 			// return 0.0D;
 		}
+
+		return quote;
 	}
 
 	public String toString() {
@@ -109,6 +144,21 @@ public class QuoteExpression extends TerminalExpression implements IQuoteSymbol
 		}
 	}
 
+	public boolean equals(Object object) {
+		if (object instanceof QuoteExpression) {
+			QuoteExpression expression = (QuoteExpression) object;
+
+			if (expression.getQuoteKind() == getQuoteKind())
+				return true;
+		}
+
+		return false;
+	}
+
+	public int hashCode() {
+		return (37 * getQuoteKind()) ^ QuoteExpression.class.hashCode();
+	}
+
 	public Object clone() {
 		return new QuoteExpression(quoteKind);
 	}
@@ -21,7 +21,6 @@ package nz.org.venice.parser.expression;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.Symbol;
@@ -100,11 +99,10 @@ public class QuoteSymbolExpression extends UnaryExpression implements IQuoteSymb
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
 			throws EvaluationException {
 
-		try {
-			Symbol explicitSymbol = getSymbol();
+		Symbol explicitSymbol = getSymbol();
+		double quote = quoteBundle.findQuote(explicitSymbol, getQuoteKind(), day, 0);
 
-			return quoteBundle.getQuote(explicitSymbol, getQuoteKind(), day, 0);
-		} catch (MissingQuoteException e) {
+		if (Double.isNaN(quote)) {
 			// What should I do in this case?
 			String message = symbol + " : "
 					+ Locale.getString("NO_QUOTES_DATE", quoteBundle.offsetToDate(day).toString());
@@ -112,6 +110,8 @@ public class QuoteSymbolExpression extends UnaryExpression implements IQuoteSymb
 			throw new EvaluationException(message);
 			// return 0.0D;
 		}
+
+		return quote;
 	}
 
 	public String toString() {
@@ -130,6 +130,21 @@ public class QuoteSymbolExpression extends UnaryExpression implements IQuoteSymb
 		}
 	}
 
+	public boolean equals(Object object) {
+		if (object instanceof QuoteSymbolExpression) {
+			QuoteSymbolExpression expression = (QuoteSymbolExpression) object;
+
+			if (expression.getQuoteKind() == getQuoteKind())
+				return super.equals(object);
+		}
+
+		return false;
+	}
+
+	public int hashCode() {
+		return super.hashCode() ^ (37 * getQuoteKind());
+	}
+
 	public Object clone() {
 		return new QuoteSymbolExpression(quoteKind, (IExpression) getChild(0).clone());
 	}
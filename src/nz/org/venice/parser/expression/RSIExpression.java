@@ -26,11 +26,20 @@ import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
-import nz.org.venice.quote.QuoteFunctions.RSIData;
+import nz.org.venice.quote.QuoteSeriesFunctionSource;
 import nz.org.venice.quote.Symbol;
 
 /**
  * An expression which finds the RSI over a given trading period.
+ * <p>
+ * <code>rsi(n, offset)</code> uses the <code>n - 1</code> closes up to the day
+ * before the offset, so it is the RSI of period <code>n - 2</code> that
+ * {@link nz.org.venice.chart.graph.RSIGraph} charts on that day. The smoothed
+ * RSI differs from the chart's: an expression can't carry its averages from one
+ * day to the next, so it seeds them from the first half of its window and
+ * smooths them over the rest, whereas the chart chains them from the start of
+ * the graph. See
+ * {@link QuoteFunctions#smoothRSI(nz.org.venice.quote.IQuoteFunctionSource, int)}.
  *
  * @author Andrew Leppard
  */
@@ -46,13 +55,13 @@ public class RSIExpression extends TernaryExpression {
 		// Extract arguments
 		int period = (int) getChild(0).evaluate(variables, quoteBundle, symbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.RSI_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.RSI_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
 		int offset = (int) getChild(1).evaluate(variables, quoteBundle, symbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.RSI_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.RSI_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
@@ -64,32 +73,85 @@ public class RSIExpression extends TernaryExpression {
 		// offset
 		// and increase the period by one day, as the RSI calculation needs an extra day
 		// over the period.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, symbol, IQuote.DAY_CLOSE, day,
-				offset - 1, period - 1);
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, symbol, IQuote.DAY_CLOSE,
+				day, offset - 1, period - 1);
 		double rv;
-		// FIXME - Currently there's no mechanism for a Gondola expression
-		// in analysis mode to access the results of a previous evaluation
-		// So the smoothed RSI will return the same values as "vanilla" RSI
 		if (smoothed) {
-			// Null paremeter is a placeholder for the results of a previous
-			// RSISmooth call. Since this the first, there isn't one
-			RSIData data = QuoteFunctions.smoothRSI(source, period - 1, null);
-			rv = data.rsi;
+			rv = QuoteFunctions.smoothRSI(source, period - 1);
 		} else {
 			rv = QuoteFunctions.rsi(source, period - 1);
 		}
 		return rv;
 	}
 
+	protected double[] evaluatePureSeries(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int firstDay,
+			int lastDay) throws EvaluationException {
+
+		if (!QuoteSeriesFunctionSource.isSupported(quoteBundle))
+			return evaluateEachDay(variables, quoteBundle, symbol, firstDay, lastDay);
+
+		// Extract and check the arguments for each day
+		double[] periods = evaluateChildSeries(0, variables, quoteBundle, symbol, firstDay, lastDay);
+		double[] offsets = evaluateChildSeries(1, variables, quoteBundle, symbol, firstDay, lastDay);
+		double[] smoothFlags = evaluateChildSeries(2, variables, quoteBundle, symbol, firstDay, lastDay);
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+
+		for (int i = 0; i < periods.length; i++) {
+			long day = firstDay + i;
+			int period = (int) periods[i];
+			if (period <= 0) {
+				EvaluationException e = EvaluationException.RSI_RANGE_EXCEPTION.copy();
+				e.setMessage(this, "", period);
+				throw e;
+			}
+			int offset = (int) offsets[i];
+			if (offset > 0) {
+				EvaluationException e = EvaluationException.RSI_OFFSET_EXCEPTION.copy();
+				e.setMessage(this, "", offset);
+				throw e;
+			}
+			first = Math.min(first, day + offset - period + 1);
+			last = Math.max(last, day + offset - 1);
+		}
+
+		if (!QuoteSeriesFunctionSource.isSupported(first, last))
+			return evaluateEachDay(variables, quoteBundle, symbol, firstDay, lastDay);
+
+		// The RSI needs an extra day over the period, as in evaluate()
+		QuoteSeriesFunctionSource source = new QuoteSeriesFunctionSource(quoteBundle, symbol, IQuote.DAY_CLOSE,
+				(int) first, (int) last);
+		double[] values = new double[periods.length];
+
+		for (int i = 0; i < values.length; i++) {
+			int day = firstDay + i;
+			int period = (int) periods[i];
+			int offset = (int) offsets[i];
+
+			source.setWindow(day + offset - 1, period - 1);
+
+			if ((int) smoothFlags[i] == 1)
+				values[i] = QuoteFunctions.smoothRSI(source, period - 1);
+			else
+				values[i] = QuoteFunctions.rsi(source, period - 1);
+		}
+
+		return values;
+	}
+
 	public String toString() {
 		IExpression periodExpression = getChild(0);
 		IExpression lagExpression = getChild(1);
+		IExpression smoothedExpression = getChild(2);
 
 		String periodExpressionString = (periodExpression != null) ? periodExpression.toString() : "(null)";
 
 		String lagExpressionString = (lagExpression != null) ? lagExpression.toString() : "(null)";
 
-		return new String("rsi(" + periodExpressionString + ", " + lagExpressionString + ")");
+		String smoothedExpressionString = (smoothedExpression != null) ? smoothedExpression.toString() : "(null)";
+
+		return new String(
+				"rsi(" + periodExpressionString + ", " + lagExpressionString + ", " + smoothedExpressionString + ")");
 	}
 
 	public int checkType() throws TypeMismatchException {
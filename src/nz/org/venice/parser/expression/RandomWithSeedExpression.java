@@ -94,4 +94,9 @@ public class RandomWithSeedExpression extends UnaryExpression {
 	public Object clone() {
 		return new RandomWithSeedExpression(getChild(0));
 	}
+
+	// Not pure as this returns random numbers
+	protected boolean isPureNode() {
+		return false;
+	}
 }
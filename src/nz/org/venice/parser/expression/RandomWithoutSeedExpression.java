@@ -71,4 +71,9 @@ public class RandomWithoutSeedExpression extends TerminalExpression {
 	public Object clone() {
 		return new RandomWithoutSeedExpression();
 	}
+
+	// Not pure as this returns random numbers
+	protected boolean isPureNode() {
+		return false;
+	}
 }
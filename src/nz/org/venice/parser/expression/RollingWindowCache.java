@@ -0,0 +1,204 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser.expression;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.QuoteSeriesFunctionSource;
+import nz.org.venice.quote.RollingCorrelation;
+import nz.org.venice.quote.RollingWindow;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * The rolling windows of quotes used by a quote function expression, one for
+ * each symbol it has been evaluated for. When the expression is evaluated on
+ * consecutive days for the same symbol, as it is when a rule is run over a range
+ * of dates, the window from the previous day only needs the new day's quote
+ * added to it. Any other access reloads the whole window.
+ * <p>
+ * Expressions are only evaluated by one thread at a time, so this class is not
+ * synchronized.
+ *
+ * @see RollingWindow
+ */
+class RollingWindowCache {
+
+	// The window for a single symbol
+	private static class Entry {
+		int quoteKind;
+		int lastDay;
+		RollingWindow window;
+		RollingCorrelation correlation;
+	}
+
+	// The quote bundle the windows were read from
+	private IQuoteBundle quoteBundle = null;
+
+	// Map of symbols to entries
+	private Map entries = new HashMap();
+
+	/**
+	 * Return a window of quotes ending on the given day. Missing quotes are
+	 * added to the window as <code>NaN</code>.
+	 *
+	 * @param quoteBundle the quote bundle to read quotes from
+	 * @param symbol      the symbol of the quotes
+	 * @param quoteKind   the quote kind
+	 * @param lastDay     the last day in the window
+	 * @param period      the number of days in the window
+	 * @param extremes    whether the minimum and maximum will be needed
+	 * @return the window or <code>null</code> if a rolling window can't be
+	 *         used for this quote bundle or period
+	 */
+	public RollingWindow getWindow(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int lastDay, int period,
+			boolean extremes) {
+
+		return getWindow(quoteBundle, symbol, quoteKind, lastDay, period, extremes, Double.NaN);
+	}
+
+	/**
+	 * Return a window of quotes ending on the given day which keeps an
+	 * exponential moving average.
+	 *
+	 * @param quoteBundle the quote bundle to read quotes from
+	 * @param symbol      the symbol of the quotes
+	 * @param quoteKind   the quote kind
+	 * @param lastDay     the last day in the window
+	 * @param period      the number of days in the window
+	 * @param extremes    whether the minimum and maximum will be needed
+	 * @param smoothing   the smoothing constant of the exponential moving
+	 *                    average, or <code>NaN</code> if it isn't needed
+	 * @return the window or <code>null</code> if a rolling window can't be
+	 *         used for this quote bundle or period
+	 */
+	public RollingWindow getWindow(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int lastDay, int period,
+			boolean extremes, double smoothing) {
+
+		Entry entry = getEntry(quoteBundle, symbol, period);
+		if (entry == null)
+			return null;
+
+		RollingWindow window = entry.window;
+		int day = lastDay - period + 1;
+
+		if (window == null || window.getPeriod() != period || entry.quoteKind != quoteKind
+				|| (extremes && !window.hasExtremes()) || Double.compare(window.getSmoothing(), smoothing) != 0) {
+			window = new RollingWindow(period, extremes, smoothing);
+			entry.window = window;
+			entry.quoteKind = quoteKind;
+		} else if (isFollowing(entry, lastDay, period)) {
+			// Keep the days already in the window
+			day = entry.lastDay + 1;
+		} else
+			window.clear();
+
+		for (; day <= lastDay; day++)
+			window.add(getValue(quoteBundle, symbol, quoteKind, day));
+
+		entry.lastDay = lastDay;
+		return window;
+	}
+
+	/**
+	 * Return a window of quotes for two symbols ending on the given day, for
+	 * calculating their correlation. The correlated symbol must be the same
+	 * every time this is called.
+	 *
+	 * @param quoteBundle      the quote bundle to read quotes from
+	 * @param symbol           the symbol of the first series of quotes
+	 * @param correlatedSymbol the symbol of the second series of quotes
+	 * @param quoteKind        the quote kind
+	 * @param lastDay          the last day in the window
+	 * @param period           the number of days in the window
+	 * @return the correlation window or <code>null</code> if a rolling window
+	 *         can't be used for this quote bundle or period
+	 */
+	public RollingCorrelation getCorrelation(IQuoteBundle quoteBundle, Symbol symbol, Symbol correlatedSymbol,
+			int quoteKind, int lastDay, int period) {
+
+		Entry entry = getEntry(quoteBundle, symbol, period);
+		if (entry == null)
+			return null;
+
+		RollingCorrelation correlation = entry.correlation;
+		int day = lastDay - period + 1;
+
+		if (correlation == null || correlation.getPeriod() != period || entry.quoteKind != quoteKind) {
+			correlation = new RollingCorrelation(period);
+			entry.correlation = correlation;
+			entry.quoteKind = quoteKind;
+		} else if (isFollowing(entry, lastDay, period))
+			day = entry.lastDay + 1;
+		else
+			correlation.clear();
+
+		for (; day <= lastDay; day++)
+			correlation.add(getValue(quoteBundle, symbol, quoteKind, day),
+					getValue(quoteBundle, correlatedSymbol, quoteKind, day));
+
+		entry.lastDay = lastDay;
+		return correlation;
+	}
+
+	// Return the entry for the given symbol, or null if rolling windows
+	// can't be used.
+	private Entry getEntry(IQuoteBundle quoteBundle, Symbol symbol, int period) {
+		if (period <= 0 || period > QuoteSeriesFunctionSource.MAXIMUM_DAYS
+				|| !QuoteSeriesFunctionSource.isSupported(quoteBundle))
+			return null;
+
+		// Windows from another quote bundle are no use to us
+		if (quoteBundle != this.quoteBundle) {
+			entries.clear();
+			this.quoteBundle = quoteBundle;
+		}
+
+		Entry entry = (Entry) entries.get(symbol);
+
+		if (entry == null) {
+			entry = new Entry();
+			entries.put(symbol, entry);
+		}
+
+		return entry;
+	}
+
+	// Return whether the window ending on the given day overlaps the one
+	// ending on the last day of the entry, and doesn't go back in time.
+	private boolean isFollowing(Entry entry, int lastDay, int period) {
+		return lastDay >= entry.lastDay && (long) lastDay - entry.lastDay < period;
+	}
+
+	/**
+	 * Return the value to add to a window for the given day. This is the quote,
+	 * or <code>NaN</code> if it is missing. Expressions which keep windows of
+	 * values calculated from several quotes override this.
+	 *
+	 * @param quoteBundle the quote bundle to read quotes from
+	 * @param symbol      the symbol of the quotes
+	 * @param quoteKind   the quote kind
+	 * @param day         the day of the value
+	 * @return the value
+	 */
+	protected double getValue(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int day) {
+		return quoteBundle.findQuote(symbol, quoteKind, day);
+	}
+}
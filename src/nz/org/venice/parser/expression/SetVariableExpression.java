@@ -36,6 +36,9 @@ public class SetVariableExpression extends UnaryExpression {
 	private String name;
 	private int type;
 
+	// The variable's slot in the variables it was last evaluated with
+	private int slot = 0;
+
 	public SetVariableExpression(String name, int type, IExpression value) {
 		super(value);
 
@@ -48,7 +51,8 @@ public class SetVariableExpression extends UnaryExpression {
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
 			throws EvaluationException {
 
-		Variable variable = variables.get(name);
+		slot = variables.getSlot(name, slot);
+		Variable variable = variables.get(slot);
 
 		if (variable != null) {
 			if (!variable.isConstant()) {
@@ -105,4 +109,8 @@ public class SetVariableExpression extends UnaryExpression {
 		return new SetVariableExpression(name, type, (IExpression) getChild(0).clone());
 	}
 
+	// Not pure as this changes a variable
+	protected boolean isPureNode() {
+		return false;
+	}
 }
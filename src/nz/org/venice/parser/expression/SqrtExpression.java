@@ -44,7 +44,7 @@ public class SqrtExpression extends UnaryExpression {
 		if (number >= 0)
 			return (double) Math.sqrt(number);
 		else {
-			EvaluationException e = EvaluationException.SQUARE_ROOT_NEGATIVE_EXCEPTION;
+			EvaluationException e = EvaluationException.SQUARE_ROOT_NEGATIVE_EXCEPTION.copy();
 			e.setMessage(this, "", number);
 
 			throw e;
@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -35,6 +36,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class StandardDeviationExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new standard deviation expression for the given <code>quote</code>
 	 * kind, for the given number of <code>days</code> starting with
@@ -57,7 +61,7 @@ public class StandardDeviationExpression extends TernaryExpression {
 		// Extract arguments
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.SD_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.SD_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 
@@ -65,13 +69,26 @@ public class StandardDeviationExpression extends TernaryExpression {
 		int quoteKind = quoteChild.getQuoteKind();
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.SD_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.SD_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, period, false);
+		if (window != null)
+			return window.getStandardDeviation();
+
+		return sd(quoteBundle, explicitSymbol, quoteKind, period, day, offset);
+	}
+
+	/**
+	 * Calculate the standard deviation of the given quote over a range of days.
+	 */
+	public static double sd(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int period, int day, int offset)
+			throws EvaluationException {
+
 		// Calculate and return the standard deviation.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind, day,
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, symbol, quoteKind, day,
 				offset, period);
 
 		return QuoteFunctions.sd(source, period);
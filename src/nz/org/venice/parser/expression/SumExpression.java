@@ -23,8 +23,8 @@ import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.TypeMismatchException;
 import nz.org.venice.parser.Variables;
-import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -34,6 +34,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class SumExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new sum expression for the given <code>quote</code> kind, for the
 	 * given number of <code>days</code> starting with <code>lag</code> days away.
@@ -54,18 +57,22 @@ public class SumExpression extends TernaryExpression {
 
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (period <= 0) {
-			EvaluationException e = EvaluationException.SUM_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.SUM_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
 		int quoteKind = quoteChild.getQuoteKind();
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.SUM_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.SUM_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, period, false);
+		if (window != null)
+			return window.getSum();
+
 		return sum(quoteBundle, explicitSymbol, quoteKind, period, day, offset);
 
 	}
@@ -102,19 +109,20 @@ public class SumExpression extends TernaryExpression {
 		}
 	}
 
-	private double sum(IQuoteBundle quoteBundle, Symbol symbol, int quote, int period, int day, int offset)
+	/**
+	 * Sum the given quote over a range of days.
+	 */
+	public static double sum(IQuoteBundle quoteBundle, Symbol symbol, int quote, int period, int day, int offset)
 			throws EvaluationException {
 
 		double sum = 0.0D;
 
 		// Sum quotes
 		for (int i = offset - period + 1; i <= offset; i++) {
-			try {
-				sum += quoteBundle.getQuote(symbol, quote, day, i);
+			double value = quoteBundle.findQuote(symbol, quote, day, i);
 
-			} catch (MissingQuoteException e) {
-				// nothing to do
-			}
+			if (!Double.isNaN(value))
+				sum += value;
 		}
 
 		return sum;
@@ -25,6 +25,7 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.quote.IQuoteBundle;
 import nz.org.venice.quote.QuoteBundleFunctionSource;
 import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RollingWindow;
 import nz.org.venice.quote.Symbol;
 
 /**
@@ -35,6 +36,9 @@ import nz.org.venice.quote.Symbol;
  */
 public class TrendExpression extends TernaryExpression {
 
+	// Rolling windows of quotes for each symbol
+	private RollingWindowCache windows = new RollingWindowCache();
+
 	/**
 	 * Create a new trend expression for the given <code>quote</code> kind, for the
 	 * given number of <code>days</code>, starting with <code>lag</code> days away,
@@ -60,7 +64,7 @@ public class TrendExpression extends TernaryExpression {
 		int period = (int) getChild(1).evaluate(variables, quoteBundle, explicitSymbol, day);
 
 		if (period < 0) {
-			EvaluationException e = EvaluationException.AVG_RANGE_EXCEPTION;
+			EvaluationException e = EvaluationException.AVG_RANGE_EXCEPTION.copy();
 			e.setMessage(this, "", period);
 			throw e;
 		}
@@ -68,14 +72,18 @@ public class TrendExpression extends TernaryExpression {
 		int offset = (int) getChild(2).evaluate(variables, quoteBundle, explicitSymbol, day);
 
 		if (offset > 0) {
-			EvaluationException e = EvaluationException.AVG_OFFSET_EXCEPTION;
+			EvaluationException e = EvaluationException.AVG_OFFSET_EXCEPTION.copy();
 			e.setMessage(this, "", offset);
 			throw e;
 		}
 
+		RollingWindow window = windows.getWindow(quoteBundle, explicitSymbol, quoteKind, day + offset, period, false);
+		if (window != null)
+			return window.getTrend();
+
 		// Calculate and return the line of best fit.
-		QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, explicitSymbol, quoteKind, day,
-				offset, period);
+		QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, explicitSymbol, quoteKind,
+				day, offset, period);
 
 		return QuoteFunctions.bestFit(source, period);
 	}
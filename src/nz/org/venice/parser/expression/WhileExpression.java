@@ -18,9 +18,7 @@
 
 package nz.org.venice.parser.expression;
 
-import java.util.UUID;
-
-import nz.org.venice.parser.AnalyserGuard;
+import nz.org.venice.parser.EvaluationBudget;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.TypeMismatchException;
@@ -43,9 +41,6 @@ public class WhileExpression extends BinaryExpression {
 	private final static int CONDITION = 0;
 	private final static int COMMAND = 1;
 
-	// Expression identifier - parent hashcode uses class hashcode
-	private UUID id;
-
 	/**
 	 * Construct a <code>while</code> expression.
 	 * 
@@ -60,7 +55,6 @@ public class WhileExpression extends BinaryExpression {
 	 */
 	public WhileExpression(IExpression condition, IExpression command) {
 		super(condition, command);
-		id = UUID.randomUUID();
 	}
 
 	public double evaluate(Variables variables, IQuoteBundle quoteBundle, Symbol symbol, int day)
@@ -68,21 +62,22 @@ public class WhileExpression extends BinaryExpression {
 
 		double value = 0.0D;
 
-		UUID loopId = UUID.randomUUID();
-		AnalyserGuard.getInstance().startLoop(this, loopId, symbol, day);
-
-		// Now loop running the command until the condition is no longer true
-		while (getChild(CONDITION).evaluate(variables, quoteBundle, symbol, day) >= IExpression.TRUE_LEVEL) {
-			// Execute command
-			value = getChild(COMMAND).evaluate(variables, quoteBundle, symbol, day);
-			// Don't want to run forever - if the limit is exceeded
-			// could be an infinite loop.
-			if (AnalyserGuard.getInstance().evaluationTimeElapsed(this, loopId, symbol, day)) {
-				throw EvaluationException.EVAL_TIME_TOO_LONG_EXCEPTION;
+		EvaluationBudget.Meter meter = EvaluationBudget.getMeter();
+		meter.startLoop();
+
+		try {
+			// Now loop running the command until the condition is no longer true
+			while (getChild(CONDITION).evaluate(variables, quoteBundle, symbol, day) >= IExpression.TRUE_LEVEL) {
+				// Execute command
+				value = getChild(COMMAND).evaluate(variables, quoteBundle, symbol, day);
+				// Don't want to run forever - if the budget is used up
+				// could be an infinite loop.
+				meter.step();
 			}
+		} finally {
+			meter.finishLoop();
 		}
 
-		AnalyserGuard.getInstance().finishLoop(this, loopId, symbol, day);
 		// Return the results of the last command
 		return value;
 	}
@@ -122,4 +117,9 @@ public class WhileExpression extends BinaryExpression {
 	public Object clone() {
 		return new WhileExpression((IExpression) getChild(0).clone(), (IExpression) getChild(1).clone());
 	}
+
+	// Not pure as this loops using variables
+	protected boolean isPureNode() {
+		return false;
+	}
 }
@@ -25,6 +25,9 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -640,6 +643,113 @@ public class PreferencesManager {
 		prefs.putInt("maximumQuotes", maximumCachedQuotes);
 	}
 
+	/**
+	 * Load the number of most recent days of quotes that the cache keeps
+	 * uncompressed.
+	 *
+	 * @return the number of uncompressed days.
+	 */
+	public static int getUncompressedQuoteDays() {
+		Preferences prefs = getUserNode("/cache");
+		return prefs.getInt("uncompressedDays", 520);
+	}
+
+	/**
+	 * Save the number of most recent days of quotes that the cache keeps
+	 * uncompressed.
+	 *
+	 * @param uncompressedDays the number of uncompressed days.
+	 */
+	public static void putUncompressedQuoteDays(int uncompressedDays) {
+		Preferences prefs = getUserNode("/cache");
+		prefs.putInt("uncompressedDays", uncompressedDays);
+	}
+
+	/**
+	 * Load whether the quote cache stores its quotes outside of the Java heap.
+	 *
+	 * @return <code>true</code> if quotes are stored off the heap.
+	 */
+	public static boolean getOffHeapQuoteCache() {
+		Preferences prefs = getUserNode("/cache");
+		return prefs.getBoolean("offHeap", false);
+	}
+
+	/**
+	 * Save whether the quote cache stores its quotes outside of the Java heap.
+	 * This takes effect the next time the cache is created.
+	 *
+	 * @param offHeap <code>true</code> if quotes should be stored off the heap.
+	 */
+	public static void putOffHeapQuoteCache(boolean offHeap) {
+		Preferences prefs = getUserNode("/cache");
+		prefs.putBoolean("offHeap", offHeap);
+	}
+
+	/**
+	 * Load whether paper trade rules are compiled to Java byte code before they
+	 * are evaluated.
+	 *
+	 * @return <code>true</code> if rules are compiled.
+	 */
+	public static boolean getCompileRules() {
+		Preferences prefs = getUserNode("/tuning");
+		return prefs.getBoolean("compileRules", false);
+	}
+
+	/**
+	 * Save whether paper trade rules are compiled to Java byte code before they
+	 * are evaluated.
+	 *
+	 * @param compileRules <code>true</code> if rules should be compiled.
+	 */
+	public static void putCompileRules(boolean compileRules) {
+		Preferences prefs = getUserNode("/tuning");
+		prefs.putBoolean("compileRules", compileRules);
+	}
+
+	/**
+	 * Load whether paper trade rules are profiled, so the time spent in each
+	 * part of the rules can be shown after the paper trade.
+	 *
+	 * @return <code>true</code> if rules are profiled.
+	 */
+	public static boolean getProfileRules() {
+		Preferences prefs = getUserNode("/tuning");
+		return prefs.getBoolean("profileRules", false);
+	}
+
+	/**
+	 * Save whether paper trade rules are profiled.
+	 *
+	 * @param profileRules <code>true</code> if rules should be profiled.
+	 */
+	public static void putProfileRules(boolean profileRules) {
+		Preferences prefs = getUserNode("/tuning");
+		prefs.putBoolean("profileRules", profileRules);
+	}
+
+	/**
+	 * Load the number of threads the analysis tools use to paper trade rules at
+	 * the same time. This defaults to the number of available processors.
+	 *
+	 * @return the number of threads.
+	 */
+	public static int getAnalyserThreads() {
+		Preferences prefs = getUserNode("/tuning");
+		return prefs.getInt("analyserThreads", Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Save the number of threads the analysis tools use.
+	 *
+	 * @param analyserThreads the number of threads.
+	 */
+	public static void putAnalyserThreads(int analyserThreads) {
+		Preferences prefs = getUserNode("/tuning");
+		prefs.putInt("analyserThreads", analyserThreads);
+	}
+
 	/**
 	 * Load the users preference for whether the quotes in the cache expire.
 	 * 
@@ -905,6 +1015,63 @@ public class PreferencesManager {
 		return macroHome;
 	}
 
+	/**
+	 * Return the file that the market breadth of the given quote source is saved
+	 * to.
+	 *
+	 * @param sourceName     name of the type of quote source
+	 * @param sourceIdentity identifies the quote source, e.g. its database URL
+	 * @return Market breadth file.
+	 */
+	public static File getMarketBreadthFile(String sourceName, String sourceIdentity) {
+		File veniceHome = getVeniceHome();
+		File marketBreadthHome = new File(veniceHome, "MarketBreadth");
+		if (!marketBreadthHome.exists())
+			marketBreadthHome.mkdir();
+		return new File(marketBreadthHome, getSourceFileName(sourceName, sourceIdentity) + ".dat");
+	}
+
+	/**
+	 * Return the directory that the indicator store of the given quote source is
+	 * saved to.
+	 *
+	 * @param sourceName     name of the type of quote source
+	 * @param sourceIdentity identifies the quote source, e.g. its database URL
+	 * @return Indicator store directory.
+	 */
+	public static File getIndicatorStoreDirectory(String sourceName, String sourceIdentity) {
+		File veniceHome = getVeniceHome();
+		File indicatorHome = new File(veniceHome, "Indicators");
+		if (!indicatorHome.exists())
+			indicatorHome.mkdir();
+		File sourceHome = new File(indicatorHome, getSourceFileName(sourceName, sourceIdentity));
+		if (!sourceHome.exists())
+			sourceHome.mkdir();
+		return sourceHome;
+	}
+
+	// Returns the name of the file that holds data calculated from a quote
+	// source. Different databases or sets of quote files get different
+	// names so they don't share results.
+	private static String getSourceFileName(String sourceName, String sourceIdentity) {
+		StringBuffer name = new StringBuffer(sourceName + "-");
+
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1")
+					.digest(sourceIdentity.getBytes(StandardCharsets.UTF_8));
+
+			// Half the digest is plenty to tell the sources apart
+			for (int i = 0; i < digest.length / 2; i++)
+				name.append(Integer.toHexString((digest[i] & 0xff) | 0x100).substring(1));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-1
+			assert false;
+			name.append(Integer.toHexString(sourceIdentity.hashCode()));
+		}
+
+		return name.toString();
+	}
+
 	/**
 	 * Return the directory which contains Venice's portfolios.
 	 *
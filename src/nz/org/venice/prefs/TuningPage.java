@@ -44,6 +44,11 @@ import nz.org.venice.util.Locale;
 public class TuningPage extends JPanel implements IPreferencesPage, ActionListener {
 	private JDesktopPane desktop;
 	private JTextField maxCachedQuotesTextField;
+	private JTextField uncompressedDaysTextField;
+	private JCheckBox offHeapQuoteCacheButton;
+	private JCheckBox compileRulesButton;
+	private JCheckBox profileRulesButton;
+	private JTextField analyserThreadsTextField;
 	private JLabel currentCachedQuotesLabel;
 	private JTextField maxCacheAgeTextField;
 	private JCheckBox enableCacheExpiryButton;
@@ -86,6 +91,33 @@ public class TuningPage extends JPanel implements IPreferencesPage, ActionListen
 
 		maxCachedQuotesTextField.setToolTipText(Locale.getString("TUNING_MAX_QUOTES_TOOLTIP"));
 
+		int uncompressedDays = PreferencesManager.getUncompressedQuoteDays();
+		uncompressedDaysTextField = GridBagHelper.addTextRow(borderPanel, Locale.getString("UNCOMPRESSED_QUOTE_DAYS"),
+				Integer.toString(uncompressedDays), gridbag, c, 10);
+
+		uncompressedDaysTextField.setToolTipText(Locale.getString("TUNING_UNCOMPRESSED_DAYS_TOOLTIP"));
+
+		offHeapQuoteCacheButton = GridBagHelper.addCheckBoxRow(borderPanel, Locale.getString("OFF_HEAP_QUOTE_CACHE"),
+				PreferencesManager.getOffHeapQuoteCache(), gridbag, c);
+
+		offHeapQuoteCacheButton.setToolTipText(Locale.getString("TUNING_OFF_HEAP_TOOLTIP"));
+
+		compileRulesButton = GridBagHelper.addCheckBoxRow(borderPanel, Locale.getString("COMPILE_RULES"),
+				PreferencesManager.getCompileRules(), gridbag, c);
+
+		compileRulesButton.setToolTipText(Locale.getString("TUNING_COMPILE_RULES_TOOLTIP"));
+
+		profileRulesButton = GridBagHelper.addCheckBoxRow(borderPanel, Locale.getString("PROFILE_RULES"),
+				PreferencesManager.getProfileRules(), gridbag, c);
+
+		profileRulesButton.setToolTipText(Locale.getString("TUNING_PROFILE_RULES_TOOLTIP"));
+
+		int analyserThreads = PreferencesManager.getAnalyserThreads();
+		analyserThreadsTextField = GridBagHelper.addTextRow(borderPanel, Locale.getString("ANALYSER_THREADS"),
+				Integer.toString(analyserThreads), gridbag, c, 10);
+
+		analyserThreadsTextField.setToolTipText(Locale.getString("TUNING_ANALYSER_THREADS_TOOLTIP"));
+
 		boolean cacheExpires = PreferencesManager.getCacheExpiryEnabled();
 		enableCacheExpiryButton = GridBagHelper.addCheckBoxRow(borderPanel, Locale.getString("CACHE_EXPIRY_ENABLED"),
 				cacheExpires, gridbag, c);
@@ -124,12 +156,16 @@ public class TuningPage extends JPanel implements IPreferencesPage, ActionListen
 
 	public void save() {
 		int maximumCachedQuotes = 0;
+		int uncompressedDays = 0;
+		int analyserThreads = 0;
 		int maximumCacheAge = 60 * 8; // Default of 8 hours
 		boolean cacheExpires = false;
 
 		try {
 			maximumCachedQuotes = Integer.parseInt(maxCachedQuotesTextField.getText());
+			uncompressedDays = Integer.parseInt(uncompressedDaysTextField.getText());
 			maximumCacheAge = Integer.parseInt(maxCacheAgeTextField.getText());
+			analyserThreads = Integer.parseInt(analyserThreadsTextField.getText());
 		} catch (NumberFormatException e) {
 			// ignore
 		}
@@ -139,6 +175,16 @@ public class TuningPage extends JPanel implements IPreferencesPage, ActionListen
 		if (maximumCachedQuotes > 0)
 			PreferencesManager.putMaximumCachedQuotes(maximumCachedQuotes);
 
+		if (uncompressedDays > 0)
+			PreferencesManager.putUncompressedQuoteDays(uncompressedDays);
+
+		PreferencesManager.putOffHeapQuoteCache(offHeapQuoteCacheButton.isSelected());
+		PreferencesManager.putCompileRules(compileRulesButton.isSelected());
+		PreferencesManager.putProfileRules(profileRulesButton.isSelected());
+
+		if (analyserThreads > 0)
+			PreferencesManager.putAnalyserThreads(analyserThreads);
+
 		PreferencesManager.putCacheExpiryEnabled(cacheExpires);
 		if (maximumCacheAge > 0)
 			PreferencesManager.putCacheExpiryTime(maximumCacheAge);
@@ -0,0 +1,67 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+/**
+ * A running sum of doubles which keeps track of the rounding error of each
+ * addition, using Neumaier's variant of Kahan summation. Running sums in a
+ * {@link RollingWindow} have values added and taken away many thousands of
+ * times, so without compensation the error would build up.
+ */
+class CompensatedSum {
+
+	// The sum so far, without the compensation
+	private double sum = 0.0D;
+
+	// The low order bits lost from the sum
+	private double compensation = 0.0D;
+
+	/**
+	 * Add a value to the sum. To take a value away, add its negative.
+	 *
+	 * @param value the value to add
+	 */
+	void add(double value) {
+		double total = sum + value;
+
+		if (Math.abs(sum) >= Math.abs(value))
+			compensation += (sum - total) + value;
+		else
+			compensation += (value - total) + sum;
+
+		sum = total;
+	}
+
+	/**
+	 * Return the compensated sum.
+	 *
+	 * @return the sum
+	 */
+	double get() {
+		return sum + compensation;
+	}
+
+	/**
+	 * Reset the sum to zero.
+	 */
+	void clear() {
+		sum = 0.0D;
+		compensation = 0.0D;
+	}
+}
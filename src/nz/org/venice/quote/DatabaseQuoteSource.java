@@ -23,7 +23,6 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -73,6 +72,12 @@ public class DatabaseQuoteSource implements IQuoteSource {
 	private IEODQuoteFilter filter;
 	private List fileURLs;
 
+	// Advance/decline, calculated as needed
+	private MarketBreadth marketBreadth = null;
+
+	// Results of custom indicators, loaded when first needed
+	private IndicatorStore indicatorStore = null;
+
 	/**
 	 * Creates a new quote source to connect to an external database.
 	 *
@@ -458,6 +463,21 @@ public class DatabaseQuoteSource implements IQuoteSource {
 				} else {
 					quotesImported = importQuoteSingleStatement(newQuotes);
 				}
+
+				// Any market breadth already calculated for these dates
+				// needs to be calculated again. Quotes on new dates are
+				// picked up by the next update anyway.
+				TradingDate earliestDate = null;
+
+				for (Iterator iterator = newQuotes.iterator(); iterator.hasNext();) {
+					TradingDate date = ((EODQuote) iterator.next()).getDate();
+
+					if (earliestDate == null || date.before(earliestDate))
+						earliestDate = date;
+				}
+
+				getMarketBreadthStore().invalidate(earliestDate);
+				getIndicatorStore().invalidate(earliestDate);
 			}
 		}
 
@@ -638,92 +658,74 @@ public class DatabaseQuoteSource implements IQuoteSource {
 	 * @exception throw MissingQuoteException if none of the dates are in the source
 	 */
 	public HashMap getAdvanceDecline(TradingDate firstDate, TradingDate lastDate) throws MissingQuoteException {
-		if (!manager.getConnection()) {
-			return null;
-		}
-		final String queryLabel = "getAdvanceDecline";
-		HashMap rv = new HashMap();
-		List queryTemplates = manager.getQueries(queryLabel);
-		List queries = new ArrayList();
-		final int countIndex = 1;
-		final int dateIndex = 2;
-		Iterator queryIterator = queryTemplates.iterator();
-		// Replace the placeholders with the appropriate data for the
-		// Advance and Decline queries
-		while (queryIterator.hasNext()) {
-			String query = (String) queryIterator.next();
-			query = manager.replaceParameter(query, "share_table", DatabaseManager.SHARE_TABLE_NAME);
-			query = manager.replaceParameter(query, "share_metadata_table", DatabaseManager.SHARES_METADATA_TABLE_NAME);
-			query = manager.replaceParameter(query, "firstDate", manager.toSQLDateString(firstDate));
-			query = manager.replaceParameter(query, "lastDate", manager.toSQLDateString(lastDate));
-
-			query = manager.replaceParameter(query, "symbol_first_char", manager.left(DatabaseManager.SYMBOL_FIELD, 1));
-			queries.add(query);
-		}
-		try {
-			// Execute the constructed queries for Advance and Decline
-			List results = manager.executeQueryTransaction(queryLabel, queries);
-			ResultSet advanceResults = (ResultSet) results.get(0);
-			ResultSet declineResults = (ResultSet) results.get(1);
-
-			// We put the advance and decline results into separate maps
-			// and then combine them into the result rv where the key set
-			// are the dates from both advance and decline results.
-
-			// This avoids the problem of aligning two date lists and
-			// potentially missing values
-			HashSet resultDates = new HashSet();
-			HashMap advancesMap = new HashMap();
-			HashMap declinesMap = new HashMap();
-			while (advanceResults.next()) {
-				TradingDate keyDate = new TradingDate(advanceResults.getDate(dateIndex));
-				Integer count = new Integer(advanceResults.getInt(countIndex));
-				advancesMap.put(keyDate, count);
-			}
-			while (declineResults.next()) {
-				TradingDate keyDate = new TradingDate(declineResults.getDate(dateIndex));
-				Integer count = new Integer(declineResults.getInt(countIndex));
+		return getMarketBreadth().getAdvanceDecline(firstDate, lastDate);
+	}
 
-				declinesMap.put(keyDate, count);
-			}
-			// Result dates could also be built while iterating over the
-			// advance and decline results.
-			// No real reason except as a style preference
-			resultDates.addAll(advancesMap.keySet());
-			resultDates.addAll(declinesMap.keySet());
-
-			// Having got a complete set of date sets,
-			// construct the map of advance/declines keyed by date
-			// Where a result for a particular date exists in both
-			// advance and decline, the value calcluated is
-			// advance - decline as expected.
-			// When a date is missing in one or both sets, the count is
-			// taken as 0.
-
-			Iterator dateIterator = resultDates.iterator();
-			while (dateIterator.hasNext()) {
-				TradingDate keyDate = (TradingDate) dateIterator.next();
-				int advanceDeclineValue = 0;
-				Integer advCount = (Integer) advancesMap.get(keyDate);
-				Integer decCount = (Integer) declinesMap.get(keyDate);
-
-				if (advCount != null) {
-					advanceDeclineValue += advCount.intValue();
-				}
-				if (decCount != null) {
-					advanceDeclineValue -= decCount.intValue();
+	/**
+	 * Return the market breadth of all ordinary stocks in the database, bringing
+	 * it up to date first.
+	 *
+	 * @return the market breadth
+	 * @exception throw MissingQuoteException if the database doesn't have any
+	 *            quotes
+	 */
+	public synchronized MarketBreadth getMarketBreadth() throws MissingQuoteException {
+		TradingDate firstDate = getFirstDate();
+		TradingDate lastDate = getLastDate();
+
+		if (firstDate == null || lastDate == null || !manager.getConnection())
+			throw MissingQuoteException.getInstance();
+
+		MarketBreadth marketBreadth = getMarketBreadthStore();
+		TradingDate startDate = marketBreadth.beginUpdate(firstDate, lastDate);
+
+		// Only read the quotes that haven't been counted yet
+		if (!startDate.after(lastDate)) {
+			EODQuoteRange quoteRange = new EODQuoteRange(EODQuoteRange.ALL_ORDINARIES, startDate, lastDate);
+			String queryString = buildSQLString(quoteRange) + " ORDER BY shares." + DatabaseManager.DATE_FIELD;
+
+			try {
+				Statement statement = manager.createStatement();
+				ResultSet RS = statement.executeQuery(queryString);
+
+				while (RS.next()) {
+					marketBreadth.add(new TradingDate(RS.getDate(DatabaseManager.DATE_FIELD)),
+							RS.getFloat(DatabaseManager.DAY_OPEN_FIELD), RS.getFloat(DatabaseManager.DAY_CLOSE_FIELD));
 				}
-				rv.put(keyDate, new Integer(advanceDeclineValue));
-			}
-			// Clean up
-			manager.queryCleanup(queryLabel);
-			return rv;
-		} catch (SQLException e) {
-			DesktopManager.showErrorMessage(Locale.getString("ERROR_TALKING_TO_DATABASE", e.getMessage()));
 
-			return null;
-		} finally {
+				RS.close();
+				statement.close();
+			} catch (SQLException e) {
+				DesktopManager.showErrorMessage(Locale.getString("ERROR_TALKING_TO_DATABASE", e.getMessage()));
+				throw MissingQuoteException.getInstance();
+			}
 		}
+
+		marketBreadth.endUpdate(lastDate);
+		return marketBreadth;
+	}
+
+	// Returns the market breadth, loading it from its file if necessary
+	private synchronized MarketBreadth getMarketBreadthStore() {
+		if (marketBreadth == null)
+			marketBreadth = new MarketBreadth(
+					PreferencesManager.getMarketBreadthFile("database", manager.getDatabaseURL()));
+
+		return marketBreadth;
+	}
+
+	/**
+	 * Return the store of custom indicator results calculated from the quotes in
+	 * the database.
+	 *
+	 * @return the indicator store
+	 */
+	public synchronized IndicatorStore getIndicatorStore() {
+		if (indicatorStore == null)
+			indicatorStore = new IndicatorStore(
+					PreferencesManager.getIndicatorStoreDirectory("database", manager.getDatabaseURL()));
+
+		return indicatorStore;
 	}
 
 	/**
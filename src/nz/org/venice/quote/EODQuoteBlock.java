@@ -0,0 +1,428 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.Arrays;
+
+/**
+ * A block of consecutive trading days of quotes for a single symbol. The
+ * {@link EODQuoteCache} uses these blocks to hold older quotes in compressed
+ * form.
+ * <p>
+ * A block is either compressed, in which case only its packed byte array is
+ * held, or decoded, in which case the quotes are also held in primitive arrays.
+ * Which days have quotes is always held uncompressed so it can be queried and
+ * changed without decoding the block.
+ * <p>
+ * The four prices are each compressed as a series using the XOR scheme from
+ * Facebook's Gorilla time series database: each value is XOR'ed with the
+ * previous one and only the changed bits are written. Prices rarely change by
+ * much from day to day so most of the high bits cancel out. The day volumes are
+ * run-length encoded. Days without quotes repeat the previous quote, which costs
+ * a few bits, so that quotes can be freed without recompressing the block.
+ */
+class EODQuoteBlock {
+
+	/** Number of trading days in a block. */
+	final static int SIZE = 128;
+
+	// Bit set of days in the block with quotes
+	private long[] present = new long[SIZE / 64];
+
+	// Number of days in the block with quotes
+	private int count = 0;
+
+	// Compressed quotes or null if the block has never been compressed
+	private byte[] data = null;
+
+	// Decoded quotes or null if the block is compressed
+	private long[] day_volume = null;
+	private float[] day_low = null;
+	private float[] day_high = null;
+	private float[] day_open = null;
+	private float[] day_close = null;
+
+	// Set if the decoded quotes differ from the compressed quotes
+	private boolean dirty = false;
+
+	/**
+	 * Return whether there is a quote on the given day.
+	 *
+	 * @param day day within the block
+	 * @return <code>true</code> if there is a quote
+	 */
+	boolean contains(int day) {
+		return (present[day >>> 6] & (1L << day)) != 0;
+	}
+
+	/**
+	 * Return whether the block is empty, i.e. it has no quotes.
+	 *
+	 * @return <code>true</code> if there are no quotes
+	 */
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Return whether the quotes have been decoded.
+	 *
+	 * @return <code>true</code> if the quotes can be read
+	 */
+	boolean isDecoded() {
+		return day_close != null;
+	}
+
+	/**
+	 * Return the number of bytes used to hold the compressed quotes.
+	 *
+	 * @return size of compressed quotes
+	 */
+	int getCompressedSize() {
+		return (data != null ? data.length : 0);
+	}
+
+	/**
+	 * Set the quote on the given day. The block must be decoded.
+	 *
+	 * @return <code>true</code> if there wasn't a quote on that day
+	 */
+	boolean set(int day, long volume, float low, float high, float open, float close) {
+		assert isDecoded();
+
+		boolean isNew = !contains(day);
+
+		if (isNew || day_volume[day] != volume || day_low[day] != low || day_high[day] != high
+				|| day_open[day] != open || day_close[day] != close) {
+			day_volume[day] = volume;
+			day_low[day] = low;
+			day_high[day] = high;
+			day_open[day] = open;
+			day_close[day] = close;
+			dirty = true;
+		}
+
+		if (isNew) {
+			present[day >>> 6] |= (1L << day);
+			count++;
+		}
+
+		return isNew;
+	}
+
+	/**
+	 * Remove the quote on the given day. The block does not need to be decoded.
+	 *
+	 * @return <code>true</code> if there was a quote on that day
+	 */
+	boolean clear(int day) {
+		if (contains(day)) {
+			present[day >>> 6] &= ~(1L << day);
+			count--;
+			return true;
+		} else
+			return false;
+	}
+
+	/**
+	 * Return the given quote. The block must be decoded.
+	 *
+	 * @param day       day within the block
+	 * @param quoteType the quote type, one of {@link IQuote#DAY_OPEN},
+	 *                  {@link IQuote#DAY_CLOSE}, {@link IQuote#DAY_LOW},
+	 *                  {@link IQuote#DAY_HIGH}, {@link IQuote#DAY_VOLUME}
+	 * @return the quote
+	 */
+	double getQuote(int day, int quoteType) {
+		assert isDecoded() && contains(day);
+
+		switch (quoteType) {
+		case (IQuote.DAY_OPEN):
+			return (double) day_open[day];
+		case (IQuote.DAY_CLOSE):
+			return (double) day_close[day];
+		case (IQuote.DAY_LOW):
+			return (double) day_low[day];
+		case (IQuote.DAY_HIGH):
+			return (double) day_high[day];
+		case (IQuote.DAY_VOLUME):
+			return (double) day_volume[day];
+		default:
+			assert false;
+			return 0.0D;
+		}
+	}
+
+	long getDayVolume(int day) {
+		return day_volume[day];
+	}
+
+	float getDayLow(int day) {
+		return day_low[day];
+	}
+
+	float getDayHigh(int day) {
+		return day_high[day];
+	}
+
+	float getDayOpen(int day) {
+		return day_open[day];
+	}
+
+	float getDayClose(int day) {
+		return day_close[day];
+	}
+
+	/**
+	 * Decode the quotes so they can be read or changed.
+	 */
+	void decode() {
+		if (isDecoded())
+			return;
+
+		day_volume = new long[SIZE];
+		day_low = new float[SIZE];
+		day_high = new float[SIZE];
+		day_open = new float[SIZE];
+		day_close = new float[SIZE];
+		dirty = false;
+
+		if (data != null) {
+			BitReader reader = new BitReader(data);
+
+			decodeSeries(reader, day_low);
+			decodeSeries(reader, day_high);
+			decodeSeries(reader, day_open);
+			decodeSeries(reader, day_close);
+
+			// Volumes are stored as runs of (change in volume, length)
+			long volume = 0;
+			int day = 0;
+
+			while (day < SIZE) {
+				volume += zigZagDecode(reader.readVarLong());
+				int length = (int) reader.readVarLong();
+
+				Arrays.fill(day_volume, day, day + length, volume);
+				day += length;
+			}
+		}
+	}
+
+	/**
+	 * Compress any changes to the quotes and release the decoded quotes.
+	 */
+	void encode() {
+		if (!isDecoded())
+			return;
+
+		if (dirty) {
+			// Days without quotes repeat the previous day's quote. This
+			// keeps them cheap and lets the values of freed quotes be dropped.
+			fillGaps();
+
+			BitWriter writer = new BitWriter();
+
+			encodeSeries(writer, day_low);
+			encodeSeries(writer, day_high);
+			encodeSeries(writer, day_open);
+			encodeSeries(writer, day_close);
+
+			long volume = 0;
+			int day = 0;
+
+			while (day < SIZE) {
+				int length = 1;
+
+				while (day + length < SIZE && day_volume[day + length] == day_volume[day])
+					length++;
+
+				writer.writeVarLong(zigZagEncode(day_volume[day] - volume));
+				writer.writeVarLong(length);
+				volume = day_volume[day];
+				day += length;
+			}
+
+			data = writer.toByteArray();
+		}
+
+		day_volume = null;
+		day_low = null;
+		day_high = null;
+		day_open = null;
+		day_close = null;
+		dirty = false;
+	}
+
+	// Copy the nearest earlier quote into each day without a quote
+	private void fillGaps() {
+		int previous = -1;
+
+		for (int day = 0; day < SIZE; day++) {
+			if (contains(day))
+				previous = day;
+			else if (previous >= 0) {
+				day_volume[day] = day_volume[previous];
+				day_low[day] = day_low[previous];
+				day_high[day] = day_high[previous];
+				day_open[day] = day_open[previous];
+				day_close[day] = day_close[previous];
+			} else {
+				day_volume[day] = 0;
+				day_low[day] = day_high[day] = day_open[day] = day_close[day] = 0.0F;
+			}
+		}
+	}
+
+	private static void encodeSeries(BitWriter writer, float[] series) {
+		int previous = 0;
+		int previousLeading = -1;
+		int previousTrailing = 0;
+
+		for (int day = 0; day < SIZE; day++) {
+			int bits = Float.floatToRawIntBits(series[day]);
+			int xor = bits ^ previous;
+
+			if (xor == 0)
+				writer.writeBits(0, 1);
+			else {
+				int leading = Integer.numberOfLeadingZeros(xor);
+				int trailing = Integer.numberOfTrailingZeros(xor);
+
+				writer.writeBits(1, 1);
+
+				// If the changed bits fit in the previous window, reuse it
+				if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+					writer.writeBits(0, 1);
+					writer.writeBits(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+				} else {
+					int length = 32 - leading - trailing;
+
+					writer.writeBits(1, 1);
+					writer.writeBits(leading, 5);
+					writer.writeBits(length - 1, 5);
+					writer.writeBits(xor >>> trailing, length);
+
+					previousLeading = leading;
+					previousTrailing = trailing;
+				}
+			}
+
+			previous = bits;
+		}
+	}
+
+	private static void decodeSeries(BitReader reader, float[] series) {
+		int previous = 0;
+		int previousLeading = -1;
+		int previousTrailing = 0;
+
+		for (int day = 0; day < SIZE; day++) {
+			if (reader.readBits(1) != 0) {
+				if (reader.readBits(1) == 0) {
+					int length = 32 - previousLeading - previousTrailing;
+					previous ^= (int) reader.readBits(length) << previousTrailing;
+				} else {
+					previousLeading = (int) reader.readBits(5);
+					int length = (int) reader.readBits(5) + 1;
+					previousTrailing = 32 - previousLeading - length;
+					previous ^= (int) reader.readBits(length) << previousTrailing;
+				}
+			}
+
+			series[day] = Float.intBitsToFloat(previous);
+		}
+	}
+
+	private static long zigZagEncode(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long zigZagDecode(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	// Writes values of up to 32 bits to a growable byte array
+	private static class BitWriter {
+		private byte[] buffer = new byte[64];
+		private int bitPosition = 0;
+
+		void writeBits(long value, int bits) {
+			for (int i = bits - 1; i >= 0; i--) {
+				int bytePosition = bitPosition >>> 3;
+
+				if (bytePosition == buffer.length)
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+				if (((value >>> i) & 1) != 0)
+					buffer[bytePosition] |= (byte) (0x80 >>> (bitPosition & 7));
+
+				bitPosition++;
+			}
+		}
+
+		void writeVarLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				writeBits((value & 0x7F) | 0x80, 8);
+				value >>>= 7;
+			}
+			writeBits(value, 8);
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(buffer, (bitPosition + 7) >>> 3);
+		}
+	}
+
+	// Reads values written by BitWriter
+	private static class BitReader {
+		private byte[] buffer;
+		private int bitPosition = 0;
+
+		BitReader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		long readBits(int bits) {
+			long value = 0;
+
+			for (int i = 0; i < bits; i++) {
+				int bit = (buffer[bitPosition >>> 3] >>> (7 - (bitPosition & 7))) & 1;
+				value = (value << 1) | bit;
+				bitPosition++;
+			}
+
+			return value;
+		}
+
+		long readVarLong() {
+			long value = 0;
+			int shift = 0;
+			long b;
+
+			do {
+				b = readBits(8);
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			return value;
+		}
+	}
+}
@@ -64,8 +64,9 @@ import nz.org.venice.util.WeekendDateException;
  */
 public class EODQuoteBundle implements IQuoteBundle {
 
-	// Quotes contained in this bundle
-	private EODQuoteRange quoteRange;
+	// Quotes contained in this bundle. The range and the date offsets are
+	// read by threads sharing the bundle while another expands it.
+	private volatile EODQuoteRange quoteRange;
 
 	/** For speed reasons, keep reference to the global quote cache */
 	protected EODQuoteCache quoteCache;
@@ -75,8 +76,28 @@ public class EODQuoteBundle implements IQuoteBundle {
 
 	// Start and end date offsets (marked as 1 which indicates an illegal
 	// date offset, date offsets start from 0 and go down).
-	private int firstDateOffset = 1;
-	private int lastDateOffset = 1;
+	private volatile int firstDateOffset = 1;
+	private volatile int lastDateOffset = 1;
+
+	// Number of times this bundle has been reloaded or expanded. A thread
+	// which missed a quote while another thread was loading it sees this
+	// change, and looks for the quote again.
+	private volatile int loads = 0;
+
+	// Whether the quote bundle cache has this bundle loaded. The cache keeps
+	// this up to date so that a thread which misses a quote can check it
+	// without waiting for other threads.
+	private volatile boolean isLoaded = false;
+
+	// Whether quote fetches are being counted for the expression profiler
+	private static volatile boolean isCountingFetches = false;
+
+	// Number of quotes fetched by each thread while counting
+	private static final ThreadLocal fetchCount = new ThreadLocal() {
+		protected Object initialValue() {
+			return new long[1];
+		}
+	};
 
 	/**
 	 * Create a new end-of-day quote bundle that represents the quotes in the given
@@ -120,6 +141,10 @@ public class EODQuoteBundle implements IQuoteBundle {
 	 */
 	public double getQuote(Symbol symbol, int quoteType, int dateOffset) throws MissingQuoteException {
 
+		if (isCountingFetches)
+			countFetches(1);
+
+		int loads = this.loads;
 		boolean foundQuote = false;
 		double quote = 0.0D;
 
@@ -133,7 +158,7 @@ public class EODQuoteBundle implements IQuoteBundle {
 
 		// If the quote is not in the quote cache, perhaps the quote bundle is not
 		// loaded.
-		if (!foundQuote && tryReload()) {
+		if (!foundQuote && tryReload(loads)) {
 			try {
 				quote = quoteCache.getQuote(symbol, quoteType, dateOffset);
 				foundQuote = true;
@@ -144,7 +169,7 @@ public class EODQuoteBundle implements IQuoteBundle {
 
 		// If the quote is still not in the quote cache, perhaps the quote bundle
 		// does not contain the quote. Try expand the quote bundle.
-		if (!foundQuote && tryExpand(symbol, dateOffset)) {
+		if (!foundQuote && tryExpand(symbol, dateOffset, loads)) {
 			try {
 				quote = quoteCache.getQuote(symbol, quoteType, dateOffset);
 				foundQuote = true;
@@ -162,6 +187,10 @@ public class EODQuoteBundle implements IQuoteBundle {
 
 	public IQuote getQuote(Symbol symbol, int dateOffset) throws MissingQuoteException {
 
+		if (isCountingFetches)
+			countFetches(1);
+
+		int loads = this.loads;
 		IQuote quote = null;
 
 		// First try the quote cache.
@@ -173,7 +202,7 @@ public class EODQuoteBundle implements IQuoteBundle {
 
 		// If the quote is not in the quote cache, perhaps the quote bundle is not
 		// loaded.
-		if (quote == null && tryReload()) {
+		if (quote == null && tryReload(loads)) {
 			try {
 				quote = quoteCache.getQuote(symbol, dateOffset);
 			} catch (QuoteNotLoadedException e2) {
@@ -183,7 +212,7 @@ public class EODQuoteBundle implements IQuoteBundle {
 
 		// If the quote is still not in the quote cache, perhaps the quote bundle
 		// does not contain the quote. Try expand the quote bundle.
-		if (quote == null && tryExpand(symbol, dateOffset)) {
+		if (quote == null && tryExpand(symbol, dateOffset, loads)) {
 			try {
 				quote = quoteCache.getQuote(symbol, dateOffset);
 			} catch (QuoteNotLoadedException e3) {
@@ -222,6 +251,39 @@ public class EODQuoteBundle implements IQuoteBundle {
 		return getQuote(symbol, quoteType, today + offset);
 	}
 
+	public double findQuote(Symbol symbol, int quoteType, int today, int offset) throws EvaluationException {
+		return findQuote(symbol, quoteType, today + offset);
+	}
+
+	/**
+	 * Get a stock quote, returning <code>NaN</code> if the quote is missing. The
+	 * quote bundle is reloaded or expanded as for
+	 * {@link #getQuote(Symbol, int, int)}, but a missing quote doesn't throw an
+	 * exception or allocate any memory.
+	 *
+	 * @param symbol     the stock symbol
+	 * @param quoteType  the quote type, one of {@link IQuote#DAY_OPEN},
+	 *                   {@link IQuote#DAY_CLOSE}, {@link IQuote#DAY_LOW},
+	 *                   {@link IQuote#DAY_HIGH}, {@link IQuote#DAY_VOLUME}
+	 * @param dateOffset fast access date offset, see {@link EODQuoteCache}
+	 * @return the quote or <code>NaN</code> if the quote was not found
+	 */
+	public double findQuote(Symbol symbol, int quoteType, int dateOffset) {
+		if (isCountingFetches)
+			countFetches(1);
+
+		int loads = this.loads;
+		double quote = quoteCache.findQuote(symbol, quoteType, dateOffset);
+
+		if (Double.isNaN(quote) && tryReload(loads))
+			quote = quoteCache.findQuote(symbol, quoteType, dateOffset);
+
+		if (Double.isNaN(quote) && tryExpand(symbol, dateOffset, loads))
+			quote = quoteCache.findQuote(symbol, quoteType, dateOffset);
+
+		return quote;
+	}
+
 	/**
 	 * Get a stock quote.
 	 *
@@ -259,6 +321,10 @@ public class EODQuoteBundle implements IQuoteBundle {
 	 */
 	public double getNearestQuote(Symbol symbol, int quoteType, int dateOffset) throws MissingQuoteException {
 
+		if (isCountingFetches)
+			countFetches(1);
+
+		int loads = this.loads;
 		boolean foundQuote = false;
 		double quote = 0.0D;
 
@@ -272,7 +338,7 @@ public class EODQuoteBundle implements IQuoteBundle {
 
 		// If the quote is not in the quote cache, perhaps the quote bundle is not
 		// loaded.
-		if (!foundQuote && tryReload()) {
+		if (!foundQuote && tryReload(loads)) {
 			try {
 				quote = quoteCache.getQuote(symbol, quoteType, dateOffset);
 				foundQuote = true;
@@ -282,20 +348,18 @@ public class EODQuoteBundle implements IQuoteBundle {
 		}
 
 		// If the quote is still not in the quote cache, find an earlier quote,
-		// if there is one.
-		if (dateOffset > getFirstOffset()) {
-			// Search the cache until a quote is found.
-			while (!quoteCache.containsQuote(symbol, dateOffset) && dateOffset >= getFirstOffset()) {
-				dateOffset--;
-			}
+		// if there is one. The quote cache keeps an index of each symbol's
+		// loaded quotes so we don't have to walk over the missing days.
+		if (!foundQuote && dateOffset > getFirstOffset()) {
+			try {
+				int nearestOffset = quoteCache.getNearestOffset(symbol, dateOffset);
 
-			if (dateOffset >= getFirstOffset()) {
-				quote = getQuote(symbol, quoteType, dateOffset);
-				foundQuote = true;
-			} else {
-				// If the loop finishes with dateOffset passing the
-				// first offset, there are no more quotes
-				foundQuote = false;
+				if (nearestOffset >= getFirstOffset()) {
+					quote = quoteCache.getQuote(symbol, quoteType, nearestOffset);
+					foundQuote = true;
+				}
+			} catch (QuoteNotLoadedException e) {
+				// There are no earlier quotes
 			}
 		}
 
@@ -351,6 +415,17 @@ public class EODQuoteBundle implements IQuoteBundle {
 		return new EODQuoteBundleIterator(this);
 	}
 
+	/**
+	 * Return a cursor over this quote bundle. Unlike {@link #iterator}, the
+	 * cursor does not create a new quote object for each quote.
+	 *
+	 * @return cursor over the quotes
+	 * @see EODQuoteBundleCursor
+	 */
+	public EODQuoteBundleCursor cursor() {
+		return new EODQuoteBundleCursor(this);
+	}
+
 	/**
 	 * Return the quote range which specifies this quote bundle.
 	 *
@@ -619,58 +694,146 @@ public class EODQuoteBundle implements IQuoteBundle {
 		return quoteRange.toString();
 	}
 
+	/**
+	 * Set whether the quotes fetched from end-of-day quote bundles are counted.
+	 * Counting is used by the expression profiler and is off by default.
+	 *
+	 * @param isCountingFetches <code>true</code> to count quote fetches
+	 * @see #getFetchCount
+	 */
+	public static void setCountingFetches(boolean isCountingFetches) {
+		EODQuoteBundle.isCountingFetches = isCountingFetches;
+	}
+
+	/**
+	 * Return the number of quotes the current thread has fetched from end-of-day
+	 * quote bundles while counting was on.
+	 *
+	 * @return the number of quotes fetched
+	 * @see #setCountingFetches
+	 */
+	public static long getFetchCount() {
+		return ((long[]) fetchCount.get())[0];
+	}
+
+	// Add to the number of quotes fetched by the current thread
+	private static void countFetches(int count) {
+		((long[]) fetchCount.get())[0] += count;
+	}
+
+	// Record whether the quote bundle cache has this bundle loaded
+	void setLoaded(boolean isLoaded) {
+		this.isLoaded = isLoaded;
+	}
+
 	/**
 	 * If we know the given quote is not in the quote cache, this function will
 	 * reload this quote bundle.
+	 * <p>
+	 * The quote bundle may be shared by threads evaluating different symbols,
+	 * so reloading and expanding are synchronized. Most missed quotes are just
+	 * days a symbol didn't trade, so those are weeded out first without
+	 * synchronizing.
 	 *
-	 * @return <code>true</code> if the quote bundle was reloaded,
+	 * @param loads the number of loads when the caller missed the quote
+	 * @return <code>true</code> if the quote bundle was reloaded, or another
+	 *         thread reloaded or expanded it since the caller missed the quote,
 	 *         <code>false</code> otherwise.
 	 */
-	private boolean tryReload() {
+	private boolean tryReload(int loads) {
+		if (loads != this.loads)
+			return true;
+
+		if (isLoaded)
+			return false;
+
+		return reload(loads);
+	}
+
+	// Reload the quote bundle if it isn't loaded, see tryReload()
+	private synchronized boolean reload(int loads) {
+		if (loads != this.loads)
+			return true;
+
 		boolean success = false;
 
 		// Perhaps our quote packet is not loaded - if so load
 		if (!quoteBundleCache.isLoaded(this)) {
 			quoteBundleCache.load(this);
+			this.loads++;
 			success = true;
 		}
 
 		return success;
 	}
 
+	// Make sure this quote bundle is loaded into the quote cache. Returns
+	// true if it had to be reloaded.
+	boolean ensureLoaded() {
+		return tryReload(loads);
+	}
+
 	/**
 	 * Try to expand the new quote bundle so that it include a new date and/or a new
 	 * symbol. This function is passed the
 	 *
 	 * @param symbol     possibly new symbol to include
 	 * @param dateOffset possibly new date to include
-	 * @return <code>true</code> if the quote range was expanded, or
+	 * @param loads      the number of loads when the caller missed the quote
+	 * @return <code>true</code> if the quote range was expanded, here or by
+	 *         another thread since the caller missed the quote, or
 	 *         <code>false</code> if the quote range already includes the symbol and
 	 *         date range.
 	 */
-	private boolean tryExpand(Symbol symbol, int dateOffset) {
-		boolean success = false;
-		EODQuoteRange expandedQuoteRange = (EODQuoteRange) getQuoteRange().clone();
+	private boolean tryExpand(Symbol symbol, int dateOffset, int loads) {
+		if (loads != this.loads)
+			return true;
+
+		// Most missing quotes are just days the symbol didn't trade, so only
+		// synchronize if the quote range will change
+		if (!isExpandDate(dateOffset) && !isExpandSymbol(symbol))
+			return false;
+
+		return expand(symbol, dateOffset, loads);
+	}
+
+	// Expand the quote bundle, see tryExpand()
+	private synchronized boolean expand(Symbol symbol, int dateOffset, int loads) {
+		if (loads != this.loads)
+			return true;
 
-		// We can expand a quote range by expanding it to cover an older date
-		if (getQuoteRange().getFirstDate() != null && dateOffset < getFirstOffset()) {
+		boolean expandDate = isExpandDate(dateOffset);
+		boolean expandSymbol = isExpandSymbol(symbol);
 
+		if (!expandDate && !expandSymbol)
+			return false;
+
+		EODQuoteRange expandedQuoteRange = (EODQuoteRange) getQuoteRange().clone();
+
+		if (expandDate) {
 			TradingDate date = quoteCache.offsetToDate(dateOffset);
 			expandedQuoteRange.setFirstDate(date);
-			success = true;
 		}
 
-		// Expand a list of symbols to include another
-		if (getQuoteRange().getType() == EODQuoteRange.GIVEN_SYMBOLS && !getQuoteRange().containsSymbol(symbol)) {
-
+		if (expandSymbol)
 			expandedQuoteRange.addSymbol(symbol);
-			success = true;
-		}
 
 		// Load expanded quote cache
-		if (success)
-			quoteBundleCache.expand(this, expandedQuoteRange);
+		quoteBundleCache.expand(this, expandedQuoteRange);
+		this.loads++;
 
-		return success;
+		return true;
+	}
+
+	// We can expand a quote range by expanding it to cover an older date
+	private boolean isExpandDate(int dateOffset) {
+		return getQuoteRange().getFirstDate() != null && dateOffset < getFirstOffset();
+	}
+
+	// Expand a list of symbols to include another
+	private boolean isExpandSymbol(Symbol symbol) {
+		EODQuoteRange quoteRange = getQuoteRange();
+
+		return quoteRange.getType() == EODQuoteRange.GIVEN_SYMBOLS && !quoteRange.containsSymbol(symbol);
 	}
 }
@@ -96,8 +96,10 @@ public class EODQuoteBundleCache {
 			expandedQuoteRange = quoteBundle.getQuoteRange().clip(expandedQuoteRange);
 
 		// Otherwise place the quote bundle in the list as we will now load it.
-		else
+		else {
 			loadedQuoteBundles.add(quoteBundle);
+			quoteBundle.setLoaded(true);
+		}
 
 		// Load the quotes from the expanded quote bundle
 		forceLoad(expandedQuoteRange);
@@ -115,9 +117,12 @@ public class EODQuoteBundleCache {
 	public void load(EODQuoteBundle quoteBundle) {
 		if (!isLoaded(quoteBundle)) {
 			loadedQuoteBundles.add(quoteBundle);
+			quoteBundle.setLoaded(true);
 
-			if (!forceLoad(quoteBundle.getQuoteRange()))
+			if (!forceLoad(quoteBundle.getQuoteRange())) {
+				quoteBundle.setLoaded(false);
 				loadedQuoteBundles.remove(quoteBundle);
+			}
 		}
 	}
 
@@ -146,6 +151,9 @@ public class EODQuoteBundleCache {
 			if (!QuoteSourceManager.getSource().loadQuoteRange(quoteRange))
 				return false;
 
+			// Compress any new quotes that are older than the hot window
+			quoteCache.compress();
+
 			// If the quote cache has too many quotes then keep
 			// freeing the oldest bundle - but don't free the
 			// newest bundle, since that is the one we are loading.
@@ -200,7 +208,11 @@ public class EODQuoteBundleCache {
 		// earlier because when we call getSymbols() on the QuoteBundle it
 		// will check to make sure its loaded. If we removed it earlier, it
 		// would then request to be loaded again!
+		quoteBundle.setLoaded(false);
 		loadedQuoteBundles.remove(quoteBundle);
+
+		// Hand back any off-heap memory that the freed quotes were using
+		quoteCache.trim();
 	}
 
 	// Checks all loaded quote bundles (except the first one!) to see whether
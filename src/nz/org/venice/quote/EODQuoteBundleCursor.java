@@ -0,0 +1,216 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.List;
+
+import nz.org.venice.util.TradingDate;
+
+/**
+ * Cursor for traversing the quotes in an {@link EODQuoteBundle} without
+ * creating an object for each quote. The cursor is itself a mutable
+ * {@link IQuote} view which is updated in place every time {@link #next} is
+ * called. The quotes will be visited in date then symbol order, the same order
+ * as {@link EODQuoteBundleIterator}.
+ * <p>
+ * Example:
+ * 
+ * <pre>
+ * EODQuoteBundleCursor cursor = quoteBundle.cursor();
+ * while (cursor.next()) {
+ * 	double close = cursor.getDayClose();
+ * 	...
+ * }
+ * </pre>
+ * <p>
+ * Because the view is reused, callers must not hold onto the cursor between
+ * calls to {@link #next}. If a quote needs to be kept, call {@link #toQuote}.
+ *
+ * @see EODQuoteBundle
+ * @see EODQuoteBundleIterator
+ */
+public class EODQuoteBundleCursor implements IQuote {
+
+	private EODQuoteBundle quoteBundle;
+	private EODQuoteCache quoteCache;
+
+	// Range of fast access date offsets to traverse
+	private int firstDateOffset;
+	private int lastDateOffset;
+
+	// Current position
+	private int dateOffset;
+	private List symbols;
+	private int symbolIndex;
+	private Symbol symbol;
+
+	// Values of current quote
+	private long day_volume;
+	private double day_low;
+	private double day_high;
+	private double day_open;
+	private double day_close;
+
+	/**
+	 * Create a new cursor over all the quotes in the given quote bundle.
+	 *
+	 * @param quoteBundle the quote bundle
+	 */
+	public EODQuoteBundleCursor(EODQuoteBundle quoteBundle) {
+		this(quoteBundle, quoteBundle.getFirstOffset(), quoteBundle.getLastOffset());
+	}
+
+	/**
+	 * Create a new cursor over the quotes in the given quote bundle which lie
+	 * between the given fast access date offsets (inclusive).
+	 *
+	 * @param quoteBundle     the quote bundle
+	 * @param firstDateOffset fast access date offset of first date
+	 * @param lastDateOffset  fast access date offset of last date
+	 */
+	public EODQuoteBundleCursor(EODQuoteBundle quoteBundle, int firstDateOffset, int lastDateOffset) {
+		this.quoteBundle = quoteBundle;
+		this.quoteCache = EODQuoteCache.getInstance();
+		this.firstDateOffset = Math.max(firstDateOffset, quoteBundle.getFirstOffset());
+		this.lastDateOffset = Math.min(lastDateOffset, quoteBundle.getLastOffset());
+
+		// Make sure the quotes are in the cache before we start reading
+		// directly from it.
+		quoteBundle.ensureLoaded();
+
+		dateOffset = this.firstDateOffset - 1;
+		symbols = null;
+		symbol = null;
+	}
+
+	/**
+	 * Move the cursor to the next quote in the quote bundle.
+	 *
+	 * @return <code>true</code> if the cursor is positioned on a quote,
+	 *         <code>false</code> if there are no more quotes
+	 */
+	public boolean next() {
+		while (true) {
+			// Is there anymore symbols for this date?
+			if (symbols != null && symbolIndex < symbols.size()) {
+				symbol = (Symbol) symbols.get(symbolIndex++);
+
+				// Check that the quote is actually in the bundle. When we load
+				// a quote over all the ranges in the cache, it might lie and say
+				// it starts on a certain date (i.e. the first date in the cache),
+				// but it might not have any quotes until a much later date.
+				if (quoteCache.fillCursor(symbol, dateOffset, this))
+					return true;
+
+				// The quote bundle might have been freed from the cache
+				// while we were traversing it.
+				if (quoteBundle.ensureLoaded() && quoteCache.fillCursor(symbol, dateOffset, this))
+					return true;
+			}
+
+			// No, try the next date.. and the next date...
+			else if (dateOffset < lastDateOffset) {
+				dateOffset++;
+				symbols = quoteBundle.getSymbols(dateOffset);
+				symbolIndex = 0;
+			}
+
+			else {
+				symbol = null;
+				return false;
+			}
+		}
+	}
+
+	// Called by the quote cache to set the values of the current quote
+	void setValues(long day_volume, double day_low, double day_high, double day_open, double day_close) {
+		this.day_volume = day_volume;
+		this.day_low = day_low;
+		this.day_high = day_high;
+		this.day_open = day_open;
+		this.day_close = day_close;
+	}
+
+	/**
+	 * Return the fast access date offset of the current quote.
+	 *
+	 * @return fast access date offset, see {@link EODQuoteCache}
+	 */
+	public int getDateOffset() {
+		return dateOffset;
+	}
+
+	public Symbol getSymbol() {
+		return symbol;
+	}
+
+	public TradingDate getDate() {
+		return quoteCache.offsetToDate(dateOffset);
+	}
+
+	public long getDayVolume() {
+		return day_volume;
+	}
+
+	public double getDayLow() {
+		return day_low;
+	}
+
+	public double getDayHigh() {
+		return day_high;
+	}
+
+	public double getDayOpen() {
+		return day_open;
+	}
+
+	public double getDayClose() {
+		return day_close;
+	}
+
+	public double getQuote(int quote) throws UnsupportedOperationException {
+
+		switch (quote) {
+		case (DAY_OPEN):
+			return day_open;
+		case (DAY_CLOSE):
+			return day_close;
+		case (DAY_LOW):
+			return day_low;
+		case (DAY_HIGH):
+			return day_high;
+		case (DAY_VOLUME):
+			return day_volume;
+		default:
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * Return a copy of the current quote which can be kept after the cursor has
+	 * moved on.
+	 *
+	 * @return the current quote
+	 */
+	public EODQuote toQuote() {
+		assert symbol != null;
+
+		return new EODQuote(symbol, getDate(), day_volume, day_low, day_high, day_open, day_close);
+	}
+}
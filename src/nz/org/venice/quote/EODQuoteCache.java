@@ -19,9 +19,17 @@
 package nz.org.venice.quote;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
 
 import nz.org.venice.prefs.PreferencesManager;
 import nz.org.venice.util.TradingDate;
@@ -49,6 +57,28 @@ import nz.org.venice.util.WeekendDateException;
  * (i.e. not a weekend) has offset -1, the previous one to that -2 etc. You can
  * convert to and from fast access dates using {@link #dateToOffset} and
  * {@link #offsetToDate}.
+ * <p>
+ * The cache is split into two tiers. Quotes on the most recent dates are kept
+ * uncompressed, one object per quote. Quotes older than that are compressed in
+ * blocks of consecutive days per symbol, see {@link EODQuoteBlock}, which takes
+ * a fraction of the memory. A small window of recently used blocks are kept
+ * decoded so that reading a run of old quotes doesn't decode the same block
+ * over and over.
+ * <p>
+ * Alternatively the cache can keep all of its quotes outside of the Java heap
+ * in an {@link OffHeapQuoteStore}, so that a large cache doesn't add to the
+ * work of the garbage collector. This is chosen when the cache is created, see
+ * {@link PreferencesManager#getOffHeapQuoteCache}.
+ * <p>
+ * Several threads can read quotes at once, e.g. when evaluating a rule for
+ * many symbols in parallel, while one of them loads more quotes as its quote
+ * bundle expands. Loading, freeing or adding dates takes the write lock, so a
+ * reader never sees a half updated cache. Reading an uncompressed quote takes
+ * no lock at all, as each date's quotes are kept in a concurrent map and the
+ * maps are published to readers whenever they change. Quotes in the off-heap
+ * store are read optimistically, and only read again under the read lock if
+ * the store changed meanwhile. Compressed quotes are decoded into a window
+ * shared by all readers, so reading them takes the write lock.
  *
  * @author Andrew Leppard
  * @see EODQuote
@@ -58,14 +88,53 @@ import nz.org.venice.util.WeekendDateException;
 public class EODQuoteCache {
 	// Cache is organised by a list of hashmaps, each hashmap
 	// corresponds to a trading day. The hashmap's keys are stock symbols.
+	// The maps are concurrent so readers can look up quotes without locking.
 	private List cache;
 
+	// The maps in the cache list as of the last change to the list. Once
+	// published the array is never changed, so readers can use it without
+	// locking.
+	private volatile Map[] hotQuotes = new Map[0];
+
+	// Whether the cache list has changed since it was last published
+	private boolean isHotQuotesChanged = false;
+
 	// Keep list of dates in cache
 	private List dates;
 
 	// Number of quotes in cache
 	private int size = 0;
 
+	// Quotes on dates at least this many days older than the newest date
+	// are compressed.
+	private int hotDays;
+
+	// Compressed quotes. Maps each symbol to its ColdQuoteSeries.
+	private HashMap coldQuotes;
+
+	// Number of dates inserted at the front of the cache by insertDate().
+	// Compressed blocks are positioned relative to this so that inserting a
+	// date does not move them.
+	private int insertedDates = 0;
+
+	// Window of recently used compressed blocks that are kept decoded. When
+	// the window is full the least recently used block is compressed again.
+	private LinkedHashMap decodedBlocks;
+
+	// Maximum number of blocks in the decoded window
+	private final static int DECODED_BLOCKS = 8192;
+
+	// Per-symbol index of the nearest loaded quote. For each symbol the
+	// array maps a cache index (i.e. -dateOffset) to the cache index of the
+	// nearest quote on that date or before it, or -1 if there isn't one.
+	// Indices are built lazily the first time a symbol is queried and are
+	// then kept up to date by load() and free().
+	private HashMap nearestIndex;
+
+	// If not null, all quotes are kept in this off-heap store rather than
+	// in the hash maps or compressed blocks.
+	private OffHeapQuoteStore offHeapStore = null;
+
 	// When the cache was instantiated.
 	private TradingTime instanceTimeStamp;
 
@@ -76,6 +145,15 @@ public class EODQuoteCache {
 	// Singleton instance of this class
 	private static EODQuoteCache instance = null;
 
+	// Orders the dates in the cache, newest first
+	private final static TradingDateComparator DATE_COMPARATOR = new TradingDateComparator(
+			TradingDateComparator.BACKWARDS);
+
+	// Guards the dates, the quotes and the nearest quote indices. The lock is
+	// always taken before synchronizing on the cache. It isn't reentrant, so
+	// methods called while holding it mustn't take it again.
+	private final StampedLock lock = new StampedLock();
+
 	/**
 	 * This class is used to store quotes in the quote cache. We do not use
 	 * {@link EODQuote} directly because it would take more space.
@@ -131,16 +209,90 @@ public class EODQuoteCache {
 		}
 	}
 
+	// The compressed blocks of quotes for a single symbol, indexed by block
+	// number.
+	private static class ColdQuoteSeries {
+		private int firstBlockNumber = 0;
+		private EODQuoteBlock[] blocks = new EODQuoteBlock[0];
+		private int blockCount = 0;
+
+		public EODQuoteBlock get(int blockNumber) {
+			int i = blockNumber - firstBlockNumber;
+
+			return (i >= 0 && i < blocks.length) ? blocks[i] : null;
+		}
+
+		public EODQuoteBlock getOrCreate(int blockNumber) {
+			if (blockCount == 0) {
+				firstBlockNumber = blockNumber;
+				if (blocks.length == 0)
+					blocks = new EODQuoteBlock[1];
+			} else if (blockNumber < firstBlockNumber) {
+				int shift = firstBlockNumber - blockNumber;
+				EODQuoteBlock[] newBlocks = new EODQuoteBlock[blocks.length + shift];
+				System.arraycopy(blocks, 0, newBlocks, shift, blocks.length);
+				blocks = newBlocks;
+				firstBlockNumber = blockNumber;
+			} else if (blockNumber - firstBlockNumber >= blocks.length) {
+				blocks = Arrays.copyOf(blocks,
+						Math.max(blockNumber - firstBlockNumber + 1, blocks.length * 2));
+			}
+
+			int i = blockNumber - firstBlockNumber;
+
+			if (blocks[i] == null) {
+				blocks[i] = new EODQuoteBlock();
+				blockCount++;
+			}
+
+			return blocks[i];
+		}
+
+		public void remove(int blockNumber) {
+			int i = blockNumber - firstBlockNumber;
+
+			if (i >= 0 && i < blocks.length && blocks[i] != null) {
+				blocks[i] = null;
+				blockCount--;
+			}
+		}
+
+		public boolean isEmpty() {
+			return blockCount == 0;
+		}
+	}
+
 	// Class should only be constructed once by this class
 	private EODQuoteCache() {
 		cache = new ArrayList();
 		dates = new ArrayList();
+		nearestIndex = new HashMap();
+		coldQuotes = new HashMap();
+		hotDays = PreferencesManager.getUncompressedQuoteDays();
+
+		// Quotes in the off-heap store are never compressed
+		if (PreferencesManager.getOffHeapQuoteCache()) {
+			offHeapStore = new OffHeapQuoteStore();
+			hotDays = Integer.MAX_VALUE;
+		}
+
+		decodedBlocks = new LinkedHashMap(16, 0.75F, true) {
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if (size() > DECODED_BLOCKS) {
+					((EODQuoteBlock) eldest.getKey()).encode();
+					return true;
+				}
+				return false;
+			}
+		};
 		instanceTimeStamp = new TradingTime();
 
 		TradingDate lastDate = QuoteSourceManager.getSource().getLastDate();
 
 		if (lastDate != null)
 			addDate(lastDate);
+
+		publishHotQuotes();
 	}
 
 	/**
@@ -199,14 +351,112 @@ public class EODQuoteCache {
 	 * @exception QuoteNotLoadedException if the quote was not in the cache
 	 */
 	public double getQuote(Symbol symbol, int quoteType, int dateOffset) throws QuoteNotLoadedException {
+		assert dateOffset <= 0;
+
+		if (offHeapStore != null) {
+			double quote = findOffHeapQuote(symbol, quoteType, dateOffset);
+
+			if (Double.isNaN(quote))
+				throw QuoteNotLoadedException.getInstance();
+
+			return quote;
+		}
+
+		Map quotesForDate = getHotQuotes(dateOffset);
+
+		if (quotesForDate != null) {
+			EODQuoteCacheQuote quote = (EODQuoteCacheQuote) quotesForDate.get(symbol);
+
+			if (quote != null)
+				return quote.getQuote(quoteType);
+		}
 
-		// Get the quote cache quote for the given symbol + date
-		EODQuoteCacheQuote quote = getQuoteCacheQuote(symbol, dateOffset);
+		if (quotesForDate == null || !isCold(-dateOffset))
+			throw QuoteNotLoadedException.getInstance();
+
+		long stamp = lock.writeLock();
+
+		try {
+			// Get the quote cache quote for the given symbol + date
+			EODQuoteCacheQuote quote = getQuoteCacheQuote(symbol, dateOffset);
+
+			if (quote != null)
+				return quote.getQuote(quoteType);
+			else
+				return getColdQuote(symbol, quoteType, dateOffset);
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Get a quote from the cache, returning <code>NaN</code> rather than throwing
+	 * an exception if the quote is not in the cache.
+	 *
+	 * @param symbol     the symbol to load
+	 * @param quoteType  the quote type, one of {@link IQuote#DAY_OPEN},
+	 *                   {@link IQuote#DAY_CLOSE}, {@link IQuote#DAY_LOW},
+	 *                   {@link IQuote#DAY_HIGH}, {@link IQuote#DAY_VOLUME}
+	 * @param dateOffset fast access date offset
+	 * @return the quote or <code>NaN</code> if the quote was not in the cache
+	 */
+	public double findQuote(Symbol symbol, int quoteType, int dateOffset) {
+		assert dateOffset <= 0;
+
+		if (offHeapStore != null)
+			return findOffHeapQuote(symbol, quoteType, dateOffset);
+
+		Map quotesForDate = getHotQuotes(dateOffset);
+
+		if (quotesForDate == null)
+			return Double.NaN;
+
+		EODQuoteCacheQuote quote = (EODQuoteCacheQuote) quotesForDate.get(symbol);
 
 		if (quote != null)
 			return quote.getQuote(quoteType);
-		else
-			throw QuoteNotLoadedException.getInstance();
+
+		if (!isCold(-dateOffset))
+			return Double.NaN;
+
+		long stamp = lock.writeLock();
+
+		try {
+			quote = (EODQuoteCacheQuote) ((Map) cache.get(-dateOffset)).get(symbol);
+
+			if (quote != null)
+				return quote.getQuote(quoteType);
+			else
+				return findColdQuote(symbol, quoteType, dateOffset);
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	// Get a quote from the off-heap store, or NaN if there isn't one. The
+	// store is read without locking and read again under the lock only if it
+	// was changed meanwhile.
+	private double findOffHeapQuote(Symbol symbol, int quoteType, int dateOffset) {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				double quote = offHeapStore.findQuote(symbol, getStoreDay(-dateOffset), quoteType);
+
+				if (lock.validate(stamp))
+					return quote;
+			} catch (RuntimeException e) {
+				// The store was changed while we were reading it
+			}
+		}
+
+		stamp = lock.readLock();
+
+		try {
+			return offHeapStore.findQuote(symbol, getStoreDay(-dateOffset), quoteType);
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 
 	/**
@@ -218,14 +468,157 @@ public class EODQuoteCache {
 	 * @exception QuoteNotLoadedException if the quote was not in the cache
 	 */
 	public EODQuote getQuote(Symbol symbol, int dateOffset) throws QuoteNotLoadedException {
+		assert dateOffset <= 0;
+
+		if (offHeapStore != null) {
+			long stamp = lock.readLock();
+
+			try {
+				if (!offHeapStore.contains(symbol, getStoreDay(-dateOffset)))
+					throw QuoteNotLoadedException.getInstance();
+
+				return offHeapStore.getQuote(symbol, getStoreDay(-dateOffset), getDate(dateOffset));
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		Map quotesForDate = getHotQuotes(dateOffset);
+		EODQuoteCacheQuote quote = null;
 
-		// Get the quote cache quote for the given symbol + date
-		EODQuoteCacheQuote quote = getQuoteCacheQuote(symbol, dateOffset);
+		if (quotesForDate != null)
+			quote = (EODQuoteCacheQuote) quotesForDate.get(symbol);
 
 		if (quote != null)
 			return quote.toQuote(symbol, offsetToDate(dateOffset));
-		else
+
+		if (quotesForDate == null || !isCold(-dateOffset))
 			throw QuoteNotLoadedException.getInstance();
+
+		long stamp = lock.writeLock();
+
+		try {
+			// Get the quote cache quote for the given symbol + date
+			quote = getQuoteCacheQuote(symbol, dateOffset);
+
+			if (quote != null)
+				return quote.toQuote(symbol, getDate(dateOffset));
+			else
+				return getColdQuote(symbol, dateOffset);
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	// Get a compressed quote while holding the write lock
+	private double getColdQuote(Symbol symbol, int quoteType, int dateOffset)
+			throws QuoteNotLoadedException {
+		EODQuoteBlock block = getDecodedColdBlock(symbol, -dateOffset);
+
+		return block.getQuote(getBlockDay(-dateOffset), quoteType);
+	}
+
+	// Get a compressed quote, or NaN if there isn't one, while holding the
+	// write lock
+	private double findColdQuote(Symbol symbol, int quoteType, int dateOffset) {
+		if (getColdBlock(symbol, -dateOffset) == null)
+			return Double.NaN;
+
+		try {
+			return getColdQuote(symbol, quoteType, dateOffset);
+		} catch (QuoteNotLoadedException e) {
+			// Shouldn't happen as we've just found the block
+			assert false;
+			return Double.NaN;
+		}
+	}
+
+	// Get a compressed quote while holding the write lock
+	private EODQuote getColdQuote(Symbol symbol, int dateOffset) throws QuoteNotLoadedException {
+		EODQuoteBlock block = getDecodedColdBlock(symbol, -dateOffset);
+		int day = getBlockDay(-dateOffset);
+
+		return new EODQuote(symbol, getDate(dateOffset), block.getDayVolume(day), (double) block.getDayLow(day),
+				(double) block.getDayHigh(day), (double) block.getDayOpen(day), (double) block.getDayClose(day));
+	}
+
+	// Copy the given quote into the cursor's view. Returns false if the quote
+	// is not in the cache.
+	boolean fillCursor(Symbol symbol, int dateOffset, EODQuoteBundleCursor cursor) {
+		assert dateOffset <= 0;
+
+		if (offHeapStore != null)
+			return fillCursorFromOffHeapQuote(symbol, dateOffset, cursor);
+
+		Map quotesForDate = getHotQuotes(dateOffset);
+
+		if (quotesForDate == null)
+			return false;
+
+		EODQuoteCacheQuote quote = (EODQuoteCacheQuote) quotesForDate.get(symbol);
+
+		if (quote == null) {
+			if (!isCold(-dateOffset))
+				return false;
+
+			long stamp = lock.writeLock();
+
+			try {
+				quote = (EODQuoteCacheQuote) ((Map) cache.get(-dateOffset)).get(symbol);
+
+				if (quote == null)
+					return fillCursorFromColdQuote(symbol, dateOffset, cursor);
+			} finally {
+				unlockWrite(stamp);
+			}
+		}
+
+		cursor.setValues(quote.day_volume, (double) quote.day_low, (double) quote.day_high,
+				(double) quote.day_open, (double) quote.day_close);
+		return true;
+	}
+
+	// Copy the given off-heap quote into the cursor's view, reading the store
+	// as findOffHeapQuote() does
+	private boolean fillCursorFromOffHeapQuote(Symbol symbol, int dateOffset, EODQuoteBundleCursor cursor) {
+		long stamp = lock.tryOptimisticRead();
+
+		if (stamp != 0) {
+			try {
+				boolean found = offHeapStore.fillCursor(symbol, getStoreDay(-dateOffset), cursor);
+
+				if (lock.validate(stamp))
+					return found;
+			} catch (RuntimeException e) {
+				// The store was changed while we were reading it
+			}
+		}
+
+		stamp = lock.readLock();
+
+		try {
+			return offHeapStore.fillCursor(symbol, getStoreDay(-dateOffset), cursor);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	// Copy the given compressed quote into the cursor's view while holding
+	// the write lock
+	private boolean fillCursorFromColdQuote(Symbol symbol, int dateOffset, EODQuoteBundleCursor cursor) {
+		EODQuoteBlock block;
+
+		try {
+			block = getDecodedColdBlock(symbol, -dateOffset);
+		} catch (QuoteNotLoadedException e) {
+			return false;
+		}
+
+		int day = getBlockDay(-dateOffset);
+
+		cursor.setValues(block.getDayVolume(day), (double) block.getDayLow(day), (double) block.getDayHigh(day),
+				(double) block.getDayOpen(day), (double) block.getDayClose(day));
+		return true;
 	}
 
 	/**
@@ -235,16 +628,34 @@ public class EODQuoteCache {
 	 * @return list of symbols
 	 */
 	public List getSymbols(int dateOffset) {
-		HashMap quotesForDate;
+		Map quotesForDate;
+
+		long stamp = lock.readLock();
 
 		try {
-			quotesForDate = getQuotesForDate(dateOffset);
-		} catch (QuoteNotLoadedException e) {
-			// no symbols loaded on date
-			quotesForDate = new HashMap(0);
-		}
+			try {
+				quotesForDate = getQuotesForDate(dateOffset);
+			} catch (QuoteNotLoadedException e) {
+				// no symbols loaded on date
+				return new ArrayList();
+			}
 
-		return new ArrayList(quotesForDate.keySet());
+			if (offHeapStore != null) {
+				Set symbols = new HashSet();
+				addOffHeapSymbols(symbols, -dateOffset, -dateOffset);
+				return new ArrayList(symbols);
+			}
+
+			if (isCold(-dateOffset)) {
+				Set symbols = new HashSet(quotesForDate.keySet());
+				addColdSymbols(symbols, -dateOffset, -dateOffset);
+				return new ArrayList(symbols);
+			}
+
+			return new ArrayList(quotesForDate.keySet());
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 
 	/**
@@ -255,22 +666,77 @@ public class EODQuoteCache {
 	 * @return list of symbols
 	 */
 	public List getSymbols(int firstDateOffset, int lastDateOffset) {
-		HashMap allSymbols = new HashMap();
+		// Don't bother weeding out duplicates if there is only one day
+		if (firstDateOffset == lastDateOffset)
+			return getSymbols(firstDateOffset);
 
-		// Go through each day, collecting symbols. We put them all in
-		// a hashmap to quickly weed out the numerous duplicates. We
-		// don't call getSymbols() for each day because unrolling the
-		// call is much, much faster.
-		for (int dateOffset = firstDateOffset; dateOffset <= lastDateOffset; dateOffset++) {
-			try {
-				HashMap todaySymbols = getQuotesForDate(dateOffset);
-				allSymbols.putAll(todaySymbols);
-			} catch (QuoteNotLoadedException e) {
-				// no symbols loaded on date
+		Set allSymbols = new HashSet();
+
+		long stamp = lock.readLock();
+
+		try {
+			if (offHeapStore != null) {
+				int firstIndex = -lastDateOffset;
+				int lastIndex = Math.min(-firstDateOffset, dates.size() - 1);
+
+				if (firstIndex <= lastIndex)
+					addOffHeapSymbols(allSymbols, firstIndex, lastIndex);
+
+				return new ArrayList(allSymbols);
+			}
+
+			// Go through each day, collecting symbols. We put them all in
+			// a set to quickly weed out the numerous duplicates. We
+			// don't call getSymbols() for each day because unrolling the
+			// call is much, much faster.
+			for (int dateOffset = firstDateOffset; dateOffset <= lastDateOffset; dateOffset++) {
+				try {
+					Map todaySymbols = getQuotesForDate(dateOffset);
+					allSymbols.addAll(todaySymbols.keySet());
+				} catch (QuoteNotLoadedException e) {
+					// no symbols loaded on date
+				}
 			}
+
+			// Then add the symbols with compressed quotes in the range
+			int firstIndex = Math.max(-lastDateOffset, hotDays);
+			int lastIndex = Math.min(-firstDateOffset, dates.size() - 1);
+
+			if (firstIndex <= lastIndex)
+				addColdSymbols(allSymbols, firstIndex, lastIndex);
+
+			return new ArrayList(allSymbols);
+		} finally {
+			lock.unlockRead(stamp);
 		}
+	}
 
-		return new ArrayList(allSymbols.keySet());
+	// Add the symbols which have a compressed quote between the given cache
+	// indices (inclusive) to the given set. The compressed blocks are only
+	// read, so this can be called while holding the read lock.
+	private void addColdSymbols(Set symbols, int firstIndex, int lastIndex) {
+		for (Iterator iterator = coldQuotes.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry entry = (Map.Entry) iterator.next();
+			ColdQuoteSeries series = (ColdQuoteSeries) entry.getValue();
+
+			for (int index = firstIndex; index <= lastIndex; index++) {
+				EODQuoteBlock block = series.get(getBlockNumber(index));
+
+				if (block == null) {
+					// Skip to the start of the next block
+					index += EODQuoteBlock.SIZE - 1 - getBlockDay(index);
+				} else if (block.contains(getBlockDay(index))) {
+					symbols.add(entry.getKey());
+					break;
+				}
+			}
+		}
+	}
+
+	// Add the symbols which have an off-heap quote between the given cache
+	// indices (inclusive) to the given set.
+	private void addOffHeapSymbols(Set symbols, int firstIndex, int lastIndex) {
+		offHeapStore.addSymbols(symbols, getStoreDay(firstIndex), getStoreDay(lastIndex));
 	}
 
 	/**
@@ -284,23 +750,138 @@ public class EODQuoteCache {
 	public boolean containsQuote(Symbol symbol, int dateOffset) {
 		assert dateOffset <= 0;
 
-		if (dateOffset > -dates.size()) {
-			HashMap symbols = (HashMap) cache.get(-dateOffset);
+		if (offHeapStore != null)
+			return !Double.isNaN(findOffHeapQuote(symbol, IQuote.DAY_VOLUME, dateOffset));
 
-			if (symbols != null) {
-				EODQuoteCacheQuote quote = (EODQuoteCacheQuote) symbols.get(symbol);
-				if (quote != null)
-					return true;
+		Map quotesForDate = getHotQuotes(dateOffset);
+
+		if (quotesForDate == null)
+			return false;
+
+		if (quotesForDate.containsKey(symbol))
+			return true;
+
+		if (!isCold(-dateOffset))
+			return false;
+
+		// Finding the compressed block doesn't decode it
+		long stamp = lock.readLock();
+
+		try {
+			return ((Map) cache.get(-dateOffset)).containsKey(symbol) || getColdBlock(symbol, -dateOffset) != null;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Return the fast access date offset of the nearest quote for the given
+	 * symbol that is on or before the given date. The first call for a symbol
+	 * builds an index of its loaded quotes, after which each lookup takes
+	 * constant time regardless of how many days the symbol was not traded.
+	 *
+	 * @param symbol     symbol
+	 * @param dateOffset fast access date offset
+	 * @return fast access date offset of the nearest quote
+	 * @exception QuoteNotLoadedException if there is no quote for the symbol on or
+	 *                                    before the given date
+	 */
+	public int getNearestOffset(Symbol symbol, int dateOffset) throws QuoteNotLoadedException {
+		assert dateOffset <= 0;
+
+		long stamp = lock.readLock();
+
+		try {
+			if (dateOffset <= -dates.size())
+				throw QuoteNotLoadedException.getInstance();
+
+			int nearest;
+
+			// Readers share the lazily built indices
+			synchronized (this) {
+				nearest = getNearestIndex(symbol)[-dateOffset];
 			}
+
+			if (nearest < 0)
+				throw QuoteNotLoadedException.getInstance();
+
+			return -nearest;
+		} finally {
+			lock.unlockRead(stamp);
 		}
-		return false;
+	}
+
+	// Returns the nearest quote index for the given symbol, building it if
+	// necessary. The array is always at least as long as the list of dates.
+	private int[] getNearestIndex(Symbol symbol) {
+		int[] index = (int[]) nearestIndex.get(symbol);
+
+		if (index == null) {
+			index = new int[dates.size()];
+			int nearest = -1;
+
+			for (int i = dates.size() - 1; i >= 0; i--) {
+				Map quotesForDate = (Map) cache.get(i);
+
+				if (quotesForDate.containsKey(symbol) || (isCold(i) && getColdBlock(symbol, i) != null)
+						|| (offHeapStore != null && offHeapStore.contains(symbol, getStoreDay(i))))
+					nearest = i;
+
+				index[i] = nearest;
+			}
+
+			nearestIndex.put(symbol, index);
+		} else if (index.length < dates.size()) {
+			// The cache has grown to include older dates. We haven't
+			// loaded any quotes on those dates yet, or load() would have
+			// grown the index, so they have no nearest quote.
+			int oldLength = index.length;
+			index = Arrays.copyOf(index, Math.max(dates.size(), oldLength * 2));
+			Arrays.fill(index, oldLength, index.length, -1);
+			nearestIndex.put(symbol, index);
+		}
+
+		return index;
+	}
+
+	// Update the nearest quote index for a quote that has been loaded at the
+	// given cache index.
+	private void updateNearestIndexOnLoad(Symbol symbol, int loadedIndex) {
+		if (!nearestIndex.containsKey(symbol))
+			return;
+
+		int[] index = getNearestIndex(symbol);
+
+		// Every newer date that pointed past this date, or had no nearest
+		// quote, now points here. Once we reach a date that already has a
+		// quote at least as near we can stop.
+		for (int i = loadedIndex; i >= 0; i--) {
+			if (index[i] >= 0 && index[i] <= loadedIndex)
+				break;
+
+			index[i] = loadedIndex;
+		}
+	}
+
+	// Update the nearest quote index for a quote that has been removed from
+	// the given cache index.
+	private void updateNearestIndexOnFree(Symbol symbol, int freedIndex) {
+		int[] index = (int[]) nearestIndex.get(symbol);
+
+		if (index == null || freedIndex >= index.length || index[freedIndex] != freedIndex)
+			return;
+
+		int replacement = (freedIndex + 1 < index.length) ? index[freedIndex + 1] : -1;
+
+		for (int i = freedIndex; i >= 0 && index[i] == freedIndex; i--)
+			index[i] = replacement;
 	}
 
 	// Returns the quote cache object for the given date
 	private EODQuoteCacheQuote getQuoteCacheQuote(Symbol symbol, int dateOffset) throws QuoteNotLoadedException {
 
 		// First get the hash map for the given date
-		HashMap symbols = getQuotesForDate(dateOffset);
+		Map symbols = getQuotesForDate(dateOffset);
 		assert symbols != null;
 
 		// Second get the quote for the given symbol on the given date
@@ -308,14 +889,14 @@ public class EODQuoteCache {
 	}
 
 	// Returns a HashMap containing quotes for that date
-	private HashMap getQuotesForDate(int dateOffset) throws QuoteNotLoadedException {
+	private Map getQuotesForDate(int dateOffset) throws QuoteNotLoadedException {
 
 		assert dateOffset <= 0;
 
 		if (dateOffset <= -dates.size())
 			throw QuoteNotLoadedException.getInstance();
 
-		HashMap quotesForDate = (HashMap) cache.get(-dateOffset);
+		Map quotesForDate = (Map) cache.get(-dateOffset);
 
 		if (quotesForDate == null)
 			throw QuoteNotLoadedException.getInstance();
@@ -323,6 +904,30 @@ public class EODQuoteCache {
 		return quotesForDate;
 	}
 
+	// Returns the map of quotes for the given date, from the maps last
+	// published to readers, or null if the date wasn't in the cache then.
+	// This doesn't need the lock.
+	private Map getHotQuotes(int dateOffset) {
+		Map[] hotQuotes = this.hotQuotes;
+
+		return -dateOffset < hotQuotes.length ? hotQuotes[-dateOffset] : null;
+	}
+
+	// Publish the cache list to readers if it has changed. This must be
+	// called before releasing the write lock.
+	private void publishHotQuotes() {
+		if (isHotQuotesChanged) {
+			hotQuotes = (Map[]) cache.toArray(new Map[cache.size()]);
+			isHotQuotesChanged = false;
+		}
+	}
+
+	// Release the write lock, first publishing any changes to the cache list
+	private void unlockWrite(long stamp) {
+		publishHotQuotes();
+		lock.unlockWrite(stamp);
+	}
+
 	/**
 	 * Load the given quote into the cache.
 	 *
@@ -344,20 +949,38 @@ public class EODQuoteCache {
 	 * @param day_open   day open
 	 * @param day_close  day close
 	 */
-	public synchronized void load(Symbol symbol, TradingDate date, long day_volume, float day_low, float day_high,
+	public void load(Symbol symbol, TradingDate date, long day_volume, float day_low, float day_high,
 			float day_open, float day_close) {
-		// Find the fast date offset for the quote
-		int dateOffset;
+		long stamp = lock.writeLock();
 
 		try {
-			dateOffset = dateToOffset(date);
-		} catch (WeekendDateException e) {
-			// If the date falls on a weekend then skip it
+			loadQuote(symbol, date, day_volume, day_low, day_high, day_open, day_close);
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	// Load the given quote into the cache while holding the write lock
+	private void loadQuote(Symbol symbol, TradingDate date, long day_volume, float day_low, float day_high,
+			float day_open, float day_close) {
+		// Find the fast date offset for the quote
+		int dateOffset = expandToOffset(date);
+
+		// If the date falls on a weekend then skip it
+		if (dateOffset > 0)
+			return;
+
+		if (offHeapStore != null) {
+			if (offHeapStore.set(symbol, getStoreDay(-dateOffset), day_volume, day_low, day_high, day_open,
+					day_close)) {
+				size++;
+				updateNearestIndexOnLoad(symbol, -dateOffset);
+			}
 			return;
 		}
 
 		// Get hash of quotes for that date
-		HashMap quotesForDate;
+		Map quotesForDate;
 
 		try {
 			quotesForDate = getQuotesForDate(dateOffset);
@@ -366,7 +989,7 @@ public class EODQuoteCache {
 			// the quote range so this shouldn't happen
 			assert false;
 
-			quotesForDate = new HashMap(0);
+			quotesForDate = new ConcurrentHashMap(0);
 		}
 
 		// Lots of stocks don't change between days, so check to see if
@@ -390,9 +1013,13 @@ public class EODQuoteCache {
 		// (they are our indices so we already know them)
 		Object previousQuote = quotesForDate.put(symbol, todayQuote);
 
-		// If the quote wasn't already there then increase size counter
-		if (previousQuote == null)
+		// If the quote wasn't already there then increase size counter. It
+		// might already be there in compressed form, in which case the
+		// uncompressed quote replaces it the next time we compress.
+		if (previousQuote == null && !(isCold(-dateOffset) && getColdBlock(symbol, -dateOffset) != null)) {
 			size++;
+			updateNearestIndexOnLoad(symbol, -dateOffset);
+		}
 	}
 
 	/**
@@ -401,24 +1028,49 @@ public class EODQuoteCache {
 	 * @param symbol     the symbol of the quote to remove
 	 * @param dateOffset the fast access date offset of the quote to remove
 	 */
-	public synchronized void free(Symbol symbol, int dateOffset) {
+	public void free(Symbol symbol, int dateOffset) {
+		long stamp = lock.writeLock();
+
 		try {
-			HashMap quotesForDate = getQuotesForDate(dateOffset);
+			freeQuote(symbol, dateOffset);
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	// Remove the given quote from the cache while holding the write lock
+	private void freeQuote(Symbol symbol, int dateOffset) {
+		if (offHeapStore != null) {
+			assert dateOffset > -dates.size();
+
+			if (offHeapStore.clear(symbol, getStoreDay(-dateOffset))) {
+				size--;
+				updateNearestIndexOnFree(symbol, -dateOffset);
+			}
+			return;
+		}
+
+		try {
+			Map quotesForDate = getQuotesForDate(dateOffset);
 			Object quote = quotesForDate.remove(symbol);
+			boolean freedColdQuote = isCold(-dateOffset) && freeColdQuote(symbol, -dateOffset);
 
 			// If we actually deleted a quote, then reduce our quote counter.
 			// We have to check that we actually did remove something from
 			// the cache, so that our size count is correct. Its OK for the caller
 			// to try to delete a quote that's not in the cache - if it wasn't
 			// then the quote bundles would have to keep track of holidays etc...
-			if (quote != null) {
+			if (quote != null || freedColdQuote) {
 				size--;
+				updateNearestIndexOnFree(symbol, -dateOffset);
 
 				// If the hashmap is empty then resize it to the minimum size.
 				// Otherwise we may have 1,000s of large hash maps taking up
 				// a *LOT* of memory.
-				if (quotesForDate.isEmpty())
-					cache.set(-dateOffset, new HashMap());
+				if (quote != null && quotesForDate.isEmpty()) {
+					cache.set(-dateOffset, new ConcurrentHashMap(0));
+					isHotQuotesChanged = true;
+				}
 			}
 
 			assert size >= 0;
@@ -430,6 +1082,173 @@ public class EODQuoteCache {
 		}
 	}
 
+	/**
+	 * Hand back any memory held outside of the heap that is no longer used by
+	 * any quotes. This is called after quotes have been freed from the cache.
+	 */
+	public void trim() {
+		long stamp = lock.writeLock();
+
+		try {
+			if (offHeapStore != null)
+				offHeapStore.trim();
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Compress the uncompressed quotes on dates older than the hot window. This is
+	 * called after quotes have been loaded into the cache.
+	 */
+	public void compress() {
+		long stamp = lock.writeLock();
+
+		try {
+			compressQuotes();
+		} finally {
+			unlockWrite(stamp);
+		}
+	}
+
+	// Compress the quotes outside the hot window while holding the write lock
+	private void compressQuotes() {
+		// Blocks we had to decode to add quotes to. These are compressed
+		// again as soon as we have finished with them.
+		List blocks = new ArrayList();
+		int currentBlockNumber = Integer.MIN_VALUE;
+
+		for (int index = hotDays; index < cache.size(); index++) {
+			Map quotesForDate = (Map) cache.get(index);
+
+			if (quotesForDate.isEmpty())
+				continue;
+
+			int blockNumber = getBlockNumber(index);
+			int day = getBlockDay(index);
+
+			if (blockNumber != currentBlockNumber) {
+				encodeBlocks(blocks);
+				currentBlockNumber = blockNumber;
+			}
+
+			for (Iterator iterator = quotesForDate.entrySet().iterator(); iterator.hasNext();) {
+				Map.Entry entry = (Map.Entry) iterator.next();
+				Symbol symbol = (Symbol) entry.getKey();
+				EODQuoteCacheQuote quote = (EODQuoteCacheQuote) entry.getValue();
+				ColdQuoteSeries series = (ColdQuoteSeries) coldQuotes.get(symbol);
+
+				if (series == null) {
+					series = new ColdQuoteSeries();
+					coldQuotes.put(symbol, series);
+				}
+
+				EODQuoteBlock block = series.getOrCreate(blockNumber);
+
+				if (!block.isDecoded()) {
+					block.decode();
+					blocks.add(block);
+				}
+
+				block.set(day, quote.day_volume, quote.day_low, quote.day_high, quote.day_open, quote.day_close);
+			}
+
+			// Readers holding the old map still find the quotes in it
+			cache.set(index, new ConcurrentHashMap(0));
+			isHotQuotesChanged = true;
+		}
+
+		encodeBlocks(blocks);
+	}
+
+	// Compress the given blocks again unless they are in the decoded window
+	private void encodeBlocks(List blocks) {
+		for (Iterator iterator = blocks.iterator(); iterator.hasNext();) {
+			EODQuoteBlock block = (EODQuoteBlock) iterator.next();
+
+			if (!decodedBlocks.containsKey(block))
+				block.encode();
+		}
+
+		blocks.clear();
+	}
+
+	// Returns the day of the given cache index in the off-heap store. Like
+	// block numbers, this doesn't change when dates are inserted.
+	private int getStoreDay(int index) {
+		return index - insertedDates;
+	}
+
+	// Return whether quotes at the given cache index are compressed
+	private boolean isCold(int index) {
+		return index >= hotDays;
+	}
+
+	// Return the number of the compressed block holding the given cache index
+	private int getBlockNumber(int index) {
+		return Math.floorDiv(index - insertedDates, EODQuoteBlock.SIZE);
+	}
+
+	// Return the day within the compressed block of the given cache index
+	private int getBlockDay(int index) {
+		return Math.floorMod(index - insertedDates, EODQuoteBlock.SIZE);
+	}
+
+	// Return the compressed block holding the quote for the symbol at the
+	// given cache index or null if there is no such quote.
+	private EODQuoteBlock getColdBlock(Symbol symbol, int index) {
+		ColdQuoteSeries series = (ColdQuoteSeries) coldQuotes.get(symbol);
+
+		if (series == null)
+			return null;
+
+		EODQuoteBlock block = series.get(getBlockNumber(index));
+
+		if (block == null || !block.contains(getBlockDay(index)))
+			return null;
+
+		return block;
+	}
+
+	// Return the compressed block holding the quote for the symbol at the
+	// given cache index, decoded so that the quote can be read.
+	private EODQuoteBlock getDecodedColdBlock(Symbol symbol, int index) throws QuoteNotLoadedException {
+		EODQuoteBlock block = getColdBlock(symbol, index);
+
+		if (block == null)
+			throw QuoteNotLoadedException.getInstance();
+
+		// Looking the block up also moves it to the front of the window
+		if (decodedBlocks.get(block) == null) {
+			block.decode();
+			decodedBlocks.put(block, block);
+		}
+
+		return block;
+	}
+
+	// Remove the compressed quote for the symbol at the given cache index.
+	// Returns true if there was one.
+	private boolean freeColdQuote(Symbol symbol, int index) {
+		EODQuoteBlock block = getColdBlock(symbol, index);
+
+		if (block == null)
+			return false;
+
+		block.clear(getBlockDay(index));
+
+		if (block.isEmpty()) {
+			ColdQuoteSeries series = (ColdQuoteSeries) coldQuotes.get(symbol);
+			series.remove(getBlockNumber(index));
+			decodedBlocks.remove(block);
+
+			if (series.isEmpty())
+				coldQuotes.remove(symbol);
+		}
+
+		return true;
+	}
+
 	/**
 	 * Convert between a date and its fast access date offset.
 	 *
@@ -440,18 +1259,32 @@ public class EODQuoteCache {
 	 */
 	public int dateToOffset(TradingDate date) throws WeekendDateException {
 
-		TradingDateComparator comparator = new TradingDateComparator(TradingDateComparator.BACKWARDS);
+		int dateOffset;
+		boolean expand;
+
+		long stamp = lock.readLock();
+
+		try {
+			dateOffset = -Collections.binarySearch(dates, date, DATE_COMPARATOR);
+
+			// If the date isn't yet in the cache because its too old, then binary
+			// search will return the negative size of dates.
+			// If the date isn't yet in the cache because its too new, then binary
+			// search will return 1.
+			// In either case expand the cache.
+			expand = dateOffset > dates.size() || dateOffset == 1;
+		} finally {
+			lock.unlockRead(stamp);
+		}
 
-		int dateOffset = -Collections.binarySearch(dates, date, comparator);
+		if (expand) {
+			stamp = lock.writeLock();
 
-		// If the date isn't yet in the cache because its too old, then binary search
-		// will return the negative size of dates.
-		// If the date isn't yet in the cache because its too new, then binary search
-		// will return 1.
-		// In either case expand the cache.
-		if (dateOffset > dates.size() || dateOffset == 1) {
-			expandToDate(date);
-			dateOffset = -Collections.binarySearch(dates, date, comparator);
+			try {
+				dateOffset = expandToOffset(date);
+			} finally {
+				unlockWrite(stamp);
+			}
 		}
 
 		// Only possible reason date isn't in cache now is because it falls
@@ -462,6 +1295,15 @@ public class EODQuoteCache {
 		return dateOffset;
 	}
 
+	// Expand the cache to include the given date and return its fast access
+	// date offset, or a positive number if it is on a weekend, while holding
+	// the write lock
+	private int expandToOffset(TradingDate date) {
+		expandToDate(date);
+
+		return -Collections.binarySearch(dates, date, DATE_COMPARATOR);
+	}
+
 	/**
 	 * Convert between a fast access date offset and a date.
 	 *
@@ -471,12 +1313,33 @@ public class EODQuoteCache {
 	public TradingDate offsetToDate(int dateOffset) {
 		assert dateOffset <= 0;
 
+		long stamp = lock.readLock();
+
+		try {
+			if (dateOffset > -dates.size())
+				return getDate(dateOffset);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+
 		// If the date isn't in the cache then expand it
-		while (dateOffset <= -dates.size()) {
-			TradingDate date = getFirstDate().previous(1);
-			addDate(date);
+		stamp = lock.writeLock();
+
+		try {
+			while (dateOffset <= -dates.size()) {
+				TradingDate date = getOldestDate().previous(1);
+				addDate(date);
+			}
+
+			return getDate(dateOffset);
+		} finally {
+			unlockWrite(stamp);
 		}
+	}
 
+	// Return the date at the given fast access date offset, which must already
+	// be in the cache
+	private TradingDate getDate(int dateOffset) {
 		return (TradingDate) dates.get(-dateOffset);
 	}
 
@@ -486,7 +1349,13 @@ public class EODQuoteCache {
 	 * @return the cache size
 	 */
 	public int size() {
-		return size;
+		long stamp = lock.readLock();
+
+		try {
+			return size;
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 
 	/**
@@ -495,10 +1364,13 @@ public class EODQuoteCache {
 	 * @return the oldest date in cache or <code>null</code> if the cache is empty.
 	 */
 	public TradingDate getFirstDate() {
-		if (dates.size() > 0)
-			return (TradingDate) dates.get(dates.size() - 1);
-		else
-			return null;
+		long stamp = lock.readLock();
+
+		try {
+			return getOldestDate();
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 
 	/**
@@ -507,6 +1379,27 @@ public class EODQuoteCache {
 	 * @return the newest date in cache or <code>null</code> if the cache is empty.
 	 */
 	public TradingDate getLastDate() {
+		long stamp = lock.readLock();
+
+		try {
+			return getNewestDate();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	// Return the oldest date in the cache, or null if it is empty, while
+	// holding the lock
+	private TradingDate getOldestDate() {
+		if (dates.size() > 0)
+			return (TradingDate) dates.get(dates.size() - 1);
+		else
+			return null;
+	}
+
+	// Return the newest date in the cache, or null if it is empty, while
+	// holding the lock
+	private TradingDate getNewestDate() {
 		if (dates.size() > 0)
 			return (TradingDate) dates.get(0);
 		else
@@ -520,7 +1413,13 @@ public class EODQuoteCache {
 	 *         dates in the cache.
 	 */
 	public int getFirstDateOffset() {
-		return -(dates.size() - 1);
+		long stamp = lock.readLock();
+
+		try {
+			return -(dates.size() - 1);
+		} finally {
+			lock.unlockRead(stamp);
+		}
 	}
 
 	// Add one date to cache. The date should be one trading day older than the
@@ -528,9 +1427,10 @@ public class EODQuoteCache {
 	private void addDate(TradingDate date) {
 		// Create a map with 0 initial capacity. I.e. we create an empty one
 		// because we might not even use it
-		HashMap map = new HashMap(0);
+		Map map = new ConcurrentHashMap(0);
 		cache.add(map);
 		dates.add(date);
+		isHotQuotesChanged = true;
 	}
 
 	// This function is used to insert a date into the cache that is newer
@@ -540,9 +1440,15 @@ public class EODQuoteCache {
 	private void insertDate(TradingDate date) {
 		// Create a map with 0 initial capacity. I.e. we create an empty one
 		// because we might not even use it
-		HashMap map = new HashMap(0);
+		Map map = new ConcurrentHashMap(0);
 		cache.add(0, map);
 		dates.add(0, date);
+		insertedDates++;
+		isHotQuotesChanged = true;
+
+		// All the cache indices have shifted so the nearest quote
+		// indices are no longer valid.
+		nearestIndex.clear();
 	}
 
 	// Expand the quote cache to encompass the given date
@@ -550,8 +1456,8 @@ public class EODQuoteCache {
 
 		assert date != null;
 
-		TradingDate firstDate = getFirstDate();
-		TradingDate lastDate = getLastDate();
+		TradingDate firstDate = getOldestDate();
+		TradingDate lastDate = getNewestDate();
 
 		// There are four cases to consider, first there are no dates
 		// in the cache
@@ -27,7 +27,6 @@ import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.prefs.Preferences;
@@ -252,10 +251,6 @@ public class ExportQuoteModule extends JPanel implements IModule {
 			// Load quotes from source and place them in a list ready to write
 			EODQuoteRange quoteRange = new EODQuoteRange(EODQuoteRange.ALL_SYMBOLS, date);
 			EODQuoteBundle quoteBundle = new EODQuoteBundle(quoteRange);
-			List quotes = new ArrayList();
-
-			for (Iterator innerIterator = quoteBundle.iterator(); innerIterator.hasNext();)
-				quotes.add(innerIterator.next());
 
 			// Stop if the user hit cancel
 			if (Thread.currentThread().isInterrupted())
@@ -263,7 +258,7 @@ public class ExportQuoteModule extends JPanel implements IModule {
 
 			// Export into file
 			try {
-				FileEODQuoteExport.exportFile(filter, new File(fileName), quotes);
+				FileEODQuoteExport.exportFile(filter, new File(fileName), quoteBundle.cursor());
 			} catch (IOException e) {
 				DesktopManager.showErrorMessage(Locale.getString("ERROR_WRITING_TO_FILE", fileName));
 				break;
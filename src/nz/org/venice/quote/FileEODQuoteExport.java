@@ -64,4 +64,30 @@ public class FileEODQuoteExport {
 			printWriter.close();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Export the quotes visited by the given cursor from Venice into a file. The
+	 * quotes are written as they are read so no list of quotes needs to be built.
+	 *
+	 * @param filter format of quote file
+	 * @param file   quote file to export
+	 * @param cursor cursor over the quotes to export
+	 * @exception IOException if there was an error writing the file
+	 */
+	public static void exportFile(IEODQuoteFilter filter, File file, EODQuoteBundleCursor cursor) throws IOException {
+
+		// Don't bother creating empty files
+		if (cursor.next()) {
+			FileWriter fileWriter = new FileWriter(file);
+			BufferedWriter bufferedWriter = new BufferedWriter(fileWriter);
+			PrintWriter printWriter = new PrintWriter(bufferedWriter);
+
+			// Iterate through stocks printing them to file
+			do {
+				printWriter.println(filter.toString(cursor));
+			} while (cursor.next());
+
+			printWriter.close();
+		}
+	}
+}
@@ -75,6 +75,12 @@ public class FileQuoteSource implements IQuoteSource {
 	// Filter to convert data into quote
 	private IEODQuoteFilter filter;
 
+	// Advance/decline, calculated as needed
+	private MarketBreadth marketBreadth = null;
+
+	// Results of custom indicators, loaded when first needed
+	private IndicatorStore indicatorStore = null;
+
 	/**
 	 * Creates a new quote source using the list of files specified in the user
 	 * preferences.
@@ -485,16 +491,68 @@ public class FileQuoteSource implements IQuoteSource {
 	}
 
 	public HashMap getAdvanceDecline(TradingDate firstDate, TradingDate lastDate) throws MissingQuoteException {
+		return getMarketBreadth().getAdvanceDecline(firstDate, lastDate);
+	}
+
+	/**
+	 * Return the market breadth of all ordinary stocks in the files, bringing it
+	 * up to date first. Only the files for dates that haven't been counted yet are
+	 * read.
+	 *
+	 * @return the market breadth
+	 * @exception throw MissingQuoteException if there aren't any quote files
+	 */
+	public synchronized MarketBreadth getMarketBreadth() throws MissingQuoteException {
+		if (!checkFiles())
+			throw MissingQuoteException.getInstance();
+
+		if (marketBreadth == null)
+			marketBreadth = new MarketBreadth(PreferencesManager.getMarketBreadthFile("files", getIdentity()));
+
+		TradingDate date = marketBreadth.beginUpdate(firstDate, lastDate);
+
+		while (!date.after(lastDate)) {
+			URL fileURL = getURLForDate(date);
+
+			if (fileURL != null) {
+				EODQuoteRange quoteRange = new EODQuoteRange(EODQuoteRange.ALL_ORDINARIES, date);
+				List quotes = getContainedQuotes(fileURL, quoteRange);
+
+				for (Iterator iterator = quotes.iterator(); iterator.hasNext();) {
+					EODQuote quote = (EODQuote) iterator.next();
+
+					marketBreadth.add(date, quote.getDayOpen(), quote.getDayClose());
+				}
+			}
 
-		HashMap advanceDeclines = new HashMap();
-		TradingDate date = firstDate;
-		while (date.before(lastDate)) {
-			int advanceDeclineValue = getAdvanceDecline(date);
-			advanceDeclines.put(date, new Integer(advanceDeclineValue));
 			date = date.next(1);
 		}
 
-		return advanceDeclines;
+		marketBreadth.endUpdate(lastDate);
+		return marketBreadth;
+	}
+
+	// Returns a string which identifies this set of quote files
+	private String getIdentity() {
+		StringBuffer identity = new StringBuffer(filter.getName());
+
+		for (Iterator iterator = fileURLs.iterator(); iterator.hasNext();)
+			identity.append('\n').append(iterator.next());
+
+		return identity.toString();
+	}
+
+	/**
+	 * Return the store of custom indicator results calculated from the quotes in
+	 * the files.
+	 *
+	 * @return the indicator store
+	 */
+	public synchronized IndicatorStore getIndicatorStore() {
+		if (indicatorStore == null)
+			indicatorStore = new IndicatorStore(PreferencesManager.getIndicatorStoreDirectory("files", getIdentity()));
+
+		return indicatorStore;
 	}
 
 	/**
@@ -82,6 +82,18 @@ public class IDQuoteBundle implements IQuoteBundle {
 		return getQuote(symbol, quoteType, now + timeOffset);
 	}
 
+	public double findQuote(Symbol symbol, int quoteType, int now, int timeOffset) throws EvaluationException {
+		return findQuote(symbol, quoteType, now + timeOffset);
+	}
+
+	public double findQuote(Symbol symbol, int quoteType, int timeOffset) {
+		try {
+			return getQuote(symbol, quoteType, timeOffset);
+		} catch (MissingQuoteException e) {
+			return Double.NaN;
+		}
+	}
+
 	public double getQuote(Symbol symbol, int quoteType, int timeOffset) throws MissingQuoteException {
 
 		double quote;
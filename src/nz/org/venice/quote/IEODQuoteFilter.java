@@ -48,5 +48,5 @@ public interface IEODQuoteFilter {
 	 * @param quote a stock quote
 	 * @return string version of the quote
 	 */
-	public String toString(EODQuote quote);
+	public String toString(IQuote quote);
 }
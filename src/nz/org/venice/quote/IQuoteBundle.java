@@ -73,6 +73,37 @@ public interface IQuoteBundle {
 	 */
 	public double getQuote(Symbol symbol, int quoteType, int offset) throws MissingQuoteException;
 
+	/**
+	 * Get a stock quote, returning <code>NaN</code> if the quote is missing. This
+	 * is the same as {@link #getQuote(Symbol, int, int, int)} except that missing
+	 * quotes, which are common for thinly traded symbols, are not treated as
+	 * errors.
+	 *
+	 * @param symbol    the stock symbol
+	 * @param quoteType the quote type, e.g. {@link IQuote#DAY_OPEN},
+	 *                  {@link IQuote#DAY_CLOSE}, {@link IQuote#DAY_LOW},
+	 *                  {@link IQuote#DAY_HIGH}, {@link IQuote#DAY_VOLUME}
+	 * @param now       fast access offset of current quote
+	 * @param offset    modifier offset to fast access offset
+	 * @return the quote or <code>NaN</code> if the quote was not found
+	 * @exception EvaluationException if the script isn't allow access to the
+	 *                                quote.
+	 */
+	public double findQuote(Symbol symbol, int quoteType, int now, int offset) throws EvaluationException;
+
+	/**
+	 * Get a stock quote, returning <code>NaN</code> if the quote is missing.
+	 *
+	 * @param symbol    the stock symbol
+	 * @param quoteType the quote type, one of {@link IQuote#DAY_OPEN},
+	 *                  {@link IQuote#DAY_CLOSE}, {@link IQuote#DAY_LOW},
+	 *                  {@link IQuote#DAY_HIGH}, {@link IQuote#DAY_VOLUME}
+	 * @param offset    fast access offset of current quote
+	 * @return the quote or <code>NaN</code> if the quote was not found
+	 * @see #getQuote(Symbol, int, int)
+	 */
+	public double findQuote(Symbol symbol, int quoteType, int offset);
+
 	/**
 	 * Get a stock quote nearest to the given offset.
 	 *
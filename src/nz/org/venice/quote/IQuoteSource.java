@@ -100,6 +100,24 @@ public interface IQuoteSource {
 	 */
 	public HashMap getAdvanceDecline(TradingDate startDate, TradingDate endDate) throws MissingQuoteException;
 
+	/**
+	 * Return the market breadth of all ordinary stocks in the source. The series
+	 * are brought up to date with the source first, which only requires reading
+	 * the quotes added since they were last calculated.
+	 *
+	 * @return the market breadth
+	 * @exception throw MissingQuoteException if the source doesn't have any quotes
+	 */
+	public MarketBreadth getMarketBreadth() throws MissingQuoteException;
+
+	/**
+	 * Return the store of custom indicator results calculated from the quotes
+	 * in the source.
+	 *
+	 * @return the indicator store
+	 */
+	public IndicatorStore getIndicatorStore();
+
 	/**
 	 * Return all the stored exchange rates between the two currencies.
 	 *
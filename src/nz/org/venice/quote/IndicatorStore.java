@@ -0,0 +1,672 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nz.org.venice.parser.CompiledExpression;
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.parser.expression.AbstractExpression;
+import nz.org.venice.parser.expression.NumberExpression;
+import nz.org.venice.util.TradingDate;
+
+/**
+ * Results of custom indicators, such as a user's stored equations, which have
+ * already been calculated. Tables and charts evaluate the same indicators over
+ * the same quotes every time they are opened; with the store only the days
+ * which haven't been calculated before are evaluated.
+ * <p>
+ * Each indicator is identified by the text of its parsed expression and the
+ * exact value of each number in it, as the text rounds numbers. Two equations
+ * which only differ in spacing share their results. For each symbol the store
+ * keeps a series of results indexed by trading day. Each indicator is saved to
+ * its own file, named by a hash of its key, in the store's directory.
+ *
+ * <pre>
+ * double value = indicatorStore.getValue(expression, quoteBundle, symbol, dateOffset);
+ * ...
+ * indicatorStore.save();
+ * </pre>
+ *
+ * Quotes imported on new days are picked up the next time those days are
+ * asked for. When quotes are imported on days that might already have been
+ * calculated, the quote source calls {@link #invalidate} so that those days
+ * are calculated again. The invalidated days are added to an index file and
+ * each indicator's file is only brought up to date when the indicator is next
+ * loaded. Evaluations which fail are not stored.
+ * <p>
+ * Only the most recently used indicators are kept in memory. When another is
+ * loaded the least recently used is saved and dropped, and loaded again from
+ * its file if it is needed later. Files are written to a temporary file which
+ * then replaces the old one, so a save which fails leaves the old results.
+ *
+ * @see IQuoteSource#getIndicatorStore
+ * @see MarketBreadth
+ */
+public class IndicatorStore {
+
+	// Version of the saved file format
+	private final static int FILE_VERSION = 2;
+
+	// Extension of the files the indicators are saved to
+	private final static String FILE_EXTENSION = ".dat";
+
+	// Extension of a file while it is being written
+	private final static String TEMPORARY_EXTENSION = ".tmp";
+
+	// Name of the file listing the days that have been invalidated
+	private final static String INDEX_FILE = "index" + FILE_EXTENSION;
+
+	// Most indicators kept in memory
+	private final static int MAXIMUM_INDICATORS = 32;
+
+	// Size of each day of a series in a saved file
+	private final static int DAY_SIZE = 9;
+
+	// Directory the indicators are saved to, or null if they aren't saved
+	private File directory;
+
+	// Map of indicator key to the indicator's results, least recently used
+	// first
+	private LinkedHashMap indicators;
+
+	// The first day invalidated by each call to invalidate(), in order. An
+	// indicator saved after the first n invalidations still has to clear the
+	// days from the rest.
+	private int[] invalidatedDays = new int[0];
+
+	// The latest day any indicator has a result for. Invalidating a later day
+	// doesn't change anything.
+	private int lastDay = Integer.MIN_VALUE;
+
+	// Whether the index has changed since it was saved
+	private boolean isIndexChanged = false;
+
+	// Results of a single indicator
+	private static class Indicator {
+		private final String key;
+
+		// Map of symbol to series
+		private final HashMap series = new HashMap();
+
+		// Number of invalidations that have been applied to the results
+		private int invalidations;
+
+		// Whether the indicator has changed since it was saved
+		private boolean isChanged = false;
+
+		Indicator(String key, int invalidations) {
+			this.key = key;
+			this.invalidations = invalidations;
+		}
+	}
+
+	// Results of an indicator for a single symbol. The series grows in both
+	// directions to cover the trading days that have been calculated.
+	private static class Series {
+		private int firstDay;
+		private double[] values;
+		private boolean[] isCalculated;
+
+		Series(int firstDay, int dayCount) {
+			this.firstDay = firstDay;
+			values = new double[dayCount];
+			isCalculated = new boolean[dayCount];
+		}
+
+		boolean isCalculated(int day) {
+			int i = day - firstDay;
+
+			return i >= 0 && i < isCalculated.length && isCalculated[i];
+		}
+
+		double get(int day) {
+			return values[day - firstDay];
+		}
+
+		void put(int day, double value) {
+			if (day < firstDay) {
+				int extraDays = Math.max(firstDay - day, values.length);
+
+				values = prepend(values, extraDays);
+				isCalculated = prepend(isCalculated, extraDays);
+				firstDay -= extraDays;
+			} else if (day - firstDay >= values.length) {
+				int length = Math.max(day - firstDay + 1, values.length * 2);
+
+				values = Arrays.copyOf(values, length);
+				isCalculated = Arrays.copyOf(isCalculated, length);
+			}
+
+			values[day - firstDay] = value;
+			isCalculated[day - firstDay] = true;
+		}
+
+		// Forget the results from the given day onwards
+		boolean clear(int day) {
+			int fromIndex = Math.max(0, day - firstDay);
+
+			if (fromIndex >= isCalculated.length)
+				return false;
+
+			Arrays.fill(isCalculated, fromIndex, isCalculated.length, false);
+			return true;
+		}
+
+		private static double[] prepend(double[] array, int extraLength) {
+			double[] newArray = new double[array.length + extraLength];
+			System.arraycopy(array, 0, newArray, extraLength, array.length);
+			return newArray;
+		}
+
+		private static boolean[] prepend(boolean[] array, int extraLength) {
+			boolean[] newArray = new boolean[array.length + extraLength];
+			System.arraycopy(array, 0, newArray, extraLength, array.length);
+			return newArray;
+		}
+	}
+
+	/**
+	 * Create the indicator store. Indicators are loaded from the given directory
+	 * when they are first used.
+	 *
+	 * @param directory the directory to save the indicators to, or
+	 *                  <code>null</code> if they should only be kept in memory
+	 */
+	public IndicatorStore(File directory) {
+		this(directory, MAXIMUM_INDICATORS);
+	}
+
+	/**
+	 * Create the indicator store.
+	 *
+	 * @param directory         the directory to save the indicators to, or
+	 *                          <code>null</code> if they should only be kept in
+	 *                          memory
+	 * @param maximumIndicators the most indicators to keep in memory
+	 */
+	IndicatorStore(File directory, final int maximumIndicators) {
+		this.directory = directory;
+
+		indicators = new LinkedHashMap(16, 0.75F, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry eldest) {
+				if (size() <= maximumIndicators)
+					return false;
+
+				Indicator indicator = (Indicator) eldest.getValue();
+
+				if (indicator.isChanged)
+					write(indicator);
+
+				return true;
+			}
+		};
+
+		if (directory != null)
+			readIndex();
+	}
+
+	/**
+	 * Return whether the results of the given expression can be stored. This is
+	 * the case if the expression is pure, i.e. the result only depends on the
+	 * symbol and the date, and not on variables, random numbers or anything else
+	 * the expression does.
+	 *
+	 * @param expression the expression
+	 * @return <code>true</code> if the results can be stored
+	 * @see AbstractExpression#isPure
+	 */
+	public static boolean isStorable(IExpression expression) {
+		if (expression instanceof CompiledExpression)
+			expression = ((CompiledExpression) expression).getExpression();
+
+		return AbstractExpression.isPure(expression);
+	}
+
+	/**
+	 * Return the key the results of the given expression are stored under. This
+	 * is the text of the expression followed by the exact value of each number
+	 * in it, as the text rounds numbers.
+	 *
+	 * @param expression the expression
+	 * @return the key
+	 */
+	public static String getKey(IExpression expression) {
+		if (expression instanceof CompiledExpression)
+			expression = ((CompiledExpression) expression).getExpression();
+
+		StringBuffer key = new StringBuffer(expression.toString());
+
+		appendNumbers(expression, key);
+		return key.toString();
+	}
+
+	private static void appendNumbers(IExpression expression, StringBuffer key) {
+		if (expression instanceof NumberExpression)
+			key.append('\n').append(Double.toString(((NumberExpression) expression).getValue()));
+
+		for (int i = 0; i < expression.getChildCount(); i++)
+			if (expression.getChild(i) != null)
+				appendNumbers(expression.getChild(i), key);
+	}
+
+	/**
+	 * Return the result of the expression for the given symbol on the given
+	 * date. The expression is only evaluated if the result hasn't been stored.
+	 *
+	 * @param expression  the expression, which must be storable
+	 * @param quoteBundle the quote bundle containing the quotes
+	 * @param symbol      the symbol
+	 * @param dateOffset  fast access date offset of the date
+	 * @return the result
+	 * @exception EvaluationException if the expression couldn't be evaluated
+	 * @see #isStorable
+	 */
+	public double getValue(IExpression expression, EODQuoteBundle quoteBundle, Symbol symbol, int dateOffset)
+			throws EvaluationException {
+
+		assert isStorable(expression);
+
+		Indicator indicator = getIndicator(getKey(expression));
+		int day = MarketBreadth.toDay(quoteBundle.offsetToDate(dateOffset));
+
+		synchronized (this) {
+			Series series = (Series) indicator.series.get(symbol);
+
+			if (series != null && series.isCalculated(day))
+				return series.get(day);
+		}
+
+		// Don't hold up other threads while evaluating
+		double value = expression.evaluate(new Variables(), quoteBundle, symbol, dateOffset);
+
+		synchronized (this) {
+			put(indicator, symbol, day, value);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Return the results of the expression for the given symbol on each date in
+	 * the given range. Only the part of the range which hasn't been stored is
+	 * evaluated, using {@link IExpression#evaluateSeries}.
+	 *
+	 * @param expression  the expression, which must be storable
+	 * @param quoteBundle the quote bundle containing the quotes
+	 * @param symbol      the symbol
+	 * @param firstOffset fast access date offset of the first date
+	 * @param lastOffset  fast access date offset of the last date
+	 * @return a new array containing the result for each date, starting with
+	 *         <code>firstOffset</code>
+	 * @exception EvaluationException if the expression couldn't be evaluated
+	 * @see #isStorable
+	 */
+	public double[] getSeries(IExpression expression, EODQuoteBundle quoteBundle, Symbol symbol, int firstOffset,
+			int lastOffset) throws EvaluationException {
+
+		assert isStorable(expression);
+
+		Indicator indicator = getIndicator(getKey(expression));
+		double[] values = new double[lastOffset - firstOffset + 1];
+		int[] days = new int[values.length];
+
+		for (int i = 0; i < days.length; i++)
+			days[i] = MarketBreadth.toDay(quoteBundle.offsetToDate(firstOffset + i));
+
+		// Find the dates which haven't been calculated
+		int firstMissing = -1;
+		int lastMissing = -1;
+
+		synchronized (this) {
+			Series series = (Series) indicator.series.get(symbol);
+
+			for (int i = 0; i < values.length; i++) {
+				if (series != null && series.isCalculated(days[i]))
+					values[i] = series.get(days[i]);
+				else {
+					if (firstMissing < 0)
+						firstMissing = i;
+
+					lastMissing = i;
+				}
+			}
+		}
+
+		if (firstMissing >= 0) {
+			double[] missingValues = expression.evaluateSeries(new Variables(), quoteBundle, symbol,
+					firstOffset + firstMissing, firstOffset + lastMissing);
+
+			System.arraycopy(missingValues, 0, values, firstMissing, missingValues.length);
+
+			synchronized (this) {
+				for (int i = firstMissing; i <= lastMissing; i++)
+					put(indicator, symbol, days[i], values[i]);
+			}
+		}
+
+		return values;
+	}
+
+	/**
+	 * Forget the results from the given date onwards. They will be calculated
+	 * again when they are next asked for. This should be called when quotes are
+	 * added to the quote source on a date that might already have been
+	 * calculated. Only the indicators in memory are cleared straight away; the
+	 * others are cleared when they are next loaded.
+	 *
+	 * @param date the earliest date that has changed
+	 */
+	public synchronized void invalidate(TradingDate date) {
+		int day = MarketBreadth.toDay(date);
+
+		// Nothing has been calculated on these days yet
+		if (day > lastDay)
+			return;
+
+		invalidatedDays = Arrays.copyOf(invalidatedDays, invalidatedDays.length + 1);
+		invalidatedDays[invalidatedDays.length - 1] = day;
+		isIndexChanged = true;
+
+		for (Iterator iterator = indicators.values().iterator(); iterator.hasNext();)
+			applyInvalidations((Indicator) iterator.next());
+
+		save();
+	}
+
+	/**
+	 * Save any indicators which have new results to their files.
+	 */
+	public synchronized void save() {
+		if (isIndexChanged) {
+			writeIndex();
+			isIndexChanged = false;
+		}
+
+		for (Iterator iterator = indicators.values().iterator(); iterator.hasNext();) {
+			Indicator indicator = (Indicator) iterator.next();
+
+			if (indicator.isChanged) {
+				write(indicator);
+				indicator.isChanged = false;
+			}
+		}
+	}
+
+	// Return the results of the indicator with the given key, loading them
+	// from its file if necessary
+	private synchronized Indicator getIndicator(String key) {
+		Indicator indicator = (Indicator) indicators.get(key);
+
+		if (indicator == null) {
+			File file = getFile(key);
+
+			if (file != null && file.exists())
+				indicator = read(file);
+
+			// Start again if the file was for a different expression, or
+			// saved after invalidations we no longer know about
+			if (indicator == null || !indicator.key.equals(key)
+					|| indicator.invalidations > invalidatedDays.length)
+				indicator = new Indicator(key, invalidatedDays.length);
+			else
+				applyInvalidations(indicator);
+
+			indicators.put(key, indicator);
+		}
+
+		return indicator;
+	}
+
+	// Clear the days invalidated since the indicator was last brought up to
+	// date
+	private void applyInvalidations(Indicator indicator) {
+		if (indicator.invalidations == invalidatedDays.length)
+			return;
+
+		int day = Integer.MAX_VALUE;
+
+		for (int i = indicator.invalidations; i < invalidatedDays.length; i++)
+			day = Math.min(day, invalidatedDays[i]);
+
+		for (Iterator iterator = indicator.series.values().iterator(); iterator.hasNext();)
+			((Series) iterator.next()).clear(day);
+
+		indicator.invalidations = invalidatedDays.length;
+		indicator.isChanged = true;
+	}
+
+	private void put(Indicator indicator, Symbol symbol, int day, double value) {
+		Series series = (Series) indicator.series.get(symbol);
+
+		if (series == null) {
+			series = new Series(day, 1);
+			indicator.series.put(symbol, series);
+		}
+
+		series.put(day, value);
+		indicator.isChanged = true;
+
+		if (day > lastDay) {
+			lastDay = day;
+			isIndexChanged = true;
+		}
+	}
+
+	// Return the file the indicator with the given key is saved to
+	private File getFile(String key) {
+		if (directory == null)
+			return null;
+
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+			StringBuffer name = new StringBuffer();
+
+			for (int i = 0; i < digest.length; i++)
+				name.append(Integer.toHexString((digest[i] & 0xff) | 0x100).substring(1));
+
+			return new File(directory, name + FILE_EXTENSION);
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-1
+			assert false;
+			return null;
+		}
+	}
+
+	// Load an indicator from its file. If the file can't be read we just start
+	// again.
+	private Indicator read(File file) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			try {
+				if (in.readInt() != FILE_VERSION)
+					return null;
+
+				Indicator indicator = new Indicator(in.readUTF(), readCount(in, Integer.MAX_VALUE));
+				int symbolCount = readCount(in, file.length());
+
+				for (int i = 0; i < symbolCount; i++) {
+					Symbol symbol = Symbol.find(in.readUTF());
+					int firstDay = in.readInt();
+					Series series = new Series(firstDay, readCount(in, file.length() / DAY_SIZE));
+
+					for (int day = 0; day < series.values.length; day++) {
+						series.isCalculated[day] = in.readBoolean();
+						series.values[day] = in.readDouble();
+					}
+
+					indicator.series.put(symbol, series);
+				}
+
+				return indicator;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (SymbolFormatException e) {
+			return null;
+		}
+	}
+
+	// Read a count from a file, which can't be more than the given limit
+	private static int readCount(DataInputStream in, long limit) throws IOException {
+		int count = in.readInt();
+
+		if (count < 0 || count > limit)
+			throw new IOException("Invalid count " + count);
+
+		return count;
+	}
+
+	// Save an indicator to its file
+	private void write(Indicator indicator) {
+		File file = getFile(indicator.key);
+
+		if (file == null)
+			return;
+
+		File temporaryFile = new File(directory, file.getName() + TEMPORARY_EXTENSION);
+
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+
+			try {
+				out.writeInt(FILE_VERSION);
+				out.writeUTF(indicator.key);
+				out.writeInt(indicator.invalidations);
+				out.writeInt(indicator.series.size());
+
+				for (Iterator iterator = indicator.series.keySet().iterator(); iterator.hasNext();) {
+					Symbol symbol = (Symbol) iterator.next();
+					Series series = (Series) indicator.series.get(symbol);
+
+					out.writeUTF(symbol.get());
+					out.writeInt(series.firstDay);
+					out.writeInt(series.values.length);
+
+					for (int day = 0; day < series.values.length; day++) {
+						out.writeBoolean(series.isCalculated[day]);
+						out.writeDouble(series.values[day]);
+					}
+				}
+			} finally {
+				out.close();
+			}
+
+			replace(temporaryFile, file);
+		} catch (IOException e) {
+			// Any old file is left as it was, and the new results will be
+			// calculated again next time
+			temporaryFile.delete();
+		}
+	}
+
+	// Replace the file with the one that has just been written
+	private static void replace(File temporaryFile, File file) throws IOException {
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Load the invalidated days and the latest calculated day. If the index
+	// can't be read we start again with an empty one, and indicators saved
+	// after earlier invalidations are calculated again.
+	private void readIndex() {
+		File file = new File(directory, INDEX_FILE);
+
+		if (!file.exists())
+			return;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			try {
+				if (in.readInt() != FILE_VERSION)
+					return;
+
+				int lastDay = in.readInt();
+				int[] invalidatedDays = new int[readCount(in, file.length() / 4)];
+
+				for (int i = 0; i < invalidatedDays.length; i++)
+					invalidatedDays[i] = in.readInt();
+
+				this.lastDay = lastDay;
+				this.invalidatedDays = invalidatedDays;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// Start again
+		}
+	}
+
+	// Save the invalidated days and the latest calculated day
+	private void writeIndex() {
+		if (directory == null)
+			return;
+
+		File file = new File(directory, INDEX_FILE);
+		File temporaryFile = new File(directory, INDEX_FILE + TEMPORARY_EXTENSION);
+
+		try {
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+
+			try {
+				out.writeInt(FILE_VERSION);
+				out.writeInt(lastDay);
+				out.writeInt(invalidatedDays.length);
+
+				for (int i = 0; i < invalidatedDays.length; i++)
+					out.writeInt(invalidatedDays[i]);
+			} finally {
+				out.close();
+			}
+
+			replace(temporaryFile, file);
+		} catch (IOException e) {
+			// Every indicator will be calculated again next time
+			temporaryFile.delete();
+			file.delete();
+		}
+	}
+}
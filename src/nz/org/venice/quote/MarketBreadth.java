@@ -0,0 +1,352 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import nz.org.venice.util.TradingDate;
+
+/**
+ * The market breadth of all ordinary stocks in a quote source. For each trading
+ * day this holds the number of stocks that traded, advanced (day close &gt; day
+ * open) and declined.
+ * <p>
+ * The series are kept in arrays indexed by trading day and saved to a file, so
+ * that they only have to be calculated once. Quote sources bring the series up
+ * to date by feeding in the quotes of the days it doesn't have yet:
+ *
+ * <pre>
+ * TradingDate date = marketBreadth.beginUpdate(firstDate, lastDate);
+ * // call add() for every quote from date to lastDate in date order
+ * marketBreadth.endUpdate(lastDate);
+ * </pre>
+ *
+ * When quotes are imported on dates that have already been calculated, the
+ * quote source calls {@link #invalidate} so that those days are calculated again
+ * on the next update.
+ *
+ * @see IQuoteSource#getMarketBreadth
+ */
+public class MarketBreadth {
+
+	// Version of the saved file format
+	private final static int FILE_VERSION = 2;
+
+	// File the series are saved to, or null if they aren't saved
+	private File file;
+
+	// Trading day number of the first day in the series, or -1 if the series
+	// haven't been started.
+	private int firstDay = -1;
+
+	// Number of days that have been calculated
+	private int dayCount = 0;
+
+	// The series, indexed by trading day from the first day
+	private int[] issues = new int[0];
+	private int[] advances = new int[0];
+	private int[] declines = new int[0];
+
+	/**
+	 * Create the market breadth, loading any series that have been saved to the
+	 * given file.
+	 *
+	 * @param file the file to save the series to, or <code>null</code> if they
+	 *             should only be kept in memory
+	 */
+	public MarketBreadth(File file) {
+		this.file = file;
+
+		if (file != null && file.exists())
+			read();
+	}
+
+	/**
+	 * Start bringing the series up to date. If the series were calculated for a
+	 * different first date, or run past the last date, they are started again.
+	 *
+	 * @param sourceFirstDate the first date in the quote source
+	 * @param sourceLastDate  the last date in the quote source
+	 * @return the date from which quotes should be passed to {@link #add}
+	 */
+	public synchronized TradingDate beginUpdate(TradingDate sourceFirstDate, TradingDate sourceLastDate) {
+		int sourceFirstDay = toDay(sourceFirstDate);
+
+		// Series which run past the last date weren't calculated from these
+		// quotes
+		if (firstDay != sourceFirstDay || firstDay + dayCount - 1 > toDay(sourceLastDate)) {
+			firstDay = sourceFirstDay;
+			dayCount = 0;
+		}
+
+		// Clear anything left behind by an update that didn't finish
+		clear(dayCount);
+
+		return toDate(firstDay + dayCount);
+	}
+
+	/**
+	 * Add a quote. Quotes on days that have already been calculated are ignored.
+	 *
+	 * @param date      the date of the quote
+	 * @param day_open  the day open
+	 * @param day_close the day close
+	 */
+	public synchronized void add(TradingDate date, double day_open, double day_close) {
+		int day = toDay(date) - firstDay;
+
+		if (day < dayCount || date.isWeekend())
+			return;
+
+		ensureCapacity(day + 1);
+
+		issues[day]++;
+
+		if (day_close > day_open)
+			advances[day]++;
+		else if (day_close < day_open)
+			declines[day]++;
+	}
+
+	/**
+	 * Finish bringing the series up to date and save them.
+	 *
+	 * @param sourceLastDate the last date in the quote source
+	 */
+	public synchronized void endUpdate(TradingDate sourceLastDate) {
+		int lastDay = toDay(sourceLastDate) - firstDay;
+
+		if (lastDay >= dayCount) {
+			ensureCapacity(lastDay + 1);
+			dayCount = lastDay + 1;
+		}
+
+		write();
+	}
+
+	/**
+	 * Discard the series from the given date onwards. They will be calculated
+	 * again on the next update. This should be called when quotes are added to
+	 * the quote source on a date that might already have been calculated.
+	 *
+	 * @param date the earliest date that has changed
+	 */
+	public synchronized void invalidate(TradingDate date) {
+		if (firstDay < 0)
+			return;
+
+		int day = Math.max(0, toDay(date) - firstDay);
+
+		if (day < dayCount) {
+			dayCount = day;
+			clear(dayCount);
+			write();
+		}
+	}
+
+	/**
+	 * Return the first date in the series.
+	 *
+	 * @return the first date or <code>null</code> if the series are empty
+	 */
+	public synchronized TradingDate getFirstDate() {
+		return dayCount > 0 ? toDate(firstDay) : null;
+	}
+
+	/**
+	 * Return the last date in the series.
+	 *
+	 * @return the last date or <code>null</code> if the series are empty
+	 */
+	public synchronized TradingDate getLastDate() {
+		return dayCount > 0 ? toDate(firstDay + dayCount - 1) : null;
+	}
+
+	/**
+	 * Return the number of ordinary stocks that traded on the given date.
+	 *
+	 * @param date the date
+	 * @return the number of stocks, or 0 if the date isn't in the series
+	 */
+	public synchronized int getIssues(TradingDate date) {
+		return get(issues, date);
+	}
+
+	/**
+	 * Return the number of ordinary stocks that rose on the given date.
+	 *
+	 * @param date the date
+	 * @return the number of stocks, or 0 if the date isn't in the series
+	 */
+	public synchronized int getAdvances(TradingDate date) {
+		return get(advances, date);
+	}
+
+	/**
+	 * Return the number of ordinary stocks that fell on the given date.
+	 *
+	 * @param date the date
+	 * @return the number of stocks, or 0 if the date isn't in the series
+	 */
+	public synchronized int getDeclines(TradingDate date) {
+		return get(declines, date);
+	}
+
+	/**
+	 * Return the advance/decline for each date in the given range that had any
+	 * trading. This is the number of ordinary stocks that rose minus the number
+	 * that fell.
+	 *
+	 * @param firstDate the first date in the range
+	 * @param lastDate  the last date in the range
+	 * @return map of dates to advance/decline <code>Integer</code>s
+	 */
+	public synchronized HashMap getAdvanceDecline(TradingDate firstDate, TradingDate lastDate) {
+		HashMap advanceDeclines = new HashMap();
+		int firstIndex = Math.max(0, toDay(firstDate) - firstDay);
+		int lastIndex = Math.min(dayCount - 1, toDay(lastDate) - firstDay);
+
+		for (int i = firstIndex; i <= lastIndex; i++) {
+			if (issues[i] > 0)
+				advanceDeclines.put(toDate(firstDay + i), Integer.valueOf(advances[i] - declines[i]));
+		}
+
+		return advanceDeclines;
+	}
+
+	private int get(int[] series, TradingDate date) {
+		int i = toDay(date) - firstDay;
+
+		return (firstDay >= 0 && i >= 0 && i < dayCount) ? series[i] : 0;
+	}
+
+	private void ensureCapacity(int days) {
+		if (days > issues.length) {
+			int length = Math.max(days, issues.length * 2);
+
+			issues = Arrays.copyOf(issues, length);
+			advances = Arrays.copyOf(advances, length);
+			declines = Arrays.copyOf(declines, length);
+		}
+	}
+
+	// Zero the series from the given index onwards
+	private void clear(int fromIndex) {
+		if (fromIndex < issues.length) {
+			Arrays.fill(issues, fromIndex, issues.length, 0);
+			Arrays.fill(advances, fromIndex, advances.length, 0);
+			Arrays.fill(declines, fromIndex, declines.length, 0);
+		}
+	}
+
+	// Load the series from the file. If the file can't be read, or its day
+	// count doesn't fit in it, we just start again.
+	private void read() {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			try {
+				if (in.readInt() != FILE_VERSION)
+					return;
+
+				int savedFirstDay = in.readInt();
+				int savedDayCount = in.readInt();
+
+				// Each day has a value in each of the three series
+				if (savedFirstDay < 0 || savedDayCount < 0 || savedDayCount > file.length() / 12)
+					throw new IOException("Invalid series " + savedFirstDay + ", " + savedDayCount);
+
+				int[][] series = new int[3][savedDayCount];
+
+				for (int i = 0; i < series.length; i++)
+					for (int day = 0; day < savedDayCount; day++)
+						series[i][day] = in.readInt();
+
+				firstDay = savedFirstDay;
+				dayCount = savedDayCount;
+				issues = series[0];
+				advances = series[1];
+				declines = series[2];
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// Start from scratch
+		}
+	}
+
+	// Save the series to the file
+	private void write() {
+		if (file == null)
+			return;
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+			try {
+				out.writeInt(FILE_VERSION);
+				out.writeInt(firstDay);
+				out.writeInt(dayCount);
+
+				int[][] series = { issues, advances, declines };
+
+				for (int i = 0; i < series.length; i++)
+					for (int day = 0; day < dayCount; day++)
+						out.writeInt(series[i][day]);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// The series will be calculated again next time
+			file.delete();
+		}
+	}
+
+	// Return the number of trading days between the Monday 5th of January 1970
+	// and the given date. Weekend dates count as the following Monday.
+	static int toDay(TradingDate date) {
+		long epochDay = LocalDate.of(date.getYear(), date.getMonth(), date.getDay()).toEpochDay();
+
+		// Count days from Monday 5th of January 1970 rather than Thursday
+		// 1st January.
+		long mondayDay = epochDay - 4;
+		long week = Math.floorDiv(mondayDay, 7);
+		int dayOfWeek = (int) Math.floorMod(mondayDay, 7L);
+
+		return (int) (week * 5 + (dayOfWeek < 5 ? dayOfWeek : 5));
+	}
+
+	// Return the date of the given trading day
+	private static TradingDate toDate(int day) {
+		long epochDay = Math.floorDiv(day, 5) * 7L + Math.floorMod(day, 5) + 4;
+		LocalDate date = LocalDate.ofEpochDay(epochDay);
+
+		return new TradingDate(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	}
+}
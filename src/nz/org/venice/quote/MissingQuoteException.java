@@ -25,7 +25,7 @@ package nz.org.venice.quote;
  */
 public class MissingQuoteException extends Throwable {
 
-	private static MissingQuoteException instance = new MissingQuoteException();
+	private static final MissingQuoteException instance = new MissingQuoteException();
 
 	private MissingQuoteException() {
 		// nothing to do
@@ -37,7 +37,7 @@ public class MissingQuoteException extends Throwable {
 	 * thrown around a lot so needs to be fast - and the stack trace is not
 	 * important. See "Java Performance Tuning" for an explanation.
 	 */
-	public static synchronized MissingQuoteException getInstance() {
+	public static MissingQuoteException getInstance() {
 		return instance;
 	}
 }
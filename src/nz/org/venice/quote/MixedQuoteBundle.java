@@ -80,6 +80,18 @@ public class MixedQuoteBundle implements IQuoteBundle {
 		return getQuote(symbol, quoteType, today + dateOffset);
 	}
 
+	public double findQuote(Symbol symbol, int quoteType, int today, int dateOffset) throws EvaluationException {
+		return findQuote(symbol, quoteType, today + dateOffset);
+	}
+
+	public double findQuote(Symbol symbol, int quoteType, int dateOffset) {
+		if (dateOffset > eodQuoteBundle.getLastOffset())
+			// Retrieve most recent intra-day quote
+			return idQuoteBundle.findQuote(symbol, quoteType, idQuoteBundle.getLastOffset());
+		else
+			return eodQuoteBundle.findQuote(symbol, quoteType, dateOffset);
+	}
+
 	public double getQuote(Symbol symbol, int quoteType, int dateOffset) throws MissingQuoteException {
 
 		if (dateOffset > eodQuoteBundle.getLastOffset())
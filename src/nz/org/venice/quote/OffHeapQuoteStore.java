@@ -0,0 +1,438 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Set;
+
+import nz.org.venice.util.TradingDate;
+
+/**
+ * Holds end-of-day quotes outside of the Java heap for the {@link EODQuoteCache}.
+ * Quotes are stored in direct byte buffers addressed by symbol id and day, so
+ * however many quotes are loaded the garbage collector only ever sees a few
+ * index arrays and one buffer per page of quotes.
+ * <p>
+ * Memory is divided into pages, each page into slots, and each slot holds
+ * {@link #SLOT_DAYS} consecutive days of quotes for one symbol. A slot starts
+ * with a bit set of which days have quotes, followed by a fixed size record for
+ * each day. Slots are allocated when the first quote is loaded into them and put
+ * back on a free list when their last quote is freed. Pages which have no slots
+ * in use are handed back by {@link #trim}.
+ * <p>
+ * Days are counted in the same way as the quote cache's compressed blocks, so
+ * that inserting a newer date into the cache doesn't move any quotes.
+ */
+class OffHeapQuoteStore {
+
+	/** Number of days in each slot. */
+	final static int SLOT_DAYS = 128;
+
+	// Size of a quote record: volume, low, high, open then close
+	private final static int QUOTE_BYTES = 8 + 4 * 4;
+	private final static int VOLUME = 0;
+	private final static int LOW = 8;
+	private final static int HIGH = 12;
+	private final static int OPEN = 16;
+	private final static int CLOSE = 20;
+
+	// Size of the bit set of days with quotes at the start of each slot
+	private final static int PRESENT_BYTES = SLOT_DAYS / 8;
+
+	private final static int SLOT_BYTES = PRESENT_BYTES + SLOT_DAYS * QUOTE_BYTES;
+	private final static int SLOTS_PER_PAGE = 64;
+
+	// Pages of slots. A page is null if it has been handed back.
+	private ByteBuffer[] pages = new ByteBuffer[0];
+
+	// Number of quotes in each slot
+	private int[] slotQuotes = new int[0];
+
+	// Stack of unused slots in allocated pages
+	private int[] freeSlots = new int[0];
+	private int freeSlotCount = 0;
+
+	// For each symbol id, the block number of the first entry in its slot
+	// index, and the slot index itself. The slot index maps a block number
+	// to one more than the slot holding it, or zero if there isn't one.
+	private int[] firstBlockNumbers = new int[0];
+	private int[][] slotIndices = new int[0][];
+	private Symbol[] symbols = new Symbol[0];
+
+	/**
+	 * Return whether there is a quote for the symbol on the given day.
+	 *
+	 * @param symbol the symbol
+	 * @param day    the day
+	 * @return <code>true</code> if there is a quote
+	 */
+	boolean contains(Symbol symbol, int day) {
+		return getQuoteAddress(symbol, day) >= 0;
+	}
+
+	/**
+	 * Get a quote.
+	 *
+	 * @param symbol    the symbol
+	 * @param day       the day
+	 * @param quoteType the quote type, one of {@link IQuote#DAY_OPEN},
+	 *                  {@link IQuote#DAY_CLOSE}, {@link IQuote#DAY_LOW},
+	 *                  {@link IQuote#DAY_HIGH}, {@link IQuote#DAY_VOLUME}
+	 * @return the quote
+	 * @exception QuoteNotLoadedException if the quote is not in the store
+	 */
+	double getQuote(Symbol symbol, int day, int quoteType) throws QuoteNotLoadedException {
+		long address = getQuoteAddress(symbol, day);
+
+		if (address < 0)
+			throw QuoteNotLoadedException.getInstance();
+
+		return getQuote(address, quoteType);
+	}
+
+	/**
+	 * Get a quote, returning <code>NaN</code> if it is not in the store.
+	 *
+	 * @param symbol    the symbol
+	 * @param day       the day
+	 * @param quoteType the quote type
+	 * @return the quote or <code>NaN</code>
+	 */
+	double findQuote(Symbol symbol, int day, int quoteType) {
+		long address = getQuoteAddress(symbol, day);
+
+		return (address >= 0 ? getQuote(address, quoteType) : Double.NaN);
+	}
+
+	// Read the quote at the given address
+	private double getQuote(long address, int quoteType) {
+		ByteBuffer page = pages[getPage(address)];
+		int offset = getOffset(address);
+
+		switch (quoteType) {
+		case (IQuote.DAY_OPEN):
+			return (double) page.getFloat(offset + OPEN);
+		case (IQuote.DAY_CLOSE):
+			return (double) page.getFloat(offset + CLOSE);
+		case (IQuote.DAY_LOW):
+			return (double) page.getFloat(offset + LOW);
+		case (IQuote.DAY_HIGH):
+			return (double) page.getFloat(offset + HIGH);
+		case (IQuote.DAY_VOLUME):
+			return (double) page.getLong(offset + VOLUME);
+		default:
+			assert false;
+			return 0.0D;
+		}
+	}
+
+	/**
+	 * Get a quote.
+	 *
+	 * @param symbol the symbol
+	 * @param day    the day
+	 * @param date   the date of the day
+	 * @return the quote
+	 * @exception QuoteNotLoadedException if the quote is not in the store
+	 */
+	EODQuote getQuote(Symbol symbol, int day, TradingDate date) throws QuoteNotLoadedException {
+		long address = getQuoteAddress(symbol, day);
+
+		if (address < 0)
+			throw QuoteNotLoadedException.getInstance();
+
+		ByteBuffer page = pages[getPage(address)];
+		int offset = getOffset(address);
+
+		return new EODQuote(symbol, date, page.getLong(offset + VOLUME), (double) page.getFloat(offset + LOW),
+				(double) page.getFloat(offset + HIGH), (double) page.getFloat(offset + OPEN),
+				(double) page.getFloat(offset + CLOSE));
+	}
+
+	/**
+	 * Copy a quote into a cursor's view.
+	 *
+	 * @param symbol the symbol
+	 * @param day    the day
+	 * @param cursor the cursor
+	 * @return <code>true</code> if the quote was in the store
+	 */
+	boolean fillCursor(Symbol symbol, int day, EODQuoteBundleCursor cursor) {
+		long address = getQuoteAddress(symbol, day);
+
+		if (address < 0)
+			return false;
+
+		ByteBuffer page = pages[getPage(address)];
+		int offset = getOffset(address);
+
+		cursor.setValues(page.getLong(offset + VOLUME), (double) page.getFloat(offset + LOW),
+				(double) page.getFloat(offset + HIGH), (double) page.getFloat(offset + OPEN),
+				(double) page.getFloat(offset + CLOSE));
+		return true;
+	}
+
+	/**
+	 * Store a quote, replacing any quote already there.
+	 *
+	 * @return <code>true</code> if there wasn't already a quote
+	 */
+	boolean set(Symbol symbol, int day, long volume, float low, float high, float open, float close) {
+		int blockNumber = Math.floorDiv(day, SLOT_DAYS);
+		int blockDay = Math.floorMod(day, SLOT_DAYS);
+		int slot = getOrAllocateSlot(symbol, blockNumber);
+		ByteBuffer page = pages[slot / SLOTS_PER_PAGE];
+		int slotOffset = (slot % SLOTS_PER_PAGE) * SLOT_BYTES;
+		int offset = slotOffset + PRESENT_BYTES + blockDay * QUOTE_BYTES;
+
+		page.putLong(offset + VOLUME, volume);
+		page.putFloat(offset + LOW, low);
+		page.putFloat(offset + HIGH, high);
+		page.putFloat(offset + OPEN, open);
+		page.putFloat(offset + CLOSE, close);
+
+		int presentOffset = slotOffset + (blockDay >>> 3);
+		byte present = page.get(presentOffset);
+		byte mask = (byte) (1 << (blockDay & 7));
+
+		if ((present & mask) == 0) {
+			page.put(presentOffset, (byte) (present | mask));
+			slotQuotes[slot]++;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Remove a quote. If it was the last quote in its slot then the slot is
+	 * freed.
+	 *
+	 * @return <code>true</code> if there was a quote
+	 */
+	boolean clear(Symbol symbol, int day) {
+		int blockNumber = Math.floorDiv(day, SLOT_DAYS);
+		int blockDay = Math.floorMod(day, SLOT_DAYS);
+		int slot = getSlot(symbol, blockNumber);
+
+		if (slot < 0)
+			return false;
+
+		ByteBuffer page = pages[slot / SLOTS_PER_PAGE];
+		int presentOffset = (slot % SLOTS_PER_PAGE) * SLOT_BYTES + (blockDay >>> 3);
+		byte present = page.get(presentOffset);
+		byte mask = (byte) (1 << (blockDay & 7));
+
+		if ((present & mask) == 0)
+			return false;
+
+		page.put(presentOffset, (byte) (present & ~mask));
+
+		if (--slotQuotes[slot] == 0) {
+			// The bit set is now all clear so the slot is ready for reuse
+			slotIndices[symbol.getId()][blockNumber - firstBlockNumbers[symbol.getId()]] = 0;
+			pushFreeSlot(slot);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Add the symbols which have a quote between the given days (inclusive) to the
+	 * given set.
+	 *
+	 * @param symbolSet the set to add symbols to
+	 * @param firstDay  the first day
+	 * @param lastDay   the last day
+	 */
+	void addSymbols(Set symbolSet, int firstDay, int lastDay) {
+		int[][] slotIndices = this.slotIndices;
+
+		for (int id = 0; id < slotIndices.length; id++) {
+			if (slotIndices[id] == null)
+				continue;
+
+			for (int day = firstDay; day <= lastDay; day++) {
+				if (contains(symbols[id], day)) {
+					symbolSet.add(symbols[id]);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hand back any pages which no longer have any slots in use.
+	 */
+	void trim() {
+		for (int page = 0; page < pages.length; page++) {
+			if (pages[page] == null)
+				continue;
+
+			boolean inUse = false;
+
+			for (int slot = page * SLOTS_PER_PAGE; slot < (page + 1) * SLOTS_PER_PAGE && !inUse; slot++)
+				inUse = slotQuotes[slot] > 0;
+
+			if (!inUse)
+				pages[page] = null;
+		}
+
+		// Rebuild the free list without the slots of the released pages
+		int count = 0;
+
+		for (int i = 0; i < freeSlotCount; i++) {
+			if (pages[freeSlots[i] / SLOTS_PER_PAGE] != null)
+				freeSlots[count++] = freeSlots[i];
+		}
+
+		freeSlotCount = count;
+	}
+
+	/**
+	 * Return the number of bytes of memory held outside the heap.
+	 *
+	 * @return allocated bytes
+	 */
+	long getAllocatedBytes() {
+		long bytes = 0;
+
+		for (int page = 0; page < pages.length; page++) {
+			if (pages[page] != null)
+				bytes += pages[page].capacity();
+		}
+
+		return bytes;
+	}
+
+	// Returns the page and offset of the quote record, packed into a long, or
+	// -1 if there is no quote.
+	private long getQuoteAddress(Symbol symbol, int day) {
+		int blockDay = Math.floorMod(day, SLOT_DAYS);
+		int slot = getSlot(symbol, Math.floorDiv(day, SLOT_DAYS));
+
+		if (slot < 0)
+			return -1;
+
+		ByteBuffer page = pages[slot / SLOTS_PER_PAGE];
+		int slotOffset = (slot % SLOTS_PER_PAGE) * SLOT_BYTES;
+
+		if ((page.get(slotOffset + (blockDay >>> 3)) & (1 << (blockDay & 7))) == 0)
+			return -1;
+
+		return ((long) (slot / SLOTS_PER_PAGE) << 32) | (slotOffset + PRESENT_BYTES + blockDay * QUOTE_BYTES);
+	}
+
+	private static int getPage(long address) {
+		return (int) (address >>> 32);
+	}
+
+	private static int getOffset(long address) {
+		return (int) address;
+	}
+
+	// Returns the slot holding the symbol's quotes for the given block, or -1
+	private int getSlot(Symbol symbol, int blockNumber) {
+		int id = symbol.getId();
+
+		if (id >= slotIndices.length || slotIndices[id] == null)
+			return -1;
+
+		int i = blockNumber - firstBlockNumbers[id];
+
+		if (i < 0 || i >= slotIndices[id].length)
+			return -1;
+
+		return slotIndices[id][i] - 1;
+	}
+
+	private int getOrAllocateSlot(Symbol symbol, int blockNumber) {
+		int slot = getSlot(symbol, blockNumber);
+
+		if (slot >= 0)
+			return slot;
+
+		int id = symbol.getId();
+
+		// Make room for the symbol and block in the slot index
+		if (id >= slotIndices.length) {
+			int length = Math.max(id + 1, slotIndices.length * 2);
+			slotIndices = Arrays.copyOf(slotIndices, length);
+			firstBlockNumbers = Arrays.copyOf(firstBlockNumbers, length);
+			symbols = Arrays.copyOf(symbols, length);
+		}
+
+		int[] slotIndex = slotIndices[id];
+
+		if (slotIndex == null) {
+			slotIndex = new int[1];
+			firstBlockNumbers[id] = blockNumber;
+			symbols[id] = symbol;
+		} else if (blockNumber < firstBlockNumbers[id]) {
+			int shift = firstBlockNumbers[id] - blockNumber;
+			int[] newSlotIndex = new int[slotIndex.length + shift];
+			System.arraycopy(slotIndex, 0, newSlotIndex, shift, slotIndex.length);
+			slotIndex = newSlotIndex;
+			firstBlockNumbers[id] = blockNumber;
+		} else if (blockNumber - firstBlockNumbers[id] >= slotIndex.length) {
+			slotIndex = Arrays.copyOf(slotIndex,
+					Math.max(blockNumber - firstBlockNumbers[id] + 1, slotIndex.length * 2));
+		}
+
+		slot = popFreeSlot();
+		slotIndex[blockNumber - firstBlockNumbers[id]] = slot + 1;
+		slotIndices[id] = slotIndex;
+
+		return slot;
+	}
+
+	private int popFreeSlot() {
+		if (freeSlotCount == 0)
+			allocatePage();
+
+		return freeSlots[--freeSlotCount];
+	}
+
+	private void pushFreeSlot(int slot) {
+		if (freeSlotCount == freeSlots.length)
+			freeSlots = Arrays.copyOf(freeSlots, Math.max(SLOTS_PER_PAGE, freeSlots.length * 2));
+
+		freeSlots[freeSlotCount++] = slot;
+	}
+
+	// Allocate a new page, reusing a handed back page number if there is one
+	private void allocatePage() {
+		int page = 0;
+
+		while (page < pages.length && pages[page] != null)
+			page++;
+
+		if (page == pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(1, pages.length * 2));
+			slotQuotes = Arrays.copyOf(slotQuotes, pages.length * SLOTS_PER_PAGE);
+		}
+
+		pages[page] = ByteBuffer.allocateDirect(SLOTS_PER_PAGE * SLOT_BYTES);
+
+		// Push in reverse so slots are handed out in order
+		for (int slot = (page + 1) * SLOTS_PER_PAGE - 1; slot >= page * SLOTS_PER_PAGE; slot--)
+			pushFreeSlot(slot);
+	}
+}
@@ -26,17 +26,39 @@ import nz.org.venice.parser.EvaluationException;
  * of how to call a quote function from a Gondola expression:
  * 
  * <pre>
- * QuoteBundleFunctionSource source = new QuoteBundleFunctionSource(quoteBundle, symbol, Quote.DAY_CLOSE, day, offset,
- * 		period);
+ * QuoteBundleFunctionSource source = QuoteBundleFunctionSource.getView(0, quoteBundle, symbol, Quote.DAY_CLOSE, day,
+ * 		offset, period);
  * return QuoteFunctions.rsi(source, period);
  * </pre>
  *
+ * Gondola expressions are evaluated for every symbol on every day, so rather
+ * than allocate a new source each time they use views which are reused by
+ * each thread. A view is only valid until the next call to
+ * {@link #getView} with the same view number on the same thread, which is
+ * fine as the quote functions don't evaluate other expressions. Functions that
+ * need several sources at once use a different view number for each.
+ *
  * @author Andrew Leppard
  * @see QuoteFunctions
  * @see nz.org.venice.parser.IExpression
  */
 public class QuoteBundleFunctionSource implements IQuoteFunctionSource {
 
+	/** The number of views each thread has, see {@link #getView}. */
+	public final static int VIEWS = 3;
+
+	// Views reused by each thread
+	private static ThreadLocal views = new ThreadLocal() {
+		protected Object initialValue() {
+			QuoteBundleFunctionSource[] views = new QuoteBundleFunctionSource[VIEWS];
+
+			for (int i = 0; i < views.length; i++)
+				views[i] = new QuoteBundleFunctionSource(null, null, 0, 0, 0, 0);
+
+			return views;
+		}
+	};
+
 	// The quote bundle containing the quotes
 	private IQuoteBundle quoteBundle;
 
@@ -81,14 +103,40 @@ public class QuoteBundleFunctionSource implements IQuoteFunctionSource {
 		this.period = period;
 	}
 
+	/**
+	 * Return this thread's quote function source with the given view number, set
+	 * up to use quotes from a {@link nz.org.venice.quote.IQuoteBundle}. The
+	 * arguments after the view number are the same as for the constructor.
+	 *
+	 * @param view        the view number, from <code>0</code> to
+	 *                    <code>VIEWS - 1</code>
+	 * @param quoteBundle the quote bundle containing the quotes
+	 * @param symbol      the symbol of the quotes to access
+	 * @param quoteKind   the quote kind
+	 * @param day         the current date in the quote bundle
+	 * @param offset      the offset from the current date
+	 * @param period      the number of quote dates available from this source
+	 * @return the quote function source
+	 */
+	public static QuoteBundleFunctionSource getView(int view, IQuoteBundle quoteBundle, Symbol symbol,
+			int quoteKind, int day, int offset, int period) {
+
+		QuoteBundleFunctionSource source = ((QuoteBundleFunctionSource[]) views.get())[view];
+
+		source.quoteBundle = quoteBundle;
+		source.symbol = symbol;
+		source.quoteKind = quoteKind;
+		source.day = day;
+		source.offset = offset;
+		source.period = period;
+
+		return source;
+	}
+
 	public double getValue(int index) throws EvaluationException {
 
 		assert index >= 0 && index < period;
 
-		try {
-			return quoteBundle.getQuote(symbol, quoteKind, day, index - period + offset + 1);
-		} catch (MissingQuoteException e) {
-			return Double.NaN;
-		}
+		return quoteBundle.findQuote(symbol, quoteKind, day, index - period + offset + 1);
 	}
 }
\ No newline at end of file
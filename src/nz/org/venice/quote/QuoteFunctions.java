@@ -18,10 +18,6 @@
 
 package nz.org.venice.quote;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-
 import nz.org.venice.parser.EvaluationException;
 
 /**
@@ -280,55 +276,139 @@ public class QuoteFunctions {
 	 */
 	static public RSIData smoothRSI(IQuoteFunctionSource source, int period, RSIData previousData)
 			throws EvaluationException {
-		double sumGains = 0.0;
-		double sumLosses = 0.0;
-		int numGains = 0;
-		int numLosses = 0;
-		double avgGain = 0.0;
-		double avgLoss = 0.0;
-		int i = 0;
 
-		List data = rsiData(source, period);
-		if (data.size() < 2) {
+		double sumGain = 0.0D;
+		double sumLoss = 0.0D;
+		int numberGains = 0;
+		int numberLosses = 0;
+		int numberQuotes = 0;
+		double previous = Double.NaN;
+		double current = Double.NaN;
+
+		// Calculate day up and down closes, skipping missing quotes
+		for (int i = 0; i < period; i++) {
+			double value = source.getValue(i);
+
+			if (!Double.isNaN(value)) {
+				if (numberQuotes > 0) {
+					if (value > current) {
+						sumGain += (value - current);
+						numberGains++;
+					} else if (value < current) {
+						sumLoss += (current - value);
+						numberLosses++;
+					}
+				}
+
+				previous = current;
+				current = value;
+				numberQuotes++;
+			}
+		}
+
+		if (numberQuotes < 2) {
 			// If the period is too small, return a neutral result
 			RSIData rv = new QuoteFunctions.RSIData(50.0D, 0.0, 0.0);
 			return rv;
 		}
 
-		RSIAverages averages = avgGainLoss(data);
+		double avgGain;
+		double avgLoss;
+
+		if (previousData != null) {
+			// Smooth the previous averages with the latest change
+			double currentGain = Math.max(current - previous, 0.0);
+			double currentLoss = Math.max(previous - current, 0.0);
+			int smoothingPeriod = Math.max(period - 1, 1);
+
+			avgGain = (previousData.avgGain * (smoothingPeriod - 1) + currentGain) / smoothingPeriod;
+			avgLoss = (previousData.avgLoss * (smoothingPeriod - 1) + currentLoss) / smoothingPeriod;
+		} else {
+			avgLoss = (numberLosses > 0) ? sumLoss / numberLosses : 0.0;
+			avgGain = (numberGains > 0) ? sumGain / numberGains : 0.0;
+		}
+
 		// If avg loss is 0, then RSI returns 100 by definition.
-		if (averages.numberLosses == 0 || (averages.avgLoss == 0.0D)) {
-			RSIData rv = new QuoteFunctions.RSIData(100.0D, avgLoss, 0.0);
+		if (avgLoss == 0.0D) {
+			RSIData rv = new QuoteFunctions.RSIData(100.0D, avgGain, avgLoss);
 			return rv;
 		}
-		if (previousData != null) {
-			double previous = ((Double) data.get(0)).doubleValue();
-			double current = ((Double) data.get(1)).doubleValue();
-			double diff = current - previous;
-			double currentGain = 0.0;
-			double currentLoss = 0.0;
-
-			if (diff > 0.0) {
-				currentGain = diff;
-				currentLoss = 0.0;
-			} else if (diff < 0) {
-				currentGain = 0.0;
-				currentLoss = -diff;
+
+		double RS = avgGain / avgLoss;
+		double rsiVal = 100.0D - 100.0D / (1.0D + RS);
+		RSIData rv = new QuoteFunctions.RSIData(rsiVal, avgGain, avgLoss);
+		return rv;
+	}
+
+	/**
+	 * Calculate a smoothed RSI from the quotes in the given period alone. The
+	 * changes in the first half of the period seed the average gains and losses,
+	 * which are then smoothed with each later change as in
+	 * {@link #smoothRSI(IQuoteFunctionSource, int, RSIData)}. Unlike chaining calls
+	 * to that function, the result only depends on the quotes in the period and
+	 * not on which days were calculated before.
+	 *
+	 * @param source source of quotes to average
+	 * @param period one plus the period of the RSI
+	 * @return the RSI value
+	 * @see nz.org.venice.parser.expression.RSIExpression
+	 * @exception EvaluationException if {@link QuoteBundleFunctionSource} is not
+	 *                                allowed access to a quote. See
+	 *                                {@link nz.org.venice.analyser.gp.GPQuoteBundle}.
+	 */
+	static public double smoothRSI(IQuoteFunctionSource source, int period) throws EvaluationException {
+		double[] values = new double[Math.max(period, 0)];
+		int numberQuotes = 0;
+
+		// Skip missing quotes
+		for (int i = 0; i < period; i++) {
+			double value = source.getValue(i);
+
+			if (!Double.isNaN(value))
+				values[numberQuotes++] = value;
+		}
+
+		// If the period is too small, return a neutral result
+		if (numberQuotes < 2)
+			return 50.0D;
+
+		// Seed the averages with the changes in the first half
+		int warmUp = Math.max((numberQuotes - 1) / 2, 1);
+		double sumGain = 0.0D;
+		double sumLoss = 0.0D;
+		int numberGains = 0;
+		int numberLosses = 0;
+
+		for (int i = 1; i <= warmUp; i++) {
+			if (values[i] > values[i - 1]) {
+				sumGain += values[i] - values[i - 1];
+				numberGains++;
+			} else if (values[i] < values[i - 1]) {
+				sumLoss += values[i - 1] - values[i];
+				numberLosses++;
 			}
+		}
 
-			double smoothedGain = (previousData.avgGain * period + currentGain) / (period + 1);
-			double smoothedLoss = (previousData.avgLoss * period + currentLoss) / (period + 1);
+		double avgGain = (numberGains > 0) ? sumGain / numberGains : 0.0;
+		double avgLoss = (numberLosses > 0) ? sumLoss / numberLosses : 0.0;
 
-			double smoothedRS = smoothedGain / smoothedLoss;
-			double smoothedRSIVal = 100.0D - 100.0D / (1.0D + smoothedRS);
-			RSIData rv = new QuoteFunctions.RSIData(smoothedRSIVal, averages.avgGain, averages.avgLoss);
-			return rv;
-		} else {
-			double RS = averages.avgGain / averages.avgLoss;
-			double rsiVal = 100.0D - 100.0D / (1.0D + RS);
-			RSIData rv = new QuoteFunctions.RSIData(rsiVal, averages.avgGain, averages.avgLoss);
-			return rv;
+		// Then smooth them with each later change
+		int smoothingPeriod = Math.max(period - 1, 1);
+
+		for (int i = warmUp + 1; i < numberQuotes; i++) {
+			double currentGain = Math.max(values[i] - values[i - 1], 0.0);
+			double currentLoss = Math.max(values[i - 1] - values[i], 0.0);
+
+			avgGain = (avgGain * (smoothingPeriod - 1) + currentGain) / smoothingPeriod;
+			avgLoss = (avgLoss * (smoothingPeriod - 1) + currentLoss) / smoothingPeriod;
 		}
+
+		// If avg loss is 0, then RSI returns 100 by definition.
+		if (avgLoss == 0.0D)
+			return 100.0D;
+
+		double RS = avgGain / avgLoss;
+		return 100.0D - 100.0D / (1.0D + RS);
 	}
 
 	/**
@@ -370,25 +450,42 @@ public class QuoteFunctions {
 		double sumLoss = 0.0D;
 		int numberGains = 0;
 		int numberLosses = 0;
+		int numberQuotes = 0;
 		double previous = Double.NaN;
-		int i = 0;
 
-		List data = rsiData(source, period);
-		// If the period is too small, return a neutral result
-		if (data.size() < 2) {
-			return 50.0D;
+		// Calculate day up and down closes, skipping missing quotes
+		for (int i = 0; i < period; i++) {
+			double value = source.getValue(i);
+
+			if (!Double.isNaN(value)) {
+				if (numberQuotes > 0) {
+					if (value > previous) {
+						sumGain += (value - previous);
+						numberGains++;
+					} else if (value < previous) {
+						sumLoss += (previous - value);
+						numberLosses++;
+					}
+				}
+
+				previous = value;
+				numberQuotes++;
+			}
 		}
 
-		RSIAverages averages = avgGainLoss(data);
-		if (averages.numberLosses == 0 && averages.numberGains == 0)
+		// If the period is too small, return a neutral result
+		if (numberQuotes < 2 || (numberLosses == 0 && numberGains == 0))
 			return 50.0D;
 
+		double avgLoss = (numberLosses > 0) ? sumLoss / numberLosses : 0.0;
+		double avgGain = (numberGains > 0) ? sumGain / numberGains : 0.0;
+
 		// If avg loss is 0, then RSI returns 100 by definition.
-		else if (averages.numberLosses == 0 || averages.avgLoss == 0.0D)
+		if (numberLosses == 0 || avgLoss == 0.0D)
 			return 100.0D;
 
 		else {
-			double RS = averages.avgGain / averages.avgLoss;
+			double RS = avgGain / avgLoss;
 			return 100.0D - 100.0D / (1.0D + RS);
 		}
 	}
@@ -483,61 +580,6 @@ public class QuoteFunctions {
 		}
 	}
 
-	// Shared calcuations for average gain/loss
-	private static RSIAverages avgGainLoss(List data) throws EvaluationException {
-		assert data.size() >= 2;
-
-		double previous = ((Double) data.get(0)).doubleValue();
-		int index = 0;
-		int numberGains = 0;
-		int numberLosses = 0;
-		double sumGain = 0.0;
-		double sumLoss = 0.0;
-
-		// Calculate average day up and down closes
-		Iterator iterator = data.iterator();
-		while (iterator.hasNext()) {
-			double value = ((Double) iterator.next()).doubleValue();
-			if (value > previous) {
-				sumGain += (value - previous);
-				numberGains++;
-			} else if (value < previous) {
-				sumLoss += (previous - value);
-				numberLosses++;
-			}
-
-			previous = value;
-		}
-		double avgLoss = (numberLosses > 0) ? sumLoss / numberLosses : 0.0;
-		double avgGain = (numberGains > 0) ? sumGain / numberGains : 0.0;
-		RSIAverages rv = new QuoteFunctions.RSIAverages(avgGain, numberGains, avgLoss, numberLosses);
-		return rv;
-	}
-
-	// Build a list of proper (ie no NaN) quotes for calculating RSI values
-	// 0 <= list.size() <= period
-	private static ArrayList rsiData(IQuoteFunctionSource source, int period) throws EvaluationException {
-
-		ArrayList data = new ArrayList();
-		double previous = Double.NaN;
-		int index = 0;
-		// Get the day before the RSI calculation
-		while (Double.isNaN(previous) && index < period)
-			previous = source.getValue(index++);
-
-		if (!Double.isNaN(previous)) {
-			data.add(new Double(previous));
-		}
-		while (index < period) {
-			double value = source.getValue(index++);
-
-			if (!Double.isNaN(value)) {
-				data.add(new Double(value));
-			}
-		}
-		return data;
-	}
-
 	/**
 	 * Calculate the Exponential Moving Average (EMA) value. The Exponential Moving
 	 * Average is a weighted moving average where the most recent values are
@@ -696,9 +738,9 @@ public class QuoteFunctions {
 
 			if ((!Double.isNaN(open)) && (!Double.isNaN(close)) && (!Double.isNaN(volume))) {
 				if (close > open)
-					OBV += new Double(volume).intValue();
+					OBV += (int) volume;
 				else if (close < open)
-					OBV -= new Double(volume).intValue();
+					OBV -= (int) volume;
 			}
 		}
 
@@ -24,7 +24,7 @@ package nz.org.venice.quote;
  */
 public class QuoteNotLoadedException extends Throwable {
 
-	private static QuoteNotLoadedException instance = new QuoteNotLoadedException();
+	private static final QuoteNotLoadedException instance = new QuoteNotLoadedException();
 
 	private QuoteNotLoadedException() {
 		// nothing to do
@@ -36,7 +36,7 @@ public class QuoteNotLoadedException extends Throwable {
 	 * thrown around a lot so needs to be fast - and the stack trace is not
 	 * important. See "Java Performance Tuning" for an explanation.
 	 */
-	public static synchronized QuoteNotLoadedException getInstance() {
+	public static QuoteNotLoadedException getInstance() {
 		return instance;
 	}
 }
@@ -0,0 +1,138 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+/**
+ * Allow the {@link QuoteFunctions} package to use a series of quotes loaded
+ * from a {@link nz.org.venice.quote.IQuoteBundle} in one go. This is used to
+ * evaluate a quote function for every day in a range: the quotes are read
+ * from the bundle once, rather than once for every day the quote falls in the
+ * function's period. Missing quotes are returned as <code>NaN</code>, as
+ * {@link QuoteBundleFunctionSource} does.
+ * 
+ * <pre>
+ * QuoteSeriesFunctionSource source = new QuoteSeriesFunctionSource(quoteBundle, symbol, Quote.DAY_CLOSE, firstDay,
+ * 		lastDay);
+ * for (int day = firstDay + period - 1; day &lt;= lastDay; day++) {
+ * 	source.setWindow(day, period);
+ * 	values[day - firstDay] = QuoteFunctions.avg(source, period);
+ * }
+ * </pre>
+ *
+ * @see QuoteFunctions
+ * @see nz.org.venice.parser.IExpression#evaluateSeries
+ */
+public class QuoteSeriesFunctionSource implements IQuoteFunctionSource {
+
+	/**
+	 * The largest number of quotes that will be loaded in one series. Larger
+	 * ranges are only possible with nonsensical function arguments.
+	 */
+	public final static int MAXIMUM_DAYS = 100000;
+
+	// Quotes from firstDay to lastDay inclusive
+	private double[] quotes;
+
+	// Offset of the first quote in the quote bundle
+	private int firstDay;
+
+	// Index of the first quote in the current window
+	private int start;
+
+	// Number of quote dates in the current window
+	private int period;
+
+	/**
+	 * Create a new quote function source and load the quotes for the given
+	 * range of days.
+	 *
+	 * @param quoteBundle the quote bundle containing the quotes
+	 * @param symbol      the symbol of the quotes to load
+	 * @param quoteKind   the quote kind, one of {@link IQuote#DAY_OPEN},
+	 *                    {@link IQuote#DAY_CLOSE}, {@link IQuote#DAY_LOW},
+	 *                    {@link IQuote#DAY_HIGH}, {@link IQuote#DAY_VOLUME}
+	 * @param firstDay    offset of the first quote to load
+	 * @param lastDay     offset of the last quote to load
+	 */
+	public QuoteSeriesFunctionSource(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind, int firstDay,
+			int lastDay) {
+
+		// The range is empty if a function is given a period of zero days
+		this.firstDay = firstDay;
+		quotes = new double[Math.max(0, lastDay - firstDay + 1)];
+
+		for (int day = firstDay; day <= lastDay; day++)
+			quotes[day - firstDay] = quoteBundle.findQuote(symbol, quoteKind, day);
+	}
+
+	/**
+	 * Return whether quotes can be loaded from the given quote bundle as a
+	 * series. This is only the case if the bundle gives the same quote for a
+	 * date whichever day it is accessed from. The bundles used by the genetic
+	 * programming module, for example, restrict how far into the past a rule
+	 * can see.
+	 *
+	 * @param quoteBundle the quote bundle
+	 * @return <code>true</code> if a series can be loaded
+	 */
+	public static boolean isSupported(IQuoteBundle quoteBundle) {
+		return quoteBundle != null && quoteBundle.getClass() == EODQuoteBundle.class;
+	}
+
+	/**
+	 * Return whether a series of quotes can be loaded for the given range.
+	 *
+	 * @param firstDay offset of the first quote
+	 * @param lastDay  offset of the last quote
+	 * @return <code>true</code> if the range is not too large
+	 */
+	public static boolean isSupported(long firstDay, long lastDay) {
+		return lastDay - firstDay < MAXIMUM_DAYS;
+	}
+
+	/**
+	 * Return the quote on the given day.
+	 *
+	 * @param day offset of the quote in the quote bundle
+	 * @return the quote or <code>NaN</code> if it is missing
+	 */
+	public double getQuote(int day) {
+		return quotes[day - firstDay];
+	}
+
+	/**
+	 * Set the quotes available to the quote function. The function will see the
+	 * <code>period</code> quotes ending on the given day.
+	 *
+	 * @param lastDay offset of the last quote, in the quote bundle
+	 * @param period  the number of quote dates available
+	 */
+	public void setWindow(int lastDay, int period) {
+		start = lastDay - period + 1 - firstDay;
+		this.period = period;
+
+		assert start >= 0 && start + period <= quotes.length;
+	}
+
+	public double getValue(int index) {
+		assert index >= 0 && index < period;
+
+		return quotes[start + index];
+	}
+}
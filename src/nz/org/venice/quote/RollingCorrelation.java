@@ -0,0 +1,162 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+/**
+ * Rolling windows over two series of quotes which keep running totals of the
+ * pairs of values, so that their correlation can be calculated for each new day
+ * in constant time.
+ *
+ * @see RollingWindow
+ * @see QuoteFunctions#corr(IQuoteFunctionSource, IQuoteFunctionSource, int)
+ */
+public class RollingCorrelation {
+
+	// Number of pairs added between recalculating the running sums
+	private final static int RESYNC_INTERVAL = 1024;
+
+	// Windows over each series
+	private final RollingWindow x;
+	private final RollingWindow y;
+
+	// Number of days where neither value is missing
+	private int pairs;
+
+	// Number of pairs added since the running sums were last recalculated
+	private int sinceResync;
+
+	// Running sums are of the values minus these references
+	private double referenceX;
+	private double referenceY;
+
+	// Sums of each value, and their product, over the days where neither
+	// value is missing
+	private final CompensatedSum sumX = new CompensatedSum();
+	private final CompensatedSum sumY = new CompensatedSum();
+	private final CompensatedSum sumProducts = new CompensatedSum();
+
+	/**
+	 * Create a new empty correlation window.
+	 *
+	 * @param period the number of days in the window
+	 */
+	public RollingCorrelation(int period) {
+		x = new RollingWindow(period, false);
+		y = new RollingWindow(period, false);
+		clear();
+	}
+
+	/**
+	 * Return the number of days in a full window.
+	 *
+	 * @return the period
+	 */
+	public int getPeriod() {
+		return x.getPeriod();
+	}
+
+	/**
+	 * Remove all values from the window.
+	 */
+	public void clear() {
+		x.clear();
+		y.clear();
+		pairs = 0;
+		sinceResync = 0;
+		referenceX = referenceY = Double.NaN;
+		sumX.clear();
+		sumY.clear();
+		sumProducts.clear();
+	}
+
+	/**
+	 * Add the values for the next day to the window.
+	 *
+	 * @param xValue the value of the first series or <code>NaN</code>
+	 * @param yValue the value of the second series or <code>NaN</code>
+	 */
+	public void add(double xValue, double yValue) {
+		if (x.getSize() == x.getPeriod())
+			addPair(x.getValue(0), y.getValue(0), -1);
+
+		x.add(xValue);
+		y.add(yValue);
+		addPair(xValue, yValue, 1);
+
+		if (++sinceResync >= RESYNC_INTERVAL)
+			resync();
+	}
+
+	// Add or take away a pair from the running sums
+	private void addPair(double xValue, double yValue, int sign) {
+		if (Double.isNaN(xValue) || Double.isNaN(yValue))
+			return;
+
+		if (Double.isNaN(referenceX)) {
+			referenceX = xValue;
+			referenceY = yValue;
+		}
+
+		double shiftedX = xValue - referenceX;
+		double shiftedY = yValue - referenceY;
+
+		pairs += sign;
+		sumX.add(sign * shiftedX);
+		sumY.add(sign * shiftedY);
+		sumProducts.add(sign * shiftedX * shiftedY);
+	}
+
+	// Recalculate the running sums from the values in the window
+	private void resync() {
+		sinceResync = 0;
+		pairs = 0;
+		referenceX = referenceY = Double.NaN;
+		sumX.clear();
+		sumY.clear();
+		sumProducts.clear();
+
+		for (int i = 0; i < x.getSize(); i++)
+			addPair(x.getValue(i), y.getValue(i), 1);
+	}
+
+	/**
+	 * Return the correlation of the two series over the window.
+	 *
+	 * @return the correlation
+	 */
+	public double getCorrelation() {
+		double sx = x.getStandardDeviation();
+		double sy = y.getStandardDeviation();
+
+		if (sx == 0.0D || sy == 0.0D || pairs == 0)
+			return 0.0D;
+
+		// Sum (x - avg(x)) * (y - avg(y)) over the pairs, with everything
+		// shifted by the references.
+		double ex = x.getAverage() - referenceX;
+		double ey = y.getAverage() - referenceY;
+		double covariance = sumProducts.get() - ex * sumY.get() - ey * sumX.get() + pairs * ex * ey;
+		double r = covariance / (sx * sy);
+
+		if (pairs > 1)
+			r /= (pairs - 1);
+
+		return r;
+	}
+}
@@ -0,0 +1,447 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+/**
+ * A window over the last <code>period</code> values of a series, which keeps
+ * running totals so that the functions in {@link QuoteFunctions} can be
+ * calculated for each new day in constant time, rather than by looking at every
+ * value in the period again.
+ * <p>
+ * Missing quotes are added as <code>NaN</code> and are skipped, the same as the
+ * quote functions skip them. The results match the quote functions to within
+ * rounding error. The running sums are kept relative to a reference value near
+ * the values in the window, so that the standard deviation does not lose
+ * precision when the values are large compared to their spread, and they are
+ * recalculated from the window every so often.
+ * <p>
+ * The minimum and maximum are found using monotonic queues of the values in the
+ * window, which are only kept if asked for when the window is created. So is
+ * the exponential moving average, which {@link QuoteFunctions#ema} starts
+ * afresh from the oldest value in the window. When the oldest value drops out
+ * the average is corrected for the next value taking its place as the start.
+ *
+ * <pre>
+ * RollingWindow window = new RollingWindow(period, false);
+ * for (int i = 0; i &lt; values.length; i++) {
+ * 	window.add(values[i]);
+ * 	averages[i] = window.getAverage();
+ * }
+ * </pre>
+ *
+ * @see RollingCorrelation
+ */
+public class RollingWindow implements IQuoteFunctionSource {
+
+	// Number of values added between recalculating the running sums
+	private final static int RESYNC_INTERVAL = 1024;
+
+	// The window size
+	private final int period;
+
+	// The values in the window. The value added at position p is stored in
+	// values[p % period].
+	private final double[] values;
+
+	// Number of values added since the window was cleared
+	private long position;
+
+	// Number of values in the window, which is the period once it is full
+	private int size;
+
+	// Number of values in the window which are not missing
+	private int count;
+
+	// Number of values added since the running sums were last recalculated
+	private int sinceResync;
+
+	// Running sums are of the values minus this reference
+	private double reference;
+
+	// Sum of the values and their squares
+	private final CompensatedSum sum = new CompensatedSum();
+	private final CompensatedSum sumSquares = new CompensatedSum();
+
+	// For the line of best fit the values are numbered from 1, the oldest,
+	// up to the size of the window. These are the sum of the numbers times
+	// the values, and of the numbers and their squares.
+	private final CompensatedSum sumProducts = new CompensatedSum();
+	private long sumIndexes;
+	private long sumIndexSquares;
+
+	// Smoothing constant of the exponential moving average, or NaN if it is
+	// not kept, and its current value
+	private final double smoothing;
+	private double exponentialAverage;
+
+	// Monotonic queues of the positions of the values which could be the
+	// minimum or maximum of the window, or null if they are not kept.
+	private final long[] minimumQueue;
+	private final long[] maximumQueue;
+	private int minimumHead, minimumSize;
+	private int maximumHead, maximumSize;
+
+	/**
+	 * Create a new empty window.
+	 *
+	 * @param period   the number of values in the window
+	 * @param extremes whether the minimum and maximum will be needed
+	 */
+	public RollingWindow(int period, boolean extremes) {
+		this(period, extremes, Double.NaN);
+	}
+
+	/**
+	 * Create a new empty window which keeps an exponential moving average.
+	 *
+	 * @param period    the number of values in the window
+	 * @param extremes  whether the minimum and maximum will be needed
+	 * @param smoothing the smoothing constant of the exponential moving average
+	 */
+	public RollingWindow(int period, boolean extremes, double smoothing) {
+		assert period > 0;
+
+		this.period = period;
+		this.smoothing = smoothing;
+		values = new double[period];
+
+		if (extremes) {
+			minimumQueue = new long[period];
+			maximumQueue = new long[period];
+		} else {
+			minimumQueue = null;
+			maximumQueue = null;
+		}
+
+		clear();
+	}
+
+	/**
+	 * Return the number of values in a full window.
+	 *
+	 * @return the period
+	 */
+	public int getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Return whether the window keeps track of its minimum and maximum.
+	 *
+	 * @return <code>true</code> if {@link #getMinimum} and {@link #getMaximum}
+	 *         can be called
+	 */
+	public boolean hasExtremes() {
+		return minimumQueue != null;
+	}
+
+	/**
+	 * Return the smoothing constant of the exponential moving average.
+	 *
+	 * @return the smoothing constant or <code>NaN</code> if the average is not
+	 *         kept
+	 */
+	public double getSmoothing() {
+		return smoothing;
+	}
+
+	/**
+	 * Remove all values from the window.
+	 */
+	public void clear() {
+		position = 0;
+		size = 0;
+		count = 0;
+		sinceResync = 0;
+		reference = Double.NaN;
+		sum.clear();
+		sumSquares.clear();
+		sumProducts.clear();
+		sumIndexes = 0;
+		sumIndexSquares = 0;
+		exponentialAverage = 0.0D;
+		minimumHead = minimumSize = 0;
+		maximumHead = maximumSize = 0;
+	}
+
+	/**
+	 * Add the next value to the window. If the window is full, the oldest
+	 * value drops out of it.
+	 *
+	 * @param value the value or <code>NaN</code> if it is missing
+	 */
+	public void add(double value) {
+		if (size == period)
+			removeOldest();
+
+		int index = (int) (position % period);
+		values[index] = value;
+		position++;
+		size++;
+
+		if (!Double.isNaN(value)) {
+			if (Double.isNaN(reference))
+				reference = value;
+
+			double shifted = value - reference;
+
+			if (count == 0)
+				exponentialAverage = value;
+			else
+				exponentialAverage = exponentialAverage + smoothing * (value - exponentialAverage);
+
+			count++;
+			sum.add(shifted);
+			sumSquares.add(shifted * shifted);
+			sumProducts.add(size * shifted);
+			sumIndexes += size;
+			sumIndexSquares += (long) size * size;
+
+			if (minimumQueue != null) {
+				// Values behind a smaller (larger) newer value can never be
+				// the minimum (maximum) again.
+				while (minimumSize > 0 && getQueued(minimumQueue, minimumHead, minimumSize - 1) >= value)
+					minimumSize--;
+				minimumQueue[(minimumHead + minimumSize++) % period] = position - 1;
+
+				while (maximumSize > 0 && getQueued(maximumQueue, maximumHead, maximumSize - 1) <= value)
+					maximumSize--;
+				maximumQueue[(maximumHead + maximumSize++) % period] = position - 1;
+			}
+		}
+
+		if (++sinceResync >= RESYNC_INTERVAL)
+			resync();
+	}
+
+	// Take the oldest value out of the window and renumber the rest
+	private void removeOldest() {
+		long oldest = position - size;
+		double value = values[(int) (oldest % period)];
+
+		if (!Double.isNaN(value)) {
+			double shifted = value - reference;
+
+			if (!Double.isNaN(smoothing))
+				removeFromExponentialAverage(value);
+
+			count--;
+			sum.add(-shifted);
+			sumSquares.add(-shifted * shifted);
+			sumProducts.add(-shifted);
+			sumIndexes -= 1;
+			sumIndexSquares -= 1;
+
+			if (minimumQueue != null) {
+				if (minimumSize > 0 && minimumQueue[minimumHead] == oldest) {
+					minimumHead = (minimumHead + 1) % period;
+					minimumSize--;
+				}
+				if (maximumSize > 0 && maximumQueue[maximumHead] == oldest) {
+					maximumHead = (maximumHead + 1) % period;
+					maximumSize--;
+				}
+			}
+		}
+
+		size--;
+
+		// Each remaining value moves down one place: sum (i - 1) * v and
+		// sum (i - 1)^2 in terms of the old sums.
+		sumProducts.add(-sum.get());
+		sumIndexSquares -= 2 * sumIndexes - count;
+		sumIndexes -= count;
+	}
+
+	// Take the oldest value out of the exponential moving average. With m
+	// values the oldest value u0 has a weight of (1 - k)^(m - 1) and the next
+	// u1 a weight of k(1 - k)^(m - 2). Once u1 is the oldest value its
+	// weight is (1 - k)^(m - 2), so the average changes by
+	// (1 - k)^(m - 1) * (u1 - u0).
+	private void removeFromExponentialAverage(double oldest) {
+		if (count == 1) {
+			exponentialAverage = 0.0D;
+			return;
+		}
+
+		double next = Double.NaN;
+		for (int i = 1; Double.isNaN(next); i++)
+			next = getValue(i);
+
+		exponentialAverage += Math.pow(1.0D - smoothing, count - 1) * (next - oldest);
+	}
+
+	// Recalculate the running sums from the values in the window
+	private void resync() {
+		sinceResync = 0;
+		reference = Double.NaN;
+		sum.clear();
+		sumSquares.clear();
+		sumProducts.clear();
+		exponentialAverage = 0.0D;
+
+		for (int i = 0; i < size; i++) {
+			double value = getValue(i);
+
+			if (!Double.isNaN(value)) {
+				if (Double.isNaN(reference))
+					exponentialAverage = reference = value;
+				else
+					exponentialAverage = exponentialAverage + smoothing * (value - exponentialAverage);
+
+				double shifted = value - reference;
+
+				sum.add(shifted);
+				sumSquares.add(shifted * shifted);
+				sumProducts.add((i + 1) * shifted);
+			}
+		}
+	}
+
+	// Return the value at the given place in a monotonic queue
+	private double getQueued(long[] queue, int head, int index) {
+		return values[(int) (queue[(head + index) % period] % period)];
+	}
+
+	/**
+	 * Return the number of values in the window, including missing values.
+	 *
+	 * @return the number of values
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Return the number of values in the window which are not missing.
+	 *
+	 * @return the number of values
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Return a value in the window. Offset 0 is the oldest value.
+	 *
+	 * @param offset the offset of the value in the window
+	 * @return the value or <code>NaN</code> if it is missing
+	 */
+	public double getValue(int offset) {
+		assert offset >= 0 && offset < size;
+
+		return values[(int) ((position - size + offset) % period)];
+	}
+
+	/**
+	 * Return the sum of the values in the window, skipping missing values.
+	 *
+	 * @return the sum
+	 */
+	public double getSum() {
+		return count == 0 ? 0.0D : count * reference + sum.get();
+	}
+
+	/**
+	 * Return the average of the values in the window, skipping missing values.
+	 *
+	 * @return the average, or zero if every value is missing
+	 * @see QuoteFunctions#avg(IQuoteFunctionSource, int)
+	 */
+	public double getAverage() {
+		return count == 0 ? 0.0D : reference + sum.get() / count;
+	}
+
+	/**
+	 * Return the standard deviation of the values in the window, skipping
+	 * missing values.
+	 *
+	 * @return the standard deviation
+	 * @see QuoteFunctions#sd(IQuoteFunctionSource, int)
+	 */
+	public double getStandardDeviation() {
+		if (count == 0)
+			return 0.0D;
+
+		double shiftedSum = sum.get();
+		double squares = sumSquares.get();
+		double deviationSum = squares - shiftedSum * shiftedSum / count;
+
+		// What's left over when every value is the same is rounding error
+		if (deviationSum <= squares * 1e-12)
+			deviationSum = 0.0D;
+
+		if (count > 2)
+			deviationSum /= (count - 1);
+
+		return Math.sqrt(deviationSum);
+	}
+
+	/**
+	 * Return the smallest value in the window, skipping missing values.
+	 *
+	 * @return the minimum, or <code>NaN</code> if every value is missing
+	 */
+	public double getMinimum() {
+		assert minimumQueue != null;
+
+		return minimumSize == 0 ? Double.NaN : getQueued(minimumQueue, minimumHead, 0);
+	}
+
+	/**
+	 * Return the largest value in the window, skipping missing values.
+	 *
+	 * @return the maximum, or <code>NaN</code> if every value is missing
+	 */
+	public double getMaximum() {
+		assert maximumQueue != null;
+
+		return maximumSize == 0 ? Double.NaN : getQueued(maximumQueue, maximumHead, 0);
+	}
+
+	/**
+	 * Return the exponential moving average of the values in the window,
+	 * skipping missing values.
+	 *
+	 * @return the exponential moving average, or zero if every value is missing
+	 * @see QuoteFunctions#ema(IQuoteFunctionSource, int, double)
+	 */
+	public double getExponentialAverage() {
+		assert !Double.isNaN(smoothing);
+
+		return exponentialAverage;
+	}
+
+	/**
+	 * Return the value of the line of best fit through the values in the
+	 * window, one day after the window.
+	 *
+	 * @return the trend
+	 * @see QuoteFunctions#bestFit(IQuoteFunctionSource, int)
+	 */
+	public double getTrend() {
+		// The slope doesn't change if every value is shifted by the reference
+		double shiftedSum = sum.get();
+		double slope = (count * sumProducts.get() - sumIndexes * shiftedSum)
+				/ ((double) count * sumIndexSquares - (double) sumIndexes * sumIndexes);
+		double intercept = (shiftedSum - slope * sumIndexes) / count + reference;
+
+		return slope * (count + 1) + intercept;
+	}
+}
@@ -64,6 +64,9 @@ public class Symbol implements Cloneable, Comparable {
 	
 	private SymbolMetadata metaData;
 
+	// Small unique number identifying the canonical symbol
+	private int id;
+
 	/** The minimum valid length for a symbol */
 	public final static int MINIMUM_SYMBOL_LENGTH = 1;
 
@@ -73,6 +76,9 @@ public class Symbol implements Cloneable, Comparable {
 	// Hashmap of linking strings to their canonical symbol instance
 	private static HashMap registry = new HashMap();
 
+	// Id to give the next new symbol
+	private static int nextId = 0;
+
 	/**
 	 * Create a new symbol from the given string.
 	 *
@@ -104,7 +110,7 @@ public class Symbol implements Cloneable, Comparable {
 	private void getSymbolMetadata() {
 		// Get symbol metadata inside the database
 		DatabaseManager dbm = DatabaseHelper.getDatabaseManager();
-		if (!dbm.getConnection()) {
+		if (dbm == null || !dbm.getConnection()) {
 			return;
 		}
 		
@@ -158,6 +164,7 @@ public class Symbol implements Cloneable, Comparable {
 
 				if (symbol == null) {
 					symbol = new Symbol(upperCaseString);
+					symbol.id = nextId++;
 					registry.put(upperCaseString, symbol);
 				}
 			}
@@ -175,6 +182,18 @@ public class Symbol implements Cloneable, Comparable {
 		return symbol;
 	}
 
+	/**
+	 * Return the id of the symbol. Each canonical symbol is given a unique id
+	 * starting from zero, so the id can be used to index arrays of per-symbol
+	 * data. Ids are only valid for the life of the program and should never be
+	 * stored.
+	 *
+	 * @return the symbol id.
+	 */
+	public int getId() {
+		return id;
+	}
+
 	/**
 	 * Return the length of the symbol. This is guaranteed to be within bounds.
 	 *
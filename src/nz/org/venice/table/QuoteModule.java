@@ -44,6 +44,7 @@ import javax.swing.event.ListSelectionListener;
 import nz.org.venice.main.CommandManager;
 import nz.org.venice.main.IModule;
 import nz.org.venice.main.ModuleFrame;
+import nz.org.venice.parser.CrossSectionEvaluator;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.ExpressionException;
@@ -52,7 +53,9 @@ import nz.org.venice.parser.Variables;
 import nz.org.venice.prefs.settings.QuoteModuleSettings;
 import nz.org.venice.prefs.settings.ISettings;
 import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteBundleCursor;
 import nz.org.venice.quote.IQuote;
+import nz.org.venice.quote.MissingQuoteException;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.ui.AbstractTable;
 import nz.org.venice.ui.Column;
@@ -62,8 +65,6 @@ import nz.org.venice.ui.ExpressionQuery;
 import nz.org.venice.ui.MenuHelper;
 import nz.org.venice.ui.SymbolListDialog;
 import nz.org.venice.util.Locale;
-import nz.org.venice.util.TradingDate;
-import nz.org.venice.util.WeekendDateException;
 
 /**
  * Venice module for displaying a table of stock quotes. This module allows a
@@ -223,20 +224,24 @@ public class QuoteModule extends AbstractTable implements IModule, ActionListene
 	// them as a list of Quotes.
 	private List extractAllQuotes(EODQuoteBundle quoteBundle) {
 		List quotes = new ArrayList();
-		Iterator iterator = quoteBundle.iterator();
-		TradingDate lastDate = quoteBundle.getLastDate();
+		EODQuoteBundleCursor cursor = createCursor(quoteBundle);
 
 		// Traverse all symbols on all dates
-		while (iterator.hasNext()) {
-			IQuote quote = (IQuote) iterator.next();
-
-			if (!singleDate || (lastDate.equals(quote.getDate())))
-				quotes.add(quote);
-		}
+		while (cursor.next())
+			quotes.add(cursor.toQuote());
 
 		return quotes;
 	}
 
+	// Return a cursor over the quotes to display. If we are only displaying
+	// a single date then there is no point visiting the earlier dates.
+	private EODQuoteBundleCursor createCursor(EODQuoteBundle quoteBundle) {
+		int lastDateOffset = quoteBundle.getLastOffset();
+		int firstDateOffset = singleDate ? lastDateOffset : quoteBundle.getFirstOffset();
+
+		return new EODQuoteBundleCursor(quoteBundle, firstDateOffset, lastDateOffset);
+	}
+
 	// Extract all quotes from the quote bundle which cause the given
 	// expression to equate to true. If there is no expression (string is null or
 	// empty) then extract all the quotes.
@@ -258,27 +263,30 @@ public class QuoteModule extends AbstractTable implements IModule, ActionListene
 
 		// Add symbols to list when expression proves true
 		ArrayList quotes = new ArrayList();
-		Iterator iterator = quoteBundle.iterator();
-		TradingDate lastDate = quoteBundle.getLastDate();
+		EODQuoteBundleCursor cursor = createCursor(quoteBundle);
+		CrossSectionEvaluator evaluator = new CrossSectionEvaluator(expression);
 
-		try {
-			// Traverse all symbols on all dates
-			while (iterator.hasNext()) {
-				IQuote quote = (IQuote) iterator.next();
-				Symbol symbol = quote.getSymbol();
-				TradingDate date = quote.getDate();
-				int dateOffset = 0;
+		// Symbols with quotes on the date being visited
+		List symbols = new ArrayList();
+		int dateOffset = 0;
 
-				try {
-					dateOffset = quoteBundle.dateToOffset(date);
-				} catch (WeekendDateException e) {
-					assert false;
+		try {
+			// Traverse all symbols on all dates, evaluating the expression
+			// over all the symbols of a date at once. Only create quote
+			// objects for the quotes we keep.
+			while (true) {
+				boolean more = cursor.next();
+
+				if (!symbols.isEmpty() && (!more || cursor.getDateOffset() != dateOffset)) {
+					extractQuotesUsingRule(evaluator, quoteBundle, symbols, dateOffset, quotes);
+					symbols.clear();
 				}
 
-				if (!singleDate || (lastDate.equals(quote.getDate()))) {
-					if (expression.evaluate(new Variables(), quoteBundle, symbol, dateOffset) >= IExpression.TRUE_LEVEL)
-						quotes.add(quote);
-				}
+				if (!more)
+					break;
+
+				dateOffset = cursor.getDateOffset();
+				symbols.add(cursor.getSymbol());
 			}
 
 			return quotes;
@@ -296,6 +304,29 @@ public class QuoteModule extends AbstractTable implements IModule, ActionListene
 		}
 	}
 
+	// Add the quotes of the given symbols on the given date which cause the
+	// expression to equate to true. Throws the exception of the first symbol,
+	// in symbol order, for which the expression didn't evaluate.
+	private void extractQuotesUsingRule(CrossSectionEvaluator evaluator, EODQuoteBundle quoteBundle, List symbols,
+			int dateOffset, List quotes) throws EvaluationException {
+
+		double[] values = evaluator.evaluate(null, quoteBundle, symbols, dateOffset);
+
+		for (int i = 0; i < values.length; i++) {
+			if (evaluator.getException(i) != null)
+				throw evaluator.getException(i);
+
+			if (values[i] >= IExpression.TRUE_LEVEL) {
+				try {
+					quotes.add(quoteBundle.getQuote((Symbol) symbols.get(i), dateOffset));
+				} catch (MissingQuoteException e) {
+					// The cursor has just visited the quote
+					assert false;
+				}
+			}
+		}
+	}
+
 	// Create a menu
 	private void addMenu() {
 		menuBar = new JMenuBar();
@@ -0,0 +1,143 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.ExpressionException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.Parser;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.QuoteSourceManager;
+import nz.org.venice.quote.Symbol;
+
+/**
+ * A tool which measures the cost of evaluating common indicator rules for every
+ * symbol on every day of a quote bundle. For each rule it reports the time and
+ * the number of bytes allocated per evaluation, and the number of evaluations
+ * which failed. Every second symbol is thinly traded so that the rules have to
+ * deal with missing quotes. This tool can be run from the build file by typing:
+ * <code>ant benchmark -Dbenchmark=EvaluationBenchmark</code>.
+ */
+public class EvaluationBenchmark {
+
+	// Number of times to evaluate each rule over the bundle per measurement
+	private final static int PASSES = 5;
+
+	// Size of the generated quote data
+	private final static int SYMBOLS = 200;
+	private final static int DAYS = 500;
+
+	// Proportion of days on which the thinly traded symbols have quotes
+	private final static double THIN_TRADING_DAYS = 0.3D;
+
+	// Days at the start of the bundle to skip so the rules have enough history
+	private final static int HISTORY = 60;
+
+	private final static String[] RULES = { "avg(close, 20) > avg(close, 50, -1)", "rsi(14) < 30",
+			"sd(close, 20) > 0.5", "ema(close, 12) > ema(close, 26)", "macd(close) > 0", "momentum(close, 10) > 0",
+			"trend(close, 20) > 0", "obv(20) > 0", "min(low, 10) * 1.1 < max(high, 10)", "sum(volume, 5) > 100000" };
+
+	/** This class cannot be instantiated. */
+	private EvaluationBenchmark() {
+		assert false;
+	}
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args optional number of passes over the quote bundle
+	 */
+	public static void main(String[] args) {
+		int passes = (args.length > 0 ? Integer.parseInt(args[0]) : PASSES);
+
+		QuoteSourceManager.setSource(new SyntheticQuoteSource(SYMBOLS, DAYS, 1, THIN_TRADING_DAYS));
+
+		EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(EODQuoteRange.ALL_SYMBOLS));
+		List symbols = quoteBundle.getAllSymbols();
+
+		for (int i = 0; i < RULES.length; i++) {
+			IExpression expression;
+
+			try {
+				expression = Parser.parse(new Variables(), RULES[i]);
+			} catch (ExpressionException e) {
+				System.out.println(RULES[i] + ": " + e.getReason());
+				continue;
+			}
+
+			// Warm up, this also loads the quotes into the cache
+			evaluate(expression, quoteBundle, symbols, 2);
+
+			long allocated = getAllocatedBytes();
+			long start = System.nanoTime();
+
+			long[] counts = evaluate(expression, quoteBundle, symbols, passes);
+
+			long elapsed = System.nanoTime() - start;
+			allocated = getAllocatedBytes() - allocated;
+
+			System.out.println(RULES[i] + ": " + (elapsed / counts[0]) + " ns/evaluation, "
+					+ (allocated / counts[0]) + " bytes/evaluation, " + counts[1] + " errors");
+		}
+	}
+
+	// Evaluate the expression for every symbol and day. Returns the number of
+	// evaluations and the number that failed.
+	private static long[] evaluate(IExpression expression, EODQuoteBundle quoteBundle, List symbols, int passes) {
+		Variables variables = new Variables();
+		long evaluations = 0;
+		long errors = 0;
+		double sum = 0.0D;
+
+		for (int pass = 0; pass < passes; pass++) {
+			for (int day = quoteBundle.getFirstOffset() + HISTORY; day <= quoteBundle.getLastOffset(); day++) {
+				for (int i = 0; i < symbols.size(); i++, evaluations++) {
+					try {
+						sum += expression.evaluate(variables, quoteBundle, (Symbol) symbols.get(i), day);
+					} catch (EvaluationException e) {
+						errors++;
+					}
+				}
+			}
+		}
+
+		// Stop the JIT from removing the loop
+		if (sum == Double.MIN_VALUE)
+			System.out.println(sum);
+
+		return new long[] { evaluations, errors };
+	}
+
+	// Returns the number of bytes allocated by this thread, if the JVM
+	// supports it.
+	private static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		else
+			return 0;
+	}
+}
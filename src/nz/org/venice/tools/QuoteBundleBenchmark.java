@@ -0,0 +1,146 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.tools;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteBundleCursor;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.IQuote;
+import nz.org.venice.quote.QuoteSourceManager;
+
+/**
+ * A tool which measures the cost of traversing every quote in a quote bundle
+ * using {@link EODQuoteBundle#iterator} compared to
+ * {@link EODQuoteBundle#cursor}. For each method it reports the time taken, the
+ * number of bytes allocated by the traversing thread and the number of garbage
+ * collections. The quotes are generated by a {@link SyntheticQuoteSource}. This
+ * tool can be run from the build file by typing: <code>ant benchmark</code>.
+ */
+public class QuoteBundleBenchmark {
+
+	// Number of times to traverse the bundle per measurement
+	private final static int PASSES = 20;
+
+	// Size of the generated quote data
+	private final static int SYMBOLS = 500;
+	private final static int DAYS = 500;
+
+	/** This class cannot be instantiated. */
+	private QuoteBundleBenchmark() {
+		assert false;
+	}
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args optional number of passes over the quote bundle
+	 */
+	public static void main(String[] args) {
+		int passes = (args.length > 0 ? Integer.parseInt(args[0]) : PASSES);
+
+		QuoteSourceManager.setSource(new SyntheticQuoteSource(SYMBOLS, DAYS, 1));
+
+		EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(EODQuoteRange.ALL_SYMBOLS));
+
+		// Warm up both paths, this also loads the quotes into the cache
+		iterate(quoteBundle, 2);
+		traverse(quoteBundle, 2);
+
+		measure("iterator", quoteBundle, passes, false);
+		measure("cursor", quoteBundle, passes, true);
+	}
+
+	private static void measure(String name, EODQuoteBundle quoteBundle, int passes, boolean useCursor) {
+		System.gc();
+
+		long collections = getCollectionCount();
+		long allocated = getAllocatedBytes();
+		long start = System.nanoTime();
+
+		long quotes = useCursor ? traverse(quoteBundle, passes) : iterate(quoteBundle, passes);
+
+		long elapsed = System.nanoTime() - start;
+		allocated = getAllocatedBytes() - allocated;
+		collections = getCollectionCount() - collections;
+
+		System.out.println(name + ": " + quotes + " quotes, " + (elapsed / 1000000) + " ms, "
+				+ (allocated / quotes) + " bytes/quote, " + collections + " collections");
+	}
+
+	private static long iterate(EODQuoteBundle quoteBundle, int passes) {
+		long quotes = 0;
+		double sum = 0.0D;
+
+		for (int i = 0; i < passes; i++) {
+			for (Iterator iterator = quoteBundle.iterator(); iterator.hasNext(); quotes++) {
+				IQuote quote = (IQuote) iterator.next();
+				sum += quote.getDayClose();
+			}
+		}
+
+		// Stop the JIT from removing the loop
+		if (sum == Double.MIN_VALUE)
+			System.out.println(sum);
+
+		return quotes;
+	}
+
+	private static long traverse(EODQuoteBundle quoteBundle, int passes) {
+		long quotes = 0;
+		double sum = 0.0D;
+
+		for (int i = 0; i < passes; i++) {
+			for (EODQuoteBundleCursor cursor = quoteBundle.cursor(); cursor.next(); quotes++)
+				sum += cursor.getDayClose();
+		}
+
+		// Stop the JIT from removing the loop
+		if (sum == Double.MIN_VALUE)
+			System.out.println(sum);
+
+		return quotes;
+	}
+
+	// Returns the number of bytes allocated by this thread, if the JVM
+	// supports it.
+	private static long getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		else
+			return 0;
+	}
+
+	private static long getCollectionCount() {
+		long count = 0;
+
+		for (Iterator iterator = ManagementFactory.getGarbageCollectorMXBeans().iterator(); iterator.hasNext();) {
+			GarbageCollectorMXBean bean = (GarbageCollectorMXBean) iterator.next();
+			count += Math.max(0, bean.getCollectionCount());
+		}
+
+		return count;
+	}
+}
@@ -0,0 +1,195 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import nz.org.venice.quote.EODQuoteCache;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.IQuoteSource;
+import nz.org.venice.quote.IndicatorStore;
+import nz.org.venice.quote.MarketBreadth;
+import nz.org.venice.quote.MissingQuoteException;
+import nz.org.venice.quote.Symbol;
+import nz.org.venice.quote.SymbolFormatException;
+import nz.org.venice.util.Currency;
+import nz.org.venice.util.TradingDate;
+
+/**
+ * An in-memory quote source which generates random walk quotes for a number of
+ * made up symbols. It is used by the benchmark tools so they can run without a
+ * database, quote files or a display.
+ */
+public class SyntheticQuoteSource implements IQuoteSource {
+
+	private List symbols;
+	private List dates;
+	private long seed;
+
+	// Proportion of days on which every second symbol trades
+	private double thinTradingDays;
+
+	// Results of custom indicators, kept in memory
+	private IndicatorStore indicatorStore = null;
+
+	/**
+	 * Create a new synthetic quote source.
+	 *
+	 * @param symbolCount the number of symbols
+	 * @param dayCount    the number of trading days, ending on the first of
+	 *                    January 2010.
+	 * @param seed        seed for the random number generator
+	 */
+	public SyntheticQuoteSource(int symbolCount, int dayCount, long seed) {
+		this(symbolCount, dayCount, seed, 1.0D);
+	}
+
+	/**
+	 * Create a new synthetic quote source where every second symbol is thinly
+	 * traded and so is missing quotes on some days.
+	 *
+	 * @param symbolCount     the number of symbols
+	 * @param dayCount        the number of trading days, ending on the first of
+	 *                        January 2010.
+	 * @param seed            seed for the random number generator
+	 * @param thinTradingDays the proportion of days on which the thinly traded
+	 *                        symbols have quotes
+	 */
+	public SyntheticQuoteSource(int symbolCount, int dayCount, long seed, double thinTradingDays) {
+		this.seed = seed;
+		this.thinTradingDays = thinTradingDays;
+
+		symbols = new ArrayList(symbolCount);
+		for (int i = 0; i < symbolCount; i++) {
+			try {
+				symbols.add(Symbol.find("SYN" + i));
+			} catch (SymbolFormatException e) {
+				assert false;
+			}
+		}
+
+		TradingDate lastDate = new TradingDate(2010, 1, 1);
+		dates = TradingDate.dateRangeToList(lastDate.previous(dayCount - 1), lastDate);
+	}
+
+	/**
+	 * Return the symbols in this source.
+	 *
+	 * @return list of symbols
+	 */
+	public List getSymbols() {
+		return symbols;
+	}
+
+	public boolean symbolExists(Symbol symbol) {
+		return symbols.contains(symbol);
+	}
+
+	public TradingDate getLastDate() {
+		return (TradingDate) dates.get(dates.size() - 1);
+	}
+
+	public TradingDate getFirstDate() {
+		return (TradingDate) dates.get(0);
+	}
+
+	public boolean loadQuoteRange(EODQuoteRange quoteRange) {
+		EODQuoteCache quoteCache = EODQuoteCache.getInstance();
+		List rangeSymbols = (quoteRange.getType() == EODQuoteRange.GIVEN_SYMBOLS ? quoteRange.getAllSymbols()
+				: symbols);
+		TradingDate firstDate = quoteRange.getFirstDate();
+		TradingDate lastDate = quoteRange.getLastDate();
+
+		if (firstDate == null) {
+			firstDate = getFirstDate();
+			lastDate = getLastDate();
+		}
+
+		for (Iterator iterator = rangeSymbols.iterator(); iterator.hasNext();) {
+			Symbol symbol = (Symbol) iterator.next();
+			int index = symbols.indexOf(symbol);
+
+			if (index < 0)
+				continue;
+
+			// Each symbol gets its own stream so the quotes don't depend on
+			// which range is loaded first.
+			Random random = new Random(seed + index);
+			double close = 1.0 + random.nextDouble() * 10.0;
+
+			for (Iterator dateIterator = dates.iterator(); dateIterator.hasNext();) {
+				TradingDate date = (TradingDate) dateIterator.next();
+				double open = close;
+				close = Math.max(0.01, close * (1.0 + random.nextGaussian() * 0.02));
+				double high = Math.max(open, close) * (1.0 + random.nextDouble() * 0.01);
+				double low = Math.min(open, close) * (1.0 - random.nextDouble() * 0.01);
+				long volume = 1000 + random.nextInt(100000);
+				boolean traded = (thinTradingDays >= 1.0D || index % 2 == 0 || random.nextDouble() < thinTradingDays);
+
+				if (traded && date.compareTo(firstDate) >= 0 && date.compareTo(lastDate) <= 0)
+					quoteCache.load(symbol, date, volume, (float) low, (float) high, (float) open, (float) close);
+			}
+		}
+
+		return true;
+	}
+
+	public boolean containsDate(TradingDate date) {
+		return dates.contains(date);
+	}
+
+	public List getDates() {
+		return dates;
+	}
+
+	public boolean isMarketIndex(Symbol symbol) {
+		return false;
+	}
+
+	public HashMap getAdvanceDecline(TradingDate startDate, TradingDate endDate) throws MissingQuoteException {
+		throw MissingQuoteException.getInstance();
+	}
+
+	public MarketBreadth getMarketBreadth() throws MissingQuoteException {
+		throw MissingQuoteException.getInstance();
+	}
+
+	public synchronized IndicatorStore getIndicatorStore() {
+		if (indicatorStore == null)
+			indicatorStore = new IndicatorStore(null);
+
+		return indicatorStore;
+	}
+
+	public List getExchangeRates(Currency sourceCurrency, Currency destinationCurrency) {
+		return new ArrayList();
+	}
+
+	public void shutdown() {
+		// nothing to do
+	}
+
+	public void cacheExpiry() {
+		// nothing to do
+	}
+}
@@ -26,8 +26,11 @@ import java.util.Map;
 import nz.org.venice.parser.EvaluationException;
 import nz.org.venice.parser.IExpression;
 import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.EODQuoteBundle;
 import nz.org.venice.quote.IQuote;
 import nz.org.venice.quote.IQuoteBundle;
+import nz.org.venice.quote.IndicatorStore;
+import nz.org.venice.quote.QuoteSourceManager;
 import nz.org.venice.quote.Symbol;
 import nz.org.venice.util.TradingDate;
 import nz.org.venice.util.WeekendDateException;
@@ -53,8 +56,9 @@ public class ExpressionColumn extends Column implements Cloneable {
 	private IExpression expression;
 
 	// A map which allows you to find the result of an expression for a given symbol
-	// on a given trading date. The map is a mapping of the concatenation of
-	// the symbol and the trading date string, to an ExpressionResult.
+	// on a given trading date. The map is a mapping of the symbol to a map of
+	// the trading date to an ExpressionResult. Using two levels saves building
+	// a string key for every quote and for every time a table cell is drawn.
 	private Map results;
 
 	/**
@@ -120,6 +124,10 @@ public class ExpressionColumn extends Column implements Cloneable {
 	 * the quotes in the quote bundle. The reason is that to display a single day's
 	 * quotes requires the loading of two day's worth of quotes. Two days are needed
 	 * to calculate the quote change values.
+	 * <p>
+	 * Results for end of day quotes are kept in the quote source's
+	 * {@link IndicatorStore}, so only quotes which haven't been seen before are
+	 * evaluated.
 	 *
 	 * @param quoteBundle Quote Bundle containing quotes
 	 * @param quotes      A list of {@link IQuote}s which contain the symbols and
@@ -133,41 +141,75 @@ public class ExpressionColumn extends Column implements Cloneable {
 		results = new HashMap();
 
 		if (expression != null) {
-			for (Iterator iterator = quotes.iterator(); iterator.hasNext();) {
-				IQuote quote = (IQuote) iterator.next();
-
-				try {
-					int offset = quoteBundle.getOffset(quote);
-
-					double result = expression.evaluate(new Variables(), quoteBundle, quote.getSymbol(), offset);
-					results.put(quote.getSymbol().toString() + quote.getDate().toString(),
-							new ExpressionResult(expression.getType(), result));
-				} catch (WeekendDateException e) {
-					// Shouldn't happen
-					assert false;
-				} catch (EvaluationException e) {
-					// Some expressions evaluation will be undefined for
-					// the parameters. (e.g. the expression evaluations to
-					// determining the maximum of the empty set. )
-					// This could because of the applied date range
-					// doesn't contain any data.
-					// We don't want to halt the application of equations
-					// for all instances.
-					double result = 0.0;
-					results.put(quote.getSymbol().toString() + quote.getDate().toString(),
-							new ExpressionResult(expression.getType(), result));
-
-					// But if a halt command is received, throw the exception
-					// so the evaluation is halted as the user expects
-					if (e == EvaluationException.EVALUATION_HALTED_EXCEPTION) {
-						throw e;
-					}
+			IndicatorStore indicatorStore = null;
 
+			if (quoteBundle instanceof EODQuoteBundle && IndicatorStore.isStorable(expression))
+				indicatorStore = QuoteSourceManager.getSource().getIndicatorStore();
+
+			try {
+				calculate(quoteBundle, quotes, indicatorStore);
+			} finally {
+				if (indicatorStore != null)
+					indicatorStore.save();
+			}
+		}
+	}
+
+	// Calculate the result for each quote, using the indicator store if we
+	// have one
+	private void calculate(IQuoteBundle quoteBundle, List quotes, IndicatorStore indicatorStore)
+			throws EvaluationException {
+
+		for (Iterator iterator = quotes.iterator(); iterator.hasNext();) {
+			IQuote quote = (IQuote) iterator.next();
+
+			try {
+				int offset = quoteBundle.getOffset(quote);
+				double result;
+
+				if (indicatorStore != null)
+					result = indicatorStore.getValue(expression, (EODQuoteBundle) quoteBundle, quote.getSymbol(),
+							offset);
+				else
+					result = expression.evaluate(new Variables(), quoteBundle, quote.getSymbol(), offset);
+
+				putResult(quote.getSymbol(), quote.getDate(), new ExpressionResult(expression.getType(), result));
+			} catch (WeekendDateException e) {
+				// Shouldn't happen
+				assert false;
+			} catch (EvaluationException e) {
+				// Some expressions evaluation will be undefined for
+				// the parameters. (e.g. the expression evaluations to
+				// determining the maximum of the empty set. )
+				// This could because of the applied date range
+				// doesn't contain any data.
+				// We don't want to halt the application of equations
+				// for all instances.
+				double result = 0.0;
+				putResult(quote.getSymbol(), quote.getDate(), new ExpressionResult(expression.getType(), result));
+
+				// But if a halt command is received, throw the exception
+				// so the evaluation is halted as the user expects
+				if (e == EvaluationException.EVALUATION_HALTED_EXCEPTION) {
+					throw e;
 				}
+
 			}
 		}
 	}
 
+	// Store the result of the expression for the given symbol on the given date
+	private void putResult(Symbol symbol, TradingDate date, ExpressionResult result) {
+		Map symbolResults = (Map) results.get(symbol);
+
+		if (symbolResults == null) {
+			symbolResults = new HashMap();
+			results.put(symbol, symbolResults);
+		}
+
+		symbolResults.put(date, result);
+	}
+
 	/**
 	 * Return the result of the expression for the given symbol on the given date.
 	 *
@@ -182,8 +224,12 @@ public class ExpressionColumn extends Column implements Cloneable {
 		// and be sorted as so the result was 0.0.
 		ExpressionResult expressionResult = null;
 
-		if (results != null)
-			expressionResult = (ExpressionResult) results.get(symbol.toString() + date.toString());
+		if (results != null) {
+			Map symbolResults = (Map) results.get(symbol);
+
+			if (symbolResults != null)
+				expressionResult = (ExpressionResult) symbolResults.get(date);
+		}
 
 		if (expressionResult == null)
 			expressionResult = ExpressionResult.EMPTY;
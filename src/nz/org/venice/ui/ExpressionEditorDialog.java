@@ -20,18 +20,25 @@ package nz.org.venice.ui;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyVetoException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JInternalFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.border.TitledBorder;
@@ -62,6 +69,10 @@ public class ExpressionEditorDialog {
 	private String name;
 	private String expression;
 
+	// Profile of the expression, if we are showing one
+	private String profile;
+	private String foldedStacks;
+
 	// Width of text field: Name: [<-width->]
 	private final static int NAME_WIDTH = 20;
 
@@ -69,6 +80,10 @@ public class ExpressionEditorDialog {
 	private final static int EXPRESSION_ROWS = 14;
 	private final static int EXPRESSION_COLUMNS = 30;
 
+	// Preferred size to display a profile
+	private final static int PROFILE_ROWS = 20;
+	private final static int PROFILE_COLUMNS = 100;
+
 	// Whether we should display just the OK button or the OK and
 	// the cancel button
 	private final static int OK_BUTTON = 0;
@@ -77,8 +92,17 @@ public class ExpressionEditorDialog {
 	// Create a new expression editor dialog.
 	private ExpressionEditorDialog(String title, boolean displayName, String name, String expression, int buttonArray,
 			boolean isEditable) {
+		this(title, displayName, name, expression, null, null, buttonArray, isEditable);
+	}
+
+	// Create a new expression editor dialog which also shows the expression's
+	// profile.
+	private ExpressionEditorDialog(String title, boolean displayName, String name, String expression,
+			String profile, String foldedStacks, int buttonArray, boolean isEditable) {
 		this.name = name;
 		this.expression = expression;
+		this.profile = profile;
+		this.foldedStacks = foldedStacks;
 		assert buttonArray == OK_BUTTON || buttonArray == OK_CANCEL_BUTTON;
 
 		buildDialog(title, displayName, buttonArray, isEditable);
@@ -117,9 +141,32 @@ public class ExpressionEditorDialog {
 		expressionPanel.setBorder(titledBorder);
 		expressionPanel.add(new JScrollPane(expressionEditor));
 
-		panel.add(expressionPanel, BorderLayout.CENTER);
-
 		JPanel buttonPanel = new JPanel();
+
+		// Show the profile underneath the expression
+		if (profile != null) {
+			JPanel profilePanel = new JPanel();
+			JTextArea profileArea = new JTextArea(profile, PROFILE_ROWS, PROFILE_COLUMNS);
+			profileArea.setEditable(false);
+			profileArea.setFont(new Font("Monospaced", Font.PLAIN, profileArea.getFont().getSize()));
+
+			profilePanel.setLayout(new BorderLayout());
+			profilePanel.setBorder(new TitledBorder(Locale.getString("PROFILE")));
+			profilePanel.add(new JScrollPane(profileArea));
+
+			panel.add(new JSplitPane(JSplitPane.VERTICAL_SPLIT, expressionPanel, profilePanel), BorderLayout.CENTER);
+
+			JButton exportButton = new JButton(Locale.getString("EXPORT"));
+			exportButton.setToolTipText(Locale.getString("EXPORT_PROFILE_TOOLTIP"));
+			exportButton.addActionListener(new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					exportProfile();
+				}
+			});
+			buttonPanel.add(exportButton);
+		} else
+			panel.add(expressionPanel, BorderLayout.CENTER);
+
 		JButton okButton = new JButton(Locale.getString("OK"));
 		okButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -175,6 +222,24 @@ public class ExpressionEditorDialog {
 		}
 	}
 
+	// Save the profile as folded stacks so a flame graph can be drawn
+	private void exportProfile() {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setMultiSelectionEnabled(false);
+
+		if (chooser.showSaveDialog(DesktopManager.getDesktop()) == JFileChooser.APPROVE_OPTION) {
+			File file = chooser.getSelectedFile();
+
+			try {
+				Writer writer = new FileWriter(file);
+				writer.write(foldedStacks);
+				writer.close();
+			} catch (IOException e) {
+				DesktopManager.showErrorMessage(Locale.getString("ERROR_WRITING_TO_FILE", file.getName()));
+			}
+		}
+	}
+
 	private boolean isUp() {
 		return isUp;
 	}
@@ -342,6 +407,23 @@ public class ExpressionEditorDialog {
 		dialog.waitUntilClosed();
 	}
 
+	/**
+	 * Show a dialog which displays the profile of an expression, with a button
+	 * to export the profile for a flame graph. Make sure you run this in its own
+	 * thread - not in the swing dispatch thread!
+	 *
+	 * @param title        title of dialog.
+	 * @param expression   expression text
+	 * @param profile      the profile as an annotated tree
+	 * @param foldedStacks the profile as folded stacks
+	 * @see nz.org.venice.parser.expression.ExpressionProfiler
+	 */
+	public static void showProfileDialog(String title, String expression, String profile, String foldedStacks) {
+		ExpressionEditorDialog dialog = new ExpressionEditorDialog(title, false, "", expression, profile,
+				foldedStacks, OK_BUTTON, false);
+		dialog.waitUntilClosed();
+	}
+
 	// Check that a stored expression is valid after the user has modified it.
 	// Check for things like missing expression name or duplicate expression names.
 	// Don't check the expression for syntax as we can't do this without knowing
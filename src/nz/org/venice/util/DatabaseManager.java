@@ -246,24 +246,32 @@ public class DatabaseManager {
 		return username;
 	}
 
+	/**
+	 * Return the URL of the database without any login details. This identifies
+	 * the database.
+	 *
+	 * @return the database URL
+	 */
+	public String getDatabaseURL() {
+		// We can operate the HSQLDB mode in one of three different wayys.
+		// Construct connection string depending on mode
+		if (mode == INTERNAL && software.equals(HSQLDB_SOFTWARE))
+			return "jdbc:hsqldb:file:/" + fileName + ";sql.syntax_mys=true";
+		else
+			return "jdbc:" + software + "://" + host + ":" + port + "/" + database;
+	}
+
 	// Connect to the database
 	private boolean connect() {
 		try {
 			// Resolve the classname
 			Class.forName(driver);
 
-			// We can operate the HSQLDB mode in one of three different wayys.
-			// Construct connection string depending on mode
-			String connectionURL = null;
-
 			// Set up the conection
-			if (mode == INTERNAL && software.equals(HSQLDB_SOFTWARE))
-				connectionURL = new String("jdbc:hsqldb:file:/" + fileName + ";sql.syntax_mys=true");
-			else {
-				connectionURL = new String("jdbc:" + software + "://" + host + ":" + port + "/" + database);
-				if (username != null)
-					connectionURL += new String("?user=" + username + "&password=" + password + "&useSSL=false");
-			}
+			String connectionURL = getDatabaseURL();
+
+			if (!(mode == INTERNAL && software.equals(HSQLDB_SOFTWARE)) && username != null)
+				connectionURL += new String("?user=" + username + "&password=" + password + "&useSSL=false");
 
 			connection = DriverManager.getConnection(connectionURL);
 
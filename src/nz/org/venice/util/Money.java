@@ -343,6 +343,39 @@ public class Money implements Cloneable, Comparable {
 		return toDouble(amount, conversion);
 	}
 
+	/**
+	 * Return the value of this <code>Money</code> in the smallest unit of its
+	 * currency, e.g. cents. This is the representation used internally for
+	 * calculations.
+	 *
+	 * @return the value in the smallest unit of the currency
+	 */
+	public long getUnits() {
+		return amount;
+	}
+
+	/**
+	 * Convert the given amount in this money's currency to the smallest unit of the
+	 * currency, rounding it as {@link #add(double)} would.
+	 *
+	 * @param value the amount of money
+	 * @return the amount in the smallest unit of the currency
+	 */
+	public long toUnits(double value) {
+		return toLong(value, conversion);
+	}
+
+	/**
+	 * Create a new <code>Money</code> in this money's currency from an amount in the
+	 * smallest unit of the currency.
+	 *
+	 * @param units the amount in the smallest unit of the currency, e.g. cents
+	 * @return the new <code>Money</code>
+	 */
+	public Money fromUnits(long units) {
+		return new Money(currency, conversion, units);
+	}
+
 	/**
 	 * Create the number we need to multiple the currency to convert it to a long.
 	 * E.g. for Euro, with two decimal digits, if we multiply it by 100, we can
@@ -0,0 +1,121 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.ExpressionException;
+import nz.org.venice.parser.Parser;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.MissingQuoteException;
+import nz.org.venice.quote.RandomWalkQuoteSource;
+import nz.org.venice.quote.Symbol;
+
+public class OrderIndexTest extends TestCase
+{
+    private final static int[] ORDERS = {
+        OrderComparator.NO_ORDER,
+        OrderComparator.STOCK_SYMBOL,
+        OrderComparator.DAY_VOLUME_DECREASING,
+        OrderComparator.DAY_CLOSE_INCREASING,
+        OrderComparator.CHANGE_DECREASING
+    };
+
+    private EODQuoteBundle quoteBundle;
+
+    protected void setUp() {
+        // Thinly traded, so the symbols differ from day to day
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(12, 80, 5, true);
+        source.install();
+
+        quoteBundle = new EODQuoteBundle(new EODQuoteRange(source.getSymbols()));
+    }
+
+    // Every day of the index should be in the order that sorting the day's
+    // symbols with the order comparator gives.
+    public void testMatchesComparator() {
+        for (int i = 0; i < ORDERS.length; i++) {
+            assertMatchesComparator(new OrderComparator(quoteBundle, ORDERS[i]), 1);
+            assertMatchesComparator(new OrderComparator(quoteBundle, ORDERS[i]), 4);
+        }
+    }
+
+    // The same for an equation, including equations that can't be evaluated
+    // for some symbols, which the comparator treats as equal to any other.
+    public void testMatchesEquationComparator() throws ExpressionException {
+        String[] equations = {
+            "close - avg(close, 5)",
+            "if(close > open) {close / (open - open)} else {close}"
+        };
+
+        for (int i = 0; i < equations.length; i++) {
+            OrderComparator comparator = new OrderComparator(quoteBundle, Parser.parse(equations[i]));
+
+            assertMatchesComparator(comparator, 1);
+            assertMatchesComparator(comparator, 4);
+        }
+
+        OrderComparator comparator = new OrderComparator(quoteBundle, Parser.parse(equations[1]));
+        assertTrue(countFailedKeys(comparator) > 0);
+    }
+
+    private void assertMatchesComparator(OrderComparator comparator, int threads) {
+        OrderIndex index = OrderIndex.build(quoteBundle, comparator, threads);
+
+        for (int dateOffset = quoteBundle.getFirstOffset(); dateOffset <= quoteBundle.getLastOffset();
+             dateOffset++) {
+            List expected = new ArrayList(quoteBundle.getSymbols(dateOffset));
+
+            comparator.setDateOffset(dateOffset);
+            Collections.sort(expected, comparator);
+
+            assertEquals(expected, index.getSymbols(dateOffset));
+        }
+
+        assertNull(index.getSymbols(quoteBundle.getLastOffset() + 1));
+    }
+
+    private int countFailedKeys(OrderComparator comparator) {
+        int failed = 0;
+
+        for (int dateOffset = quoteBundle.getFirstOffset(); dateOffset <= quoteBundle.getLastOffset();
+             dateOffset++) {
+            for (Iterator iterator = quoteBundle.getSymbols(dateOffset).iterator(); iterator.hasNext();) {
+                try {
+                    comparator.getKey((Symbol)iterator.next(), dateOffset);
+                }
+                catch(MissingQuoteException e) {
+                    fail();
+                }
+                catch(EvaluationException e) {
+                    failed++;
+                }
+            }
+        }
+
+        return failed;
+    }
+}
@@ -0,0 +1,122 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.portfolio.CashAccount;
+import nz.org.venice.portfolio.Portfolio;
+import nz.org.venice.portfolio.ShareAccount;
+import nz.org.venice.portfolio.Transaction;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.IQuote;
+import nz.org.venice.quote.MissingQuoteException;
+import nz.org.venice.quote.RandomWalkQuoteSource;
+import nz.org.venice.quote.Symbol;
+import nz.org.venice.util.Money;
+import nz.org.venice.util.TradingDate;
+
+public class PaperTradeLedgerTest extends TestCase
+{
+    private final static int SYMBOLS = 24;
+
+    // Most stocks are held at once, so the ledger has to grow its arrays
+    private final static int MAX_HOLDINGS = 20;
+
+    // The ledger should track the same cash, holdings and value as a
+    // portfolio given the same trades, and build that portfolio when asked.
+    public void testMatchesPortfolio() throws MissingQuoteException {
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(SYMBOLS, 60, 17, false);
+        source.install();
+
+        List symbols = source.getSymbols();
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbols));
+        int firstOffset = quoteBundle.getFirstOffset();
+        TradingDate startDate = quoteBundle.offsetToDate(firstOffset);
+        Money capital = new Money(100000.0D);
+        Money tradeCost = new Money(9.95D);
+
+        PaperTradeLedger ledger = new PaperTradeLedger(quoteBundle, "test", startDate, capital);
+        Portfolio portfolio = new Portfolio("test", true);
+        CashAccount cashAccount = new CashAccount(PaperTrade.CASH_ACCOUNT_NAME);
+        ShareAccount shareAccount = new ShareAccount(PaperTrade.SHARE_ACCOUNT_NAME);
+
+        portfolio.addAccount(cashAccount);
+        portfolio.addAccount(shareAccount);
+        portfolio.addTransaction(Transaction.newDeposit(startDate, capital, cashAccount));
+
+        for (int dateOffset = firstOffset + 1; dateOffset <= quoteBundle.getLastOffset(); dateOffset++) {
+            TradingDate date = quoteBundle.offsetToDate(dateOffset);
+            int day = dateOffset - firstOffset;
+
+            // Sell the oldest holding once enough are held, then buy the
+            // next stock if it isn't held
+            if (ledger.getHoldings().length >= MAX_HOLDINGS || day % 5 == 0) {
+                Symbol symbol = ledger.getHoldings()[0];
+                int shares = ledger.getShares(symbol);
+                Money amount = new Money(close(quoteBundle, symbol, dateOffset) * shares);
+
+                ledger.reduce(dateOffset, symbol, amount, tradeCost);
+                portfolio.addTransaction(Transaction.newReduce(date, amount, symbol, shares, tradeCost,
+                                                               cashAccount, shareAccount));
+            }
+
+            Symbol symbol = (Symbol)symbols.get(day % SYMBOLS);
+
+            if (!ledger.isHolding(symbol)) {
+                int shares = 10 + day % 7;
+                Money amount = new Money(close(quoteBundle, symbol, dateOffset) * shares);
+
+                ledger.accumulate(dateOffset, symbol, shares, amount, tradeCost);
+                portfolio.addTransaction(Transaction.newAccumulate(date, amount, symbol, shares,
+                                                                   tradeCost, cashAccount,
+                                                                   shareAccount));
+                assertEquals(dateOffset, ledger.getDateOffset(symbol));
+            }
+
+            assertEquals(portfolio.getCashValue(date), ledger.getCash());
+            assertEquals(portfolio.getValue(quoteBundle, dateOffset), ledger.getValue(dateOffset));
+            assertEquals(new HashSet(portfolio.getStocksHeld()),
+                         new HashSet(Arrays.asList(ledger.getHoldings())));
+            assertEquals(portfolio.countTransactions(), ledger.countTransactions());
+        }
+
+        // Enough trades and holdings to have grown past the initial arrays
+        assertTrue(ledger.countTransactions() > 32);
+
+        Portfolio built = ledger.toPortfolio();
+        int lastOffset = quoteBundle.getLastOffset();
+
+        assertEquals(portfolio.countTransactions(), built.countTransactions());
+        assertEquals(portfolio.getValue(quoteBundle, lastOffset), built.getValue(quoteBundle, lastOffset));
+        assertEquals(portfolio.getCashValue(quoteBundle.offsetToDate(lastOffset)),
+                     built.getCashValue(quoteBundle.offsetToDate(lastOffset)));
+    }
+
+    private static double close(EODQuoteBundle quoteBundle, Symbol symbol, int dateOffset)
+        throws MissingQuoteException {
+
+        return quoteBundle.getQuote(symbol, IQuote.DAY_CLOSE, dateOffset);
+    }
+}
@@ -0,0 +1,157 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.ExpressionException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.Parser;
+import nz.org.venice.parser.Variable;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.RandomWalkQuoteSource;
+import nz.org.venice.ui.IProgressDialog;
+import nz.org.venice.util.Money;
+
+public class PaperTradeModuleTest extends TestCase
+{
+    private final static int A_RANGE = 3;
+
+    private final static int B_RANGE = 2;
+
+    private final static int C_RANGE = 2;
+
+    // Trading a rule family on several threads should give the same
+    // results, in the same order, as trading it one rule at a time.
+    public void testFamilyMatchesInOrder() throws ExpressionException {
+        List expected = paperTrade("close > avg(close, a * 3)", "close < avg(close, b * 3 + c)", 1);
+        List results = paperTrade("close > avg(close, a * 3)", "close < avg(close, b * 3 + c)", 4);
+
+        assertEquals(A_RANGE * B_RANGE * C_RANGE, expected.size());
+        assertEquals(expected.size(), results.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            PaperTradeResult expectedResult = (PaperTradeResult)expected.get(i);
+            PaperTradeResult result = (PaperTradeResult)results.get(i);
+
+            assertEquals(expectedResult.getA(), result.getA());
+            assertEquals(expectedResult.getB(), result.getB());
+            assertEquals(expectedResult.getC(), result.getC());
+            assertEquals(expectedResult.getNumberTrades(), result.getNumberTrades());
+            assertEquals(expectedResult.getFinalCapital(), result.getFinalCapital());
+            assertEquals(expectedResult.getTip(), result.getTip());
+        }
+
+        // The rules should have traded
+        assertTrue(((PaperTradeResult)expected.get(0)).getNumberTrades() > 0);
+    }
+
+    // A failing rule should be reported the same way, with its own copy of
+    // the exception rather than the shared one. The sell rule is evaluated
+    // a symbol at a time, so it throws the shared exception itself.
+    public void testFamilyFailure() throws ExpressionException {
+        EvaluationException expected = null;
+        EvaluationException exception = null;
+
+        try {
+            paperTrade("close > avg(close, a * 3)", "close / (open - open) > b", 1);
+        }
+        catch(EvaluationException e) {
+            expected = e;
+        }
+
+        try {
+            paperTrade("close > avg(close, a * 3)", "close / (open - open) > b", 4);
+        }
+        catch(EvaluationException e) {
+            exception = e;
+        }
+
+        assertNotNull(expected);
+        assertNotNull(exception);
+        assertEquals(expected.getReason(), exception.getReason());
+        assertNotSame(EvaluationException.DIVIDE_BY_ZERO_EXCEPTION, exception);
+    }
+
+    private List paperTrade(String buyRuleText, String sellRuleText, int threads)
+        throws ExpressionException {
+
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(6, 120, 3, false);
+        source.install();
+
+        Variables variables = new Variables();
+        variables.add("a", IExpression.INTEGER_TYPE, Variable.CONSTANT);
+        variables.add("b", IExpression.INTEGER_TYPE, Variable.CONSTANT);
+        variables.add("c", IExpression.INTEGER_TYPE, Variable.CONSTANT);
+
+        IExpression buyRule = Parser.parse(variables, buyRuleText);
+        IExpression sellRule = Parser.parse(variables, sellRuleText);
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(source.getSymbols()));
+        OrderCache orderCache =
+            new OrderCache(quoteBundle, new OrderComparator(quoteBundle, OrderComparator.NO_ORDER));
+        Money capital = new Money(10000.0D);
+
+        if (threads == 1)
+            return PaperTradeModule.paperTradeFamilyInOrder(Thread.currentThread(), new Progress(),
+                A_RANGE, B_RANGE, C_RANGE, quoteBundle, "test", orderCache,
+                quoteBundle.offsetToDate(quoteBundle.getFirstOffset() + 30),
+                quoteBundle.offsetToDate(quoteBundle.getLastOffset()), buyRule, sellRule,
+                buyRuleText, sellRuleText, capital, PortfolioPage.STOCK_VALUE_MODE,
+                new Money(1000.0D), 0, new Money(10.0D), "open", "open");
+        else
+            return PaperTradeModule.paperTradeFamily(Thread.currentThread(), new Progress(),
+                threads, A_RANGE, B_RANGE, C_RANGE, quoteBundle, "test", orderCache,
+                quoteBundle.offsetToDate(quoteBundle.getFirstOffset() + 30),
+                quoteBundle.offsetToDate(quoteBundle.getLastOffset()), buyRule, sellRule,
+                buyRuleText, sellRuleText, capital, PortfolioPage.STOCK_VALUE_MODE,
+                new Money(1000.0D), 0, new Money(10.0D), "open", "open");
+    }
+
+    // Progress dialog which isn't displayed
+    private static class Progress implements IProgressDialog {
+        private String note = "";
+        private int minimum = 0;
+        private int maximum = 0;
+        private int progress = 0;
+        private boolean indeterminate = false;
+        private boolean master = false;
+
+        public void hide() {}
+        public void show(String title) {}
+        public String getNote() { return note; }
+        public void setNote(String note) { this.note = note; }
+        public int getMinimum() { return minimum; }
+        public void setMinimum(int minimum) { this.minimum = minimum; }
+        public int getMaximum() { return maximum; }
+        public void setMaximum(int maximum) { this.maximum = maximum; }
+        public int getProgress() { return progress; }
+        public void setProgress(int progress) { this.progress = progress; }
+        public void increment() { progress++; }
+        public void decrement() { progress--; }
+        public boolean isIndeterminate() { return indeterminate; }
+        public void setIndeterminate(boolean indeterminate) { this.indeterminate = indeterminate; }
+        public void setMaster(boolean master) { this.master = master; }
+        public boolean isMaster() { return master; }
+    }
+}
@@ -0,0 +1,118 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser.ga;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.analyser.OrderCache;
+import nz.org.venice.analyser.OrderComparator;
+import nz.org.venice.parser.ExpressionException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.ImplicitVariables;
+import nz.org.venice.parser.Parser;
+import nz.org.venice.parser.Variable;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.RandomWalkQuoteSource;
+import nz.org.venice.util.Money;
+
+public class GeneticAlgorithmTest extends TestCase
+{
+    private final static String[] PARAMETERS = {"a", "b"};
+
+    private final static int[] TYPES = {IExpression.INTEGER_TYPE, IExpression.INTEGER_TYPE};
+
+    private final static int GENERATIONS = 3;
+
+    private final static int BATCHES = 3;
+
+    private final static int BATCH_SIZE = 16;
+
+    private final static int BREEDING_POPULATION = 6;
+
+    // A run with the same seed should breed the same individuals whether
+    // they are paper traded on one thread or several.
+    public void testSameSeedSameResults() throws ExpressionException {
+        List expected = run(1);
+        List results = run(4);
+
+        assertEquals(expected, results);
+        assertTrue(expected.size() > 0);
+    }
+
+    // Run the algorithm and return the parameters and value of the breeding
+    // individuals after each generation
+    private List run(int threads) throws ExpressionException {
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(6, 80, 13, false);
+        source.install();
+
+        GAIndividual lowest = new GAIndividual(PARAMETERS, new double[] {2, 2}, TYPES);
+        GAIndividual highest = new GAIndividual(PARAMETERS, new double[] {20, 20}, TYPES);
+        GAIndividual.setRandomPercentage(10);
+
+        Variables variables = new Variables();
+        ImplicitVariables.getInstance().setup(variables, true);
+
+        for (int i = 0; i < PARAMETERS.length; i++)
+            variables.add(PARAMETERS[i], TYPES[i], Variable.CONSTANT);
+
+        IExpression buyRule = Parser.parse(variables, "close > avg(close, a)");
+        IExpression sellRule = Parser.parse(variables, "close < avg(close, b)");
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(source.getSymbols()));
+        OrderCache orderCache =
+            new OrderCache(quoteBundle, new OrderComparator(quoteBundle, OrderComparator.NO_ORDER));
+
+        GeneticAlgorithm geneticAlgorithm =
+            new GeneticAlgorithm(quoteBundle, orderCache, buyRule, sellRule,
+                                 quoteBundle.offsetToDate(quoteBundle.getFirstOffset() + 25),
+                                 quoteBundle.offsetToDate(quoteBundle.getLastOffset()),
+                                 new Money(10000.0D), new Money(1000.0D), 0, new Money(0.0D),
+                                 BREEDING_POPULATION, "open", "open", lowest, highest, variables);
+        geneticAlgorithm.setSeed(42);
+        geneticAlgorithm.setThreads(threads);
+
+        List results = new ArrayList();
+
+        try {
+            for (int generation = 1; generation <= GENERATIONS; generation++) {
+                for (int batch = 0; batch < BATCHES; batch++)
+                    geneticAlgorithm.nextIndividuals(BATCH_SIZE);
+
+                geneticAlgorithm.nextGeneration();
+                assertTrue(geneticAlgorithm.getBreedingPopulationSize() > 0);
+
+                for (int i = 0; i < geneticAlgorithm.getBreedingPopulationSize(); i++) {
+                    GAIndividual individual = geneticAlgorithm.getBreedingIndividual(i);
+
+                    results.add(individual.value(0) + ", " + individual.value(1) + " = " +
+                                individual.getValue());
+                }
+            }
+        }
+        finally {
+            geneticAlgorithm.shutdown();
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,195 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser.gp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.analyser.OrderComparator;
+import nz.org.venice.parser.ExpressionFactory;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.expression.GreaterThanExpression;
+import nz.org.venice.parser.expression.LessThanExpression;
+import nz.org.venice.parser.expression.NumberExpression;
+import nz.org.venice.parser.expression.QuoteExpression;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.IQuote;
+import nz.org.venice.quote.Symbol;
+import nz.org.venice.quote.SymbolFormatException;
+import nz.org.venice.util.Money;
+import nz.org.venice.util.TradingDate;
+
+public class GPIslandSettingsTest extends TestCase
+{
+    // Settings read back from a stream should be the same as those written
+    public void testRoundTrip() throws IOException, SymbolFormatException {
+        List symbols = new ArrayList();
+        symbols.add(Symbol.find("AAA"));
+        symbols.add(Symbol.find("BBB"));
+
+        HashMap gondolaSettings = new HashMap();
+        gondolaSettings.put("setting", "value");
+
+        TradingDate firstDate = new TradingDate(2009, 1, 5);
+        TradingDate lastDate = new TradingDate(2010, 1, 1);
+        GPIslandSettings settings =
+            new GPIslandSettings(new EODQuoteRange(symbols, firstDate, lastDate), 30,
+                                 OrderComparator.EQUATION, "avg(close, 5)", firstDate, lastDate,
+                                 new Money(10000.0D), null, 5, new Money(10.0D), "open", "close",
+                                 20, 500, 50, gondolaSettings, 10);
+        settings.setSeed(1234L);
+
+        GPIslandSettings read = GPIslandSettings.read(input(write(settings)));
+
+        assertEquals(symbols, read.getQuoteRange().getAllSymbols());
+        assertEquals(firstDate, read.getQuoteRange().getFirstDate());
+        assertEquals(lastDate, read.getQuoteRange().getLastDate());
+        assertEquals(30, read.getWindow());
+        assertEquals(OrderComparator.EQUATION, read.getOrderByKey());
+        assertEquals("avg(close, 5)", read.getOrderByEquation());
+        assertEquals(firstDate, read.getStartDate());
+        assertEquals(lastDate, read.getEndDate());
+        assertEquals(new Money(10000.0D), read.getInitialCapital());
+        assertNull(read.getStockValue());
+        assertEquals(5, read.getNumberStocks());
+        assertEquals(new Money(10.0D), read.getTradeCost());
+        assertEquals("open", read.getTradeValueBuy());
+        assertEquals("close", read.getTradeValueSell());
+        assertEquals(20, read.getGenerations());
+        assertEquals(500, read.getPopulation());
+        assertEquals(50, read.getBreedingPopulation());
+        assertEquals(gondolaSettings, read.getGondolaSettings());
+        assertEquals(10, read.getFittest());
+        assertEquals(1234L, read.getSeed());
+    }
+
+    // Rules longer than writeUTF allows should survive the trip
+    public void testLongRules() throws IOException {
+        List individuals = new ArrayList();
+        individuals.add(new Individual(ExpressionFactory.newExpression(sum(14)),
+                                       ExpressionFactory.newExpression("close < open")));
+        assertTrue(((Individual)individuals.get(0)).getBuyRule().toString().length() > 65535);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        GPIsland.writeIndividuals(output, individuals);
+        output.flush();
+
+        List read = GPIsland.readIndividuals(input(bytes.toByteArray()));
+        Individual individual = (Individual)individuals.get(0);
+        Individual readIndividual = (Individual)read.get(0);
+
+        assertEquals(1, read.size());
+        assertEquals(individual.getBuyRule().toString(), readIndividual.getBuyRule().toString());
+        assertEquals(individual.getSellRule().toString(), readIndividual.getSellRule().toString());
+    }
+
+    // Decimal numbers should arrive exactly, not rounded to the digits the
+    // rule prints, even where parsing adds numbers to the rule
+    public void testExactNumbers() throws IOException {
+        IExpression buyRule = new GreaterThanExpression(new QuoteExpression(IQuote.DAY_CLOSE),
+                                                        new NumberExpression(1.0D / 3.0D));
+        IExpression sellRule = new LessThanExpression(new QuoteExpression(IQuote.DAY_OPEN),
+                                                      new NumberExpression(-2.0D / 7.0D));
+        List individuals = new ArrayList();
+        individuals.add(new Individual(buyRule, sellRule));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        GPIsland.writeIndividuals(output, individuals);
+        output.flush();
+
+        Individual read = (Individual)GPIsland.readIndividuals(input(bytes.toByteArray())).get(0);
+
+        assertEquals(1.0D / 3.0D, getNumber(read.getBuyRule()), 0.0D);
+        assertEquals(-2.0D / 7.0D, getNumber(read.getSellRule()), 0.0D);
+    }
+
+    // Counts which are negative or too big to allocate should be rejected
+    // before anything is allocated
+    public void testInvalidCounts() throws IOException {
+        int[] counts = {-1, Integer.MAX_VALUE};
+
+        for (int i = 0; i < counts.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(counts[i]);
+            output.flush();
+
+            try {
+                GPIsland.readIndividuals(input(bytes.toByteArray()));
+                fail();
+            }
+            catch(IOException e) {
+                // expected
+            }
+
+            bytes = new ByteArrayOutputStream();
+            output = new DataOutputStream(bytes);
+            output.writeInt(EODQuoteRange.GIVEN_SYMBOLS);
+            output.writeInt(counts[i]);
+            output.flush();
+
+            try {
+                GPIslandSettings.read(input(bytes.toByteArray()));
+                fail();
+            }
+            catch(IOException e) {
+                // expected
+            }
+        }
+    }
+
+    // Return the value of the number the rule compares against
+    private double getNumber(IExpression rule) {
+        return ((NumberExpression)rule.getChild(1)).getValue();
+    }
+
+    // Return a sum of 2^depth closing prices, nested so the expression
+    // isn't too deep to print
+    private static String sum(int depth) {
+        if (depth == 0)
+            return "close";
+
+        String half = sum(depth - 1);
+        return "(" + half + " + " + half + ")";
+    }
+
+    private static byte[] write(GPIslandSettings settings) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        settings.write(output);
+        output.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream input(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,140 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.analyser.gp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.analyser.GPGondolaSelection;
+import nz.org.venice.analyser.OrderCache;
+import nz.org.venice.analyser.OrderComparator;
+import nz.org.venice.parser.EvaluationBudget;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.RandomWalkQuoteSource;
+import nz.org.venice.util.Money;
+
+public class GeneticProgrammeTest extends TestCase
+{
+    private final static int GENERATIONS = 2;
+
+    private final static int BREEDING_POPULATION = 4;
+
+    private final static int BATCHES = 3;
+
+    private final static int BATCH_SIZE = 16;
+
+    private final static int FITTEST = 10;
+
+    // A run with the same seed should breed the same individuals whether
+    // they are paper traded on one thread or several.
+    public void testSameSeedSameResults() {
+        List expected = run(1, true);
+        List results = run(4, true);
+
+        assertEquals(expected, results);
+        assertTrue(expected.size() > 0);
+    }
+
+    // The default budget mustn't limit the time the rules take, otherwise
+    // whether an individual survives would depend on the load on the
+    // machine. With more threads than processors the rules are evaluated
+    // more slowly, but the results should still be the same.
+    public void testSameSeedSameResultsUnderLoad() {
+        List expected = run(1, true);
+        List results = run(Runtime.getRuntime().availableProcessors() * 4, true);
+
+        assertEquals(expected, results);
+    }
+
+    public void testDefaultBudgetHasNoTimeLimit() {
+        GeneticProgramme geneticProgramme =
+            new GeneticProgramme(null, null, null, null, null, null, null, 0, null,
+                                 BREEDING_POPULATION, "open", "open");
+
+        assertEquals(EvaluationBudget.UNLIMITED, geneticProgramme.getEvaluationBudget().getMaxRunTime());
+        assertTrue(geneticProgramme.getEvaluationBudget().getMaxSteps() < EvaluationBudget.UNLIMITED);
+    }
+
+    // Individuals which share the paper trade of an earlier individual with
+    // the same rules should end up the same as if they had been paper
+    // traded themselves.
+    public void testFitnessCacheSameResults() {
+        List expected = run(1, false);
+        List results = run(1, true);
+
+        assertEquals(expected, results);
+        assertTrue(expected.size() > 0);
+    }
+
+    // Run the programme and return the rules and value of the fittest
+    // individuals after each generation
+    private List run(int threads, boolean isFitnessCached) {
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(3, 60, 9, false);
+        source.install();
+
+        GPQuoteBundle quoteBundle =
+            new GPQuoteBundle(new EODQuoteBundle(new EODQuoteRange(source.getSymbols())), 0);
+        OrderCache orderCache =
+            new OrderCache(quoteBundle, new OrderComparator(quoteBundle, OrderComparator.NO_ORDER));
+        GPGondolaSelection gondolaSelection = new GPGondolaSelection(null, 0);
+        assertTrue(gondolaSelection.parse());
+
+        Money initialCapital = new Money(10000.0D);
+        GeneticProgramme geneticProgramme =
+            new GeneticProgramme(quoteBundle, gondolaSelection, orderCache,
+                                 quoteBundle.offsetToDate(quoteBundle.getFirstOffset() + 20),
+                                 quoteBundle.offsetToDate(quoteBundle.getLastOffset()),
+                                 initialCapital, new Money(1000.0D), 0, new Money(10.0D),
+                                 BREEDING_POPULATION, "open", "open");
+        geneticProgramme.setSeed(42);
+        geneticProgramme.setThreads(threads);
+        geneticProgramme.setFitnessCached(isFitnessCached);
+
+        List results = new ArrayList();
+        IExpression[] rules = new IExpression[BATCH_SIZE];
+
+        try {
+            for (int generation = 1; generation <= GENERATIONS; generation++) {
+                for (int batch = 0; batch < BATCHES; batch++)
+                    geneticProgramme.nextIndividuals(rules, rules, 0);
+
+                for (Iterator iterator = geneticProgramme.getFittestIndividuals(FITTEST).iterator();
+                     iterator.hasNext();) {
+                    Individual individual = (Individual)iterator.next();
+
+                    results.add(individual.getBuyRule() + " / " + individual.getSellRule() + " = " +
+                                individual.getValue());
+                }
+
+                geneticProgramme.nextGeneration();
+                assertTrue(geneticProgramme.getBreedingPopulationSize() > 0);
+            }
+        }
+        finally {
+            geneticProgramme.shutdown();
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,92 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+/**
+ * Runs the expression tests against compiled expressions, and checks that
+ * compiled expressions evaluate the same as the interpreter.
+ */
+public class CompiledExpressionTest extends ExpressionTest {
+
+    protected IExpression prepare(IExpression expression) {
+	return ExpressionCompiler.compile(expression);
+    }
+
+    public void testCompiledEvaluate() {
+	String[] expressions = {
+	    "1 + 2 * 3 - 4 / 5",
+	    "x * (y - 2) + x / 3",
+	    "(x > y and not(x == y)) or x <= y",
+	    "if(x < y) {x * 2} else {y / 2}",
+	    "x != y",
+	    "x >= 0.1 and y < 12"
+	};
+	int[] values = { -3, 0, 1, 7 };
+
+	for (int i = 0; i < expressions.length; i++) {
+	    for (int x = 0; x < values.length; x++) {
+		for (int y = 0; y < values.length; y++) {
+		    Variables variables = getVariables(values[x], values[y]);
+
+		    try {
+			IExpression expression = Parser.parse(variables, expressions[i]);
+			IExpression compiled = ExpressionCompiler.compile(expression);
+
+			assertTrue(compiled instanceof CompiledExpression);
+			assertEquals(expression.evaluate(variables, null, null, 0),
+				     compiled.evaluate(variables, null, null, 0), 0.0D);
+		    }
+		    catch(ExpressionException e) {
+			fail(e.toString());
+		    }
+		}
+	    }
+	}
+    }
+
+    public void testCompiledDivideByZero() {
+	String reason = EvaluationException.DIVIDE_BY_ZERO_EXCEPTION.getReason();
+
+	try {
+	    Variables variables = getVariables(1, 0);
+	    IExpression compiled = ExpressionCompiler.compile(Parser.parse(variables, "x / (y * 2)"));
+
+	    assertTrue(compiled instanceof CompiledExpression);
+	    compiled.evaluate(variables, null, null, 0);
+	    fail();
+	}
+	catch(EvaluationException e) {
+	    // The shared exception must not carry this evaluation's message
+	    assertNotSame(EvaluationException.DIVIDE_BY_ZERO_EXCEPTION, e);
+	    assertEquals(reason, EvaluationException.DIVIDE_BY_ZERO_EXCEPTION.getReason());
+	}
+	catch(ExpressionException e) {
+	    fail(e.toString());
+	}
+    }
+
+    private Variables getVariables(int x, int y) {
+	Variables variables = new Variables();
+	variables.add("x", IExpression.INTEGER_TYPE, false);
+	variables.add("y", IExpression.INTEGER_TYPE, false);
+	variables.setValue("x", x);
+	variables.setValue("y", y);
+	return variables;
+    }
+}
@@ -0,0 +1,127 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.parser;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.RandomWalkQuoteSource;
+import nz.org.venice.util.TradingDate;
+
+public class CrossSectionEvaluatorTest extends TestCase
+{
+    private final static String[] RULES = {"avg(close, 5) > lag(close, -1)",
+                                           "rsi(14, 0, true) + sum(volume, 10)",
+                                           "avg(close, 60, -5) - min(low, 30)",
+                                           "float y = close\ny = y * 2\ny - open",
+                                           "close / (open - open)"};
+
+    // Evaluating the symbols in parallel should give the same results and
+    // failures as evaluating them one at a time, even though the worker
+    // threads expand the shared quote bundle as they go.
+    public void testMatchesSequential() throws ExpressionException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+            for (int i = 0; i < RULES.length; i++) {
+                IExpression expression = Parser.parse(new Variables(), RULES[i]);
+                assertTrue(CrossSectionEvaluator.isParallel(expression));
+
+                CrossSectionEvaluator sequential =
+                    new CrossSectionEvaluator(expression, new ForkJoinPool(1));
+                CrossSectionEvaluator parallel =
+                    new CrossSectionEvaluator(Parser.parse(new Variables(), RULES[i]), pool);
+
+                List symbols = install();
+                double[] expected = evaluate(sequential, symbols);
+
+                symbols = install();
+                double[] values = evaluate(parallel, symbols);
+
+                assertEquals(expected.length, values.length);
+                for (int index = 0; index < expected.length; index++) {
+                    assertEquals(Double.doubleToLongBits(expected[index]),
+                                 Double.doubleToLongBits(values[index]));
+
+                    if (sequential.getException(index) == null)
+                        assertNull(parallel.getException(index));
+                    else
+                        assertEquals(sequential.getException(index).getReason(),
+                                     parallel.getException(index).getReason());
+                }
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Failures are kept per symbol, and shouldn't be the shared exceptions
+    // which change each time they are thrown.
+    public void testExceptionsAreCopies() throws ExpressionException {
+        List symbols = install();
+        IExpression expression = Parser.parse(new Variables(), "close / (open - open)");
+        CrossSectionEvaluator evaluator = new CrossSectionEvaluator(expression, new ForkJoinPool(2));
+
+        evaluate(evaluator, symbols);
+        assertNotNull(evaluator.getException(0));
+        assertNotSame(EvaluationException.DIVIDE_BY_ZERO_EXCEPTION, evaluator.getException(0));
+        assertNotSame(evaluator.getException(0), evaluator.getException(1));
+    }
+
+    // Expressions whose nodes aren't pure can't be evaluated in parallel,
+    // unless they only use their own variables.
+    public void testIsParallel() throws ExpressionException {
+        assertTrue(isParallel("avg(close, 10) > 3"));
+        assertTrue(isParallel("x > 3"));
+        assertTrue(isParallel("int n = 2\nn = n + 1\nn > 3"));
+        assertFalse(isParallel("x = x + 1\nx > 3"));
+        assertFalse(isParallel("random(10) > 0.5"));
+        assertFalse(isParallel("int i = 0\nint j = 0\nfor (i = 0; i < 3; i = i + 1) {\nj = j + 1}\nj > 2"));
+    }
+
+    private boolean isParallel(String rule) throws ExpressionException {
+        Variables variables = new Variables();
+        variables.add("x", IExpression.INTEGER_TYPE, false);
+
+        return CrossSectionEvaluator.isParallel(Parser.parse(variables, rule));
+    }
+
+    // Install a fresh quote source and cache, and return its symbols
+    private List install() {
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(120, 100, 11, true);
+        source.install();
+
+        return source.getSymbols();
+    }
+
+    // Evaluate the last day of a bundle which only covers the last few days,
+    // so that the longer rules have to expand it
+    private double[] evaluate(CrossSectionEvaluator evaluator, List symbols) {
+        TradingDate lastDate = new TradingDate(2010, 1, 1);
+        EODQuoteBundle quoteBundle =
+            new EODQuoteBundle(new EODQuoteRange(symbols, lastDate.previous(10), lastDate));
+
+        return evaluator.evaluate(null, quoteBundle, symbols, quoteBundle.getLastOffset());
+    }
+}
@@ -26,10 +26,28 @@ import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
 
+import nz.org.venice.chart.Graphable;
+import nz.org.venice.chart.GraphableQuoteFunctionSource;
+import nz.org.venice.chart.graph.RSIGraph;
 import nz.org.venice.parser.expression.NumberExpression;
 import nz.org.venice.parser.expression.AddExpression;
+import nz.org.venice.parser.expression.ExpressionMemo;
+import nz.org.venice.parser.expression.ExpressionOptimiser;
+import nz.org.venice.parser.expression.ExpressionProfiler;
+import nz.org.venice.parser.expression.GreaterThanExpression;
+import nz.org.venice.parser.expression.LessThanExpression;
+import nz.org.venice.parser.expression.MultiplyExpression;
 import nz.org.venice.prefs.PreferencesManager;
 import nz.org.venice.prefs.StoredExpression;
+import nz.org.venice.quote.EODQuoteBundle;
+import nz.org.venice.quote.EODQuoteRange;
+import nz.org.venice.quote.IQuote;
+import nz.org.venice.quote.IQuoteFunctionSource;
+import nz.org.venice.quote.MissingQuoteException;
+import nz.org.venice.quote.QuoteFunctions;
+import nz.org.venice.quote.RandomWalkQuoteSource;
+import nz.org.venice.quote.Symbol;
+import nz.org.venice.util.TradingDate;
 
 
 public class ExpressionTest extends TestCase {
@@ -198,27 +216,27 @@ public class ExpressionTest extends TestCase {
 	try {
 	    
 	    assertEquals(typeTest(left1, right1, 
-				  Expression.FLOAT_TYPE,
-				  Expression.INTEGER_TYPE), true);
+				  IExpression.FLOAT_TYPE,
+				  IExpression.INTEGER_TYPE), true);
 	    
 	    
 	    assertEquals(typeTest(left2, right2, 
-				  Expression.FLOAT_TYPE,
-				  Expression.FLOAT_TYPE), true);	    
+				  IExpression.FLOAT_TYPE,
+				  IExpression.FLOAT_TYPE), true);	    
 
 	    assertEquals(typeTest(left3, right3, 
-				  Expression.INTEGER_TYPE,
-				  Expression.FLOAT_TYPE), true);	    
+				  IExpression.INTEGER_TYPE,
+				  IExpression.FLOAT_TYPE), true);	    
 	    
 	    assertEquals(typeTest(left4, right4, 
-				  Expression.FLOAT_TYPE,
-				  Expression.FLOAT_TYPE), true);	    
+				  IExpression.FLOAT_TYPE,
+				  IExpression.FLOAT_TYPE), true);	    
 
 	    
 	    /*
 	      assertEquals(typeTest(left5, right5, 
-	      Expression.INTEGER_TYPE,
-	      Expression.FLOAT2_TYPE), true);	    
+	      IExpression.INTEGER_TYPE,
+	      IExpression.FLOAT2_TYPE), true);	    
 	    */
 	    
 
@@ -239,13 +257,13 @@ public class ExpressionTest extends TestCase {
 	String expSymString = "close(\"THISSYMBOLNOTFOUND\")";
 	String forNoExecString = "int i = 0\nint j = 1\nfor (i = 0; i < -10; i = i + 1) {\nj = j + 1}";
 
-	Expression absExp = parse(absExpString);
-	Expression cosExp = parse(cosExpString);
-	Expression sinExp = parse(sinExpString);
-	Expression randExp = parse(randExpString);
-	Expression randExp2 = parse(randExpString);
-	Expression expSymExp = parse(expSymString);
-	Expression forNoExecExp = parse(forNoExecString);
+	IExpression absExp = parse(absExpString);
+	IExpression cosExp = parse(cosExpString);
+	IExpression sinExp = parse(sinExpString);
+	IExpression randExp = parse(randExpString);
+	IExpression randExp2 = parse(randExpString);
+	IExpression expSymExp = parse(expSymString);
+	IExpression forNoExecExp = parse(forNoExecString);
 
 	try {
 	    Variables emptyVars = new Variables();
@@ -280,6 +298,113 @@ public class ExpressionTest extends TestCase {
 	
     }
     
+    public void testEvaluateSeries() {
+	IExpression exp = parse("((12 - 2) * 3) / 4 + 1");
+	IExpression compare = parse("(12 - 2) * 3 >= 4 + 26");
+	IExpression divideByZero = parse("4 / (2 - 2)");
+
+	try {
+	    Variables emptyVars = new Variables();
+	    double[] values = exp.evaluateSeries(emptyVars, null, null, 3, 7);
+	    double[] compareValues = compare.evaluateSeries(emptyVars, null, null, 3, 7);
+
+	    assertEquals(5, values.length);
+	    for (int i = 0; i < values.length; i++) {
+		assertTrue(withinEpsilon(values[i], 
+					 exp.evaluate(emptyVars, null, null, 3 + i)));
+		assertTrue(withinEpsilon(compareValues[i], IExpression.TRUE));
+	    }
+	} catch (EvaluationException e) {
+	    fail(e.toString());
+	}
+
+	try {
+	    divideByZero.evaluateSeries(new Variables(), null, null, 0, 1);
+	    fail("Was expecting evaluationException");
+	} catch (EvaluationException e) {
+	    assertTrue(true);
+	}
+    }
+    
+    // Evaluating a series of quotes should give the same values as
+    // evaluating each day, whether or not the expression is pure.
+    public void testEvaluateSeriesQuotes() throws EvaluationException {
+	RandomWalkQuoteSource source = new RandomWalkQuoteSource(2, 60, 3, false);
+	source.install();
+
+	Symbol symbol = (Symbol)source.getSymbols().get(0);
+	EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbol));
+	int lastDay = quoteBundle.getLastOffset();
+	int firstDay = lastDay - 20;
+	String[] rules = {"avg(close, 5) + lag(close, -2) > open",
+			  "rsi(10) - (high - low) / close",
+			  "x + close"};
+
+	for (int i = 0; i < rules.length; i++) {
+	    IExpression exp = parse(rules[i], IExpression.FLOAT_TYPE);
+	    Variables variables = new Variables();
+	    variables.add("x", IExpression.FLOAT_TYPE, false);
+	    variables.setValue("x", 2.0);
+
+	    double[] values = exp.evaluateSeries(variables, quoteBundle, symbol, firstDay, lastDay);
+
+	    assertEquals(lastDay - firstDay + 1, values.length);
+	    for (int day = firstDay; day <= lastDay; day++)
+		assertEquals(exp.evaluate(variables, quoteBundle, symbol, day),
+			     values[day - firstDay], 0.0);
+	}
+    }
+
+    public void testExpressionMemo() {
+	// (2 + 3) * 4 appears in both rules
+	IExpression shared = new MultiplyExpression(new AddExpression(new NumberExpression(2), 
+								      new NumberExpression(3)), 
+						    new NumberExpression(4));
+	IExpression buy = new GreaterThanExpression(shared, new NumberExpression(10));
+	IExpression sell = new LessThanExpression((IExpression)shared.clone(), 
+						  new NumberExpression(30));
+
+	ExpressionMemo memo = new ExpressionMemo();
+	IExpression[] rules = memo.share(new IExpression[] {buy, sell, null});
+
+	assertEquals(1, memo.getSharedCount());
+	assertNull(rules[2]);
+
+	try {
+	    Variables emptyVars = new Variables();
+	    for (int day = 0; day < 3; day++) {
+		assertEquals(buy.evaluate(emptyVars, null, null, day), 
+			     rules[0].evaluate(emptyVars, null, null, day), 0.0);
+		assertEquals(sell.evaluate(emptyVars, null, null, day), 
+			     rules[1].evaluate(emptyVars, null, null, day), 0.0);
+	    }
+	} catch (EvaluationException e) {
+	    fail(e.toString());
+	}
+
+	// Each day the sell rule uses the buy rule's result
+	assertEquals(3, memo.getHitCount());
+	assertEquals(3, memo.getMissCount());
+    }
+
+    public void testOptimise() {
+	ExpressionOptimiser optimiser = new ExpressionOptimiser();
+
+	// Constant folding and dead branches
+	assertEquals("6", optimiser.optimise(parse("if(2 > 3) {4} else {5 + 1}")).toString());
+	assertEquals(parse("x"), optimiser.optimise(parse("(x * 1) + 0")));
+
+	// Strength reduction
+	assertEquals(parse("x * 0.25", IExpression.FLOAT_TYPE), 
+		     optimiser.optimise(parse("x / 4.0", IExpression.FLOAT_TYPE)));
+
+	// The cheap comparison should be made first
+	IExpression reordered = optimiser.optimise(parse("avg(close, 10) > 2 and close > 1"));
+	assertEquals(parse("close > 1"), reordered.getChild(0));
+
+	assertTrue(optimiser.getNodeCountAfter() < optimiser.getNodeCountBefore());
+    }
+
     public void testCommentParse() {
 	String str1 = "(close > 5)";
 	String str2 = "/* rule */ (close > 5)";
@@ -289,11 +414,11 @@ public class ExpressionTest extends TestCase {
 	String str6 = "/* no end comment marker (close > 5)";
 	String str7 = "/* no nested /* end comment marker */ (close > 5)";
 
-	Expression exp1 = parse(str1);	
-	Expression exp2 = parse(str2);
-	Expression exp3 = parse(str3);
-	Expression exp4 = parse(str4);
-	Expression exp5 = parse(str5);
+	IExpression exp1 = parse(str1);	
+	IExpression exp2 = parse(str2);
+	IExpression exp3 = parse(str3);
+	IExpression exp4 = parse(str4);
+	IExpression exp5 = parse(str5);
 	
 
 	assertTrue(exp2 != null && exp2.equals(exp1));
@@ -319,8 +444,8 @@ public class ExpressionTest extends TestCase {
 
 	assertTrue(failParse(test1));
 	assertTrue(failParse(test2));
-	Expression exp3 = parse(test3);
-	Expression exp4 = parse(test4);
+	IExpression exp3 = parse(test3);
+	IExpression exp4 = parse(test4);
 	assertTrue(exp3 != null);		
 	assertTrue(exp4 != null);		
 
@@ -340,7 +465,7 @@ public class ExpressionTest extends TestCase {
 	
 	assertTrue(failParse(test1));
 	assertTrue(failParse(test2));
-	Expression exp3 = parse(test3);
+	IExpression exp3 = parse(test3);
 	assertTrue(test3 != null);
 	assertTrue(failParse(test4));
 	assertTrue(failParse(test5));
@@ -380,21 +505,21 @@ public class ExpressionTest extends TestCase {
 
 	assertTrue(failParse(test1));
 	
-	Expression exp2 = parse(test2);
-	Expression exp3 = parse(test3);
+	IExpression exp2 = parse(test2);
+	IExpression exp3 = parse(test3);
 	assertTrue(exp2 != null);
 	assertTrue(exp3 != null);
 	
 	assertTrue(failParse(test4));
 	assertTrue(failParse(test5));
 
-	Expression exp6 = parse(test6);
-	Expression exp7 = parse(test7);
-	Expression exp8 = parse(test8);
-	Expression exp9 = parse(test9);
-	Expression exp10 = parse(test10);
-	Expression exp11 = parse(test11);
-	Expression exp12 = parse(test12);
+	IExpression exp6 = parse(test6);
+	IExpression exp7 = parse(test7);
+	IExpression exp8 = parse(test8);
+	IExpression exp9 = parse(test9);
+	IExpression exp10 = parse(test10);
+	IExpression exp11 = parse(test11);
+	IExpression exp12 = parse(test12);
 	
 	assertTrue(exp6 != null);
 	assertTrue(exp7 != null);
@@ -426,7 +551,7 @@ public class ExpressionTest extends TestCase {
     public void testFunctionReturnType() {
 	String func1 = "float function retFl() { 3.14 }\n int function retInt() { float foo = retFl()\n -50}\n lag(close, retInt())";
 	
-	Expression funcExp1 = parse(func1);	
+	IExpression funcExp1 = parse(func1);	
 	assertTrue(funcExp1 == null);
 	
     }
@@ -443,12 +568,12 @@ public class ExpressionTest extends TestCase {
 
 	String rec3 = "int function fib(int n) { if (n >= 2) { fib(n-2) + fib(n-1) } else { 1 }}\nfib(5)";
 
-	Expression callExp1 = parse(caller1);
-	Expression callExp2 = parse(caller2);
+	IExpression callExp1 = parse(caller1);
+	IExpression callExp2 = parse(caller2);
 
-	Expression exprec1 = parse(rec1);
-	Expression exprec2 = parse(rec2);
-	Expression exprec3 = parse(rec3);
+	IExpression exprec1 = parse(rec1);
+	IExpression exprec2 = parse(rec2);
+	IExpression exprec3 = parse(rec3);
 	
 	assertTrue(callExp1 != null);
 	assertTrue(callExp2 != null);
@@ -485,9 +610,9 @@ public class ExpressionTest extends TestCase {
 	
 	String whileTest = "for (int i = 0; i >= 0; i = i + 1) { int n = 0\n n = n + 1 }";
 
-	AnalyserGuard.getInstance().setRuntimeLimit(10);
-	Expression forExp = parse(forTest);
-	Expression whileExp = parse(whileTest);
+	EvaluationBudget.setBudget(new EvaluationBudget(EvaluationBudget.UNLIMITED, 10 * 1000, 200));
+	IExpression forExp = parse(forTest);
+	IExpression whileExp = parse(whileTest);
 
 	assertTrue(forExp != null);
 	assertTrue(whileExp != null);
@@ -516,14 +641,55 @@ public class ExpressionTest extends TestCase {
 		assertTrue(false);
 	    }
 	}	
+	EvaluationBudget.setBudget(null);
+    }
+
+    public void testBudget() {
+	String loopTest = "int n = 0\nwhile (n >= 0) { n = n + 1 } n";
+	String recursionTest = "int function f(int n) { f(n + 1) }\nf(0)";
+
+	IExpression loopExp = parse(loopTest, IExpression.INTEGER_TYPE);
+	IExpression recursionExp = parse(recursionTest, IExpression.INTEGER_TYPE);
+
+	assertTrue(loopExp != null);
+	assertTrue(recursionExp != null);
+
+	EvaluationBudget previousBudget = EvaluationBudget.setBudget(new EvaluationBudget(1000, 
+											  EvaluationBudget.UNLIMITED,
+											  20));
+
+	try {
+	    loopExp.evaluate(new Variables(), null, null, 0);
+	    assertTrue(false);
+	} catch (EvaluationException e) {
+	    assertTrue(e == EvaluationException.EVAL_STEPS_EXCEEDED_EXCEPTION);
+	}
+
+	try {
+	    recursionExp.evaluate(new Variables(), null, null, 0);
+	    assertTrue(false);
+	} catch (EvaluationException e) {
+	    assertTrue(e == EvaluationException.STACK_DEPTH_EXCEEDED_EXCEPTION);
+	}
+
+	// A failed evaluation shouldn't use up the budget of the next one
+	try {
+	    IExpression exp = parse("int n = 0\nwhile (n < 500) { n = n + 1 } n", 
+				    IExpression.INTEGER_TYPE);
+	    assertTrue(exp.evaluate(new Variables(), null, null, 0) == 500.0);
+	} catch (EvaluationException e) {
+	    assertTrue(false);
+	} finally {
+	    EvaluationBudget.setBudget(previousBudget);
+	}
     }
         
     public void testClauseReturn() {
 	String test1 = "int n = 0\nfor (int i = 0; i < 10; i = i + 1) { n = n + 1} n";
 	String test2 = "int foo = 0\nint n = 0\nfor (int i = 0; i < 10; i = i + 1) { foo = foo - 3\nn = n + 1} n";
 
-	Expression exp1 = parse(test1, Expression.INTEGER_TYPE);
-	Expression exp2 = parse(test2, Expression.INTEGER_TYPE);
+	IExpression exp1 = parse(test1, IExpression.INTEGER_TYPE);
+	IExpression exp2 = parse(test2, IExpression.INTEGER_TYPE);
 	assertTrue(exp1 != null);
 	assertTrue(exp2 != null);
 
@@ -537,7 +703,132 @@ public class ExpressionTest extends TestCase {
 	    assertTrue(false);
 	}
     }
-    
+
+    public void testVariableSlots() {
+	Variables variables = new Variables();
+	variables.add("slotTest", IExpression.INTEGER_TYPE, false, 7);
+
+	int slot = variables.getSlot("slotTest");
+	assertEquals(slot, variables.getSlot("slotTest", slot));
+	assertEquals(slot, variables.getSlot("slotTest", slot + 1));
+	assertTrue(variables.contains(slot));
+	assertTrue(variables.get(slot) == variables.get("slotTest"));
+	assertFalse(variables.contains(variables.getSlot("slotTestUndefined")));
+	assertEquals(1, variables.getSize());
+
+	// Slots belong to each collection, so the same expression finds its
+	// variable wherever it is
+	Variables other = new Variables();
+	other.add("slotOther", IExpression.INTEGER_TYPE, false, 1);
+	other.add("slotTest", IExpression.INTEGER_TYPE, false, 3);
+
+	try {
+	    IExpression get = prepare(Parser.parse(variables, "slotTest * 2"));
+	    assertEquals(14.0, get.evaluate(variables, null, null, 0), 0.0);
+	    assertEquals(6.0, get.evaluate(other, null, null, 0), 0.0);
+	    assertEquals(14.0, get.evaluate(variables, null, null, 0), 0.0);
+	} catch (ExpressionException e) {
+	    fail(e.toString());
+	}
+
+	try {
+	    // Clones share variables so assignments are seen by both
+	    Variables clone = (Variables)variables.clone();
+	    IExpression exp = prepare(Parser.parse(clone, "slotTest = slotTest + 1"));
+	    exp.evaluate(clone, null, null, 0);
+	    assertEquals(8.0, variables.getValue("slotTest"), 0.0);
+	} catch (CloneNotSupportedException e) {
+	    fail(e.toString());
+	} catch (ExpressionException e) {
+	    fail(e.toString());
+	}
+    }
+
+    public void testParseCache() {
+	String text = "int cacheTest = 3\ncacheTest + 1";
+
+	try {
+	    Variables variables1 = new Variables();
+	    Variables variables2 = new Variables();
+	    IExpression exp1 = Parser.parse(variables1, text);
+	    IExpression exp2 = Parser.parse(variables2, text);
+
+	    // Each parse gets its own copy and defines its own variables
+	    assertTrue(exp1 != exp2);
+	    assertEquals(exp1, exp2);
+	    assertTrue(variables2.contains("cacheTest"));
+	    assertEquals(4.0, exp1.evaluate(new Variables(), null, null, 0), 0.0);
+	    assertEquals(4.0, exp2.evaluate(new Variables(), null, null, 0), 0.0);
+
+	    // Errors still report the line they occurred on
+	    IExpression divide1 = Parser.parse(new Variables(), "int cacheTest = 0\n4 / cacheTest");
+	    IExpression divide2 = Parser.parse(new Variables(), "int cacheTest = 0\n4 / cacheTest");
+	    String reason1 = null;
+	    String reason2 = null;
+
+	    try {
+		divide1.evaluate(new Variables(), null, null, 0);
+	    } catch (EvaluationException e) {
+		reason1 = e.getReason();
+	    }
+
+	    try {
+		divide2.evaluate(new Variables(), null, null, 0);
+	    } catch (EvaluationException e) {
+		reason2 = e.getReason();
+	    }
+
+	    assertNotNull(reason1);
+	    assertEquals(reason1, reason2);
+	} catch (ExpressionException e) {
+	    fail(e.toString());
+	}
+    }
+
+    public void testProfiler() {
+	String text = "int x = 0\nfor(int i = 0; i < 3; i = i + 1) {\nx = x + 2\n}\nx";
+
+	try {
+	    IExpression expression = Parser.parse(new Variables(), text);
+	    String original = expression.toString();
+
+	    ExpressionProfiler profiler = new ExpressionProfiler();
+	    IExpression profiled = profiler.profile("Test", expression);
+
+	    // The profiled copy gives the same result and leaves the rule alone
+	    assertEquals(6.0, profiled.evaluate(new Variables(), null, null, 0), 0.0);
+	    assertEquals(original, expression.toString());
+	    assertEquals(original, profiled.toString());
+	    assertEquals(6.0, expression.evaluate(new Variables(), null, null, 0), 0.0);
+
+	    // The loop condition is tested four times on the second line
+	    String conditionLine = null;
+	    String[] lines = profiler.getReport().split("\n");
+
+	    for (int i = 0; i < lines.length; i++)
+		if (lines[i].endsWith(" i<3"))
+		    conditionLine = lines[i];
+
+	    assertNotNull(conditionLine);
+	    String[] columns = conditionLine.trim().split("\\s+");
+	    assertEquals("4", columns[0]);
+	    assertEquals("2", columns[4]);
+
+	    // Each folded stack starts at the root and ends with a time. Nodes
+	    // which took less than a microsecond are left out.
+	    String[] stacks = profiler.getFoldedStacks().split("\n");
+
+	    for (int i = 0; i < stacks.length; i++) {
+		if (stacks[i].length() > 0) {
+		    assertTrue(stacks[i].startsWith("Test"));
+		    assertTrue(stacks[i].matches(".* [0-9]+"));
+		}
+	    }
+	} catch (ExpressionException e) {
+	    fail(e.toString());
+	}
+    }
+
     public void testEqualsHashcodeContract() {
 	String test1 = "int n = 0\nfor (int i = 0; i < 10; i = i + 1) { n = n + 1} n";
 	String test2 = "int n = 0\nfor (int i = 0; i < 10; i = i + 1) { n = n + 1} n";
@@ -550,12 +841,12 @@ public class ExpressionTest extends TestCase {
 
 	String test6 = "int k = 0\nfor (int l = 0; l < 10; l = l + 1) { k = k + 1} k";
 	
-	Expression exp1 = parse(test1, Expression.INTEGER_TYPE);
-	Expression exp2 = parse(test2, Expression.INTEGER_TYPE);
-	Expression exp3 = parse(test3, Expression.INTEGER_TYPE);
-	Expression exp4 = parse(test4, Expression.INTEGER_TYPE);
-	Expression exp5 = parse(test5, Expression.INTEGER_TYPE);
-	Expression exp6 = parse(test5, Expression.INTEGER_TYPE);
+	IExpression exp1 = parse(test1, IExpression.INTEGER_TYPE);
+	IExpression exp2 = parse(test2, IExpression.INTEGER_TYPE);
+	IExpression exp3 = parse(test3, IExpression.INTEGER_TYPE);
+	IExpression exp4 = parse(test4, IExpression.INTEGER_TYPE);
+	IExpression exp5 = parse(test5, IExpression.INTEGER_TYPE);
+	IExpression exp6 = parse(test5, IExpression.INTEGER_TYPE);
 	assertTrue(exp1 != null);
 	assertTrue(exp2 != null);
 	assertTrue(exp3 != null);
@@ -604,8 +895,8 @@ public class ExpressionTest extends TestCase {
     }
 
     public void testHashCode() {
-	Expression num1 = new NumberExpression(3.1415926);
-	Expression num2 = new NumberExpression(3);
+	IExpression num1 = new NumberExpression(3.1415926);
+	IExpression num2 = new NumberExpression(3);
 
 	assertTrue(num1.hashCode() != num2.hashCode());	
     }
@@ -622,15 +913,87 @@ public class ExpressionTest extends TestCase {
 	String RSIPeriodOffsetSmooth2 = "rsi(50, -5, false)";
 	String RSIWrong = "rsi(50, false)";
 
-	Expression e1 = parse(RSIBase, Expression.FLOAT_TYPE);
-	Expression e2 = parse(RSIPeriod, Expression.FLOAT_TYPE);
-	Expression e3 = parse(RSIPeriodOffset, Expression.FLOAT_TYPE);
-	Expression e4 = parse(RSIPeriodOffsetSmooth1, Expression.FLOAT_TYPE);
-	Expression e5 = parse(RSIPeriodOffsetSmooth2, Expression.FLOAT_TYPE);
+	IExpression e1 = parse(RSIBase, IExpression.FLOAT_TYPE);
+	IExpression e2 = parse(RSIPeriod, IExpression.FLOAT_TYPE);
+	IExpression e3 = parse(RSIPeriodOffset, IExpression.FLOAT_TYPE);
+	IExpression e4 = parse(RSIPeriodOffsetSmooth1, IExpression.FLOAT_TYPE);
+	IExpression e5 = parse(RSIPeriodOffsetSmooth2, IExpression.FLOAT_TYPE);
 	boolean wrongTest = failParse(RSIWrong);
 	
     }
 
+    // A smoothed RSI should not depend on which days were evaluated before
+    // it, and it should print its smoothing argument.
+    public void testSmoothedRSI() throws EvaluationException {
+	RandomWalkQuoteSource source = new RandomWalkQuoteSource(1, 80, 5, false);
+	source.install();
+
+	Symbol symbol = (Symbol)source.getSymbols().get(0);
+	EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbol));
+	int lastDay = quoteBundle.getLastOffset();
+	int firstDay = lastDay - 30;
+	IExpression forward = parse("rsi(14, 0, true)", IExpression.FLOAT_TYPE);
+	IExpression backward = parse("rsi(14, 0, true)", IExpression.FLOAT_TYPE);
+	Variables variables = new Variables();
+
+	double[] values = forward.evaluateSeries(variables, quoteBundle, symbol, firstDay, lastDay);
+
+	for (int day = lastDay; day >= firstDay; day--) {
+	    double value = backward.evaluate(variables, quoteBundle, symbol, day);
+
+	    assertEquals(forward.evaluate(variables, quoteBundle, symbol, day), value, 0.0);
+	    assertEquals(values[day - firstDay], value, 0.0);
+	    assertTrue(value >= 0.0 && value <= 100.0);
+	}
+
+	// The smoothed and plain RSI differ and must print differently
+	IExpression plain = parse("rsi(14, 0, false)", IExpression.FLOAT_TYPE);
+	assertEquals("rsi(14, 0, true)", forward.toString());
+	assertEquals("rsi(14, 0, false)", plain.toString());
+	assertEquals(forward, parse(forward.toString(), IExpression.FLOAT_TYPE));
+    }
+
+    // rsi(n) uses the n - 1 closes up to the day before, so it matches the
+    // chart's RSI of period n - 2 on the day before. The smoothed RSI only
+    // smooths the changes in its own window, while the chart chains its
+    // averages from the start of the graph, so they differ.
+    public void testRSIMatchesChart() throws EvaluationException, MissingQuoteException {
+	RandomWalkQuoteSource source = new RandomWalkQuoteSource(1, 80, 6, false);
+	source.install();
+
+	Symbol symbol = (Symbol)source.getSymbols().get(0);
+	EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbol));
+	Graphable closes = new Graphable();
+
+	for (int day = quoteBundle.getFirstOffset(); day <= quoteBundle.getLastOffset(); day++)
+	    closes.putY(quoteBundle.offsetToDate(day),
+			new Double(quoteBundle.getQuote(symbol, IQuote.DAY_CLOSE, day)));
+
+	int period = 14;
+	Graphable chart = RSIGraph.createRSI(closes, period, false);
+	Graphable smoothedChart = RSIGraph.createRSI(closes, period, true);
+	IExpression plain = parse("rsi(" + (period + 2) + ", 0, false)", IExpression.FLOAT_TYPE);
+	IExpression smoothed = parse("rsi(" + (period + 2) + ", 0, true)", IExpression.FLOAT_TYPE);
+	Variables variables = new Variables();
+	boolean isDifferent = false;
+
+	for (int day = quoteBundle.getLastOffset() - 30; day <= quoteBundle.getLastOffset(); day++) {
+	    TradingDate date = quoteBundle.offsetToDate(day - 1);
+	    IQuoteFunctionSource window = new GraphableQuoteFunctionSource(closes, date, period + 1);
+
+	    assertEquals(chart.getY(date).doubleValue(),
+			 plain.evaluate(variables, quoteBundle, symbol, day), 1e-9);
+	    assertEquals(QuoteFunctions.smoothRSI(window, period + 1),
+			 smoothed.evaluate(variables, quoteBundle, symbol, day), 1e-9);
+
+	    if (Math.abs(smoothedChart.getY(date).doubleValue()
+			 - smoothed.evaluate(variables, quoteBundle, symbol, day)) > 1e-9)
+		isDifferent = true;
+	}
+
+	assertTrue(isDifferent);
+    }
+
     /**
        This test was written due to a bug in the parsing or evaluation of
        calling functions included from a separate rule.
@@ -652,7 +1015,7 @@ public class ExpressionTest extends TestCase {
 	testExpression += "int offset = -1 int rv = test_include(offset) rv";
 	
 	try {
-	    Expression parseResult = Parser.parse(new Variables(), testExpression);
+	    IExpression parseResult = prepare(Parser.parse(new Variables(), testExpression));
 	    double evalValue = parseResult.evaluate(new Variables(), null, null, 0);	    
 	    assertTrue(evalValue == 1);
 	    
@@ -690,20 +1053,28 @@ public class ExpressionTest extends TestCase {
 	return null;
     }
 
-    private Expression parse(String string) {
-	return parse(string, Expression.INTEGER_TYPE);	
+    /**
+     * Prepare a parsed expression for the tests. Subclasses can override
+     * this to run the tests against another form of the expression.
+     */
+    protected IExpression prepare(IExpression expression) {
+	return expression;
+    }
+
+    private IExpression parse(String string) {
+	return parse(string, IExpression.INTEGER_TYPE);	
     }
 
-    private Expression parse(String string, int type) {
+    private IExpression parse(String string, int type) {
         try {
             Variables variables = new Variables();
             variables.add("x", type, false);
             variables.add("y", type, false);
-            variables.add("a", Expression.BOOLEAN_TYPE, false);
-            variables.add("b", Expression.BOOLEAN_TYPE, false);
-            variables.add("c", Expression.BOOLEAN_TYPE, false);
+            variables.add("a", IExpression.BOOLEAN_TYPE, false);
+            variables.add("b", IExpression.BOOLEAN_TYPE, false);
+            variables.add("c", IExpression.BOOLEAN_TYPE, false);
 
-            return Parser.parse(variables, string);
+            return prepare(Parser.parse(variables, string));
         }
         catch(ExpressionException e) {
             System.out.println(e);
@@ -715,11 +1086,11 @@ public class ExpressionTest extends TestCase {
     private boolean failParse(String string, boolean debug) {
 	try {
             Variables variables = new Variables();
-            variables.add("x", Expression.INTEGER_TYPE, false);
-            variables.add("y", Expression.INTEGER_TYPE, false);
-            variables.add("a", Expression.BOOLEAN_TYPE, false);
-            variables.add("b", Expression.BOOLEAN_TYPE, false);
-            variables.add("c", Expression.BOOLEAN_TYPE, false);
+            variables.add("x", IExpression.INTEGER_TYPE, false);
+            variables.add("y", IExpression.INTEGER_TYPE, false);
+            variables.add("a", IExpression.BOOLEAN_TYPE, false);
+            variables.add("b", IExpression.BOOLEAN_TYPE, false);
+            variables.add("c", IExpression.BOOLEAN_TYPE, false);
 	    
             Parser.parse(variables, string);
 	    return false;
@@ -737,10 +1108,10 @@ public class ExpressionTest extends TestCase {
     }
 
     private String simplify(String string) {       
-	Expression expression = parse(string);
+	IExpression expression = parse(string);
 
 	if (expression != null) {
-	    Expression retExp = expression.simplify();	
+	    IExpression retExp = expression.simplify();	
 	    return retExp.toString();
 	}
 	return "";
@@ -756,8 +1127,8 @@ public class ExpressionTest extends TestCase {
 	int t1 = -1;
 	int t2 = -1;
 	
-	Expression exp1 = parse(e1, type1);	
-	Expression exp2 = parse(e2, type2);
+	IExpression exp1 = parse(e1, type1);	
+	IExpression exp2 = parse(e2, type2);
 
 	if (exp1 != null && exp2 != null) {
 	    t1 = exp1.checkType();
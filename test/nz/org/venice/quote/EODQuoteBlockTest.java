@@ -0,0 +1,94 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class EODQuoteBlockTest extends TestCase
+{
+    public void testCompressDecompress() {
+        EODQuoteBlock block = new EODQuoteBlock();
+        Random random = new Random(1);
+        long[] volumes = new long[EODQuoteBlock.SIZE];
+        float[] closes = new float[EODQuoteBlock.SIZE];
+        float close = 10.0F;
+
+        block.decode();
+
+        // Fill every other day, with runs of unchanged volume
+        for (int day = 0; day < EODQuoteBlock.SIZE; day += 2) {
+            close = (float)(close * (1.0 + random.nextGaussian() * 0.02));
+            closes[day] = close;
+            volumes[day] = (day % 10 == 0) ? 0 : 1000 + random.nextInt(50000);
+
+            assertTrue(block.set(day, volumes[day], close * 0.99F, close * 1.01F,
+                                 close, close));
+        }
+
+        // Setting the same quote again shouldn't add a new quote
+        assertFalse(block.set(0, volumes[0], closes[0] * 0.99F, closes[0] * 1.01F,
+                              closes[0], closes[0]));
+
+        block.encode();
+        assertFalse(block.isDecoded());
+        assertTrue(block.getCompressedSize() > 0);
+        assertTrue(block.getCompressedSize() < EODQuoteBlock.SIZE * 24);
+
+        block.decode();
+
+        for (int day = 0; day < EODQuoteBlock.SIZE; day++) {
+            if (day % 2 == 0) {
+                assertTrue(block.contains(day));
+                assertEquals(volumes[day], block.getDayVolume(day));
+                assertEquals(closes[day], block.getDayClose(day), 0.0F);
+                assertEquals(closes[day] * 0.99F, block.getDayLow(day), 0.0F);
+                assertEquals(closes[day] * 1.01F, block.getDayHigh(day), 0.0F);
+                assertEquals((double)closes[day],
+                             block.getQuote(day, IQuote.DAY_OPEN), 0.0D);
+            }
+            else
+                assertFalse(block.contains(day));
+        }
+    }
+
+    public void testClear() {
+        EODQuoteBlock block = new EODQuoteBlock();
+
+        block.decode();
+        block.set(5, 100, 1.0F, 2.0F, 1.5F, 1.75F);
+        block.set(6, 200, 1.0F, 2.0F, 1.5F, 1.80F);
+        block.encode();
+
+        // Quotes can be removed without decoding the block
+        assertTrue(block.clear(5));
+        assertFalse(block.clear(5));
+        assertFalse(block.isDecoded());
+        assertFalse(block.isEmpty());
+
+        block.decode();
+        assertFalse(block.contains(5));
+        assertEquals(200, block.getDayVolume(6));
+        assertEquals(1.80F, block.getDayClose(6), 0.0F);
+
+        assertTrue(block.clear(6));
+        assertTrue(block.isEmpty());
+    }
+}
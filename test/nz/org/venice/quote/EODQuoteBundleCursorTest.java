@@ -0,0 +1,109 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.util.WeekendDateException;
+
+public class EODQuoteBundleCursorTest extends TestCase
+{
+    private RandomWalkQuoteSource source;
+
+    protected void setUp() {
+        source = new RandomWalkQuoteSource(6, 40, 1, true);
+        source.install();
+    }
+
+    // The cursor should visit the same quotes in the same order as the
+    // iterator.
+    public void testMatchesIterator() {
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(source.getSymbols()));
+        EODQuoteBundleCursor cursor = quoteBundle.cursor();
+        int count = 0;
+
+        for (Iterator iterator = quoteBundle.iterator(); iterator.hasNext();) {
+            EODQuote quote = (EODQuote)iterator.next();
+
+            assertTrue(cursor.next());
+            assertEquals(quote.getSymbol(), cursor.getSymbol());
+            assertEquals(quote.getDate(), cursor.getDate());
+            assertEquals(quote.getDayOpen(), cursor.getDayOpen(), 0.0);
+            assertEquals(quote.getDayClose(), cursor.getDayClose(), 0.0);
+            assertEquals(quote.getDayLow(), cursor.getDayLow(), 0.0);
+            assertEquals(quote.getDayHigh(), cursor.getDayHigh(), 0.0);
+            assertEquals(quote.getDayVolume(), cursor.getDayVolume());
+            assertEquals(quote.getDayClose(), cursor.getQuote(IQuote.DAY_CLOSE), 0.0);
+            assertTrue(quote.equals(cursor.toQuote()));
+            count++;
+        }
+
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+
+        // Thinly traded symbols should have been skipped on the days they
+        // didn't trade.
+        assertEquals(source.getQuotes().size(), count);
+    }
+
+    // A cursor over part of the bundle should only visit quotes on those
+    // days.
+    public void testDateRange() throws WeekendDateException {
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(source.getSymbols()));
+        int lastDateOffset = quoteBundle.getLastOffset() - 5;
+        int firstDateOffset = lastDateOffset - 10;
+        EODQuoteBundleCursor cursor = new EODQuoteBundleCursor(quoteBundle, firstDateOffset,
+                                                               lastDateOffset);
+        Set visited = new HashSet();
+
+        while (cursor.next()) {
+            assertTrue(cursor.getDateOffset() >= firstDateOffset);
+            assertTrue(cursor.getDateOffset() <= lastDateOffset);
+            assertEquals(quoteBundle.offsetToDate(cursor.getDateOffset()), cursor.getDate());
+            assertTrue(visited.add(cursor.getSymbol() + " " + cursor.getDate()));
+        }
+
+        int expected = 0;
+
+        for (Iterator iterator = source.getQuotes().iterator(); iterator.hasNext();) {
+            EODQuote quote = (EODQuote)iterator.next();
+            int dateOffset = quoteBundle.getOffset(quote);
+
+            if (dateOffset >= firstDateOffset && dateOffset <= lastDateOffset)
+                expected++;
+        }
+
+        assertEquals(expected, visited.size());
+    }
+
+    // A cursor over a bundle of some symbols should skip the others.
+    public void testGivenSymbols() {
+        List symbols = source.getSymbols().subList(0, 2);
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbols));
+        EODQuoteBundleCursor cursor = quoteBundle.cursor();
+
+        while (cursor.next())
+            assertTrue(symbols.contains(cursor.getSymbol()));
+    }
+}
@@ -0,0 +1,165 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.prefs.PreferencesManager;
+
+public class EODQuoteCacheTest extends TestCase
+{
+    private final static int QUOTE_TYPES[] = {IQuote.DAY_OPEN, IQuote.DAY_CLOSE, IQuote.DAY_LOW,
+                                              IQuote.DAY_HIGH, IQuote.DAY_VOLUME};
+
+    private final static int READERS = 4;
+
+    private final static int PASSES = 20;
+
+    // Threads reading quotes should always see the quotes that are in the
+    // cache, while another thread reloads them, compresses them and adds
+    // older dates to the cache.
+    public void testConcurrentReads() throws InterruptedException {
+        readWhileLoading(false);
+    }
+
+    public void testConcurrentOffHeapReads() throws InterruptedException {
+        readWhileLoading(true);
+    }
+
+    private void readWhileLoading(boolean offHeap) throws InterruptedException {
+        boolean wasOffHeap = PreferencesManager.getOffHeapQuoteCache();
+        int uncompressedDays = PreferencesManager.getUncompressedQuoteDays();
+
+        try {
+            PreferencesManager.putOffHeapQuoteCache(offHeap);
+
+            // Most of the quotes are compressed
+            PreferencesManager.putUncompressedQuoteDays(20);
+
+            RandomWalkQuoteSource source = new RandomWalkQuoteSource(6, 120, 4, true);
+            source.install();
+
+            final List symbols = source.getSymbols();
+            final EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbols));
+            final EODQuoteCache quoteCache = EODQuoteCache.getInstance();
+            final double[] expected = readQuotes(quoteCache, quoteBundle, symbols);
+            final List quotes = new ArrayList();
+
+            for (Iterator iterator = quoteBundle.iterator(); iterator.hasNext();)
+                quotes.add(iterator.next());
+
+            final Throwable[] failure = new Throwable[1];
+            Thread[] readers = new Thread[READERS];
+
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int pass = 0; pass < PASSES; pass++) {
+                                double[] read = readQuotes(quoteCache, quoteBundle, symbols);
+
+                                for (int j = 0; j < expected.length; j++)
+                                    assertEquals(expected[j], read[j], 0.0);
+                            }
+                        }
+                        catch(Throwable e) {
+                            synchronized(failure) {
+                                failure[0] = e;
+                            }
+                        }
+                    }
+                };
+                readers[i].start();
+            }
+
+            int firstDateOffset = quoteBundle.getFirstOffset();
+
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (Iterator iterator = quotes.iterator(); iterator.hasNext();)
+                    quoteCache.load((EODQuote)iterator.next());
+
+                quoteCache.compress();
+                quoteCache.offsetToDate(firstDateOffset - pass - 1);
+            }
+
+            for (int i = 0; i < readers.length; i++)
+                readers[i].join();
+
+            if (failure[0] != null)
+                fail(failure[0].toString());
+
+            assertTrue(quoteCache.getFirstDateOffset() < firstDateOffset);
+        }
+        finally {
+            PreferencesManager.putOffHeapQuoteCache(wasOffHeap);
+            PreferencesManager.putUncompressedQuoteDays(uncompressedDays);
+            EODQuoteCache.expire();
+        }
+    }
+
+    // Read every quote of every symbol in the quote bundle in every way the
+    // cache can be read. Missing quotes are read as NaN.
+    private static double[] readQuotes(EODQuoteCache quoteCache, EODQuoteBundle quoteBundle, List symbols) {
+        int firstDateOffset = quoteBundle.getFirstOffset();
+        int lastDateOffset = quoteBundle.getLastOffset();
+        int days = lastDateOffset - firstDateOffset + 1;
+        double[] quotes = new double[symbols.size() * days * QUOTE_TYPES.length];
+        int i = 0;
+
+        for (int s = 0; s < symbols.size(); s++) {
+            Symbol symbol = (Symbol)symbols.get(s);
+
+            for (int dateOffset = firstDateOffset; dateOffset <= lastDateOffset; dateOffset++) {
+                boolean contains = quoteCache.containsQuote(symbol, dateOffset);
+                EODQuote quote = null;
+
+                try {
+                    quote = quoteCache.getQuote(symbol, dateOffset);
+                }
+                catch(QuoteNotLoadedException e) {
+                    // Checked below
+                }
+
+                assertEquals(contains, quote != null);
+
+                for (int t = 0; t < QUOTE_TYPES.length; t++) {
+                    double value = quoteCache.findQuote(symbol, QUOTE_TYPES[t], dateOffset);
+
+                    try {
+                        assertEquals(value, quoteCache.getQuote(symbol, QUOTE_TYPES[t], dateOffset), 0.0);
+                    }
+                    catch(QuoteNotLoadedException e) {
+                        assertTrue(Double.isNaN(value));
+                    }
+
+                    if (quote != null)
+                        assertEquals(quote.getQuote(QUOTE_TYPES[t]), value, 0.0);
+
+                    quotes[i++] = value;
+                }
+            }
+        }
+
+        return quotes;
+    }
+}
@@ -0,0 +1,167 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.util.TradingDate;
+
+public class FindQuoteTest extends TestCase
+{
+    private final static int[] QUOTE_TYPES = {IQuote.DAY_OPEN, IQuote.DAY_CLOSE, IQuote.DAY_LOW,
+                                              IQuote.DAY_HIGH, IQuote.DAY_VOLUME};
+
+    private final static int DAYS = 60;
+
+    private RandomWalkQuoteSource source;
+
+    protected void setUp() {
+        source = new RandomWalkQuoteSource(4, DAYS, 7, true);
+    }
+
+    // Finding quotes should give the same values as getting them and
+    // treating a missing quote as NaN, including when the bundle has to
+    // be expanded to reach them.
+    public void testMatchesGetQuote() {
+        double[] expected = sweep(false);
+        double[] found = sweep(true);
+        int missing = 0;
+
+        assertEquals(expected.length, found.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], found[i], 0.0);
+
+            if (Double.isNaN(expected[i]))
+                missing++;
+        }
+
+        // The thinly traded symbols should have exercised the missing path
+        assertTrue(missing > 0);
+        assertTrue(missing < expected.length);
+    }
+
+    // The quote functions should give the same values from the non-throwing
+    // function source as from one that catches the missing quotes.
+    public void testFunctionsMatch() throws EvaluationException {
+        source.install();
+
+        List symbols = source.getSymbols();
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbols));
+        int lastDay = quoteBundle.getLastOffset();
+        int period = 10;
+
+        for (int s = 0; s < symbols.size(); s++) {
+            Symbol symbol = (Symbol)symbols.get(s);
+
+            for (int day = lastDay - 30; day <= lastDay; day++) {
+                IQuoteFunctionSource found =
+                    new QuoteBundleFunctionSource(quoteBundle, symbol, IQuote.DAY_CLOSE,
+                                                  day, 0, period);
+                IQuoteFunctionSource caught =
+                    new CatchingFunctionSource(quoteBundle, symbol, IQuote.DAY_CLOSE,
+                                               day, period);
+
+                for (int i = 0; i < period; i++)
+                    assertEquals(caught.getValue(i), found.getValue(i), 0.0);
+
+                assertEquals(QuoteFunctions.avg(caught, period),
+                             QuoteFunctions.avg(found, period), 0.0);
+                assertEquals(QuoteFunctions.sd(caught, period),
+                             QuoteFunctions.sd(found, period), 0.0);
+                assertEquals(QuoteFunctions.rsi(caught, period),
+                             QuoteFunctions.rsi(found, period), 0.0);
+                assertEquals(QuoteFunctions.smoothRSI(caught, period),
+                             QuoteFunctions.smoothRSI(found, period), 0.0);
+                assertEquals(QuoteFunctions.ema(caught, period, 0.1),
+                             QuoteFunctions.ema(found, period, 0.1), 0.0);
+                assertEquals(QuoteFunctions.momentum(caught, period),
+                             QuoteFunctions.momentum(found, period), 0.0);
+                assertEquals(QuoteFunctions.bollingerUpper(caught, period),
+                             QuoteFunctions.bollingerUpper(found, period), 0.0);
+            }
+        }
+    }
+
+    // Read every quote of every symbol from a fresh cache through a bundle
+    // that starts part way through the quotes, so the earlier quotes have to
+    // be expanded into it.
+    private double[] sweep(boolean find) {
+        source.install();
+
+        List symbols = source.getSymbols();
+        TradingDate lastDate = source.getLastDate();
+        EODQuoteBundle quoteBundle =
+            new EODQuoteBundle(new EODQuoteRange(symbols, lastDate.previous(10), lastDate));
+        int lastDay = quoteBundle.getLastOffset();
+        int firstDay = lastDay - DAYS - 5;
+        double[] values = new double[symbols.size() * QUOTE_TYPES.length * (lastDay - firstDay + 1)];
+        int index = 0;
+
+        for (int day = lastDay; day >= firstDay; day--) {
+            for (int s = 0; s < symbols.size(); s++) {
+                Symbol symbol = (Symbol)symbols.get(s);
+
+                for (int t = 0; t < QUOTE_TYPES.length; t++) {
+                    if (find)
+                        values[index++] = quoteBundle.findQuote(symbol, QUOTE_TYPES[t], day);
+                    else {
+                        try {
+                            values[index++] = quoteBundle.getQuote(symbol, QUOTE_TYPES[t], day);
+                        } catch (MissingQuoteException e) {
+                            values[index - 1] = Double.NaN;
+                        }
+                    }
+                }
+            }
+        }
+
+        return values;
+    }
+
+    // The function source as it was before missing quotes were found
+    // without exceptions.
+    private static class CatchingFunctionSource implements IQuoteFunctionSource
+    {
+        private IQuoteBundle quoteBundle;
+        private Symbol symbol;
+        private int quoteKind;
+        private int day;
+        private int period;
+
+        public CatchingFunctionSource(IQuoteBundle quoteBundle, Symbol symbol, int quoteKind,
+                                      int day, int period) {
+            this.quoteBundle = quoteBundle;
+            this.symbol = symbol;
+            this.quoteKind = quoteKind;
+            this.day = day;
+            this.period = period;
+        }
+
+        public double getValue(int index) throws EvaluationException {
+            try {
+                return quoteBundle.getQuote(symbol, quoteKind, day, index - period + 1);
+            } catch (MissingQuoteException e) {
+                return Double.NaN;
+            }
+        }
+    }
+}
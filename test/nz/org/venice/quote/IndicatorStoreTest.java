@@ -0,0 +1,295 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.parser.EvaluationException;
+import nz.org.venice.parser.ExpressionException;
+import nz.org.venice.parser.IExpression;
+import nz.org.venice.parser.Parser;
+import nz.org.venice.parser.Variables;
+import nz.org.venice.util.TradingDate;
+
+public class IndicatorStoreTest extends TestCase
+{
+    private final static int DAYS = 80;
+
+    private final static int LENGTH = 20;
+
+    private File directory;
+
+    protected void tearDown() {
+        if (directory != null) {
+            File[] files = directory.listFiles();
+
+            for (int i = 0; i < files.length; i++)
+                files[i].delete();
+            directory.delete();
+        }
+    }
+
+    // Stored results should be the same as evaluating the expression,
+    // whether they are asked for a day or a series at a time.
+    public void testMatchesEvaluation() throws ExpressionException {
+        String[] rules = {"avg(close, 5)", "rsi(14, 0, true)", "close * 1.0000001"};
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(3, DAYS, 5, false);
+        IndicatorStore store = new IndicatorStore(null);
+
+        source.install();
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(source.getSymbols()));
+
+        for (int i = 0; i < rules.length; i++) {
+            IExpression expression = Parser.parse(new Variables(), rules[i]);
+            assertTrue(IndicatorStore.isStorable(expression));
+
+            for (int s = 0; s < source.getSymbols().size(); s++) {
+                Symbol symbol = (Symbol)source.getSymbols().get(s);
+                int lastOffset = quoteBundle.getLastOffset();
+                int firstOffset = lastOffset - LENGTH + 1;
+
+                // The first value is stored before the series is asked for,
+                // and the series again after it has been stored
+                double first = store.getValue(expression, quoteBundle, symbol, firstOffset);
+                double[] values = store.getSeries(expression, quoteBundle, symbol,
+                                                  firstOffset, lastOffset);
+                double[] storedValues = store.getSeries(expression, quoteBundle, symbol,
+                                                        firstOffset, lastOffset);
+
+                assertEquals(evaluate(expression, quoteBundle, symbol, firstOffset), first, 0.0);
+                for (int j = 0; j < LENGTH; j++) {
+                    double expected = evaluate(expression, quoteBundle, symbol, firstOffset + j);
+
+                    assertEquals(expected, values[j], 0.0);
+                    assertEquals(expected, storedValues[j], 0.0);
+                    assertEquals(expected,
+                                 store.getValue(expression, quoteBundle, symbol, firstOffset + j),
+                                 0.0);
+                }
+            }
+        }
+    }
+
+    // Expressions which print the same should not share results unless
+    // they really are the same.
+    public void testKeys() throws ExpressionException {
+        assertEquals(key("avg(close,5)"), key("avg(close, 5)"));
+        assertFalse(key("rsi(14, 0, true)").equals(key("rsi(14, 0, false)")));
+        assertFalse(key("close * 1.0000001").equals(key("close * 1.0000002")));
+
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(1, DAYS, 5, false);
+        IndicatorStore store = new IndicatorStore(null);
+
+        source.install();
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(source.getSymbols()));
+        Symbol symbol = (Symbol)source.getSymbols().get(0);
+        int lastOffset = quoteBundle.getLastOffset();
+        String[] rules = {"rsi(14, 0, true)", "rsi(14, 0, false)"};
+
+        for (int i = 0; i < rules.length; i++) {
+            IExpression expression = Parser.parse(new Variables(), rules[i]);
+
+            assertEquals(evaluate(expression, quoteBundle, symbol, lastOffset),
+                         store.getValue(expression, quoteBundle, symbol, lastOffset), 0.0);
+        }
+    }
+
+    // Only expressions whose results depend on nothing but the symbol and
+    // the date can be stored.
+    public void testIsStorable() throws ExpressionException {
+        assertTrue(IndicatorStore.isStorable(Parser.parse(new Variables(), "avg(close, 5)")));
+        assertFalse(IndicatorStore.isStorable(Parser.parse(new Variables(), "close * random()")));
+        assertFalse(IndicatorStore.isStorable(Parser.parse(new Variables(),
+                                                           "float x = close\nx * 2")));
+
+        Variables variables = new Variables();
+        variables.add("held", IExpression.INTEGER_TYPE, false);
+        assertFalse(IndicatorStore.isStorable(Parser.parse(variables, "held > 5")));
+    }
+
+    // After invalidating a date, results from then on should be calculated
+    // again from the new quotes. This applies both to results in memory and
+    // to saved results which are only loaded afterwards. Earlier results are
+    // kept.
+    public void testInvalidate() throws ExpressionException, IOException {
+        directory = File.createTempFile("indicators", null);
+        directory.delete();
+        directory.mkdir();
+
+        IExpression expression = Parser.parse(new Variables(), "avg(close, 3)");
+        RandomWalkQuoteSource oldSource = new RandomWalkQuoteSource(2, DAYS, 1, false);
+        IndicatorStore store = new IndicatorStore(null);
+        IndicatorStore savingStore = new IndicatorStore(directory);
+
+        oldSource.install();
+        double[][] oldValues = getSeries(store, expression, oldSource);
+        getSeries(savingStore, expression, oldSource);
+        savingStore.save();
+
+        RandomWalkQuoteSource newSource = new RandomWalkQuoteSource(2, DAYS, 2, false);
+        newSource.install();
+        double[][] newValues = evaluate(expression, newSource);
+
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(newSource.getSymbols()));
+        int changed = LENGTH / 2;
+        TradingDate date = quoteBundle.offsetToDate(quoteBundle.getLastOffset() - LENGTH + 1 + changed);
+
+        // The saved results aren't loaded by the store that is told
+        store.invalidate(date);
+        new IndicatorStore(directory).invalidate(date);
+
+        IndicatorStore savedStore = new IndicatorStore(directory);
+        double[][] values = getSeries(store, expression, newSource);
+        double[][] savedValues = getSeries(savedStore, expression, newSource);
+
+        for (int s = 0; s < values.length; s++) {
+            for (int j = 0; j < LENGTH; j++) {
+                double expected = j < changed ? oldValues[s][j] : newValues[s][j];
+
+                assertEquals(expected, values[s][j], 0.0);
+                assertEquals(expected, savedValues[s][j], 0.0);
+            }
+
+            assertTrue(oldValues[s][LENGTH - 1] != newValues[s][LENGTH - 1]);
+        }
+    }
+
+    // A file whose counts don't fit in it should be ignored, rather than
+    // allocating whatever it asks for.
+    public void testCorruptFile() throws ExpressionException, IOException {
+        directory = createDirectory();
+
+        IExpression expression = Parser.parse(new Variables(), "avg(close, 4)");
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(2, DAYS, 3, false);
+        IndicatorStore store = new IndicatorStore(directory);
+
+        source.install();
+        getSeries(store, expression, source);
+        store.save();
+
+        File[] files = getIndicatorFiles();
+        assertEquals(1, files.length);
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(files[0]));
+        out.writeInt(2);
+        out.writeUTF(IndicatorStore.getKey(expression));
+        out.writeInt(0);
+        out.writeInt(1);
+        out.writeUTF(((Symbol)source.getSymbols().get(0)).get());
+        out.writeInt(0);
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+
+        double[][] values = getSeries(new IndicatorStore(directory), expression, source);
+        double[][] expected = evaluate(expression, source);
+
+        for (int s = 0; s < values.length; s++)
+            for (int j = 0; j < LENGTH; j++)
+                assertEquals(expected[s][j], values[s][j], 0.0);
+    }
+
+    // Indicators dropped from memory should be saved, and their results
+    // loaded again when they are next needed.
+    public void testEviction() throws ExpressionException, IOException {
+        directory = createDirectory();
+
+        IExpression first = Parser.parse(new Variables(), "avg(close, 5)");
+        IExpression second = Parser.parse(new Variables(), "avg(close, 6)");
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(2, DAYS, 4, false);
+        IndicatorStore store = new IndicatorStore(directory, 1);
+
+        source.install();
+        getSeries(store, first, source);
+        assertEquals(0, getIndicatorFiles().length);
+
+        getSeries(store, second, source);
+        assertEquals(1, getIndicatorFiles().length);
+
+        double[][] values = getSeries(store, first, source);
+        double[][] expected = evaluate(first, source);
+
+        for (int s = 0; s < values.length; s++)
+            for (int j = 0; j < LENGTH; j++)
+                assertEquals(expected[s][j], values[s][j], 0.0);
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("indicators", null);
+        directory.delete();
+        directory.mkdir();
+        return directory;
+    }
+
+    // Return the files indicators have been saved to
+    private File[] getIndicatorFiles() {
+        return directory.listFiles(new FileFilter() {
+                public boolean accept(File file) {
+                    return file.getName().endsWith(".dat") && !file.getName().equals("index.dat");
+                }
+            });
+    }
+
+    private static String key(String rule) throws ExpressionException {
+        return IndicatorStore.getKey(Parser.parse(new Variables(), rule));
+    }
+
+    private static double[][] getSeries(IndicatorStore store, IExpression expression,
+                                        RandomWalkQuoteSource source)
+        throws EvaluationException {
+
+        List symbols = source.getSymbols();
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbols));
+        int lastOffset = quoteBundle.getLastOffset();
+        double[][] values = new double[symbols.size()][];
+
+        for (int s = 0; s < symbols.size(); s++)
+            values[s] = store.getSeries(expression, quoteBundle, (Symbol)symbols.get(s),
+                                        lastOffset - LENGTH + 1, lastOffset);
+        return values;
+    }
+
+    private static double[][] evaluate(IExpression expression, RandomWalkQuoteSource source)
+        throws EvaluationException {
+
+        List symbols = source.getSymbols();
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbols));
+        int lastOffset = quoteBundle.getLastOffset();
+        double[][] values = new double[symbols.size()][LENGTH];
+
+        for (int s = 0; s < symbols.size(); s++)
+            for (int j = 0; j < LENGTH; j++)
+                values[s][j] = evaluate(expression, quoteBundle, (Symbol)symbols.get(s),
+                                        lastOffset - LENGTH + 1 + j);
+        return values;
+    }
+
+    private static double evaluate(IExpression expression, EODQuoteBundle quoteBundle,
+                                   Symbol symbol, int dateOffset)
+        throws EvaluationException {
+
+        return expression.evaluate(new Variables(), quoteBundle, symbol, dateOffset);
+    }
+}
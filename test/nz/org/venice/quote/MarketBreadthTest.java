@@ -0,0 +1,133 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.util.TradingDate;
+
+public class MarketBreadthTest extends TestCase
+{
+    // Add a day where one stock rises and the other falls
+    private void addDay(MarketBreadth marketBreadth, TradingDate date, int day) {
+        marketBreadth.add(date, 10 + day, 10 + day + 1);
+        marketBreadth.add(date, 100 - day, 100 - day - 1);
+    }
+
+    public void testUpdate() {
+        MarketBreadth marketBreadth = new MarketBreadth(null);
+        TradingDate firstDate = new TradingDate(2020, 1, 6);
+        TradingDate lastDate = firstDate.next(9);
+        TradingDate date = marketBreadth.beginUpdate(firstDate, lastDate);
+
+        assertEquals(firstDate, date);
+
+        for (int day = 0; day < 10; day++) {
+            addDay(marketBreadth, date, day);
+            date = date.next(1);
+        }
+
+        assertEquals(lastDate, date.previous(1));
+        marketBreadth.endUpdate(lastDate);
+
+        assertEquals(firstDate, marketBreadth.getFirstDate());
+        assertEquals(lastDate, marketBreadth.getLastDate());
+        assertEquals(2, marketBreadth.getIssues(lastDate));
+        assertEquals(1, marketBreadth.getAdvances(lastDate));
+        assertEquals(1, marketBreadth.getDeclines(lastDate));
+        assertEquals(10, marketBreadth.getAdvanceDecline(firstDate, lastDate).size());
+
+        // Discard the last two days, they should be counted again but
+        // the earlier days kept.
+        marketBreadth.invalidate(lastDate.previous(1));
+        assertEquals(lastDate.previous(2), marketBreadth.getLastDate());
+
+        date = marketBreadth.beginUpdate(firstDate, lastDate);
+        assertEquals(lastDate.previous(1), date);
+
+        // Days that are already counted should be ignored
+        addDay(marketBreadth, firstDate, 0);
+
+        for (int day = 8; day < 10; day++) {
+            addDay(marketBreadth, date, day);
+            date = date.next(1);
+        }
+
+        marketBreadth.endUpdate(lastDate);
+        assertEquals(2, marketBreadth.getIssues(firstDate));
+        assertEquals(2, marketBreadth.getIssues(lastDate));
+        assertEquals(1, marketBreadth.getAdvances(lastDate));
+
+        // Up to date, so no quotes need to be read
+        assertTrue(marketBreadth.beginUpdate(firstDate, lastDate).after(lastDate));
+        marketBreadth.endUpdate(lastDate);
+    }
+
+    public void testSave() throws IOException {
+        File file = File.createTempFile("breadth", ".dat");
+        file.deleteOnExit();
+
+        TradingDate firstDate = new TradingDate(2019, 12, 30);
+        TradingDate lastDate = firstDate.next(4);
+        MarketBreadth marketBreadth = new MarketBreadth(file);
+        TradingDate date = marketBreadth.beginUpdate(firstDate, lastDate);
+
+        for (int day = 0; day < 5; day++) {
+            addDay(marketBreadth, date, day);
+            date = date.next(1);
+        }
+
+        marketBreadth.endUpdate(lastDate);
+
+        MarketBreadth savedMarketBreadth = new MarketBreadth(file);
+        assertEquals(marketBreadth.getLastDate(), savedMarketBreadth.getLastDate());
+        assertEquals(1, savedMarketBreadth.getAdvances(new TradingDate(2020, 1, 3)));
+
+        // Only the days after the saved ones need to be read
+        assertEquals(date, savedMarketBreadth.beginUpdate(firstDate, lastDate.next(1)));
+
+        // Saved days past the last date can't be from the same quotes
+        savedMarketBreadth = new MarketBreadth(file);
+        assertEquals(firstDate, savedMarketBreadth.beginUpdate(firstDate, lastDate.previous(1)));
+    }
+
+    // A day count which doesn't fit in the file should start the series
+    // again rather than be allocated.
+    public void testCorruptFile() throws IOException {
+        File file = File.createTempFile("breadth", ".dat");
+        file.deleteOnExit();
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(2);
+        out.writeInt(MarketBreadth.toDay(new TradingDate(2020, 1, 6)));
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+
+        MarketBreadth marketBreadth = new MarketBreadth(file);
+        TradingDate firstDate = new TradingDate(2020, 1, 6);
+
+        assertNull(marketBreadth.getLastDate());
+        assertEquals(firstDate, marketBreadth.beginUpdate(firstDate, firstDate.next(4)));
+    }
+}
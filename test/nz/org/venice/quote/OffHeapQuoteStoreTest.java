@@ -0,0 +1,191 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.prefs.PreferencesManager;
+
+public class OffHeapQuoteStoreTest extends TestCase
+{
+    private final static int QUOTE_TYPES[] = {IQuote.DAY_OPEN, IQuote.DAY_CLOSE, IQuote.DAY_LOW,
+                                              IQuote.DAY_HIGH, IQuote.DAY_VOLUME};
+
+    // Quotes written to the store should be read back unchanged, and
+    // quotes which have been cleared should be gone.
+    public void testRoundTrip() throws SymbolFormatException, QuoteNotLoadedException {
+        OffHeapQuoteStore store = new OffHeapQuoteStore();
+        Symbol[] symbols = {Symbol.find("OHA"), Symbol.find("OHB"), Symbol.find("OHC")};
+        Random random = new Random(1);
+
+        // Days either side of zero and across several slots
+        int firstDay = -OffHeapQuoteStore.SLOT_DAYS - 10;
+        int lastDay = 2 * OffHeapQuoteStore.SLOT_DAYS + 10;
+
+        float[][][] values = new float[symbols.length][lastDay - firstDay + 1][];
+
+        for (int s = 0; s < symbols.length; s++) {
+            for (int day = firstDay; day <= lastDay; day++) {
+                // Leave some gaps
+                if (random.nextInt(4) == 0)
+                    continue;
+
+                float[] quote = {random.nextInt(100000), random.nextFloat(), random.nextFloat(),
+                                 random.nextFloat(), random.nextFloat()};
+                values[s][day - firstDay] = quote;
+                assertTrue(store.set(symbols[s], day, (long)quote[0], quote[1], quote[2],
+                                     quote[3], quote[4]));
+            }
+        }
+
+        checkStore(store, symbols, values, firstDay);
+
+        // Replacing a quote shouldn't count as a new one
+        float[] quote = values[0][-firstDay];
+        if (quote != null)
+            assertFalse(store.set(symbols[0], 0, (long)quote[0], quote[1], quote[2], quote[3],
+                                  quote[4]));
+
+        // The symbols with quotes in a range of days
+        Set symbolSet = new HashSet();
+        store.addSymbols(symbolSet, firstDay, lastDay);
+        assertEquals(symbols.length, symbolSet.size());
+
+        // Clear every second day then everything
+        for (int s = 0; s < symbols.length; s++) {
+            for (int day = firstDay; day <= lastDay; day += 2) {
+                assertEquals(values[s][day - firstDay] != null, store.clear(symbols[s], day));
+                values[s][day - firstDay] = null;
+            }
+        }
+
+        checkStore(store, symbols, values, firstDay);
+        assertTrue(store.getAllocatedBytes() > 0);
+
+        for (int s = 0; s < symbols.length; s++)
+            for (int day = firstDay; day <= lastDay; day++)
+                store.clear(symbols[s], day);
+
+        store.trim();
+        assertEquals(0, store.getAllocatedBytes());
+
+        symbolSet.clear();
+        store.addSymbols(symbolSet, firstDay, lastDay);
+        assertTrue(symbolSet.isEmpty());
+    }
+
+    private void checkStore(OffHeapQuoteStore store, Symbol[] symbols, float[][][] values,
+                            int firstDay)
+        throws QuoteNotLoadedException {
+
+        for (int s = 0; s < symbols.length; s++) {
+            for (int i = 0; i < values[s].length; i++) {
+                int day = firstDay + i;
+                float[] quote = values[s][i];
+
+                assertEquals(quote != null, store.contains(symbols[s], day));
+
+                if (quote == null) {
+                    assertTrue(Double.isNaN(store.findQuote(symbols[s], day, IQuote.DAY_CLOSE)));
+
+                    try {
+                        store.getQuote(symbols[s], day, IQuote.DAY_CLOSE);
+                        fail();
+                    }
+                    catch(QuoteNotLoadedException e) {
+                        // Expected
+                    }
+                }
+                else {
+                    assertEquals(quote[0], store.getQuote(symbols[s], day, IQuote.DAY_VOLUME), 0.0);
+                    assertEquals(quote[1], store.getQuote(symbols[s], day, IQuote.DAY_LOW), 0.0);
+                    assertEquals(quote[2], store.getQuote(symbols[s], day, IQuote.DAY_HIGH), 0.0);
+                    assertEquals(quote[3], store.findQuote(symbols[s], day, IQuote.DAY_OPEN), 0.0);
+                    assertEquals(quote[4], store.findQuote(symbols[s], day, IQuote.DAY_CLOSE), 0.0);
+                }
+            }
+        }
+    }
+
+    // A quote cache using the off-heap store should return exactly the same
+    // quotes as one holding them on the heap.
+    public void testMatchesHeapCache() {
+        RandomWalkQuoteSource source = new RandomWalkQuoteSource(6, 300, 2, true);
+        boolean offHeap = PreferencesManager.getOffHeapQuoteCache();
+
+        try {
+            PreferencesManager.putOffHeapQuoteCache(false);
+            double[] heapQuotes = readQuotes(source);
+
+            PreferencesManager.putOffHeapQuoteCache(true);
+            double[] offHeapQuotes = readQuotes(source);
+
+            assertEquals(heapQuotes.length, offHeapQuotes.length);
+
+            for (int i = 0; i < heapQuotes.length; i++)
+                assertEquals(heapQuotes[i], offHeapQuotes[i], 0.0);
+        }
+        finally {
+            PreferencesManager.putOffHeapQuoteCache(offHeap);
+            EODQuoteCache.expire();
+        }
+    }
+
+    // Read every quote of every symbol through a new quote cache. Missing
+    // quotes are read as NaN.
+    private double[] readQuotes(RandomWalkQuoteSource source) {
+        source.install();
+
+        List symbols = source.getSymbols();
+        EODQuoteBundle quoteBundle = new EODQuoteBundle(new EODQuoteRange(symbols));
+        EODQuoteCache quoteCache = EODQuoteCache.getInstance();
+        int firstDateOffset = quoteBundle.getFirstOffset();
+        int lastDateOffset = quoteBundle.getLastOffset();
+        int days = lastDateOffset - firstDateOffset + 1;
+        double[] quotes = new double[symbols.size() * days * QUOTE_TYPES.length];
+        int i = 0;
+
+        for (int s = 0; s < symbols.size(); s++) {
+            Symbol symbol = (Symbol)symbols.get(s);
+
+            for (int dateOffset = firstDateOffset; dateOffset <= lastDateOffset; dateOffset++) {
+                for (int t = 0; t < QUOTE_TYPES.length; t++) {
+                    double quote = quoteCache.findQuote(symbol, QUOTE_TYPES[t], dateOffset);
+
+                    try {
+                        assertEquals(quote, quoteCache.getQuote(symbol, QUOTE_TYPES[t],
+                                                                dateOffset), 0.0);
+                    }
+                    catch(QuoteNotLoadedException e) {
+                        assertTrue(Double.isNaN(quote));
+                    }
+
+                    quotes[i++] = quote;
+                }
+            }
+        }
+
+        return quotes;
+    }
+}
@@ -0,0 +1,191 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import nz.org.venice.util.Currency;
+import nz.org.venice.util.TradingDate;
+
+/**
+ * An in-memory quote source for the tests. It generates a random walk for each
+ * of a number of made up symbols. Every second symbol can be made thinly traded
+ * so that it is missing quotes on some days.
+ */
+public class RandomWalkQuoteSource implements IQuoteSource
+{
+    private List symbols;
+    private List dates;
+    private List quotes;
+    private IndicatorStore indicatorStore = null;
+
+    /**
+     * Create a new quote source.
+     *
+     * @param symbolCount  the number of symbols
+     * @param dayCount     the number of trading days, ending on the first of
+     *                     January 2010
+     * @param seed         seed for the random number generator
+     * @param thinlyTraded whether every second symbol should be missing
+     *                     quotes on some days
+     */
+    public RandomWalkQuoteSource(int symbolCount, int dayCount, long seed, boolean thinlyTraded) {
+        TradingDate lastDate = new TradingDate(2010, 1, 1);
+        dates = TradingDate.dateRangeToList(lastDate.previous(dayCount - 1), lastDate);
+        symbols = new ArrayList();
+        quotes = new ArrayList();
+
+        Random random = new Random(seed);
+
+        for (int i = 0; i < symbolCount; i++) {
+            Symbol symbol = null;
+
+            try {
+                symbol = Symbol.find("RW" + i);
+            }
+            catch(SymbolFormatException e) {
+                throw new RuntimeException(e.getMessage());
+            }
+
+            symbols.add(symbol);
+
+            float close = 1.0F + random.nextFloat() * 10.0F;
+
+            for (Iterator iterator = dates.iterator(); iterator.hasNext();) {
+                TradingDate date = (TradingDate)iterator.next();
+                float open = close;
+                close = (float)Math.max(0.01, close * (1.0 + random.nextGaussian() * 0.02));
+                float high = (float)(Math.max(open, close) * (1.0 + random.nextDouble() * 0.01));
+                float low = (float)(Math.min(open, close) * (1.0 - random.nextDouble() * 0.01));
+                long volume = 1000 + random.nextInt(100000);
+
+                if (!thinlyTraded || i % 2 == 0 || random.nextDouble() < 0.7)
+                    quotes.add(new EODQuote(symbol, date, volume, low, high, open, close));
+            }
+        }
+    }
+
+    /**
+     * Make this the quote source and empty the quote cache so quotes from
+     * a previous test aren't used.
+     */
+    public void install() {
+        QuoteSourceManager.setSource(this);
+        EODQuoteCache.expire();
+    }
+
+    /**
+     * Return the symbols in this source.
+     *
+     * @return list of symbols
+     */
+    public List getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Return every quote in this source, in symbol then date order.
+     *
+     * @return list of quotes
+     */
+    public List getQuotes() {
+        return quotes;
+    }
+
+    public boolean symbolExists(Symbol symbol) {
+        return symbols.contains(symbol);
+    }
+
+    public TradingDate getLastDate() {
+        return (TradingDate)dates.get(dates.size() - 1);
+    }
+
+    public TradingDate getFirstDate() {
+        return (TradingDate)dates.get(0);
+    }
+
+    public boolean loadQuoteRange(EODQuoteRange quoteRange) {
+        EODQuoteCache quoteCache = EODQuoteCache.getInstance();
+        TradingDate firstDate = quoteRange.getFirstDate();
+        TradingDate lastDate = quoteRange.getLastDate();
+
+        if (firstDate == null) {
+            firstDate = getFirstDate();
+            lastDate = getLastDate();
+        }
+
+        for (Iterator iterator = quotes.iterator(); iterator.hasNext();) {
+            EODQuote quote = (EODQuote)iterator.next();
+
+            if (quoteRange.getType() == EODQuoteRange.GIVEN_SYMBOLS &&
+                !quoteRange.containsSymbol(quote.getSymbol()))
+                continue;
+
+            if (quote.getDate().compareTo(firstDate) >= 0 &&
+                quote.getDate().compareTo(lastDate) <= 0)
+                quoteCache.load(quote);
+        }
+
+        return true;
+    }
+
+    public boolean containsDate(TradingDate date) {
+        return dates.contains(date);
+    }
+
+    public List getDates() {
+        return dates;
+    }
+
+    public boolean isMarketIndex(Symbol symbol) {
+        return false;
+    }
+
+    public HashMap getAdvanceDecline(TradingDate startDate, TradingDate endDate)
+        throws MissingQuoteException {
+        throw MissingQuoteException.getInstance();
+    }
+
+    public MarketBreadth getMarketBreadth() throws MissingQuoteException {
+        throw MissingQuoteException.getInstance();
+    }
+
+    public synchronized IndicatorStore getIndicatorStore() {
+        if (indicatorStore == null)
+            indicatorStore = new IndicatorStore(null);
+
+        return indicatorStore;
+    }
+
+    public List getExchangeRates(Currency sourceCurrency, Currency destinationCurrency) {
+        return new ArrayList();
+    }
+
+    public void shutdown() {
+        // nothing to do
+    }
+
+    public void cacheExpiry() {
+        // nothing to do
+    }
+}
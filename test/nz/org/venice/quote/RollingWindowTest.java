@@ -0,0 +1,120 @@
+/* Merchant of Venice - technical analysis software for the stock market.
+   Copyright (C) 2002 Andrew Leppard (aleppard@picknowl.com.au)
+
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 2 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program; if not, write to the Free Software
+   Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+
+package nz.org.venice.quote;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import nz.org.venice.parser.EvaluationException;
+
+public class RollingWindowTest extends TestCase
+{
+    // Source over part of an array of values
+    private static class ArraySource implements IQuoteFunctionSource {
+        private double[] values;
+        private int start;
+
+        public ArraySource(double[] values, int start) {
+            this.values = values;
+            this.start = start;
+        }
+
+        public double getValue(int offset) {
+            return values[start + offset];
+        }
+    }
+
+    public void testMatchesQuoteFunctions() throws EvaluationException {
+        // Large values with a small spread and some missing values make
+        // the running sums lose precision if they aren't careful.
+        double[] x = createSeries(5000, 1, 1000000.0);
+        double[] y = createSeries(5000, 2, 50.0);
+
+        int[] periods = {1, 2, 3, 20, 200};
+
+        for (int p = 0; p < periods.length; p++) {
+            int period = periods[p];
+            RollingWindow window = new RollingWindow(period, true, 0.2);
+            RollingCorrelation correlation = new RollingCorrelation(period);
+
+            for (int i = 0; i < x.length; i++) {
+                window.add(x[i]);
+                correlation.add(x[i], y[i]);
+
+                if (i < period - 1)
+                    continue;
+
+                IQuoteFunctionSource source = new ArraySource(x, i - period + 1);
+                IQuoteFunctionSource other = new ArraySource(y, i - period + 1);
+
+                assertClose(QuoteFunctions.avg(source, period), window.getAverage());
+                assertClose(QuoteFunctions.sd(source, period), window.getStandardDeviation());
+                assertClose(QuoteFunctions.ema(source, period, 0.2), window.getExponentialAverage());
+                assertClose(QuoteFunctions.corr(source, other, period), correlation.getCorrelation());
+                if (period > 1)
+                    assertClose(QuoteFunctions.bestFit(source, period), window.getTrend());
+
+                double min = Double.NaN;
+                double max = Double.NaN;
+                for (int j = i - period + 1; j <= i; j++) {
+                    if (Double.isNaN(x[j]))
+                        continue;
+                    if (Double.isNaN(min) || x[j] < min)
+                        min = x[j];
+                    if (Double.isNaN(max) || x[j] > max)
+                        max = x[j];
+                }
+                assertEquals(min, window.getMinimum(), 0.0D);
+                assertEquals(max, window.getMaximum(), 0.0D);
+            }
+        }
+    }
+
+    public void testConstantValues() {
+        RollingWindow window = new RollingWindow(10, false);
+
+        for (int i = 0; i < 100; i++) {
+            window.add(i < 50 ? 3.1 : 7.3);
+            if (i >= 60)
+                assertEquals(0.0D, window.getStandardDeviation(), 0.0D);
+        }
+    }
+
+    // Create a random walk with some missing values
+    private double[] createSeries(int length, long seed, double start) {
+        Random random = new Random(seed);
+        double[] values = new double[length];
+        double value = start;
+
+        for (int i = 0; i < length; i++) {
+            value += random.nextGaussian();
+            values[i] = (random.nextInt(10) == 0) ? Double.NaN : value;
+        }
+
+        return values;
+    }
+
+    private void assertClose(double expected, double actual) {
+        if (Double.isNaN(expected))
+            assertTrue(Double.isNaN(actual));
+        else
+            assertEquals(expected, actual, 1e-6 * Math.max(1.0, Math.abs(expected)));
+    }
+}